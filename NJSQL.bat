@@ -36,7 +36,7 @@ REM Set classpath
 set "CLASSPATH=%CURRENT_DIR%bin;%CURRENT_DIR%libs\json-20230227.jar;%CURRENT_DIR%libs\jackson-core-2.18.3.jar;%CURRENT_DIR%libs\jackson-annotations-2.18.3.jar;%CURRENT_DIR%libs\jackson-databind-2.18.3.jar"
 
 REM Run NJSQL
-java -cp "%CLASSPATH%" njsql.NJSQL
+java --add-modules jdk.incubator.vector -cp "%CLASSPATH%" njsql.NJSQL
 
 if errorlevel 1 (
     echo Failed to start NJSQL! Please check your setup.
@@ -32,7 +32,7 @@ fi
 CLASSPATH="$CURRENT_DIR/bin:$CURRENT_DIR/libs/json-20230227.jar:$CURRENT_DIR/libs/jackson-core-2.18.3.jar:$CURRENT_DIR/libs/jackson-annotations-2.18.3.jar:$CURRENT_DIR/libs/jackson-databind-2.18.3.jar"
 
 # Chạy chương trình từ thư mục bin
-java -cp "$CLASSPATH" njsql.NJSQL
+java --add-modules jdk.incubator.vector -cp "$CLASSPATH" njsql.NJSQL
 
 # Kiểm tra lỗi khi chạy chương trình
 if [ $? -ne 0 ]; then
@@ -0,0 +1,121 @@
+package njsql.benchmark;
+
+import njsql.core.NJSQLConfig;
+import njsql.core.RealtimeTableManager;
+import njsql.core.SelectHandler;
+import njsql.core.VersionedTable;
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.AggState;
+import njsql.query.AggregateSpec;
+import njsql.query.HashAggregator;
+import njsql.query.Values;
+import njsql.query.VectorizedAggregate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh aggregate row-at-a-time (HashAggregator trên Object) với đường vector hóa (ColumnBatch + SIMD)
+ * cho: SELECT COUNT(*), SUM(price), MIN(price), MAX(points) FROM Products WHERE points > 500 AND price <= 80
+ * - rowAtATime / vectorized: riêng phần filter + aggregate trên cùng một NsonArray;
+ * - query: cả câu SELECT qua SelectHandler trên bảng RAM, SET vectorized = on/off.
+ *
+ * Chạy: mvn -Pjmh compile exec:exec -Djmh.args="VectorizedAggregate -f 1 -wi 3 -i 5"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class VectorizedAggregateBenchmark {
+
+    private static final String WHERE = "points > 500 AND price <= 80";
+    private static final String SQL = "SELECT COUNT(*) AS c, SUM(price) AS s, MIN(price) AS lo, MAX(points) AS hi "
+            + "FROM Products WHERE " + WHERE;
+
+    @Param({ "1000000" })
+    public int rows;
+
+    private NsonArray data;
+    private List<AggregateSpec> aggregates;
+
+    @Setup
+    public void setup() {
+        data = generate(rows);
+        aggregates = List.of(AggregateSpec.parse("COUNT(*) AS c"), AggregateSpec.parse("SUM(price) AS s"),
+                AggregateSpec.parse("MIN(price) AS lo"), AggregateSpec.parse("MAX(points) AS hi"));
+    }
+
+    @Benchmark
+    public void rowAtATime(Blackhole bh) {
+        try (HashAggregator aggregator = new HashAggregator(List.of(), aggregates)) {
+            for (int i = 0; i < data.size(); i++) {
+                NsonObject row = data.getObject(i);
+                if (Values.toDouble(row.get("points")) > 500 && Values.toDouble(row.get("price")) <= 80) {
+                    aggregator.accumulate(row);
+                }
+            }
+            aggregator.ensureGlobalGroup();
+            aggregator.forEachGroup(group -> {
+                for (int i = 0; i < aggregates.size(); i++) bh.consume(group.states[i].result(aggregates.get(i)));
+            });
+        }
+    }
+
+    @Benchmark
+    public void vectorized(Blackhole bh) {
+        AggState[] states = VectorizedAggregate.compile(WHERE, aggregates).run(data, NJSQLConfig.VECTOR_BATCH_SIZE);
+        for (int i = 0; i < states.length; i++) bh.consume(states[i].result(aggregates.get(i)));
+    }
+
+    @State(Scope.Benchmark)
+    public static class QueryState {
+        @Param({ "on", "off" })
+        public String vectorized;
+
+        @Param({ "1000000" })
+        public int rows;
+
+        User user;
+
+        @Setup
+        public void setup() {
+            List<Map<String, Object>> table = new ArrayList<>();
+            for (Object row : generate(rows)) table.add((NsonObject) row);
+            RealtimeTableManager.ramTables.put("bench.Products", new VersionedTable(table));
+            user = new User("root", "bench", "localhost", 0, true);
+            user.setCurrentDatabase("bench");
+            user.setSetting("vectorized", vectorized);
+        }
+
+        @TearDown
+        public void tearDown() {
+            RealtimeTableManager.ramTables.remove("bench.Products");
+        }
+    }
+
+    @Benchmark
+    public NsonObject query(QueryState state) {
+        return SelectHandler.handleForAPI(SQL, state.user);
+    }
+
+    private static NsonArray generate(int rows) {
+        Random random = new Random(42);
+        NsonArray data = new NsonArray();
+        for (int i = 0; i < rows; i++) {
+            data.add(new NsonObject()
+                    .put("id", (long) i)
+                    .put("points", (long) random.nextInt(1000))
+                    .put("price", Math.round(random.nextDouble() * 10000) / 100.0));
+        }
+        return data;
+    }
+}
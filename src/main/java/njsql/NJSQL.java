@@ -9,6 +9,7 @@ import njsql.server.NJSQLServer;
 import java.io.File;
 import java.util.List;
 import njsql.core.PermissionManager;
+import njsql.core.QuotaManager;
 import java.util.ArrayList;
 import njsql.core.UserManager;
 import njsql.nson.NsonObject;
@@ -263,7 +264,7 @@ public class NJSQL {
                                 continue;
                             }
                         } catch (NumberFormatException e) {
-                            permission = perm.trim().toUpperCase();
+                            permission = perm.trim(); // giữ nguyên tên bảng của "SELECT ON db.table"
                         }
 
                         PermissionManager.grant(targetUsername, permission);
@@ -282,6 +283,20 @@ public class NJSQL {
                     }
                     break;
 
+                case "/quota":
+                    if (currentUser == null) {
+                        System.out.println(">> Please login first.");
+                    } else {
+                        System.out.print(">> Set quota for user: ");
+                        String targetUser = scanner.nextLine().trim();
+                        System.out.print(">> Quota (" + String.join(", ", QuotaManager.LIMIT_NAMES) + "): ");
+                        String quotaName = scanner.nextLine().trim();
+                        System.out.print(">> Value (0 = unlimited, DEFAULT = server default): ");
+                        String quotaValue = scanner.nextLine().trim();
+                        QuotaManager.setQuota(targetUser, quotaName, quotaValue);
+                    }
+                    break;
+
                 case "/listperm":
                     if (currentUser == null) {
                         System.out.println(">> Please login first.");
@@ -522,6 +537,7 @@ public class NJSQL {
         System.out.println("  \u001B[33m/unzipdb\u001B[0m             > Import .njsql file to current user");
         System.out.println("  \u001B[33m/grant\u001B[0m               > Grant permission to a user");
         System.out.println("  \u001B[33m/revoke\u001B[0m              > Revoke permission from a user");
+        System.out.println("  \u001B[33m/quota\u001B[0m               > Set a user's query limits (concurrency, QPS, rows, memory)");
         System.out.println("  \u001B[33m/listperm\u001B[0m            > List permissions of a user");
         System.out.println("  \u001B[33m/myperms\u001B[0m             > Show your own permissions");
         System.out.println("  \u001B[33m/clone\u001B[0m               > Clone a database from a server to njsql_data/<user>/<db_name>");
@@ -39,7 +39,7 @@ public class NJSQLBench {
         }
 
         // 2. Tắt log Realtime để dồn sức cho Insert
-        RealtimeTableManager.addListener(db + ".Users", change -> {
+        RealtimeTableManager.addListener(TableLockManager.fileKey(user.getUsername(), db, "Users"), change -> {
             // Silent mode: Không làm gì cả để đo Max Speed
         });
 
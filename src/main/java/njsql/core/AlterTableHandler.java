@@ -3,6 +3,7 @@ package njsql.core;
 import njsql.utils.FileUtils;
 import njsql.models.User;
 import njsql.nson.NsonObject;
+import njsql.query.TableVersions;
 import java.io.File;
 import java.io.IOException;
 
@@ -49,7 +50,7 @@ public class AlterTableHandler {
                 return;
             }
 
-            try {
+            try (TableLockManager.Guard ignored = TableLockManager.write(user, dbName, tableName)) {
                 // Đọc dữ liệu từ file
                 String tableContent = FileUtils.readFileUtf8(tablePath);
                 NsonObject tableData = NsonObject.parse(tableContent);
@@ -67,12 +68,13 @@ public class AlterTableHandler {
 
                     // Cập nhật dữ liệu vào file
                     FileUtils.writeFileUtf8(tablePath, tableData.toString(2));
+                    TableVersions.bump(tableFile);
 
                     System.out.println(">>\u001B[32m Success: Column |\u001B[0m " + columnName + "\u001B[32m | added to table '" + tableName + "'.\u001B[0m");
                 } else {
                     System.out.println("\u001B[31m>> ERROR: Column '" + columnName + "' already exists in _types of table '" + tableName + "'.\u001B[0m");
                 }
-            } catch (IOException e) {
+            } catch (IOException | InterruptedException | IllegalStateException e) {
                 System.out.println("\u001B[31m>> ERROR: Failed to update table file - " + e.getMessage() + "\u001B[0m");
             }
         } else {
@@ -0,0 +1,137 @@
+package njsql.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.TableStats;
+import njsql.query.TableVersions;
+import njsql.query.Values;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ANALYZE <table> | ANALYZE: thu thống kê (row_count, distinct, null_frac, histogram) cho planner
+ * và lưu vào key "_stats" của file bảng.
+ */
+public class AnalyzeHandler {
+
+    private static final Pattern ANALYZE_PATTERN = Pattern.compile("^ANALYZE(?:\\s+(\\w+))?\\s*;?$", Pattern.CASE_INSENSITIVE);
+
+    public static String handle(String sql, User user) throws Exception {
+        NsonObject result = handleForAPI(sql, user);
+        if (result.containsKey("error")) throw new Exception(result.getString("error"));
+        return result.getString("message");
+    }
+
+    public static NsonObject handleForAPI(String sql, User user) {
+        NsonObject response = new NsonObject();
+        try {
+            Matcher m = ANALYZE_PATTERN.matcher(sql.trim());
+            if (!m.find()) return response.put("error", "Invalid ANALYZE syntax. Expected: ANALYZE [<table>]");
+
+            String db = user.getCurrentDatabase();
+            if (db == null) return response.put("error", "No database selected. Please use `USE <dbname>` first.");
+            File dbDir = new File(UserManager.getRootDirectory(user.getUsername()) + "/" + db);
+
+            // Không ghi tên bảng -> ANALYZE mọi bảng trong database
+            List<File> files = new ArrayList<>();
+            if (m.group(1) != null) {
+                File file = new File(dbDir, m.group(1) + ".nson");
+                if (!file.exists()) return response.put("error", "Table '" + m.group(1) + "' not found in database '" + db + "'.");
+                files.add(file);
+            } else {
+                File[] all = dbDir.listFiles((dir, name) -> name.endsWith(".nson"));
+                if (all != null) files.addAll(List.of(all));
+            }
+
+            NsonArray analyzed = new NsonArray();
+            for (File file : files) {
+                String table = file.getName().replace(".nson", "");
+                TableStats stats;
+                NsonObject tableData;
+                // Ghi _stats vào file bảng: cùng khóa ghi với INSERT/UPDATE/DELETE, lần lượt từng bảng
+                try (TableLockManager.Guard ignored = TableLockManager.write(user, db, table)) {
+                    tableData = NsonObject.parse(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+                    if (tableData.getArray("data") == null) continue;
+                    stats = analyze(tableData);
+                    writeWithLock(file, tableData);
+                    BackgroundFlusher.discard(db + "." + table, file);
+                    // Transaction đang mở trên bảng sẽ thấy ghi chen khi COMMIT thay vì ghi đè mất _stats
+                    TableVersions.bump(file);
+                }
+                analyzed.add(new NsonObject().put("table", table).put("row_count", stats.rowCount)
+                        .put("columns", stats.columnNames().size()));
+            }
+
+            return response.put("status", "success")
+                    .put("message", "Analyzed " + analyzed.size() + " table(s).")
+                    .put("data", analyzed);
+        } catch (Exception e) {
+            return response.put("error", e.getMessage());
+        }
+    }
+
+    // Thu thống kê và gắn vào tableData (chưa ghi file)
+    public static TableStats analyze(NsonObject tableData) {
+        NsonArray data = tableData.getArray("data");
+        TableStats stats = TableStats.collect(data, columnsOf(tableData));
+        tableData.put("_stats", stats.toNson());
+        return stats;
+    }
+
+    /**
+     * Gọi từ INSERT/UPDATE/DELETE trước khi ghi file: cộng dồn modified_rows và tự ANALYZE lại
+     * khi vượt NJSQLConfig.STATS_AUTO_ANALYZE_FRACTION (thống kê được ghi cùng lần ghi file đó).
+     */
+    public static void onRowsModified(NsonObject tableData, int changedRows) {
+        NsonArray data = tableData.getArray("data");
+        if (changedRows <= 0 || data == null) return;
+        NsonObject stats = tableData.getObject("_stats");
+        if (stats == null) {
+            if (data.size() >= NJSQLConfig.STATS_AUTO_ANALYZE_MIN_ROWS) analyze(tableData);
+            return;
+        }
+        double prev = Values.toDouble(stats.get("modified_rows"));
+        long modified = (Double.isNaN(prev) ? 0 : (long) prev) + changedRows;
+        double baseRows = Math.max(1, Values.toDouble(stats.get("row_count")));
+        if (modified >= NJSQLConfig.STATS_AUTO_ANALYZE_FRACTION * baseRows) {
+            analyze(tableData);
+        } else {
+            stats.put("modified_rows", modified);
+        }
+    }
+
+    private static Collection<String> columnsOf(NsonObject tableData) {
+        NsonObject types = tableData.getObject("_types");
+        if (types != null) return types.keySet();
+        NsonArray data = tableData.getArray("data");
+        return data != null && !data.isEmpty() ? data.getObject(0).keySet() : List.of();
+    }
+
+    private static void writeWithLock(File file, NsonObject tableData) throws Exception {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            FileLock lock = fos.getChannel().tryLock();
+            if (lock == null) throw new IOException("Cannot obtain lock on file");
+            try {
+                ObjectMapper mapper = new ObjectMapper();
+                mapper.enable(SerializationFeature.INDENT_OUTPUT);
+                fos.write(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(tableData).getBytes(StandardCharsets.UTF_8));
+                fos.flush();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+}
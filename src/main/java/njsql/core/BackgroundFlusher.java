@@ -12,12 +12,12 @@ public class BackgroundFlusher {
             Executors.newScheduledThreadPool(2);
     // Map lưu các bảng đang bị "bẩn" (có dữ liệu mới chưa lưu)
     private static final Map<String, NsonObject> dirtyTables = new ConcurrentHashMap<>();
+    // Lần đầu lùi flush nhường interactive (0 = không lùi); chỉ luồng flush định kỳ đọc/ghi
+    private static long deferredSince;
 
     static {
         // Tự động Flush table mỗi 100ms (Cơ chế tự động)
-        scheduler.scheduleAtFixedRate(() -> {
-            flushDirtyTables();
-        }, 100, 100, TimeUnit.MILLISECONDS); // Hardcode 100ms nếu chưa có config
+        scheduler.scheduleAtFixedRate(BackgroundFlusher::scheduledFlush, 100, 100, TimeUnit.MILLISECONDS); // Hardcode 100ms nếu chưa có config
 
         // Tự động Flush index mỗi 500ms
         scheduler.scheduleAtFixedRate(() -> {
@@ -48,17 +48,64 @@ public class BackgroundFlusher {
         }
     }
 
-    // Logic cốt lõi: Lưu dữ liệu xuống đĩa
+    // Flush định kỳ là việc nền: lùi lại khi interactive đang bận (tối đa SCHEDULER_MAX_DEFER_MS),
+    // chạy trong suất BACKGROUND và bị giới hạn băng thông ghi theo trọng số của lớp
+    private static void scheduledFlush() {
+        if (dirtyTables.isEmpty()) {
+            deferredSince = 0;
+            return;
+        }
+        if (WorkloadScheduler.shouldYield()) {
+            long now = System.currentTimeMillis();
+            if (deferredSince == 0) deferredSince = now;
+            if (now - deferredSince < NJSQLConfig.SCHEDULER_MAX_DEFER_MS) return;
+        }
+        deferredSince = 0;
+        try {
+            WorkloadScheduler.run(WorkloadScheduler.WorkloadClass.BACKGROUND, () -> {
+                flushDirtyTables(true);
+                return null;
+            });
+        } catch (Exception e) {
+            System.err.println("Background flush error: " + e.getMessage());
+        }
+    }
+
     private static void flushDirtyTables() {
+        flushDirtyTables(false);
+    }
+
+    // Logic cốt lõi: Lưu dữ liệu xuống đĩa
+    private static void flushDirtyTables(boolean throttled) {
         if (!dirtyTables.isEmpty()) {
             // Duyệt qua map và lưu từng bảng
             dirtyTables.forEach((key, data) -> {
-                String path = getTablePath(key);
-                writeQuietly(new File(path), data);
+                // Không chờ: bảng đang bị ghi thì để lượt sau. Trong khóa, bảng vẫn phải trỏ tới đúng bản này
+                // (lệnh ghi mới hơn đã ghi file và markDirty bản mới) thì mới ghi, tránh ghi đè bản cũ lên file
+                long written;
+                File file = new File(getTablePath(key));
+                try (TableLockManager.Guard ignored = TableLockManager.acquire(TableLockManager.Mode.WRITE, 0,
+                        List.of(TableLockManager.fileKey(file)))) {
+                    if (dirtyTables.get(key) != data) return;
+                    written = writeQuietly(file, data);
+                    // Lưu xong thì xóa khỏi danh sách bẩn
+                    dirtyTables.remove(key, data);
+                } catch (IllegalStateException e) {
+                    // đang bị khóa, giữ trong danh sách bẩn
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // Trả "phí" băng thông sau khi đã nhả khóa, để lúc chờ không chặn lệnh ghi của bảng
+                if (throttled) {
+                    try {
+                        WorkloadScheduler.throttleIo(WorkloadScheduler.WorkloadClass.BACKGROUND, written);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
             });
-            // Lưu xong thì xóa danh sách bẩn
-            int count = dirtyTables.size();
-            dirtyTables.clear();
             
             // Chỉ in log khi chạy tự động để debug (hoặc comment lại cho đỡ rối mắt)
             // System.out.println("DEBUG: Auto-flushed " + count + " tables.");
@@ -74,14 +121,28 @@ public class BackgroundFlusher {
         }
     }
 
-    private static void writeQuietly(File file, NsonObject data) {
+    /**
+     * Bỏ bản bẩn của tableKey nếu flusher sẽ ghi nó vào đúng tableFile: file vừa được ghi bền vững
+     * (COMMIT, ANALYZE) nên bản bẩn cũ hơn không được ghi đè lên. Bảng cùng tên của tenant khác thì giữ nguyên.
+     */
+    public static void discard(String tableKey, File tableFile) {
+        if (TableLockManager.fileKey(new File(getTablePath(tableKey))).equals(TableLockManager.fileKey(tableFile))) {
+            dirtyTables.remove(tableKey);
+        }
+    }
+
+    // Trả số byte đã ghi (0 nếu lỗi)
+    private static long writeQuietly(File file, NsonObject data) {
         try {
             if (file.getParentFile() != null && !file.getParentFile().exists()) {
                 file.getParentFile().mkdirs();
             }
-            Files.writeString(file.toPath(), data.toString(2), StandardCharsets.UTF_8);
+            String content = data.toString(2);
+            Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+            return content.length();
         } catch (Exception e) {
             System.err.println("Flush error for " + file.getName() + ": " + e.getMessage());
+            return 0;
         }
     }
 
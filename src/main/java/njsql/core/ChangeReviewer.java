@@ -4,6 +4,7 @@ import njsql.models.User;
 import njsql.utils.FileUtils;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
+import njsql.query.TableVersions;
 import java.io.File;
 import java.io.IOException;
 import java.time.Instant;
@@ -85,6 +86,7 @@ public class ChangeReviewer {
         CommitManager commitManager = new CommitManager(commitsDir);
         try {
             commitManager.applyChanges(dbPath, files);
+            TableVersions.bumpDatabase(new File(dbPath));
         } catch (Exception e) {
             return "Server> Failed to apply changes: " + e.getMessage();
         }
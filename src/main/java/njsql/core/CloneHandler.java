@@ -4,6 +4,7 @@ import njsql.models.User;
 import njsql.utils.FileUtils;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
+import njsql.query.TableVersions;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -97,6 +98,7 @@ public class CloneHandler {
                 }
                 FileUtils.writeFileUtf8(filePath, content);
             }
+            TableVersions.bumpDatabase(new File(clientDbPath));
 
             return "Cloned database '" + dbName + "' from " + ip + " to " + clientDbPath + ".";
         } catch (IOException e) {
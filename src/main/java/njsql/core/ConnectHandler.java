@@ -48,6 +48,7 @@ public class ConnectHandler {
             String usersContent = responseObj.getString("users");
             FileUtils.createDirectory("njsql_data/" + shareUsername);
             FileUtils.writeFileUtf8(usersNsonPath, usersContent);
+            UserManager.invalidateDirectory();
 
             return "- \u001B[32mSuccessfully\u001B[0m retrieved users.nson from \u001B[36m" + ip + "\u001B[0m for user \u001B[32m" + shareUsername + "\u001B[0m and saved to \u001B[33m" + usersNsonPath + "\u001B[0m.";
         } catch (IOException e) {
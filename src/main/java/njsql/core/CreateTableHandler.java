@@ -3,6 +3,7 @@ package njsql.core;
 import njsql.models.User;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
+import njsql.query.TableVersions;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -176,11 +177,12 @@ public class CreateTableHandler {
 
         // --- [FIX] CẬP NHẬT CACHE TYPES VÀO RAM ---
         if (RealtimeTableManager.ramTables != null) {
-            RealtimeTableManager.ramTables.put(tableKey, new ArrayList<>());
+            RealtimeTableManager.ramTables.put(tableKey, new VersionedTable());
             // QUAN TRỌNG: Nạp types vào cache để Insert đọc được ngay, không cần đọc đĩa
             RealtimeTableManager.tableSchemas.put(tableKey, types); 
-            RealtimeTableManager.notifyListeners(tableKey, "CREATE", Collections.emptyList());
+            RealtimeTableManager.notifyListeners(TableLockManager.fileKey(tableFile), "CREATE", Collections.emptyList());
         }
+        TableVersions.bump(tableFile);
 
         return tableName;
     }
@@ -0,0 +1,181 @@
+package njsql.core;
+
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.MemoryAccountant;
+import njsql.query.RowCodec;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Server-side cursor: DECLARE c CURSOR FOR SELECT ... / FETCH [NEXT] [n] FROM c / CLOSE c.
+ * SELECT chạy một lần lúc DECLARE, mỗi FETCH chỉ lấy trang kế tiếp (O(kích thước trang)) thay vì
+ * chạy lại query với OFFSET. Row đã trả được nhả ra để GC dọn dần.
+ * Kết quả giữ trong cursor được tính vào bộ nhớ query (SET query_mem, max_query_mem của user và trần chung của JVM)
+ * cho tới khi row được FETCH hoặc cursor đóng; vượt trần thì DECLARE báo lỗi thay vì giữ cả kết quả trên heap.
+ * REST/gRPC dùng cùng cơ chế qua page_size + cursor_id. Cursor không dùng quá CURSOR_TTL_MS thì bị đóng.
+ */
+public class CursorManager {
+
+    private static final Pattern DECLARE_PATTERN = Pattern.compile(
+            "^DECLARE\\s+(\\w+)\\s+CURSOR\\s+FOR\\s+(SELECT\\s+.+?)\\s*;?$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern FETCH_PATTERN = Pattern.compile(
+            "^FETCH(?:\\s+NEXT)?(?:\\s+(\\d+|ALL))?\\s+FROM\\s+(\\w+)\\s*;?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CLOSE_PATTERN = Pattern.compile("^CLOSE\\s+(\\w+)\\s*;?$", Pattern.CASE_INSENSITIVE);
+
+    private static final class Cursor {
+        final String owner;
+        final NsonArray rows;
+        final boolean closeWhenDone; // cursor của API: đóng khi đã trả hết row
+        final MemoryAccountant memory; // phần bộ nhớ của các row chưa FETCH
+        int position;
+        boolean closed;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Cursor(String owner, NsonArray rows, boolean closeWhenDone, MemoryAccountant memory) {
+            this.owner = owner;
+            this.rows = rows;
+            this.closeWhenDone = closeWhenDone;
+            this.memory = memory;
+        }
+
+        synchronized void close() {
+            closed = true;
+            memory.close();
+        }
+    }
+
+    // key: username + "/" + tên cursor (hoặc cursor_id sinh cho API)
+    private static final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+
+    public static String handle(String sql, User user) throws Exception {
+        NsonObject result = handleForAPI(sql, user);
+        if (result.containsKey("error")) throw new Exception(result.getString("error"));
+        if (!result.containsKey("data")) return result.getString("message");
+        String table = SelectHandler.format(result);
+        return result.getBoolean("has_more") ? table + " (more rows available)" : table;
+    }
+
+    public static NsonObject handleForAPI(String sql, User user) {
+        NsonObject response = new NsonObject();
+        String trimmed = sql.trim();
+        Matcher m;
+        if ((m = DECLARE_PATTERN.matcher(trimmed)).find()) {
+            String name = m.group(1);
+            NsonObject opened = open(m.group(2), user, name, false);
+            if (opened.containsKey("error")) return opened;
+            return response.put("status", "success")
+                    .put("message", "Cursor '" + name + "' declared (" + opened.getInt("rows") + " row(s)).");
+        }
+        if ((m = FETCH_PATTERN.matcher(trimmed)).find()) {
+            String count = m.group(1);
+            int n = count == null ? 1 : count.equalsIgnoreCase("ALL") ? Integer.MAX_VALUE : Integer.parseInt(count);
+            return fetch(m.group(2), user, n);
+        }
+        if ((m = CLOSE_PATTERN.matcher(trimmed)).find()) {
+            Cursor closed = cursors.remove(key(user, m.group(1)));
+            if (closed == null) {
+                return response.put("error", "Cursor '" + m.group(1) + "' does not exist.");
+            }
+            closed.close();
+            return response.put("status", "success").put("message", "Cursor '" + m.group(1) + "' closed.");
+        }
+        return response.put("error", "Invalid syntax. Expected: DECLARE <name> CURSOR FOR SELECT ..., "
+                + "FETCH [NEXT] [n|ALL] FROM <name> or CLOSE <name>");
+    }
+
+    /**
+     * REST/gRPC: chạy SELECT, giữ kết quả trong cursor và trả trang đầu. Còn row thì có "cursor_id"
+     * để lấy tiếp bằng fetch(); hết row thì cursor được đóng luôn (cursor DECLARE thì giữ tới CLOSE hoặc TTL).
+     */
+    public static NsonObject openForAPI(String sql, User user, int pageSize) {
+        String id = UUID.randomUUID().toString().replace("-", "");
+        NsonObject opened = open(sql, user, id, true);
+        if (opened.containsKey("error")) return opened;
+        return fetch(id, user, pageSize);
+    }
+
+    public static NsonObject fetch(String name, User user, int count) {
+        NsonObject response = new NsonObject();
+        expire();
+        String key = key(user, name);
+        Cursor cursor = cursors.get(key);
+        if (cursor == null) return response.put("error", "Cursor '" + name + "' does not exist or has expired.");
+
+        NsonArray page = new NsonArray();
+        boolean hasMore;
+        synchronized (cursor) {
+            cursor.lastAccess = System.currentTimeMillis();
+            int end = (int) Math.min(cursor.rows.size(), (long) cursor.position + Math.max(1, count));
+            for (int i = cursor.position; i < end; i++) {
+                Object row = cursor.rows.get(i);
+                page.add(row);
+                cursor.rows.set(i, null);
+                if (!cursor.closed) cursor.memory.release(estimateSize(row));
+            }
+            cursor.position = end;
+            hasMore = end < cursor.rows.size();
+        }
+        if (!hasMore && cursor.closeWhenDone && cursors.remove(key, cursor)) cursor.close();
+        response.put("status", "success").put("data", page).put("has_more", hasMore);
+        if (hasMore) response.put("cursor_id", name);
+        return response;
+    }
+
+    public static int openCursors() {
+        return cursors.size();
+    }
+
+    private static NsonObject open(String sql, User user, String name, boolean closeWhenDone) {
+        expire();
+        String owner = user.getUsername();
+        long owned = cursors.values().stream().filter(c -> c.owner.equals(owner)).count();
+        if (owned >= NJSQLConfig.CURSOR_MAX_PER_USER && !cursors.containsKey(key(user, name))) {
+            return new NsonObject().put("error", "Too many open cursors (max " + NJSQLConfig.CURSOR_MAX_PER_USER + "). CLOSE one first.");
+        }
+        NsonObject result = SelectHandler.handleForAPI(sql, user);
+        if (result.containsKey("error")) return result;
+        NsonArray rows = result.getArray("data");
+        // Kết quả nằm trong ResultCache thì dùng chung giữa các query: copy để nhả row mà không đụng vào cache
+        if (user.getBooleanSetting("result_cache", false)) {
+            NsonArray copy = new NsonArray();
+            copy.addAll(rows);
+            rows = copy;
+        }
+        // Giữ kết quả tới khi FETCH hết: tính vào cùng trần bộ nhớ với một query đang chạy
+        long bytes = 0;
+        for (Object row : rows) bytes += estimateSize(row);
+        MemoryAccountant memory = new MemoryAccountant(
+                QuotaManager.queryMemory(user, user.getLongSetting("query_mem", NJSQLConfig.QUERY_MEMORY_LIMIT_BYTES)));
+        if (!memory.tryReserve(bytes)) {
+            return new NsonObject().put("error", "Cursor result (" + bytes + " bytes) exceeds the query memory limit ("
+                    + memory.limit() + " bytes). Add a LIMIT or use keyset pagination.");
+        }
+        Cursor old = cursors.put(key(user, name), new Cursor(owner, rows, closeWhenDone, memory));
+        if (old != null) old.close();
+        return new NsonObject().put("rows", rows.size());
+    }
+
+    private static long estimateSize(Object row) {
+        return row instanceof NsonObject o ? RowCodec.estimateSize(o) : 16;
+    }
+
+    // Đóng cursor quá TTL; gọi ở mỗi lần mở/fetch nên không cần thread riêng
+    private static void expire() {
+        long cutoff = System.currentTimeMillis() - NJSQLConfig.CURSOR_TTL_MS;
+        cursors.values().removeIf(c -> {
+            if (c.lastAccess >= cutoff) return false;
+            c.close();
+            return true;
+        });
+    }
+
+    private static String key(User user, String name) {
+        return user.getUsername() + "/" + name;
+    }
+}
@@ -3,6 +3,7 @@ package njsql.core;
 import njsql.models.User;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
+import njsql.query.TableVersions;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature; // [NEW] Import này quan trọng
 
@@ -23,6 +24,8 @@ import java.util.Collections; // [NEW]
 
 public class DeleteHandler {
 
+    private static final Pattern TABLE_NAME = Pattern.compile("^DELETE\\s+FROM\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
     // Hàm handle cho CLI (gọi lại API để tái sử dụng logic)
     public static String handle(String sql, User user) throws Exception {
         NsonObject result = handleForAPI(sql, user);
@@ -35,6 +38,31 @@ public class DeleteHandler {
     }
 
     public static NsonObject handleForAPI(String sql, User user) {
+        Matcher t = TABLE_NAME.matcher(sql.trim());
+        String table = t.find() ? t.group(1) : null;
+        if (TableWriter.routes(user, table)) {
+            try {
+                return TableWriter.submit(user, user.getCurrentDatabase(), table, true, () -> locked(sql, user, table));
+            } catch (Exception e) {
+                return new NsonObject().put("error", e.getMessage());
+            }
+        }
+        return locked(sql, user, table);
+    }
+
+    private static NsonObject locked(String sql, User user, String table) {
+        // Giữ khóa ghi của bảng suốt đọc-lọc-ghi file
+        NsonObject result;
+        try (TableLockManager.Guard ignored = TableLockManager.write(user, user.getCurrentDatabase(), table)) {
+            result = delete(sql, user);
+        } catch (Exception e) {
+            result = new NsonObject().put("error", e.getMessage());
+        }
+        if (result.containsKey("error")) TransactionManager.statementFailed(user, result.getString("error"));
+        return result;
+    }
+
+    private static NsonObject delete(String sql, User user) {
         NsonObject response = new NsonObject();
         try {
             sql = sql.replace(";", "").trim();
@@ -62,8 +90,13 @@ public class DeleteHandler {
                 return response.put("error", "Table '" + table + "' not found in database '" + db + "'.");
             }
 
-            String fileContent = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
-            NsonObject tableData = NsonObject.parse(fileContent);
+            // Trong transaction: sửa bản làm việc, file chỉ được ghi lúc COMMIT
+            TransactionManager.Transaction tx = TransactionManager.current(user);
+            NsonObject tableData = tx != null ? tx.table(db, table, file)
+                    : NsonObject.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            if (MaterializedViewManager.isView(tableData)) {
+                return response.put("error", "'" + table + "' is a materialized view and cannot be modified directly.");
+            }
 
             NsonObject meta = tableData.getObject("_meta");
             NsonObject types = tableData.getObject("_types");
@@ -104,6 +137,18 @@ public class DeleteHandler {
 
             tableData.put("data", newData);
             meta.put("last_modified", Instant.now().toString());
+            AnalyzeHandler.onRowsModified(tableData, deletedRowsIndices.size()); // auto-analyze khi đủ tỉ lệ thay đổi
+
+            if (tx != null) {
+                List<NsonObject> deletedRows = new ArrayList<>();
+                for (int i : deletedRowsIndices) deletedRows.add(data.getObject(i));
+                tx.record(TableLockManager.fileKey(file), "DELETE", deletedRows, null);
+                return response
+                        .put("status", "success")
+                        .put("message", "Deleted " + deletedRows.size() + " row(s) from '" + table + "'" + tx.pendingNote())
+                        .put("tableName", table)
+                        .put("rowsAffected", deletedRows.size());
+            }
 
             // --- [FIX] GHI FILE BẰNG JACKSON & KHÓA AN TOÀN ---
             try (FileOutputStream fos = new FileOutputStream(file)) {
@@ -135,15 +180,14 @@ public class DeleteHandler {
             System.out.println("DEBUG: Marking dirty for " + tableKey + " (DELETE)");
             njsql.core.BackgroundFlusher.markDirty(tableKey, tableData);
 
-            if (RealtimeTableManager.ramTables.containsKey(tableKey)) {
-                // Với DELETE, cập nhật lại toàn bộ RAM table bằng newData cho đồng bộ
-                List<NsonObject> remainingRows = new ArrayList<>();
-                for(Object obj : newData) {
-                    if (obj instanceof NsonObject) remainingRows.add((NsonObject)obj);
-                }
-                RealtimeTableManager.updateRamTable(tableKey, remainingRows, db);
-                // Thông báo (tạm thời gửi danh sách rỗng hoặc logic diff nếu cần)
-                RealtimeTableManager.notifyListeners(tableKey, "DELETE", Collections.emptyList());
+            // Bảng realtime: kết thúc version của các row đã xóa (SELECT đang chạy vẫn thấy chúng)
+            RealtimeTableManager.deleteRamRows(tableKey, deletedRowsIndices);
+            if (!deletedRowsIndices.isEmpty()) {
+                TableVersions.bump(file); // sau khi file và bảng RAM đã cập nhật
+                // Gửi các row đã xóa để listener (materialized view) trừ ngược được
+                List<NsonObject> deletedRows = new ArrayList<>();
+                for (int i : deletedRowsIndices) deletedRows.add(data.getObject(i));
+                RealtimeTableManager.notifyListeners(TableLockManager.fileKey(file), "DELETE", deletedRows);
             }
             // ----------------------------------------------------
 
@@ -3,6 +3,7 @@ package njsql.core;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
 import njsql.models.User;
+import njsql.query.TableVersions;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -23,6 +24,8 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 
 public class InsertHandler {
 
+    private static final Pattern TABLE_NAME = Pattern.compile("^INSERT\\s+INTO\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
     public static String handle(String sql, String username, String dbPath) throws Exception {
         User tempUser = new User(username, "", "", 0); 
         String dbName = new File(dbPath).getName();
@@ -32,6 +35,31 @@ public class InsertHandler {
     }
 
     public static NsonObject handleForAPI(String sql, User user) {
+        Matcher t = TABLE_NAME.matcher(sql.trim());
+        String table = t.find() ? t.group(1) : null;
+        if (TableWriter.routes(user, table)) {
+            try {
+                return TableWriter.submit(user, user.getCurrentDatabase(), table, true, () -> locked(sql, user, table));
+            } catch (Exception e) {
+                return new NsonObject().put("error", e.getMessage());
+            }
+        }
+        return locked(sql, user, table);
+    }
+
+    private static NsonObject locked(String sql, User user, String table) {
+        // Giữ khóa ghi của bảng suốt đọc-sửa-ghi file (autoincrement, index, ghi đè file)
+        NsonObject result;
+        try (TableLockManager.Guard ignored = TableLockManager.write(user, user.getCurrentDatabase(), table)) {
+            result = insert(sql, user);
+        } catch (Exception e) {
+            result = new NsonObject().put("error", e.getMessage());
+        }
+        if (result.containsKey("error")) TransactionManager.statementFailed(user, result.getString("error"));
+        return result;
+    }
+
+    private static NsonObject insert(String sql, User user) {
         NsonObject response = new NsonObject();
         try {
             sql = sql.replace(";", "").trim();
@@ -58,8 +86,13 @@ public class InsertHandler {
                 return response.put("error", "Table '" + table + "' not found");
             }
 
-            String fileContent = new String(Files.readAllBytes(tableFile.toPath()), StandardCharsets.UTF_8);
-            NsonObject tableData = NsonObject.parse(fileContent);
+            // Trong transaction: sửa bản làm việc, file chỉ được ghi lúc COMMIT
+            TransactionManager.Transaction tx = TransactionManager.current(user);
+            NsonObject tableData = tx != null ? tx.table(db, table, tableFile)
+                    : NsonObject.parse(new String(Files.readAllBytes(tableFile.toPath()), StandardCharsets.UTF_8));
+            if (MaterializedViewManager.isView(tableData)) {
+                return response.put("error", "'" + table + "' is a materialized view and cannot be modified directly");
+            }
             NsonObject meta = tableData.getObject("_meta");
             NsonObject types = tableData.getObject("_types");
             NsonArray data = tableData.getArray("data");
@@ -136,6 +169,15 @@ public class InsertHandler {
             }
 
             meta.put("last_modified", Instant.now().toString());
+            AnalyzeHandler.onRowsModified(tableData, valueTuples.size()); // auto-analyze khi đủ tỉ lệ thay đổi
+
+            if (tx != null) {
+                tx.record(TableLockManager.fileKey(tableFile), "INSERT", insertedRows, null);
+                return response
+                        .put("status", "success")
+                        .put("message", "Inserted " + valueTuples.size() + " row(s) into '" + table + "'" + tx.pendingNote())
+                        .put("rowsAffected", valueTuples.size());
+            }
 
             // --- [FIXED] GHI FILE AN TOÀN TRÁNH CLOSED CHANNEL ---
             try (FileOutputStream fos = new FileOutputStream(tableFile)) {
@@ -173,13 +215,15 @@ public class InsertHandler {
             System.out.println("DEBUG: Marking dirty for " + tableKey);
             njsql.core.BackgroundFlusher.markDirty(tableKey, tableData);
 
-            if (RealtimeTableManager.ramTables.containsKey(tableKey)) {
-                List<Map<String, Object>> ram = RealtimeTableManager.ramTables.get(tableKey);
-                for (NsonObject insertedRow : insertedRows) {
-                    ram.add(insertedRow.toMap());
-                }
-                RealtimeTableManager.notifyListeners(tableKey, "INSERT", insertedRows);
+            VersionedTable ram = RealtimeTableManager.ramTables.get(tableKey);
+            if (ram != null) {
+                List<Map<String, Object>> added = new ArrayList<>();
+                for (NsonObject insertedRow : insertedRows) added.add(insertedRow.toMap());
+                ram.append(added); // một commit: SELECT thấy cả lô hoặc không thấy row nào
             }
+            TableVersions.bump(tableFile); // sau khi file và bảng RAM đã cập nhật
+            // Luôn phát sự kiện (subscriber gRPC, materialized view), kể cả bảng không nạp vào RAM
+            RealtimeTableManager.notifyListeners(TableLockManager.fileKey(tableFile), "INSERT", insertedRows);
 
             return response
                     .put("status", "success")
@@ -0,0 +1,398 @@
+package njsql.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.AggregateSpec;
+import njsql.query.MaterializedView;
+import njsql.query.RowKey;
+import njsql.query.TableVersions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CREATE / REFRESH / DROP MATERIALIZED VIEW.
+ * View được lưu như một bảng (<db>/<view>.nson, "_meta.materialized_view" mô tả định nghĩa) nên SELECT đọc
+ * thẳng kết quả đã tính. View nghe sự kiện INSERT/UPDATE/DELETE của bảng nguồn qua
+ * RealtimeTableManager.addListener và cập nhật từng group (trạng thái aggregate lưu ở "_mv_state").
+ * Danh sách view của mỗi database nằm trong <db>/.views.nson để nạp lại listener khi khởi động.
+ * File view được ghi lại trễ tối đa MV_PERSIST_DELAY_MS (gom nhiều sự kiện thành một lần ghi), SELECT vào view
+ * còn thay đổi chưa ghi thì ghi ngay trước khi đọc. Cập nhật lỗi thì view bị đánh dấu cần dựng lại và lần ghi
+ * kế tiếp (hoặc sự kiện kế tiếp, REFRESH) tính lại từ bảng nguồn.
+ */
+public class MaterializedViewManager {
+
+    private static final Pattern CREATE_PATTERN = Pattern.compile(
+            "^CREATE\\s+MATERIALIZED\\s+VIEW\\s+(\\w+)\\s+AS\\s+(SELECT\\s+.+?)\\s*;?$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern REFRESH_PATTERN = Pattern.compile(
+            "^REFRESH\\s+MATERIALIZED\\s+VIEW\\s+(\\w+)\\s*;?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DROP_PATTERN = Pattern.compile(
+            "^DROP\\s+MATERIALIZED\\s+VIEW\\s+(\\w+)\\s*;?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SELECT_PATTERN = Pattern.compile(
+            "^SELECT\\s+(.+?)\\s+FROM\\s+(\\w+)(?:\\s+WHERE\\s+(.+?))?(?:\\s+GROUP\\s+BY\\s+([\\w.]+(?:\\s*,\\s*[\\w.]+)*))?$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern COLUMN_PATTERN = Pattern.compile("^([\\w.]+)(?:\\s+AS\\s+(\\w+))?$", Pattern.CASE_INSENSITIVE);
+    private static final String REGISTRY_FILE = ".views.nson";
+
+    private static final class View {
+        final String name;
+        final String db;
+        final String source;
+        final String dbDir;
+        final String definition;
+        final String where;
+        final MaterializedView state;
+        final NsonObject types;
+        Consumer<RealtimeTableManager.TableChange> listener;
+        volatile boolean persistScheduled; // đã hẹn một lần ghi file (ghi khi giữ monitor của view)
+        boolean needsRebuild;     // trạng thái aggregate không còn tin được, phải tính lại từ bảng nguồn
+
+        View(String name, String db, String source, String dbDir, String definition, String where,
+             MaterializedView state, NsonObject types) {
+            this.name = name;
+            this.db = db;
+            this.source = source;
+            this.dbDir = dbDir;
+            this.definition = definition;
+            this.where = where;
+            this.state = state;
+            this.types = types;
+        }
+
+        File file() {
+            return new File(dbDir, name + ".nson");
+        }
+
+        // Chỉ nghe bảng nguồn của chính chủ view (cùng thư mục database), không nghe bảng trùng tên của user khác
+        String sourceKey() {
+            return TableLockManager.fileKey(new File(dbDir, source + ".nson"));
+        }
+    }
+
+    // key: thư mục database + "/" + tên view
+    private static final Map<String, View> views = new ConcurrentHashMap<>();
+    private static final Set<String> loadedRoots = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService persister = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "njsql-mv-persist");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static String handle(String sql, User user) throws Exception {
+        NsonObject result = handleForAPI(sql, user);
+        if (result.containsKey("error")) throw new Exception(result.getString("error"));
+        return result.getString("message");
+    }
+
+    public static NsonObject handleForAPI(String sql, User user) {
+        NsonObject response = new NsonObject();
+        try {
+            String db = user.getCurrentDatabase();
+            if (db == null) return response.put("error", "No database selected. Please use `USE <dbname>` first.");
+            String rootDir = UserManager.getRootDirectory(user.getUsername());
+            ensureLoaded(rootDir);
+            String dbDir = rootDir + "/" + db;
+            String trimmed = sql.trim();
+
+            Matcher m;
+            if ((m = CREATE_PATTERN.matcher(trimmed)).find()) {
+                View view = create(m.group(1), m.group(2).replaceAll("\\s+", " "), db, dbDir);
+                return response.put("status", "success")
+                        .put("message", "Materialized view '" + view.name + "' created (" + view.state.groupCount() + " row(s)).");
+            }
+            if ((m = REFRESH_PATTERN.matcher(trimmed)).find()) {
+                View view = views.get(dbDir + "/" + m.group(1));
+                if (view == null) return response.put("error", "Materialized view '" + m.group(1) + "' does not exist.");
+                synchronized (view) {
+                    rebuild(view);
+                    view.needsRebuild = false;
+                    persist(view);
+                }
+                return response.put("status", "success").put("message", "Materialized view '" + view.name + "' refreshed.");
+            }
+            if ((m = DROP_PATTERN.matcher(trimmed)).find()) {
+                View view = views.remove(dbDir + "/" + m.group(1));
+                if (view == null) return response.put("error", "Materialized view '" + m.group(1) + "' does not exist.");
+                RealtimeTableManager.removeListener(view.sourceKey(), view.listener);
+                Files.deleteIfExists(view.file().toPath());
+                saveRegistry(dbDir);
+                TableVersions.bump(view.file());
+                return response.put("status", "success").put("message", "Materialized view '" + view.name + "' dropped.");
+            }
+            return response.put("error", "Invalid syntax. Expected: CREATE MATERIALIZED VIEW <name> AS SELECT ... GROUP BY ..., "
+                    + "REFRESH MATERIALIZED VIEW <name> or DROP MATERIALIZED VIEW <name>");
+        } catch (Exception e) {
+            return response.put("error", e.getMessage());
+        }
+    }
+
+    // Bảng là materialized view thì không cho INSERT/UPDATE/DELETE trực tiếp
+    public static boolean isView(NsonObject tableData) {
+        NsonObject meta = tableData.getObject("_meta");
+        return meta != null && meta.getObject("materialized_view") != null;
+    }
+
+    /**
+     * Nạp view của mọi database dưới rootDir (một lần) và gắn listener vào bảng nguồn.
+     * Gọi khi bắt đầu phiên CLI và trước khi server xử lý request.
+     */
+    public static void ensureLoaded(String rootDir) {
+        if (!loadedRoots.add(rootDir)) return;
+        File[] dbDirs = new File(rootDir).listFiles(File::isDirectory);
+        if (dbDirs == null) return;
+        for (File dbDir : dbDirs) {
+            File registry = new File(dbDir, REGISTRY_FILE);
+            if (!registry.exists()) continue;
+            try {
+                NsonArray names = NsonObject.parse(Files.readString(registry.toPath(), StandardCharsets.UTF_8)).getArray("views");
+                if (names == null) continue;
+                for (int i = 0; i < names.size(); i++) load(dbDir.getName(), dbDir.getPath(), names.getString(i));
+            } catch (Exception e) {
+                System.err.println("Materialized view load error in " + dbDir.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static View create(String name, String definition, String db, String dbDir) throws Exception {
+        if (new File(dbDir, name + ".nson").exists()) throw new IllegalArgumentException("Table or view '" + name + "' already exists.");
+        View view = define(name, definition, db, dbDir);
+        if (!new File(dbDir, view.source + ".nson").exists() && !RealtimeTableManager.ramTables.containsKey(db + "." + view.source)) {
+            throw new IllegalArgumentException("Table '" + view.source + "' does not exist.");
+        }
+        synchronized (view) {
+            rebuild(view);
+            persist(view);
+        }
+        register(view);
+        saveRegistry(dbDir);
+        return view;
+    }
+
+    private static void load(String db, String dbDir, String name) throws Exception {
+        File file = new File(dbDir, name + ".nson");
+        if (!file.exists()) return;
+        NsonObject tableData = NsonObject.parse(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+        NsonObject def = tableData.getObject("_meta").getObject("materialized_view");
+        View view = define(name, def.getString("definition"), db, dbDir);
+        NsonArray state = tableData.getArray("_mv_state");
+        if (state != null) view.state.loadState(state);
+        else rebuild(view);
+        register(view);
+    }
+
+    // Parse định nghĩa: chỉ một bảng nguồn, cột là cột GROUP BY hoặc SUM/COUNT/MIN/MAX/AVG
+    private static View define(String name, String definition, String db, String dbDir) throws Exception {
+        Matcher m = SELECT_PATTERN.matcher(definition.trim());
+        if (!m.find()) {
+            throw new IllegalArgumentException("Materialized view must be SELECT <columns> FROM <table> [WHERE ...] [GROUP BY ...] "
+                    + "(no JOIN, ORDER BY or LIMIT).");
+        }
+        String source = m.group(2);
+        String where = m.group(3) != null ? m.group(3).trim() : null;
+        List<String> groupBy = new ArrayList<>();
+        if (m.group(4) != null) for (String g : m.group(4).split(",")) groupBy.add(g.trim());
+
+        NsonObject sourceTypes = sourceTypes(db, dbDir, source);
+        NsonObject types = new NsonObject();
+        List<MaterializedView.Column> columns = new ArrayList<>();
+        for (String part : SelectHandler.splitColumns(m.group(1))) {
+            String colDef = part.trim();
+            AggregateSpec agg = AggregateSpec.parse(colDef);
+            if (agg != null) {
+                columns.add(new MaterializedView.Column(agg.alias, -1, agg));
+                types.put(agg.alias, agg.isCount() ? "int" : "double");
+                continue;
+            }
+            Matcher cm = COLUMN_PATTERN.matcher(colDef);
+            int groupIndex = cm.find() ? groupBy.indexOf(cm.group(1)) : -1;
+            if (groupIndex < 0) {
+                throw new IllegalArgumentException("Column '" + colDef + "' must be in GROUP BY or be an aggregate.");
+            }
+            String alias = cm.group(2) != null ? cm.group(2) : cm.group(1);
+            columns.add(new MaterializedView.Column(alias, groupIndex, null));
+            String col = cm.group(1).contains(".") ? cm.group(1).substring(cm.group(1).indexOf('.') + 1) : cm.group(1);
+            types.put(alias, sourceTypes != null && sourceTypes.getString(col) != null && !col.equals("created_at")
+                    ? sourceTypes.getString(col) : "string");
+        }
+
+        MaterializedView state = new MaterializedView(groupBy, columns,
+                where == null ? row -> true : row -> SelectHandler.evaluateExpression(row, where));
+        return new View(name, db, source, dbDir, definition, where, state, types);
+    }
+
+    private static void register(View view) {
+        view.listener = change -> apply(view, change);
+        View old = views.put(view.dbDir + "/" + view.name, view);
+        if (old != null) RealtimeTableManager.removeListener(old.sourceKey(), old.listener);
+        RealtimeTableManager.addListener(view.sourceKey(), view.listener);
+    }
+
+    // Áp dụng một sự kiện thay đổi của bảng nguồn (O(số row đổi + số group)) rồi hẹn ghi lại view
+    private static void apply(View view, RealtimeTableManager.TableChange change) {
+        synchronized (view) {
+            try {
+                if (view.needsRebuild) {
+                    // Lần trước cập nhật lỗi: trạng thái cũ sai, tính lại cả view (đã gồm thay đổi này)
+                    rebuild(view);
+                    view.needsRebuild = false;
+                    schedulePersist(view);
+                    return;
+                }
+                Set<RowKey> stale = new HashSet<>();
+                switch (change.action) {
+                    case "INSERT" -> change.rows.forEach(view.state::add);
+                    case "DELETE" -> {
+                        for (NsonObject row : change.rows) addStale(stale, view.state.remove(row));
+                    }
+                    case "UPDATE" -> {
+                        if (change.oldRows.size() != change.rows.size()) {
+                            // Không có giá trị cũ thì không trừ ngược được: tính lại toàn bộ
+                            rebuild(view);
+                            break;
+                        }
+                        for (NsonObject row : change.oldRows) addStale(stale, view.state.remove(row));
+                        change.rows.forEach(view.state::add);
+                    }
+                    default -> {
+                        return;
+                    }
+                }
+                if (!stale.isEmpty()) view.state.recompute(stale, sourceRows(view.db, view.dbDir, view.source));
+                schedulePersist(view);
+            } catch (Exception e) {
+                System.err.println("Materialized view '" + view.name + "' update failed, will rebuild: " + e.getMessage());
+                view.needsRebuild = true;
+                schedulePersist(view);
+            }
+        }
+    }
+
+    // Gọi khi đang giữ monitor của view: hẹn một lần ghi file cho mọi thay đổi tới trong MV_PERSIST_DELAY_MS
+    private static void schedulePersist(View view) {
+        if (view.persistScheduled) return;
+        view.persistScheduled = true;
+        persister.schedule(() -> persistScheduled(view), NJSQLConfig.MV_PERSIST_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** SELECT gọi trước khi đọc: view còn thay đổi đang chờ ghi thì ghi ngay, để đọc thấy lệnh ghi vừa commit. */
+    public static void flushPending(String dbDir, Collection<String> tables) {
+        if (views.isEmpty()) return;
+        for (String table : tables) {
+            View view = views.get(dbDir + "/" + table);
+            if (view != null && view.persistScheduled) persistScheduled(view);
+        }
+    }
+
+    private static void persistScheduled(View view) {
+        synchronized (view) {
+            if (!view.persistScheduled) return; // SELECT đã ghi trước lượt hẹn này
+            view.persistScheduled = false;
+            if (views.get(view.dbDir + "/" + view.name) != view) return; // đã DROP hoặc nạp lại
+            try {
+                if (view.needsRebuild) {
+                    rebuild(view);
+                    view.needsRebuild = false;
+                }
+                persist(view);
+            } catch (Exception e) {
+                // Giữ needsRebuild: sự kiện kế tiếp hoặc REFRESH sẽ thử lại
+                System.err.println("Materialized view '" + view.name + "' rebuild/persist failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void addStale(Set<RowKey> stale, RowKey key) {
+        if (key != null) stale.add(key);
+    }
+
+    private static void rebuild(View view) throws Exception {
+        view.state.clear();
+        for (NsonObject row : sourceRows(view.db, view.dbDir, view.source)) if (row != null) view.state.add(row);
+    }
+
+    // Row hiện tại của bảng nguồn: bảng RAM nếu đang nạp realtime, không thì đọc file (dùng chung với rollup)
+    static List<NsonObject> sourceRows(String db, String dbDir, String source) throws Exception {
+        List<NsonObject> rows = new ArrayList<>();
+        VersionedTable ram = RealtimeTableManager.ramTables.get(db + "." + source);
+        if (ram != null) {
+            // Snapshot MVCC: từ listener thì thấy luôn commit vừa xong của lệnh ghi
+            for (Map<String, Object> map : ram.rows()) {
+                NsonObject row = new NsonObject();
+                row.putAll(map);
+                rows.add(row);
+            }
+            return rows;
+        }
+        // Gọi từ listener thì thread đang giữ khóa ghi của bảng nguồn: readOptimistic chạy thẳng (reentrant)
+        File file = new File(dbDir, source + ".nson");
+        return TableLockManager.readOptimistic(null, List.of(TableLockManager.fileKey(file)), () -> {
+            NsonArray data = NsonObject.parse(Files.readString(file.toPath(), StandardCharsets.UTF_8)).getArray("data");
+            List<NsonObject> fileRows = new ArrayList<>();
+            if (data != null) for (int i = 0; i < data.size(); i++) fileRows.add(data.getObject(i));
+            return fileRows;
+        });
+    }
+
+    private static NsonObject sourceTypes(String db, String dbDir, String source) throws IOException {
+        NsonObject cached = RealtimeTableManager.tableSchemas.get(db + "." + source);
+        if (cached != null) return cached;
+        File file = new File(dbDir, source + ".nson");
+        if (!file.exists()) return null;
+        return NsonObject.parse(Files.readString(file.toPath(), StandardCharsets.UTF_8)).getObject("_types");
+    }
+
+    private static void persist(View view) throws Exception {
+        NsonArray groupBy = new NsonArray();
+        groupBy.addAll(view.state.groupColumns());
+        NsonObject def = new NsonObject()
+                .put("source", view.source)
+                .put("definition", view.definition)
+                .put("group_by", groupBy)
+                .put("where", view.where);
+        NsonObject meta = new NsonObject()
+                .put("materialized_view", def)
+                .put("last_modified", Instant.now().toString());
+        NsonObject tableData = new NsonObject()
+                .put("_meta", meta)
+                .put("_types", view.types)
+                .put("data", view.state.rows())
+                .put("_mv_state", view.state.stateToNson());
+        writeAtomically(view.file(), tableData);
+        TableVersions.bump(view.file());
+    }
+
+    private static void saveRegistry(String dbDir) throws Exception {
+        NsonArray names = new NsonArray();
+        for (View v : views.values()) if (v.dbDir.equals(dbDir)) names.add(v.name);
+        writeAtomically(new File(dbDir, REGISTRY_FILE), new NsonObject().put("views", names));
+    }
+
+    // Ghi file tạm rồi đổi tên: SELECT đọc view không bao giờ thấy file ghi dở, nên listener ghi view
+    // (đang giữ khóa ghi của bảng nguồn) không phải lấy thêm khóa bảng của view
+    static void writeAtomically(File file, NsonObject tableData) throws Exception {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.enable(SerializationFeature.INDENT_OUTPUT);
+            fos.write(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(tableData).getBytes(StandardCharsets.UTF_8));
+            fos.flush();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
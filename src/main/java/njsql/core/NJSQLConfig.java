@@ -8,4 +8,118 @@ public class NJSQLConfig {
     public static final int BATCH_MAX_SIZE = 500;           // hoặc dùng thời gian
     public static final boolean INDEX_DELAYED_FLUSH = true;
     public static final long INDEX_FLUSH_INTERVAL_MS = 500;
-}
\ No newline at end of file
+
+    // --- Query execution (override bằng -Dnjsql.xxx khi chạy java) ---
+    // Trần số luồng cho một query, áp dụng cho cả SET parallelism
+    public static final int MAX_PARALLELISM = Integer.getInteger("njsql.parallelism.max", Runtime.getRuntime().availableProcessors());
+    // Mặc định chạy 1 luồng: session tự bật bằng SET parallelism = N để pool chung không bị mọi SELECT chiếm hết
+    public static final int DEFAULT_PARALLELISM = Integer.getInteger("njsql.parallelism.default", 1);
+    // Bảng nhỏ hơn ngưỡng này thì chạy 1 luồng (chi phí chia việc không đáng)
+    public static final int PARALLEL_MIN_ROWS = Integer.getInteger("njsql.parallelism.minRows", 20_000);
+    public static final int MORSEL_SIZE = Integer.getInteger("njsql.parallelism.morselSize", 4096);
+    // Số row mỗi lô cột của aggregate vector hóa (SET vectorized = off để tắt theo session)
+    public static final int VECTOR_BATCH_SIZE = Integer.getInteger("njsql.vector.batchSize", 1024);
+
+    // Bộ nhớ tối đa cho một operator (sort) trước khi spill xuống đĩa, override bằng SET work_mem = 64MB
+    public static final long WORK_MEM_BYTES = Long.getLong("njsql.workMem", 64L * 1024 * 1024);
+    // Thư mục chứa file spill tạm
+    public static final String SPILL_DIR = System.getProperty("njsql.spillDir",
+            System.getProperty("java.io.tmpdir") + "/njsql-spill");
+
+    // Trần bộ nhớ cho một query (hash aggregate, hash join, sort), SET query_mem chỉ được hạ thấp hơn
+    public static final long QUERY_MEMORY_LIMIT_BYTES = Long.getLong("njsql.queryMem", 256L * 1024 * 1024);
+    // Trần chung cho mọi query đang chạy, để vài query phân tích lớn không chiếm hết heap của OLTP
+    public static final long GLOBAL_QUERY_MEMORY_BYTES = Long.getLong("njsql.queryMem.global", Runtime.getRuntime().maxMemory() / 2);
+    // Grace hash: số partition mỗi lần spill và số lần chia lại tối đa
+    public static final int SPILL_PARTITIONS = Integer.getInteger("njsql.spill.partitions", 16);
+    public static final int MAX_SPILL_DEPTH = Integer.getInteger("njsql.spill.maxDepth", 3);
+
+    // --- Statistics (ANALYZE) ---
+    public static final int STATS_HISTOGRAM_BUCKETS = Integer.getInteger("njsql.stats.buckets", 32);
+    public static final int STATS_SAMPLE_ROWS = Integer.getInteger("njsql.stats.sampleRows", 30_000);
+    // Tự ANALYZE lại khi số row bị sửa từ lần trước vượt tỉ lệ này của row_count
+    public static final double STATS_AUTO_ANALYZE_FRACTION = Double.parseDouble(System.getProperty("njsql.stats.autoAnalyzeFraction", "0.2"));
+    // Bảng chưa có _stats: tự ANALYZE ở lần ghi đầu tiên khi đã có ít nhất chừng này row
+    public static final int STATS_AUTO_ANALYZE_MIN_ROWS = Integer.getInteger("njsql.stats.autoAnalyzeMinRows", 1000);
+
+    // Cache kết quả SELECT (opt-in theo session), tổng dung lượng ước lượng; 0 = tắt hẳn
+    public static final long RESULT_CACHE_BYTES = Long.getLong("njsql.resultCache.bytes", 64L * 1024 * 1024);
+    // Kết quả lớn hơn ngưỡng này không được cache
+    public static final long RESULT_CACHE_MAX_ENTRY_BYTES = Long.getLong("njsql.resultCache.maxEntryBytes", RESULT_CACHE_BYTES / 8);
+
+    // Server-side cursor (DECLARE/FETCH, cursor_id của REST/gRPC): hết hạn sau TTL không dùng tới
+    public static final long CURSOR_TTL_MS = Long.getLong("njsql.cursor.ttlMs", 5 * 60 * 1000L);
+    public static final int CURSOR_MAX_PER_USER = Integer.getInteger("njsql.cursor.maxPerUser", 16);
+    public static final int CURSOR_DEFAULT_FETCH = Integer.getInteger("njsql.cursor.defaultFetch", 100);
+
+    // Chờ khóa bảng tối đa chừng này rồi báo lỗi, override theo session bằng SET lock_timeout = 5s
+    public static final long LOCK_TIMEOUT_MS = Long.getLong("njsql.lock.timeoutMs", 10_000L);
+
+    // Hạn chót mặc định cho một SELECT (0 = không giới hạn), override theo session bằng SET statement_timeout = 30s
+    public static final long STATEMENT_TIMEOUT_MS = Long.getLong("njsql.statementTimeoutMs", 0L);
+    // Admission control: query phải đọc từ chừng này row (ước lượng của planner) trở lên là query nặng
+    public static final int ADMISSION_HEAVY_ROWS = Integer.getInteger("njsql.admission.heavyRows", 50_000);
+    // Số query nặng chạy cùng lúc trên cả server và của một user; vượt quá thì xếp hàng
+    public static final int ADMISSION_MAX_HEAVY = Integer.getInteger("njsql.admission.maxHeavy", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int ADMISSION_MAX_HEAVY_PER_USER = Integer.getInteger("njsql.admission.maxHeavyPerUser", 2);
+    // Xếp hàng quá chừng này (hoặc quá statement_timeout) thì báo server busy
+    public static final long ADMISSION_QUEUE_TIMEOUT_MS = Long.getLong("njsql.admission.queueTimeoutMs", 30_000L);
+
+    // Materialized view: gom các thay đổi trong chừng này ms rồi mới ghi lại file view một lần
+    public static final long MV_PERSIST_DELAY_MS = Long.getLong("njsql.mv.persistDelayMs", 200L);
+
+    // Bảng realtime (MVCC): dọn version cũ khi số version bị thay/xóa vượt ngưỡng này (hoặc nửa số row)
+    public static final int MVCC_GC_MIN_VERSIONS = Integer.getInteger("njsql.mvcc.gcMinVersions", 1024);
+
+    // Transaction (BEGIN/COMMIT): không có lệnh nào quá TTL thì bị rollback (session REST/gRPC bỏ dở)
+    public static final long TRANSACTION_TTL_MS = Long.getLong("njsql.transaction.ttlMs", 5 * 60 * 1000L);
+    public static final int TRANSACTION_MAX_PER_USER = Integer.getInteger("njsql.transaction.maxPerUser", 16);
+
+    // Ghi bảng: lock = mỗi request tự lấy khóa ghi | actor = xếp vào mailbox một writer mỗi bảng (TableWriter)
+    public static final String TABLE_WRITER = System.getProperty("njsql.writer", "lock");
+    // Số lệnh tối đa writer gom thành một lần ghi file
+    public static final int WRITER_BATCH_MAX = Integer.getInteger("njsql.writer.batchMax", 256);
+
+    // --- Lập lịch theo lớp tải (WorkloadScheduler) ---
+    // Trọng số các lớp: phần suất chạy và phần băng thông I/O tỉ lệ theo trọng số
+    public static final String SCHEDULER_WEIGHTS = System.getProperty("njsql.scheduler.weights", "interactive=8,analytic=4,replication=2,background=1");
+    // Tổng số việc chạy cùng lúc qua scheduler (request REST/gRPC, clone/push, flush nền)
+    public static final int SCHEDULER_SLOTS = Integer.getInteger("njsql.scheduler.slots", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    // Băng thông đọc/ghi chia cho các lớp không phải interactive (byte/giây), 0 = không giới hạn
+    public static final long SCHEDULER_IO_BYTES_PER_SEC = Long.getLong("njsql.scheduler.ioBytesPerSec", 0L);
+    // Việc nền lùi lại khi interactive đang chạy hoặc vừa xong trong chừng này ms, nhưng không lùi quá MAX_DEFER
+    public static final long SCHEDULER_YIELD_MS = Long.getLong("njsql.scheduler.yieldMs", 20L);
+    public static final long SCHEDULER_MAX_DEFER_MS = Long.getLong("njsql.scheduler.maxDeferMs", 2000L);
+
+    // --- Hạn mức theo user (QuotaManager), mặc định cho user không phải admin; "quotas" trong users.nson ghi đè ---
+    // 0 = không giới hạn
+    public static final long QUOTA_MAX_CONCURRENT = Long.getLong("njsql.quota.maxConcurrent", 0L);
+    public static final long QUOTA_MAX_QPS = Long.getLong("njsql.quota.maxQps", 0L);
+    // Số row một SELECT được đọc (đếm trong lúc chạy: scan, index scan, bên trong của join)
+    public static final long QUOTA_MAX_ROWS_SCANNED = Long.getLong("njsql.quota.maxRowsScanned", 0L);
+    // Trần bộ nhớ một query của user, thấp hơn thì thay cho QUERY_MEMORY_LIMIT_BYTES (quá thì spill)
+    public static final long QUOTA_MAX_QUERY_MEM = Long.getLong("njsql.quota.maxQueryMem", 0L);
+
+    // --- Xác thực REST/gRPC ---
+    // Token phiên do /login (gRPC Login) cấp: ký HMAC-SHA256, hết hạn sau TTL
+    public static final long SESSION_TOKEN_TTL_MS = Long.getLong("njsql.auth.tokenTtlMs", 30 * 60 * 1000L);
+    // Khóa ký token; để trống thì sinh ngẫu nhiên mỗi lần chạy (token cũ mất hiệu lực khi restart)
+    public static final String SESSION_TOKEN_SECRET = System.getProperty("njsql.auth.secret", "");
+    // Danh bạ user trong RAM: stat lại các file users.nson tối đa mỗi chừng này ms
+    public static final long USER_DIRECTORY_CHECK_MS = Long.getLong("njsql.auth.reloadCheckMs", 1000L);
+
+    // --- REST (2801) / share (1201) server ---
+    // virtual = mỗi request một virtual thread | pool = pool platform thread có giới hạn
+    public static final String SERVER_EXECUTOR = System.getProperty("njsql.server.executor", "virtual");
+    public static final int SERVER_POOL_THREADS = Integer.getInteger("njsql.server.poolThreads", Runtime.getRuntime().availableProcessors() * 4);
+    // Pool đầy và hàng đợi đầy thì luồng accept tự chạy request (chậm nhận kết nối mới thay vì bỏ request)
+    public static final int SERVER_POOL_QUEUE = Integer.getInteger("njsql.server.poolQueue", 1024);
+    // Hàng đợi kết nối TCP chưa accept (0 = mặc định của hệ điều hành)
+    public static final int SERVER_BACKLOG = Integer.getInteger("njsql.server.backlog", 256);
+    // Số request được xử lý cùng lúc; request vượt quá chờ tối đa ADMISSION_WAIT rồi trả 503
+    public static final int SERVER_MAX_CONCURRENT_REQUESTS = Integer.getInteger("njsql.server.maxConcurrent", 256);
+    public static final long SERVER_ADMISSION_WAIT_MS = Long.getLong("njsql.server.admissionWaitMs", 2000L);
+    // Body lớn hơn thì trả 413; /push của share server gửi cả database nên có trần riêng
+    public static final long SERVER_MAX_BODY_BYTES = Long.getLong("njsql.server.maxBodyBytes", 16L * 1024 * 1024);
+    public static final long SHARE_MAX_BODY_BYTES = Long.getLong("njsql.share.maxBodyBytes", 1024L * 1024 * 1024);
+}
@@ -3,13 +3,38 @@ package njsql.core;
 import njsql.NJSQL;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
+import njsql.query.ResultCache;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class PermissionManager {
     private static final Set<String> VALID_PERMISSIONS = Set.of(
             "CREATE_DB", "DROP_DB", "BACKUP", "RESTORE", "ZIP_DB", "UNZIP_DB", "GRANT", "REVOKE",
             "SELECT", "INSERT", "UPDATE", "DELETE", "CREATE_TABLE", "DROP_TABLE", "ALTER_TABLE", "ALL"
     );
+    // Quyền cấp riêng cho một bảng: "SELECT ON shop.Orders", lưu ở config["table_permissions"]["shop.Orders"]
+    private static final Set<String> TABLE_PERMISSIONS = Set.of("SELECT", "INSERT", "UPDATE", "DELETE", "ALL");
+    private static final Pattern ON_TABLE = Pattern.compile("(?i)^(\\w+)\\s+ON\\s+(\\w+\\.\\w+)$");
+
+    // Ma trận quyền dựng sẵn của một user, tra ở mỗi câu lệnh mà không đụng tới config
+    private record Grants(boolean admin, Set<String> global, Map<String, Set<String>> tables) {
+        boolean allows(String permission, String tableKey) {
+            if (admin || global.contains("ALL")) return true;
+            String p = permission.toUpperCase(Locale.ROOT);
+            if (global.contains(p)) return true;
+            Set<String> onTable = tableKey == null ? null : tables.get(tableKey);
+            return onTable != null && (onTable.contains(p) || onTable.contains("ALL"));
+        }
+    }
+
+    // Gắn với một phiên bản danh bạ user: grant/revoke/updateUserConfig ghi file làm danh bạ nạp lại,
+    // ma trận cũ tự bị bỏ ở lần tra kế tiếp (kể cả khi users.nson bị sửa từ process khác)
+    private record Matrix(Object version, Map<String, Grants> users) {}
+
+    private static final Grants NONE = new Grants(false, Set.of(), Map.of());
+    private static volatile Matrix matrix = new Matrix(null, Map.of());
 
     public static boolean isValidPermission(String permission) {
         return VALID_PERMISSIONS.contains(permission.toUpperCase());
@@ -63,6 +88,12 @@ public class PermissionManager {
             return;
         }
 
+        Matcher onTable = ON_TABLE.matcher(permission.trim());
+        if (onTable.matches()) {
+            updateTablePermission(targetUser, targetUserConfig, onTable.group(1).toUpperCase(), onTable.group(2), true);
+            return;
+        }
+
         // Xử lý quyền ALL
         if (permission.equalsIgnoreCase("ALL")) {
             NsonArray allPermissions = new NsonArray();
@@ -138,6 +169,12 @@ public class PermissionManager {
             return;
         }
 
+        Matcher onTable = ON_TABLE.matcher(permission.trim());
+        if (onTable.matches()) {
+            updateTablePermission(targetUser, targetUserConfig, onTable.group(1).toUpperCase(), onTable.group(2), false);
+            return;
+        }
+
         // Xử lý quyền ALL
         if (permission.equalsIgnoreCase("ALL")) {
             targetUserConfig.put("permissions", new NsonArray());
@@ -167,32 +204,97 @@ public class PermissionManager {
         System.out.println("\u001B[33m>> User does not have permission: " + permission.toUpperCase() + "\u001B[0m");
     }
 
+    private static void updateTablePermission(String targetUser, NsonObject targetUserConfig, String permission,
+                                              String tableKey, boolean grant) {
+        if (!TABLE_PERMISSIONS.contains(permission)) {
+            System.out.println("\u001B[31m>> Invalid table permission: " + permission + ". Use: " + TABLE_PERMISSIONS + "\u001B[0m");
+            return;
+        }
+        NsonObject tables = targetUserConfig.getObject("table_permissions");
+        if (tables == null) {
+            tables = new NsonObject();
+            targetUserConfig.put("table_permissions", tables);
+        }
+        NsonArray permissions = tables.getArray(tableKey);
+        if (permissions == null) {
+            permissions = new NsonArray();
+            tables.put(tableKey, permissions);
+        }
+        for (int i = 0; i < permissions.size(); i++) {
+            if (permissions.get(i).toString().equalsIgnoreCase(permission)) {
+                if (grant) {
+                    System.out.println("\u001B[33m>> User already has permission: " + permission + " ON " + tableKey + "\u001B[0m");
+                    return;
+                }
+                permissions.remove(i);
+                if (permissions.isEmpty()) tables.remove(tableKey);
+                UserManager.updateUserConfig(targetUser, targetUserConfig);
+                System.out.println(">>\u001B[33m Revoked " + permission + " ON " + tableKey + " from " + targetUser + "\u001B[0m");
+                return;
+            }
+        }
+        if (!grant) {
+            System.out.println("\u001B[33m>> User does not have permission: " + permission + " ON " + tableKey + "\u001B[0m");
+            return;
+        }
+        permissions.add(permission);
+        UserManager.updateUserConfig(targetUser, targetUserConfig);
+        System.out.println(">>\u001B[32m Granted " + permission + " ON " + tableKey + " to \u001B[0m" + targetUser);
+    }
+
     public static boolean hasPermission(String username, String permission) {
-        NsonObject userConfig = UserManager.getUserConfig(username);
-        if (userConfig == null) return false;
+        return grants(username).allows(permission, null);
+    }
 
-        // Admin có tất cả quyền
-        if (userConfig.getBoolean("isAdmin")) {
-            return true;
+    // Quyền toàn cục hoặc quyền cấp riêng cho bảng db.table
+    public static boolean hasPermission(String username, String permission, String db, String table) {
+        return grants(username).allows(permission, db == null || table == null ? null : db + "." + table);
+    }
+
+    // SELECT (cả EXPLAIN, DECLARE ... CURSOR FOR SELECT): cần quyền SELECT trên bảng FROM và trên mọi bảng JOIN
+    public static boolean canSelect(String username, String db, String sql) {
+        Set<String> tables = ResultCache.referencedTables(sql);
+        if (tables.isEmpty()) return hasPermission(username, "SELECT");
+        for (String table : tables) {
+            if (!hasPermission(username, "SELECT", db, table)) return false;
         }
+        return true;
+    }
 
-        NsonArray permissions = userConfig.getArray("permissions");
-        if (permissions == null) return false;
+    private static Grants grants(String username) {
+        if (username == null) return NONE;
+        Object version = UserManager.directoryVersion();
+        Matrix m = matrix;
+        if (m.version() != version) {
+            m = new Matrix(version, new ConcurrentHashMap<>());
+            matrix = m;
+        }
+        return m.users().computeIfAbsent(username, PermissionManager::buildGrants);
+    }
 
-        // Kiểm tra quyền ALL
-        for (int i = 0; i < permissions.size(); i++) {
-            if (permissions.get(i).toString().equals("ALL")) {
-                return true;
+    private static Grants buildGrants(String username) {
+        NsonObject userConfig = UserManager.sharedUserConfig(username);
+        if (userConfig == null) return NONE;
+        if (userConfig.getBoolean("isAdmin")) return new Grants(true, Set.of(), Map.of());
+
+        Map<String, Set<String>> tables = new HashMap<>();
+        NsonObject tableConfig = userConfig.getObject("table_permissions");
+        if (tableConfig != null) {
+            for (String tableKey : tableConfig.keySet()) {
+                tables.put(tableKey, upperCased(tableConfig.getArray(tableKey)));
             }
         }
+        return new Grants(false, upperCased(userConfig.getArray("permissions")), tables);
+    }
 
-        // Kiểm tra quyền cụ thể
-        for (int i = 0; i < permissions.size(); i++) {
-            if (permissions.get(i).toString().equalsIgnoreCase(permission)) {
-                return true;
+    private static Set<String> upperCased(NsonArray permissions) {
+        Set<String> set = new HashSet<>();
+        if (permissions != null) {
+            for (int i = 0; i < permissions.size(); i++) {
+                set.add(permissions.get(i).toString().toUpperCase(Locale.ROOT));
             }
         }
-        return false;
+        return set;
     }
 
     public static void listPermissions(String username) {
@@ -215,6 +317,7 @@ public class PermissionManager {
                 perms.add(permissions.get(i).toString());
             }
         }
+        addTablePermissions(userConfig, perms);
 
         System.out.println(">>\u001B[36m Permissions for " + username + ": " + perms + "\u001B[0m");
     }
@@ -229,10 +332,22 @@ public class PermissionManager {
                 perms.add(permissions.get(i).toString());
             }
         }
+        addTablePermissions(userConfig, perms);
 
         return perms;
     }
 
+    private static void addTablePermissions(NsonObject userConfig, Set<String> perms) {
+        NsonObject tables = userConfig.getObject("table_permissions");
+        if (tables == null) return;
+        for (String tableKey : tables.keySet()) {
+            NsonArray onTable = tables.getArray(tableKey);
+            for (int i = 0; onTable != null && i < onTable.size(); i++) {
+                perms.add(onTable.get(i) + " ON " + tableKey);
+            }
+        }
+    }
+
     public static Set<String> getValidPermissions() {
         return VALID_PERMISSIONS;
     }
@@ -0,0 +1,183 @@
+package njsql.core;
+
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.QueryContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Các SELECT đang chạy: mỗi query một query_id (SHOW QUERIES), hạn chót theo statement_timeout,
+ * KILL <query_id> để hủy. Hủy là hợp tác: chỉ bật cờ trên QueryContext, vòng lặp của operator tự dừng.
+ * Admission control: query nặng (planner ước lượng >= ADMISSION_HEAVY_ROWS row phải đọc) cần một suất
+ * của user và một suất chung trước khi chạy; hết suất thì xếp hàng (FIFO) tới hạn chót hoặc ADMISSION_QUEUE_TIMEOUT.
+ * Query nhẹ (point lookup, bảng nhỏ, index) không bao giờ xếp hàng nên độ trễ OLTP không phụ thuộc tải phân tích.
+ */
+public final class QueryManager {
+
+    private static final Pattern KILL_PATTERN = Pattern.compile("^KILL\\s+(?:QUERY\\s+)?(\\d+)\\s*;?$", Pattern.CASE_INSENSITIVE);
+    // Chờ suất theo từng lát ngắn để KILL/timeout có hiệu lực cả khi đang xếp hàng
+    private static final long WAIT_SLICE_MS = 50;
+
+    private static final AtomicLong ids = new AtomicLong();
+    private static final Map<Long, Query> running = new ConcurrentHashMap<>();
+    private static final Semaphore heavySlots = new Semaphore(Math.max(1, NJSQLConfig.ADMISSION_MAX_HEAVY), true);
+    private static final Map<String, Semaphore> userSlots = new ConcurrentHashMap<>();
+
+    /** Một query đang chạy; đóng khi query kết thúc để trả suất admission và bỏ khỏi SHOW QUERIES. */
+    public static final class Query implements AutoCloseable {
+        final long id;
+        final String username;
+        final String sql;
+        final QueryContext ctx;
+        final long startedAt = System.currentTimeMillis();
+        final long timeoutMs;
+        volatile String state = "running";
+        volatile boolean heavy;
+        private Semaphore userSlot;
+        private boolean globalSlot;
+
+        Query(long id, String username, String sql, QueryContext ctx, long timeoutMs) {
+            this.id = id;
+            this.username = username;
+            this.sql = sql;
+            this.ctx = ctx;
+            this.timeoutMs = timeoutMs;
+        }
+
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public void close() {
+            running.remove(id);
+            if (globalSlot) heavySlots.release();
+            if (userSlot != null) userSlot.release();
+            globalSlot = false;
+            userSlot = null;
+        }
+    }
+
+    private QueryManager() {}
+
+    // statement_timeout của session (SET statement_timeout = 30s), 0 = không giới hạn
+    public static long timeoutMs(User user) {
+        return user.getLongSetting("statement_timeout", NJSQLConfig.STATEMENT_TIMEOUT_MS);
+    }
+
+    public static Query register(User user, String sql, QueryContext ctx) {
+        long timeout = timeoutMs(user);
+        ctx.setTimeout(timeout);
+        String text = sql.replaceAll("\\s+", " ").trim();
+        Query query = new Query(ids.incrementAndGet(), user.getUsername(), text.length() > 200 ? text.substring(0, 200) + "..." : text, ctx, timeout);
+        running.put(query.id, query);
+        return query;
+    }
+
+    /**
+     * Gọi sau khi lập plan, trước khi chạy: query nặng chờ suất của user rồi suất chung.
+     * Hết thời gian chờ thì báo lỗi "server busy" thay vì chạy chồng lên các query nặng khác.
+     */
+    public static void admit(Query query, double estimatedRows) throws InterruptedException {
+        if (estimatedRows < NJSQLConfig.ADMISSION_HEAVY_ROWS) return;
+        long waitMs = Math.min(query.ctx.remainingMillis(), NJSQLConfig.ADMISSION_QUEUE_TIMEOUT_MS);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMs);
+        Semaphore mine = userSlots.computeIfAbsent(query.username,
+                k -> new Semaphore(Math.max(1, NJSQLConfig.ADMISSION_MAX_HEAVY_PER_USER), true));
+        query.heavy = true;
+        query.state = "queued";
+        if (!await(mine, query, deadline)) throw busy(query, waitMs);
+        query.userSlot = mine;
+        if (!await(heavySlots, query, deadline)) throw busy(query, waitMs);
+        query.globalSlot = true;
+        query.state = "running";
+    }
+
+    private static boolean await(Semaphore slots, Query query, long deadline) throws InterruptedException {
+        while (true) {
+            query.ctx.checkCancelled();
+            long left = deadline - System.nanoTime();
+            if (left <= 0) return false;
+            if (slots.tryAcquire(Math.min(left, TimeUnit.MILLISECONDS.toNanos(WAIT_SLICE_MS)), TimeUnit.NANOSECONDS)) return true;
+        }
+    }
+
+    private static ServerBusyException busy(Query query, long waitMs) {
+        query.ctx.checkCancelled(); // hết statement_timeout trong hàng đợi thì báo đúng lý do
+        return new ServerBusyException("Server busy: too many concurrent heavy queries (waited " + waitMs + " ms in admission queue).");
+    }
+
+    // Admission control từ chối query: client thử lại sau, không phải lỗi của engine
+    public static final class ServerBusyException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        ServerBusyException(String message) {
+            super(message);
+        }
+    }
+
+    public static boolean isKill(String sql) {
+        return KILL_PATTERN.matcher(sql.trim()).find();
+    }
+
+    public static String handle(String sql, User user) throws Exception {
+        NsonObject result = handleForAPI(sql, user);
+        if (result.containsKey("error")) throw new Exception(result.getString("error"));
+        return result.getString("message");
+    }
+
+    // KILL <query_id>: chủ query hoặc admin
+    public static NsonObject handleForAPI(String sql, User user) {
+        NsonObject response = new NsonObject();
+        Matcher m = KILL_PATTERN.matcher(sql.trim());
+        if (!m.find()) return response.put("error", "Invalid syntax. Expected: KILL <query_id>");
+        long id = Long.parseLong(m.group(1));
+        Query query = running.get(id);
+        if (query == null || !canSee(user, query)) return response.put("error", "Query " + id + " is not running.");
+        query.ctx.cancel("killed by " + user.getUsername());
+        query.state = "canceling";
+        return response.put("status", "success").put("message", "Query " + id + " canceled.");
+    }
+
+    // Chủ query, hoặc user có quyền KILL cùng tenant với chủ query (admin không xem/hủy được query của tenant khác)
+    private static boolean canSee(User user, Query query) {
+        String me = user.getUsername();
+        if (query.username.equals(me)) return true;
+        return PermissionManager.hasPermission(me, "KILL") && UserManager.sameTenant(me, query.username);
+    }
+
+    // Một row cho mỗi query đang chạy mà user được xem (SHOW QUERIES)
+    public static NsonArray stats(User user) {
+        List<Query> queries = new ArrayList<>(running.values());
+        queries.sort((a, b) -> Long.compare(a.id, b.id));
+        long now = System.currentTimeMillis();
+        NsonArray rows = new NsonArray();
+        for (Query q : queries) {
+            if (!canSee(user, q)) continue;
+            rows.add(new NsonObject()
+                    .put("query_id", q.id)
+                    .put("user", q.username)
+                    .put("state", q.state)
+                    .put("elapsed_ms", now - q.startedAt)
+                    .put("timeout_ms", q.timeoutMs)
+                    .put("heavy", q.heavy)
+                    .put("sql", q.sql));
+        }
+        return rows;
+    }
+
+    // SHOW QUERIES qua REST/gRPC
+    public static NsonObject showForAPI(User user) {
+        return new NsonObject().put("status", "success").put("data", stats(user));
+    }
+}
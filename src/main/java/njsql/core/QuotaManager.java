@@ -0,0 +1,240 @@
+package njsql.core;
+
+import njsql.NJSQL;
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.QueryContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hạn mức tài nguyên theo user (nhiều team chung một process): số query chạy cùng lúc, số query mỗi giây,
+ * số row một SELECT được đọc (đếm thật trong lúc chạy, vượt thì dừng query) và bộ nhớ tối đa của một query.
+ * Hạn mức lấy từ "quotas" của user trong users.nson (đặt bằng /quota), thiếu thì dùng mặc định NJSQLConfig.QUOTA_*;
+ * mặc định không áp cho admin. 0 = không giới hạn. Vượt hạn mức thì báo QuotaExceededException (REST trả 429).
+ */
+public final class QuotaManager {
+
+    public static final List<String> LIMIT_NAMES = List.of("max_concurrent", "max_qps", "max_rows_scanned", "max_query_mem");
+
+    public record Limits(long maxConcurrent, long maxQps, long maxRowsScanned, long maxQueryMem) {
+        static final Limits NONE = new Limits(0, 0, 0, 0);
+    }
+
+    public static final class QuotaExceededException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        QuotaExceededException(String username, String limit, long value, String detail) {
+            super("Quota exceeded for user '" + username + "': " + limit + " = " + value + " (" + detail + ").");
+        }
+    }
+
+    // Bộ đếm của một user, sống suốt process
+    private static final class Usage {
+        final AtomicInteger active = new AtomicInteger();
+        int peakActive;
+        long windowSecond;   // cửa sổ QPS: giây hiện tại và số query đã nhận trong giây đó
+        int windowCount;
+        final LongAdder queries = new LongAdder();
+        final LongAdder rejectedConcurrent = new LongAdder();
+        final LongAdder rejectedQps = new LongAdder();
+        final LongAdder rejectedRows = new LongAdder();
+        final LongAdder rowsScanned = new LongAdder();
+    }
+
+    // Hạn mức đã đọc từ danh bạ, dựng lại khi danh bạ user được nạp lại (giống ma trận quyền)
+    private record Cache(Object version, Map<String, Limits> users) {}
+
+    private static volatile Cache cache = new Cache(null, new ConcurrentHashMap<>());
+    private static final Map<String, Usage> usage = new ConcurrentHashMap<>();
+
+    /** Suất chạy của một request; đóng khi request xong để trả suất max_concurrent. */
+    public static final class Ticket implements AutoCloseable {
+        private Usage owner;
+
+        Ticket(Usage owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void close() {
+            if (owner != null) owner.active.decrementAndGet();
+            owner = null;
+        }
+    }
+
+    private QuotaManager() {}
+
+    public static Limits limits(String username) {
+        Object version = UserManager.directoryVersion();
+        Cache c = cache;
+        if (c.version() != version) {
+            c = new Cache(version, new ConcurrentHashMap<>());
+            cache = c;
+        }
+        return c.users().computeIfAbsent(username, QuotaManager::loadLimits);
+    }
+
+    private static Limits loadLimits(String username) {
+        NsonObject config = UserManager.sharedUserConfig(username);
+        if (config == null) return Limits.NONE;
+        NsonObject quotas = config.getObject("quotas");
+        boolean defaults = !config.getBoolean("isAdmin");
+        return new Limits(
+                limit(quotas, "max_concurrent", defaults ? NJSQLConfig.QUOTA_MAX_CONCURRENT : 0),
+                limit(quotas, "max_qps", defaults ? NJSQLConfig.QUOTA_MAX_QPS : 0),
+                limit(quotas, "max_rows_scanned", defaults ? NJSQLConfig.QUOTA_MAX_ROWS_SCANNED : 0),
+                limit(quotas, "max_query_mem", defaults ? NJSQLConfig.QUOTA_MAX_QUERY_MEM : 0));
+    }
+
+    private static long limit(NsonObject quotas, String name, long fallback) {
+        Object value = quotas == null ? null : quotas.get(name);
+        return value instanceof Number n ? Math.max(0, n.longValue()) : fallback;
+    }
+
+    private static Usage usage(String username) {
+        return usage.computeIfAbsent(username, k -> new Usage());
+    }
+
+    /**
+     * Gọi ở cổng REST/gRPC sau khi xác thực: kiểm tra max_qps rồi giữ một suất max_concurrent tới khi Ticket đóng.
+     * Request bị từ chối không chiếm suất và không tính vào QPS.
+     */
+    public static Ticket enter(String username) {
+        Limits limits = limits(username);
+        Usage u = usage(username);
+        if (limits.maxQps() > 0) {
+            long second = System.currentTimeMillis() / 1000;
+            synchronized (u) {
+                if (u.windowSecond != second) {
+                    u.windowSecond = second;
+                    u.windowCount = 0;
+                }
+                if (u.windowCount >= limits.maxQps()) {
+                    u.rejectedQps.increment();
+                    throw new QuotaExceededException(username, "max_qps", limits.maxQps(), "too many queries per second");
+                }
+                u.windowCount++;
+            }
+        }
+        int active = u.active.incrementAndGet();
+        if (limits.maxConcurrent() > 0 && active > limits.maxConcurrent()) {
+            u.active.decrementAndGet();
+            u.rejectedConcurrent.increment();
+            throw new QuotaExceededException(username, "max_concurrent", limits.maxConcurrent(), "too many queries running at once");
+        }
+        synchronized (u) {
+            u.peakActive = Math.max(u.peakActive, active);
+        }
+        u.queries.increment();
+        return new Ticket(u);
+    }
+
+    // Bộ nhớ của một query: SET query_mem nhưng không vượt max_query_mem của user
+    public static long queryMemory(User user, long requested) {
+        long cap = limits(user.getUsername()).maxQueryMem();
+        return cap > 0 ? Math.min(requested, cap) : requested;
+    }
+
+    /**
+     * Gọi trước khi SELECT chạy: cộng số row query thật sự đọc (các vòng scan/join báo ở nhịp kiểm tra hủy)
+     * vào thống kê của user, vượt max_rows_scanned thì dừng query. Index scan có LIMIT dừng sớm chỉ tính phần đã đọc.
+     */
+    public static void watchRowsScanned(User user, QueryContext ctx) {
+        String username = user.getUsername();
+        long cap = limits(username).maxRowsScanned();
+        Usage u = usage(username);
+        ctx.watchRowsScanned((added, total) -> {
+            u.rowsScanned.add(added);
+            if (cap > 0 && total > cap) {
+                // Nhiều worker cùng vượt: chỉ lần vượt đầu tiên tính là một query bị từ chối
+                if (total - added <= cap) u.rejectedRows.increment();
+                throw new QuotaExceededException(username, "max_rows_scanned", cap,
+                        "query stopped after reading " + total + " rows; add a selective WHERE on an indexed column");
+            }
+        });
+    }
+
+    // /quota: admin đặt một hạn mức cho user; value 0 = không giới hạn, DEFAULT = bỏ, dùng mặc định của server
+    public static void setQuota(String targetUser, String name, String value) {
+        String currentUser = NJSQL.getCurrentUser();
+        NsonObject currentConfig = currentUser == null ? null : UserManager.getUserConfig(currentUser);
+        if (currentConfig == null || !currentConfig.getBoolean("isAdmin")) {
+            System.out.println("\u001B[31m>> Only admins can set quotas.\u001B[0m");
+            return;
+        }
+        NsonObject target = UserManager.getUserConfig(targetUser);
+        if (target == null) {
+            System.out.println("\u001B[31m>> User '" + targetUser + "' not found.\u001B[0m");
+            return;
+        }
+        String limit = name.trim().toLowerCase();
+        if (!LIMIT_NAMES.contains(limit)) {
+            System.out.println("\u001B[31m>> Unknown quota '" + name + "'. Use " + String.join(", ", LIMIT_NAMES) + ".\u001B[0m");
+            return;
+        }
+        NsonObject quotas = target.getObject("quotas");
+        if (quotas == null) quotas = new NsonObject();
+        try {
+            if (value.trim().equalsIgnoreCase("DEFAULT")) {
+                quotas.remove(limit);
+            } else {
+                long parsed = limit.equals("max_query_mem") ? SetHandler.parseBytes(limit, value) : Long.parseLong(value.trim());
+                if (parsed < 0) throw new NumberFormatException();
+                quotas.put(limit, parsed);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("\u001B[31m>> Invalid value '" + value + "' for " + limit + ".\u001B[0m");
+            return;
+        }
+        UserManager.updateUserConfig(targetUser, new NsonObject().put("quotas", quotas));
+        System.out.println("\u001B[32m>> Quota " + limit + " for '" + targetUser + "' set to " + value.trim() + ".\u001B[0m");
+    }
+
+    // Một row cho mỗi user đã từng gửi query (SHOW QUOTAS): user thường chỉ thấy mình,
+    // admin thấy các user cùng tenant với mình (không thấy user của admin khác)
+    public static NsonArray stats(User user) {
+        String me = user.getUsername();
+        boolean all = PermissionManager.hasPermission(me, "ALL");
+        List<String> names = new ArrayList<>();
+        if (all) {
+            for (String name : usage.keySet()) if (UserManager.sameTenant(me, name)) names.add(name);
+        }
+        if (!names.contains(me)) names.add(me);
+        names.sort(null);
+        NsonArray rows = new NsonArray();
+        for (String name : names) {
+            Limits l = limits(name);
+            Usage u = usage(name);
+            int peak;
+            synchronized (u) {
+                peak = u.peakActive;
+            }
+            rows.add(new NsonObject()
+                    .put("user", name)
+                    .put("max_concurrent", l.maxConcurrent())
+                    .put("max_qps", l.maxQps())
+                    .put("max_rows_scanned", l.maxRowsScanned())
+                    .put("max_query_mem", l.maxQueryMem())
+                    .put("active", u.active.get())
+                    .put("peak_active", peak)
+                    .put("queries", u.queries.sum())
+                    .put("rows_scanned", u.rowsScanned.sum())
+                    .put("rejected_concurrent", u.rejectedConcurrent.sum())
+                    .put("rejected_qps", u.rejectedQps.sum())
+                    .put("rejected_rows", u.rejectedRows.sum()));
+        }
+        return rows;
+    }
+
+    // SHOW QUOTAS qua REST/gRPC
+    public static NsonObject showForAPI(User user) {
+        return new NsonObject().put("status", "success").put("data", stats(user));
+    }
+}
@@ -3,6 +3,7 @@ package njsql.core;
 import njsql.models.User;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
+import njsql.query.TableVersions;
 import njsql.utils.TableFormatter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -28,7 +29,8 @@ public class RealtimeTableManager {
     private static final String RESET = "\u001B[0m";
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    public static final Map<String, List<Map<String, Object>>> ramTables = new ConcurrentHashMap<>();
+    // Bảng realtime: đọc theo snapshot MVCC (không khóa), ghi vẫn một writer mỗi bảng qua TableLockManager
+    public static final Map<String, VersionedTable> ramTables = new ConcurrentHashMap<>();
     // [NEW] Cache luôn cấu trúc bảng (Types) vào RAM để đỡ phải đọc file
     public static final Map<String, NsonObject> tableSchemas = new ConcurrentHashMap<>();
     
@@ -157,7 +159,7 @@ public class RealtimeTableManager {
                 ramData.add(ramRow);
             }
 
-            ramTables.put(tableKey, ramData);
+            ramTables.put(tableKey, new VersionedTable(ramData));
             // [NEW] Cache luôn Schema vào RAM
             tableSchemas.put(tableKey, types);
             
@@ -220,11 +222,28 @@ public class RealtimeTableManager {
         if (!ramTables.containsKey(dbName + "." + tableName)) {
             loadTableToRam(user, dbName, tableName);
         }
-        List<Map<String, Object>> rows = ramTables.get(dbName + "." + tableName);
-        try {
+        VersionedTable rows = ramTables.get(dbName + "." + tableName);
+        if (TableWriter.routes(user, tableName)) {
+            // Chế độ actor: chạy trên writer của bảng, không gom lô vì tự publish vào bảng RAM
+            try {
+                TableWriter.submit(user, dbName, tableName, false, () -> {
+                    insertRam(sql, user, dbName, tableName, rows);
+                    return null;
+                });
+            } catch (Exception e) {
+                System.out.println(RED + ">> ERROR: INSERT failed: " + e.getMessage() + RESET);
+            }
+            return;
+        }
+        insertRam(sql, user, dbName, tableName, rows);
+    }
+
+    private static void insertRam(String sql, User user, String dbName, String tableName, VersionedTable rows) {
+        try (TableLockManager.Guard ignored = TableLockManager.write(user, dbName, tableName)) {
             Map<String, Object> newRow = parseInsertRow(sql, user, dbName, tableName);
-            rows.add(newRow);
+            rows.append(List.of(newRow));
             dirtyTables.add(dbName + "." + tableName);
+            TableVersions.bump(user.getUsername(), dbName, tableName);
             
             String flushMode = getTableFlushMode(dbName, tableName);
             if (flushMode.equalsIgnoreCase("immediate")) {
@@ -234,19 +253,15 @@ public class RealtimeTableManager {
             NsonObject nsonRow = new NsonObject();
             nsonRow.putAll(newRow);
             List<NsonObject> nsonList = Collections.singletonList(nsonRow);
-            notifyListeners(dbName + "." + tableName, "INSERT", nsonList);
+            notifyListeners(TableLockManager.fileKey(user.getUsername(), dbName, tableName), "INSERT", nsonList);
         } catch (Exception e) {
             System.out.println(RED + ">> ERROR: INSERT failed: " + e.getMessage() + RESET);
         }
     }
 
     public static void handleUpdate(String sql, User user, String dbName, String tableName) throws Exception {
+        // UpdateHandler ghi file, thay các row đổi trong bảng RAM (version mới) và phát sự kiện UPDATE (kèm row cũ)
         String result = UpdateHandler.handle(sql, user);
-        List<NsonObject> updatedRows = UpdateHandler.getUpdatedRows();
-
-        String tableKey = dbName + "." + tableName;
-        updateRamTable(tableKey, updatedRows, dbName);
-        notifyListeners(tableKey, "UPDATE", updatedRows);
 
         NsonArray response = new NsonArray();
         response.add(new NsonObject().put("message", result));
@@ -257,52 +272,47 @@ public class RealtimeTableManager {
         System.out.println(RED + ">> DELETE not implemented in real-time mode." + RESET);
     }
 
-    public static void updateRamTable(String tableKey, List<NsonObject> rows, String dbName) {
-        List<Map<String, Object>> ram = ramTables.get(tableKey);
-        if (ram == null) return;
-        ram.clear();
-        for (NsonObject row : rows) {
-            ram.add(row.toMap());
-        }
+    // UPDATE: row mới theo vị trí trong bảng (trùng thứ tự file), một commit cho cả câu lệnh
+    public static void updateRamRows(String tableKey, Map<Integer, NsonObject> rowsByPosition) {
+        VersionedTable ram = ramTables.get(tableKey);
+        if (ram == null || rowsByPosition.isEmpty()) return;
+        Map<Integer, Map<String, Object>> changed = new HashMap<>();
+        rowsByPosition.forEach((i, row) -> changed.put(i, row.toMap()));
+        ram.update(changed);
+        dirtyTables.add(tableKey);
+    }
+
+    public static void deleteRamRows(String tableKey, List<Integer> positions) {
+        VersionedTable ram = ramTables.get(tableKey);
+        if (ram == null || positions.isEmpty()) return;
+        ram.delete(positions);
         dirtyTables.add(tableKey);
     }
 
     private static void flushTableToDisk(User user, String dbName, String tableName, String flushMode) {
         String tableKey = dbName + "." + tableName;
-        List<Map<String, Object>> rows = ramTables.get(tableKey);
-        if (rows == null) return;
+        VersionedTable table = ramTables.get(tableKey);
+        if (table == null) return;
+        List<Map<String, Object>> rows = table.rows();
 
         String rootDir = UserManager.getRootDirectory(user.getUsername());
         File tableFile = new File(rootDir + "/" + dbName + "/" + tableName + ".nson");
 
-        try {
-            NsonObject tableData = new NsonObject();
-            NsonObject meta = new NsonObject();
-            NsonObject types = new NsonObject();
-            NsonArray data = new NsonArray();
-
-            // Vẫn cần đọc file để lấy _meta và _types gốc nếu chưa có trong RAM
-            // Nhưng hiện tại ta đã cache _types, nên có thể tối ưu sau. 
-            // Tạm thời giữ nguyên đoạn đọc này nhưng bọc try-catch kỹ hơn hoặc dùng cache.
-            // Để an toàn, ta dùng cache nếu có.
-            
-            if (tableSchemas.containsKey(tableKey)) {
-                types = tableSchemas.get(tableKey);
-                // Meta có thể lấy từ file hoặc tạo mới nếu cần, tạm thời đọc file cho chắc ăn về meta
-                try {
-                    String fileContent = new String(Files.readAllBytes(tableFile.toPath()), StandardCharsets.UTF_8);
-                    NsonObject original = NsonObject.parse(fileContent);
-                    meta = original.getObject("_meta");
-                } catch (Exception ex) {
-                    // Nếu đọc file lỗi (do race condition), ta dùng meta mặc định hoặc bỏ qua
-                    if(meta == null) meta = new NsonObject().put("last_modified", Instant.now().toString());
-                }
-            } else {
+        try (TableLockManager.Guard ignored = TableLockManager.write(user, dbName, tableName)) {
+            // Đọc lại file trong khóa và chỉ thay "data" (cùng _types đã cache), giữ nguyên mọi key khác
+            // (_meta, _stats, _indexes...) để flush không xóa thống kê ANALYZE và định nghĩa index
+            NsonObject tableData;
+            try {
                 String fileContent = new String(Files.readAllBytes(tableFile.toPath()), StandardCharsets.UTF_8);
-                NsonObject original = NsonObject.parse(fileContent);
-                meta = original.getObject("_meta");
-                types = original.getObject("_types");
+                tableData = NsonObject.parse(fileContent);
+            } catch (Exception ex) {
+                if (!tableSchemas.containsKey(tableKey)) throw ex;
+                tableData = new NsonObject();
             }
+            NsonObject meta = tableData.getObject("_meta");
+            if (meta == null) meta = new NsonObject();
+            NsonObject types = tableSchemas.containsKey(tableKey) ? tableSchemas.get(tableKey) : tableData.getObject("_types");
+            NsonArray data = new NsonArray();
 
             for (Map<String, Object> row : rows) {
                 NsonObject nsonRow = new NsonObject();
@@ -362,16 +372,23 @@ public class RealtimeTableManager {
     }
 
     // ... (Phần Listener giữ nguyên) ...
+    // INSERT: row mới; DELETE: row đã xóa; UPDATE: rows = giá trị mới, oldRows = giá trị cũ (cùng thứ tự)
     public static class TableChange {
         public final String action;
         public final List<NsonObject> rows;
+        public final List<NsonObject> oldRows;
         public final long timestamp;
         public TableChange(String action, List<NsonObject> rows) {
+            this(action, rows, Collections.emptyList());
+        }
+        public TableChange(String action, List<NsonObject> rows, List<NsonObject> oldRows) {
             this.action = action;
             this.rows = rows;
+            this.oldRows = oldRows;
             this.timestamp = System.currentTimeMillis();
         }
     }
+    // key: TableLockManager.fileKey của bảng, để listener không nhận sự kiện của bảng trùng tên thuộc user khác
     private static final Map<String, List<java.util.function.Consumer<TableChange>>> listeners = new ConcurrentHashMap<>();
     public static void addListener(String tableKey, java.util.function.Consumer<TableChange> listener) {
         listeners.computeIfAbsent(tableKey, k -> new CopyOnWriteArrayList<>()).add(listener);
@@ -381,9 +398,12 @@ public class RealtimeTableManager {
         if (list != null) list.remove(listener);
     }
     public static void notifyListeners(String tableKey, String action, List<NsonObject> rows) {
+        notifyListeners(tableKey, action, rows, Collections.emptyList());
+    }
+    public static void notifyListeners(String tableKey, String action, List<NsonObject> rows, List<NsonObject> oldRows) {
         List<java.util.function.Consumer<TableChange>> list = listeners.get(tableKey);
         if (list != null) {
-            TableChange change = new TableChange(action, rows);
+            TableChange change = new TableChange(action, rows, oldRows);
             list.forEach(l -> {
                 try { l.accept(change); } catch (Exception e) { e.printStackTrace(); }
             });
@@ -0,0 +1,332 @@
+package njsql.core;
+
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.AggState;
+import njsql.query.AggregateSpec;
+import njsql.query.MaterializedView;
+import njsql.query.RowKey;
+import njsql.query.TimeBucket;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rollup theo thời gian: CREATE ROLLUP ON t (created_at BY HOUR | DAY | MONTH) AGG (COUNT(*), SUM(points), ...)
+ * giữ sẵn aggregate của từng bucket thời gian và được cập nhật theo từng lần INSERT/UPDATE/DELETE của bảng
+ * (listener của RealtimeTableManager, trạng thái giống materialized view). SELECT ... GROUP BY created_at hoặc
+ * GROUP BY DATE_TRUNC('hour', created_at) không có WHERE/JOIN thì đọc thẳng các bucket, không đọc bảng.
+ * Lưu ở <db>/.rollups/<table>.nson, mỗi bảng một file chứa mọi rollup của bảng đó.
+ */
+public class RollupManager {
+
+    private static final Pattern CREATE_PATTERN = Pattern.compile(
+            "^CREATE\\s+ROLLUP\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s+BY\\s+(HOUR|DAY|MONTH)\\s*\\)\\s*AGG\\s*\\((.+)\\)\\s*;?$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern DROP_PATTERN = Pattern.compile(
+            "^DROP\\s+ROLLUP\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s+BY\\s+(HOUR|DAY|MONTH)\\s*\\)\\s*;?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SHOW_PATTERN = Pattern.compile("^SHOW\\s+ROLLUPS(?:\\s+ON\\s+(\\w+))?\\s*;?$", Pattern.CASE_INSENSITIVE);
+    private static final String ROLLUP_DIR = ".rollups";
+
+    /** Một rollup: bucket thời gian + danh sách aggregate, trạng thái theo bucket. */
+    public static final class Rollup {
+        final String table;
+        final TimeBucket bucket;
+        final List<AggregateSpec> aggregates;
+        final MaterializedView state;
+
+        Rollup(String table, TimeBucket bucket, List<AggregateSpec> aggregates) {
+            this.table = table;
+            this.bucket = bucket;
+            this.aggregates = aggregates;
+            List<MaterializedView.Column> columns = new ArrayList<>();
+            columns.add(new MaterializedView.Column("bucket", 0, null));
+            for (AggregateSpec spec : aggregates) columns.add(new MaterializedView.Column(spec.alias, -1, spec));
+            this.state = new MaterializedView(List.of(bucket.canonical()), columns, row -> true);
+        }
+
+        /**
+         * Vị trí aggregate của rollup trả lời được từng aggregate của query, null nếu thiếu. Mọi AggState đều
+         * đếm đủ row (COUNT(*)), COUNT/SUM/AVG cùng cột dùng chung nonNull/numeric/sum, MIN/MAX cùng cột
+         * dùng chung min/max (group mất cực trị được tính lại).
+         */
+        public int[] mapping(List<AggregateSpec> wanted) {
+            int[] map = new int[wanted.size()];
+            for (int i = 0; i < map.length; i++) {
+                map[i] = indexFor(wanted.get(i));
+                if (map[i] < 0) return null;
+            }
+            return map;
+        }
+
+        private int indexFor(AggregateSpec q) {
+            if (q.distinct || aggregates.isEmpty()) return -1;
+            if (q.isCountStar()) return 0;
+            for (int i = 0; i < aggregates.size(); i++) {
+                AggregateSpec r = aggregates.get(i);
+                if (!r.column.equalsIgnoreCase(q.column)) continue;
+                if (exactSums(q.function) && exactSums(r.function)) return i;
+                if (extremum(q.function) && extremum(r.function)) return i;
+            }
+            return -1;
+        }
+
+        public synchronized void forEachBucket(BiConsumer<Object, AggState[]> action) {
+            state.forEachGroup((key, states) -> action.accept(key[0], states));
+        }
+
+        public synchronized int bucketCount() {
+            return state.groupCount();
+        }
+
+        public String describe() {
+            List<String> aggs = new ArrayList<>();
+            for (AggregateSpec spec : aggregates) aggs.add(spec.alias);
+            return bucket.column + " BY " + bucket.unit + " AGG (" + String.join(", ", aggs) + ")";
+        }
+    }
+
+    private static final class TableRollups {
+        final String db;
+        final String dbDir;
+        final String table;
+        final List<Rollup> list = new CopyOnWriteArrayList<>();
+        Consumer<RealtimeTableManager.TableChange> listener;
+
+        TableRollups(String db, String dbDir, String table) {
+            this.db = db;
+            this.dbDir = dbDir;
+            this.table = table;
+        }
+
+        File file() {
+            return new File(new File(dbDir, ROLLUP_DIR), table + ".nson");
+        }
+    }
+
+    // key: thư mục database + "/" + tên bảng
+    private static final Map<String, TableRollups> tables = new ConcurrentHashMap<>();
+    private static final Set<String> loadedRoots = ConcurrentHashMap.newKeySet();
+
+    public static String handle(String sql, User user) throws Exception {
+        NsonObject result = handleForAPI(sql, user);
+        if (result.containsKey("error")) throw new Exception(result.getString("error"));
+        if (result.containsKey("data")) return SelectHandler.format(result);
+        return result.getString("message");
+    }
+
+    public static NsonObject handleForAPI(String sql, User user) {
+        NsonObject response = new NsonObject();
+        try {
+            String db = user.getCurrentDatabase();
+            if (db == null) return response.put("error", "No database selected. Please use `USE <dbname>` first.");
+            String rootDir = UserManager.getRootDirectory(user.getUsername());
+            ensureLoaded(rootDir);
+            String dbDir = rootDir + "/" + db;
+            String trimmed = sql.trim();
+
+            Matcher m;
+            if ((m = CREATE_PATTERN.matcher(trimmed)).find()) {
+                Rollup rollup = create(db, dbDir, m.group(1), m.group(2), m.group(3), m.group(4));
+                return response.put("status", "success").put("message", "Rollup on " + rollup.table + " ("
+                        + rollup.describe() + ") created (" + rollup.bucketCount() + " bucket(s)).");
+            }
+            if ((m = DROP_PATTERN.matcher(trimmed)).find()) {
+                TableRollups t = tables.get(dbDir + "/" + m.group(1));
+                Rollup rollup = t == null ? null : findExact(t, m.group(2), TimeBucket.Unit.valueOf(m.group(3).toUpperCase()));
+                if (rollup == null) return response.put("error", "Rollup on " + m.group(1) + " (" + m.group(2) + " BY "
+                        + m.group(3).toUpperCase() + ") does not exist.");
+                synchronized (t) {
+                    t.list.remove(rollup);
+                    persist(t);
+                }
+                return response.put("status", "success").put("message", "Rollup on " + t.table + " (" + rollup.describe() + ") dropped.");
+            }
+            if ((m = SHOW_PATTERN.matcher(trimmed)).find()) {
+                NsonArray data = new NsonArray();
+                for (TableRollups t : tables.values()) {
+                    if (!t.dbDir.equals(dbDir) || (m.group(1) != null && !t.table.equalsIgnoreCase(m.group(1)))) continue;
+                    for (Rollup r : t.list) {
+                        data.add(new NsonObject().put("table", t.table).put("rollup", r.describe()).put("buckets", r.bucketCount()));
+                    }
+                }
+                return response.put("status", "success").put("data", data);
+            }
+            return response.put("error", "Invalid syntax. Expected: CREATE ROLLUP ON <table> (<column> BY HOUR|DAY|MONTH) "
+                    + "AGG (COUNT(*), SUM(col), ...), DROP ROLLUP ON <table> (<column> BY HOUR|DAY|MONTH) or SHOW ROLLUPS [ON <table>]");
+        } catch (Exception e) {
+            return response.put("error", e.getMessage());
+        }
+    }
+
+    /**
+     * Rollup của bảng có đúng bucket này, null nếu không có. SelectHandler kiểm tra tiếp bằng mapping().
+     */
+    public static Rollup find(String dbDir, String table, TimeBucket bucket) {
+        TableRollups t = tables.get(dbDir + "/" + table);
+        if (t == null) return null;
+        String col = bucket.column.substring(bucket.column.lastIndexOf('.') + 1);
+        return findExact(t, col, bucket.unit);
+    }
+
+    /** Nạp rollup của mọi database dưới rootDir (một lần) và gắn listener vào bảng. */
+    public static void ensureLoaded(String rootDir) {
+        if (!loadedRoots.add(rootDir)) return;
+        File[] dbDirs = new File(rootDir).listFiles(File::isDirectory);
+        if (dbDirs == null) return;
+        for (File dbDir : dbDirs) {
+            File[] files = new File(dbDir, ROLLUP_DIR).listFiles((d, n) -> n.endsWith(".nson"));
+            if (files == null) continue;
+            for (File file : files) {
+                try {
+                    load(dbDir.getName(), dbDir.getPath(), file);
+                } catch (Exception e) {
+                    System.err.println("Rollup load error in " + dbDir.getName() + "/" + file.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static Rollup create(String db, String dbDir, String table, String column, String unit, String aggList) throws Exception {
+        if (!new File(dbDir, table + ".nson").exists() && !RealtimeTableManager.ramTables.containsKey(db + "." + table)) {
+            throw new IllegalArgumentException("Table '" + table + "' does not exist.");
+        }
+        TimeBucket bucket = new TimeBucket(column, TimeBucket.Unit.valueOf(unit.toUpperCase()));
+        List<AggregateSpec> aggregates = new ArrayList<>();
+        for (String part : SelectHandler.splitColumns(aggList)) {
+            AggregateSpec spec = AggregateSpec.parse(part.trim());
+            if (spec == null || spec.distinct || !(exactSums(spec.function) || extremum(spec.function))) {
+                throw new IllegalArgumentException("Rollup aggregates must be COUNT, SUM, AVG, MIN or MAX: '" + part.trim() + "'.");
+            }
+            // Tên cột của rollup luôn là dạng chuẩn FUNC(col), alias của câu lệnh không có nghĩa ở đây
+            aggregates.add(new AggregateSpec(spec.function, spec.column, spec.function + "(" + spec.column + ")"));
+        }
+        if (aggregates.isEmpty()) throw new IllegalArgumentException("Rollup needs at least one aggregate.");
+
+        TableRollups t = tables.computeIfAbsent(dbDir + "/" + table, k -> new TableRollups(db, dbDir, table));
+        synchronized (t) {
+            if (findExact(t, column, bucket.unit) != null) {
+                throw new IllegalArgumentException("Rollup on " + table + " (" + column + " BY " + bucket.unit + ") already exists.");
+            }
+            Rollup rollup = new Rollup(table, bucket, aggregates);
+            for (NsonObject row : MaterializedViewManager.sourceRows(db, dbDir, table)) if (row != null) rollup.state.add(row);
+            t.list.add(rollup);
+            persist(t);
+            attach(t);
+            return rollup;
+        }
+    }
+
+    private static void load(String db, String dbDir, File file) throws Exception {
+        String table = file.getName().substring(0, file.getName().length() - ".nson".length());
+        NsonArray entries = NsonObject.parse(Files.readString(file.toPath(), StandardCharsets.UTF_8)).getArray("rollups");
+        if (entries == null) return;
+        TableRollups t = tables.computeIfAbsent(dbDir + "/" + table, k -> new TableRollups(db, dbDir, table));
+        for (int i = 0; i < entries.size(); i++) {
+            NsonObject entry = entries.getObject(i);
+            List<AggregateSpec> aggregates = new ArrayList<>();
+            NsonArray aggs = entry.getArray("aggregates");
+            for (int a = 0; a < aggs.size(); a++) aggregates.add(AggregateSpec.parse(aggs.getString(a)));
+            Rollup rollup = new Rollup(table, new TimeBucket(entry.getString("column"),
+                    TimeBucket.Unit.valueOf(entry.getString("granularity"))), aggregates);
+            rollup.state.loadState(entry.getArray("state"));
+            t.list.add(rollup);
+        }
+        attach(t);
+    }
+
+    private static void attach(TableRollups t) {
+        if (t.listener != null) return;
+        t.listener = change -> apply(t, change);
+        // Key theo file của bảng: bảng cùng tên của tenant khác không đổ thay đổi vào rollup này
+        RealtimeTableManager.addListener(TableLockManager.fileKey(new File(t.dbDir, t.table + ".nson")), t.listener);
+    }
+
+    // Áp dụng một thay đổi của bảng vào mọi rollup của bảng rồi ghi lại file (O(số row đổi + số bucket))
+    private static void apply(TableRollups t, RealtimeTableManager.TableChange change) {
+        synchronized (t) {
+            try {
+                List<NsonObject> source = null;
+                for (Rollup rollup : t.list) {
+                    synchronized (rollup) {
+                        Set<RowKey> stale = new HashSet<>();
+                        switch (change.action) {
+                            case "INSERT" -> change.rows.forEach(rollup.state::add);
+                            case "DELETE" -> {
+                                for (NsonObject row : change.rows) addStale(stale, rollup.state.remove(row));
+                            }
+                            case "UPDATE" -> {
+                                if (change.oldRows.size() != change.rows.size()) {
+                                    if (source == null) source = MaterializedViewManager.sourceRows(t.db, t.dbDir, t.table);
+                                    rollup.state.clear();
+                                    for (NsonObject row : source) if (row != null) rollup.state.add(row);
+                                    break;
+                                }
+                                for (NsonObject row : change.oldRows) addStale(stale, rollup.state.remove(row));
+                                change.rows.forEach(rollup.state::add);
+                            }
+                            default -> {
+                                return;
+                            }
+                        }
+                        if (!stale.isEmpty()) {
+                            if (source == null) source = MaterializedViewManager.sourceRows(t.db, t.dbDir, t.table);
+                            rollup.state.recompute(stale, source);
+                        }
+                    }
+                }
+                persist(t);
+            } catch (Exception e) {
+                System.err.println("Rollup update on '" + t.table + "' failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void addStale(Set<RowKey> stale, RowKey key) {
+        if (key != null) stale.add(key);
+    }
+
+    private static Rollup findExact(TableRollups t, String column, TimeBucket.Unit unit) {
+        for (Rollup r : t.list) if (r.bucket.column.equalsIgnoreCase(column) && r.bucket.unit == unit) return r;
+        return null;
+    }
+
+    private static void persist(TableRollups t) throws Exception {
+        File file = t.file();
+        if (t.list.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        file.getParentFile().mkdirs();
+        NsonArray entries = new NsonArray();
+        for (Rollup r : t.list) {
+            NsonArray aggs = new NsonArray();
+            for (AggregateSpec spec : r.aggregates) aggs.add(spec.alias);
+            synchronized (r) {
+                entries.add(new NsonObject()
+                        .put("column", r.bucket.column)
+                        .put("granularity", r.bucket.unit.name())
+                        .put("aggregates", aggs)
+                        .put("state", r.state.stateToNson()));
+            }
+        }
+        MaterializedViewManager.writeAtomically(file, new NsonObject().put("rollups", entries));
+    }
+
+    private static boolean exactSums(String function) {
+        return function.equals("COUNT") || function.equals("SUM") || function.equals("AVG");
+    }
+
+    private static boolean extremum(String function) {
+        return function.equals("MIN") || function.equals("MAX");
+    }
+}
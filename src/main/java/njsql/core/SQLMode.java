@@ -2,7 +2,9 @@ package njsql.core;
 
 import njsql.models.User;
 import njsql.indexing.BTreeIndexManager;
+import njsql.nson.NsonArray;
 import njsql.nson.NsonObject;
+import njsql.query.ResultCache;
 import njsql.utils.TableFormatter;
 import njsql.core.RealtimeTableManager;
 import java.util.ArrayList;
@@ -13,12 +15,16 @@ import java.util.Map;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.core.type.TypeReference; // FIX: Thêm import
 import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class SQLMode {
 
     private static final String GREEN = "\u001B[32m";
     private static final String RED = "\u001B[31m";
     private static final String RESET = "\u001B[0m";
+    // Bảng đích của INSERT/UPDATE/DELETE, để xét cả quyền cấp riêng cho bảng
+    private static final Pattern TARGET_TABLE = Pattern.compile("^(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
 
     public static void start(User user) {
         System.out.println("\u001B[36m---   ---   ---\u001B[0m");
@@ -29,6 +35,8 @@ public class SQLMode {
         Scanner scanner = new Scanner(System.in);
         List<String> sqlBuffer = new ArrayList<>();
         String rootDir = UserManager.getRootDirectory(user.getUsername());
+        MaterializedViewManager.ensureLoaded(rootDir);
+        RollupManager.ensureLoaded(rootDir);
 
         NsonObject userConfig = UserManager.getUserConfig(user.getUsername());
         boolean isAdmin = userConfig != null && userConfig.getBoolean("isAdmin");
@@ -43,16 +51,20 @@ public class SQLMode {
             }
 
             if (line.trim().equalsIgnoreCase("/end")) {
+                if (user.getTransactionId() != null) {
+                    TransactionManager.rollback(user);
+                    System.out.println("\u001B[33m<!> \u001B[0mOpen transaction rolled back.");
+                }
                 RealtimeTableManager.flushOnExit(user);
                 System.out.println("\u001B[33m<!> \u001B[0mExiting SQL Mode...");
                 break;
             }
 
             if (line.trim().toLowerCase().startsWith("/s * ")) {
-                if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "SELECT")) {
+                String tableName = line.trim().substring(5).trim();
+                if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "SELECT", user.getCurrentDatabase(), tableName)) {
                     System.out.println(RED + ">> ERROR: Permission denied for SELECT" + RESET);
                 } else {
-                    String tableName = line.trim().substring(5).trim();
                     String sql = "SELECT * FROM " + tableName;
                     try {
                         String result = SelectHandler.handle(sql, user);
@@ -113,7 +125,11 @@ public class SQLMode {
                     try {
                         String lower = sql.toLowerCase();
 
-                        if (lower.startsWith("create database")) {
+                        if (TransactionManager.isTransactionControl(sql)) {
+                            System.out.println(GREEN + ">> " + TransactionManager.handle(sql, user) + RESET);
+                        }
+
+                        else if (lower.startsWith("create database")) {
                             if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "CREATE_DB")) {
                                 throw new Exception("Permission denied for CREATE_DB");
                             }
@@ -150,7 +166,7 @@ public class SQLMode {
                         }
 
                         else if (lower.startsWith("insert into")) {
-                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "INSERT")) {
+                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "INSERT", user.getCurrentDatabase(), targetTable(sql))) {
                                 throw new Exception("Permission denied for INSERT");
                             }
                             String dbName = user.getCurrentDatabase();
@@ -161,8 +177,15 @@ public class SQLMode {
                                 String tableName = InsertHandler.getTableName(sql);
                                 String tableKey = dbName + "." + tableName;
                                 
-                                // Logic Realtime giữ nguyên
-                                if (RealtimeTableManager.ramTables.containsKey(tableKey)) {
+                                // Logic Realtime giữ nguyên (trong transaction thì đi qua InsertHandler để chờ COMMIT)
+                                if (user.getTransactionId() != null) {
+                                    NsonObject result = InsertHandler.handleForAPI(sql, user);
+                                    if (result.containsKey("error")) {
+                                        System.out.println(RED + ">> ERROR: " + result.getString("error") + RESET);
+                                    } else {
+                                        System.out.println(">> \u001B[32mSuccess: " + result.getString("message") + RESET);
+                                    }
+                                } else if (RealtimeTableManager.ramTables.containsKey(tableKey)) {
                                     RealtimeTableManager.handleInsert(sql, user, dbName, tableName);
                                     System.out.println(">> \u001B[32mSuccess: Data inserted into table | \u001B[0m" + tableName + "\u001B[32m | in real-time mode." + RESET);
                                 } else {
@@ -182,7 +205,7 @@ public class SQLMode {
                             }
                         }
                         else if (lower.startsWith("delete from")) {
-                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "DELETE")) {
+                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "DELETE", user.getCurrentDatabase(), targetTable(sql))) {
                                 throw new Exception("Permission denied for DELETE");
                             }
                             String table = DeleteHandler.handle(sql, user);
@@ -190,7 +213,7 @@ public class SQLMode {
                         }
 
                         else if (lower.startsWith("update")) {
-                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "UPDATE")) {
+                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "UPDATE", user.getCurrentDatabase(), targetTable(sql))) {
                                 throw new Exception("Permission denied for UPDATE");
                             }
                             String dbName = user.getCurrentDatabase();
@@ -208,19 +231,59 @@ public class SQLMode {
                             }
                         }
 
-                        else if (lower.startsWith("select")) {
-                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "SELECT")) {
+                        else if (lower.startsWith("select") || lower.startsWith("explain")) {
+                            if (!isAdmin && !PermissionManager.canSelect(user.getUsername(), user.getCurrentDatabase(), sql)) {
                                 throw new Exception("Permission denied for SELECT");
                             }
                             String result = SelectHandler.handle(sql, user);
                             System.out.println(result);
                         }
 
+                        else if (lower.startsWith("declare") || lower.startsWith("fetch") || lower.startsWith("close ")) {
+                            // FETCH/CLOSE chỉ chạm cursor của chính user, quyền đã kiểm tra lúc DECLARE
+                            if (!isAdmin && lower.startsWith("declare")
+                                    && !PermissionManager.canSelect(user.getUsername(), user.getCurrentDatabase(), sql)) {
+                                throw new Exception("Permission denied for SELECT");
+                            }
+                            System.out.println(CursorManager.handle(sql, user));
+                        }
+
+                        else if (lower.startsWith("analyze")) {
+                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "ALTER_TABLE")) {
+                                throw new Exception("Permission denied for ANALYZE (requires ALTER_TABLE)");
+                            }
+                            System.out.println(GREEN + ">> " + AnalyzeHandler.handle(sql, user) + RESET);
+                        }
+
+                        else if (lower.startsWith("create materialized view") || lower.startsWith("refresh materialized view")
+                                || lower.startsWith("drop materialized view")) {
+                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "CREATE_TABLE")) {
+                                throw new Exception("Permission denied for MATERIALIZED VIEW (requires CREATE_TABLE)");
+                            }
+                            System.out.println(GREEN + ">> " + MaterializedViewManager.handle(sql, user) + RESET);
+                        }
+
+                        else if (lower.startsWith("create rollup") || lower.startsWith("drop rollup")) {
+                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "CREATE_TABLE")) {
+                                throw new Exception("Permission denied for ROLLUP (requires CREATE_TABLE)");
+                            }
+                            System.out.println(GREEN + ">> " + RollupManager.handle(sql, user) + RESET);
+                        }
+
+                        else if (lower.startsWith("show rollups")) {
+                            System.out.println(RollupManager.handle(sql, user));
+                        }
+
+                        else if (lower.startsWith("set ")) {
+                            System.out.println(GREEN + ">> " + SetHandler.handle(sql, user) + RESET);
+                        }
+
                         else if (lower.startsWith("describe")) {
-                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "SELECT")) {
+                            String[] tokens = sql.split("\\s+");
+                            if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "SELECT", user.getCurrentDatabase(),
+                                    tokens.length < 2 ? null : tokens[1].replace(";", "").trim())) {
                                 throw new Exception("Permission denied for DESCRIBE (requires SELECT)");
                             }
-                            String[] tokens = sql.split("\\s+");
                             if (tokens.length < 2) {
                                 System.out.println(RED + ">> ERROR: Missing table name for DESCRIBE." + RESET);
                             } else {
@@ -266,6 +329,43 @@ public class SQLMode {
                             }
                         }
 
+                        else if (lower.startsWith("show cache")) {
+                            // Số liệu cache kết quả SELECT (bật theo session bằng SET result_cache = on)
+                            NsonObject stats = ResultCache.stats();
+                            List<List<String>> rows = new ArrayList<>();
+                            for (String key : stats.keySet()) rows.add(List.of(key, String.valueOf(stats.get(key))));
+                            System.out.println(TableFormatter.formatTable(List.of("Metric", "Value"), rows));
+                        }
+
+                        else if (lower.startsWith("show locks")) {
+                            // Khóa bảng của tenant: số lần lấy, đọc lạc quan, thời gian chờ, timeout
+                            printStats(TableLockManager.stats(user), ">> No table locks taken yet.");
+                        }
+
+                        else if (lower.startsWith("show mailboxes")) {
+                            // Writer mỗi bảng (-Dnjsql.writer=actor): độ sâu hàng đợi, số lô, cỡ lô trung bình
+                            printStats(TableWriter.stats(user), ">> No table mailboxes" + (TableWriter.enabled() ? " yet." : " (writer mode is 'lock')."));
+                        }
+
+                        else if (lower.startsWith("show queries")) {
+                            // SELECT đang chạy/xếp hàng (của mình, user có quyền KILL thấy cả tenant): dùng query_id cho KILL
+                            printStats(QueryManager.stats(user), ">> No running queries.");
+                        }
+
+                        else if (lower.startsWith("show quotas")) {
+                            // Hạn mức và bộ đếm theo user (của mình, admin thấy cả tenant): số query, row đã đọc, số lần bị từ chối
+                            printStats(QuotaManager.stats(user), ">> No quota usage yet.");
+                        }
+
+                        else if (lower.startsWith("show workloads")) {
+                            // Lớp tải của scheduler: phần suất, đang chạy/chờ, số lần mượn suất, byte I/O và thời gian bị giới hạn
+                            printStats(WorkloadScheduler.stats(), ">> No workload classes.");
+                        }
+
+                        else if (QueryManager.isKill(sql)) {
+                            System.out.println(">> \u001B[32m" + QueryManager.handle(sql, user) + RESET);
+                        }
+
                         else if (lower.startsWith("alter table")) {
                             if (!isAdmin && !PermissionManager.hasPermission(user.getUsername(), "ALTER_TABLE")) {
                                 throw new Exception("Permission denied for ALTER_TABLE");
@@ -395,4 +495,26 @@ public class SQLMode {
 
         return statements;
     }
-}
\ No newline at end of file
+
+    // Bảng kết quả của các lệnh SHOW: cột lấy theo key của row đầu, rỗng thì in message
+    private static void printStats(NsonArray stats, String emptyMessage) {
+        if (stats.isEmpty()) {
+            System.out.println(GREEN + emptyMessage + RESET);
+            return;
+        }
+        List<String> headers = new ArrayList<>(stats.getObject(0).keySet());
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = 0; i < stats.size(); i++) {
+            NsonObject row = stats.getObject(i);
+            List<String> cells = new ArrayList<>();
+            for (String h : headers) cells.add(String.valueOf(row.get(h)));
+            rows.add(cells);
+        }
+        System.out.println(TableFormatter.formatTable(headers, rows));
+    }
+
+    private static String targetTable(String sql) {
+        Matcher m = TARGET_TABLE.matcher(sql.trim());
+        return m.find() ? m.group(1) : null;
+    }
+}
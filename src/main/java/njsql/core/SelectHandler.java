@@ -3,8 +3,27 @@ package njsql.core;
 import njsql.models.User;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
+import njsql.indexing.RowIndexCache;
+import njsql.query.AggState;
+import njsql.query.AggregateSpec;
+import njsql.query.ExternalSorter;
+import njsql.query.HashAggregator;
+import njsql.query.JoinExecutor;
+import njsql.query.ParallelExecutor;
+import njsql.query.PlanNode;
+import njsql.query.QueryPlan;
+import njsql.query.QueryPlanner;
+import njsql.query.QueryContext;
+import njsql.query.ResultCache;
+import njsql.query.RowComparator;
+import njsql.query.RowKey;
+import njsql.query.TableScanner;
+import njsql.query.TimeBucket;
+import njsql.query.VectorizedAggregate;
+import njsql.query.Values;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.*;
@@ -13,9 +32,23 @@ import java.util.regex.Pattern;
 
 public class SelectHandler {
 
+    private static final Pattern JOIN_PATTERN = Pattern.compile(
+            "^(?:(INNER|LEFT)(?:\\s+OUTER)?\\s+)?JOIN\\s+(\\w+)(?:\\s+(?:AS\\s+)?(?!(?:ON|WHERE|JOIN|INNER|LEFT|GROUP|ORDER|LIMIT)\\b)(\\w+))?(?:\\s+ON\\s+([\\w.]+)\\s*=\\s*([\\w.]+))?",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern EXPLAIN_PATTERN = Pattern.compile(
+            "^\\s*EXPLAIN\\s+(ANALYZE\\s+)?(.*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // Một mục GROUP BY: cột hoặc DATE_TRUNC('unit', cột)
+    private static final String GROUP_ITEM = "(?:DATE_TRUNC\\s*\\(\\s*'\\w+'\\s*,\\s*[\\w.]+\\s*\\)|[\\w.]+)";
+
     // --- 1. CLI HANDLER ---
     public static String handle(String sql, User user) throws Exception {
-        NsonObject result = handleForAPI(sql, user);
+        return format(handleForAPI(sql, user));
+    }
+
+    // Bảng ASCII cho CLI từ kết quả của handleForAPI (dùng chung với FETCH của cursor)
+    static String format(NsonObject result) {
         if (result.containsKey("error")) return "ERROR: " + result.getString("error");
 
         NsonArray data = result.getArray("data");
@@ -59,17 +92,46 @@ public class SelectHandler {
     // --- 2. API HANDLER ---
     public static NsonObject handleForAPI(String sql, User user) {
         NsonObject response = new NsonObject();
-        try {
-            NsonArray data = executeQuery(sql, user);
+        // Mỗi query một QueryContext: quota bộ nhớ (SET query_mem, không vượt max_query_mem của user), work_mem cho sort,
+        // hạn chót (SET statement_timeout)
+        try (QueryContext ctx = new QueryContext(
+                QuotaManager.queryMemory(user, user.getLongSetting("query_mem", NJSQLConfig.QUERY_MEMORY_LIMIT_BYTES)),
+                user.getLongSetting("work_mem", NJSQLConfig.WORK_MEM_BYTES));
+             QueryManager.Query query = QueryManager.register(user, sql, ctx)) {
+            // EXPLAIN [ANALYZE] SELECT ...: trả cây plan dưới dạng các row
+            Matcher explain = EXPLAIN_PATTERN.matcher(sql);
+            if (explain.find()) {
+                ctx.setExplain(explain.group(1) != null);
+                sql = explain.group(2);
+            }
+            // Materialized view ghi file trễ (gom thay đổi): ghi nốt trước khi đọc hoặc tra cache
+            MaterializedViewManager.flushPending(UserManager.getRootDirectory(user.getUsername()) + "/" + user.getCurrentDatabase(),
+                    ResultCache.referencedTables(sql));
+            // Cache kết quả (opt-in): hit thì không phải đọc/parse lại file bảng
+            boolean useCache = !ctx.isExplain() && ResultCache.isEnabled() && user.getBooleanSetting("result_cache", false);
+            if (!useCache) return response.put("status", "success").put("data", executeQuery(sql, user, ctx, query));
+
+            String db = user.getCurrentDatabase();
+            String cacheKey = ResultCache.key(sql, db, user.getUsername());
+            NsonArray cached = ResultCache.get(cacheKey);
+            if (cached != null) return response.put("status", "success").put("data", cached).put("cached", true);
+
+            Map<String, Long> versions = ResultCache.snapshot(user.getUsername(), db, ResultCache.referencedTables(sql));
+            NsonArray data = executeQuery(sql, user, ctx, query);
+            ResultCache.put(cacheKey, user.getUsername(), db, versions, data);
             return response.put("status", "success").put("data", data);
         } catch (Exception e) {
-            e.printStackTrace();
+            // Hủy (KILL, statement_timeout), admission và quota là luồng điều khiển bình thường: chỉ trả lỗi
+            if (!(e instanceof QueryContext.QueryCanceledException || e instanceof QueryManager.ServerBusyException
+                    || e instanceof QuotaManager.QuotaExceededException)) {
+                e.printStackTrace();
+            }
             return response.put("error", e.getMessage());
         }
     }
 
     // --- 3. CORE LOGIC (FULL: DISTINCT -> WHERE -> GROUP -> ORDER -> LIMIT) ---
-    private static NsonArray executeQuery(String sql, User user) throws Exception {
+    private static NsonArray executeQuery(String sql, User user, QueryContext ctx, QueryManager.Query query) throws Exception {
         String dbName = user.getCurrentDatabase();
         if (dbName == null || dbName.isBlank()) throw new IllegalArgumentException("No database selected.");
         String rootDir = UserManager.getRootDirectory(user.getUsername());
@@ -91,12 +153,25 @@ public class SelectHandler {
             columnsPart = columnsPart.substring(9).trim(); // Cắt bỏ "DISTINCT " (9 ký tự)
         }
 
-        Matcher fromMatcher = Pattern.compile("^(\\w+)(?:\\s+(?:AS\\s+)?(?!(?:WHERE|JOIN|GROUP|ORDER|LIMIT)\\b)(\\w+))?\\s*(.*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(remainder);
+        Matcher fromMatcher = Pattern.compile("^(\\w+)(?:\\s+(?:AS\\s+)?(?!(?:WHERE|JOIN|INNER|LEFT|GROUP|ORDER|LIMIT)\\b)(\\w+))?\\s*(.*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(remainder);
         if (!fromMatcher.find()) throw new IllegalArgumentException("Missing table name.");
 
         String mainTable = fromMatcher.group(1);
+        String mainAlias = fromMatcher.group(2) != null ? fromMatcher.group(2) : mainTable;
         remainder = fromMatcher.group(3) != null ? fromMatcher.group(3).trim() : "";
 
+        // Parse JOIN: [INNER | LEFT [OUTER]] JOIN t [alias] [ON a.x = b.y]
+        List<JoinClause> joins = new ArrayList<>();
+        Matcher joinM = JOIN_PATTERN.matcher(remainder);
+        while (joinM.find()) {
+            boolean left = joinM.group(1) != null && joinM.group(1).equalsIgnoreCase("LEFT");
+            String joinTable = joinM.group(2);
+            String joinAlias = joinM.group(3) != null ? joinM.group(3) : joinTable;
+            joins.add(new JoinClause(joinTable, joinAlias, left, joinM.group(4), joinM.group(5)));
+            remainder = remainder.substring(joinM.end()).trim();
+            joinM = JOIN_PATTERN.matcher(remainder);
+        }
+
         // Parse WHERE
         String whereClause = null;
         Matcher whereM = Pattern.compile("^WHERE\\s+(.*?)(?=\\s+GROUP\\s+BY|\\s+ORDER\\s+BY|\\s+LIMIT|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(remainder);
@@ -105,21 +180,22 @@ public class SelectHandler {
             remainder = remainder.substring(whereM.end()).trim();
         }
 
-        // Parse GROUP BY
-        String groupByColumn = null;
-        Matcher groupM = Pattern.compile("^GROUP\\s+BY\\s+([\\w.]+)(?=\\s+ORDER\\s+BY|\\s+LIMIT|$)", Pattern.CASE_INSENSITIVE).matcher(remainder);
+        // Parse GROUP BY (hỗ trợ nhiều cột: GROUP BY a, b; bucket thời gian: GROUP BY DATE_TRUNC('hour', created_at))
+        List<String> groupByColumns = new ArrayList<>();
+        Matcher groupM = Pattern.compile("^GROUP\\s+BY\\s+(" + GROUP_ITEM + "(?:\\s*,\\s*" + GROUP_ITEM + ")*)(?=\\s+ORDER\\s+BY|\\s+LIMIT|$)", Pattern.CASE_INSENSITIVE).matcher(remainder);
         if (groupM.find()) {
-            groupByColumn = groupM.group(1).trim();
+            for (String g : splitColumns(groupM.group(1))) {
+                TimeBucket bucket = TimeBucket.parse(g.trim());
+                groupByColumns.add(bucket != null ? bucket.canonical() : g.trim());
+            }
             remainder = remainder.substring(groupM.end()).trim();
         }
 
-        // Parse ORDER BY
-        Matcher orderM = Pattern.compile("^ORDER\\s+BY\\s+([\\w.]+)(?:\\s+(ASC|DESC))?", Pattern.CASE_INSENSITIVE).matcher(remainder);
-        String orderByColumn = null;
-        String orderDirection = "ASC";
+        // Parse ORDER BY (nhiều cột: ORDER BY a DESC, b)
+        Matcher orderM = Pattern.compile("^ORDER\\s+BY\\s+([\\w.]+(?:\\s+(?:ASC|DESC))?(?:\\s*,\\s*[\\w.]+(?:\\s+(?:ASC|DESC))?)*)", Pattern.CASE_INSENSITIVE).matcher(remainder);
+        String orderBy = null;
         if (orderM.find()) {
-            orderByColumn = orderM.group(1).trim();
-            orderDirection = orderM.group(2) != null ? orderM.group(2).toUpperCase() : "ASC";
+            orderBy = orderM.group(1).trim();
             remainder = remainder.substring(orderM.end()).trim(); // Cập nhật remainder để tìm LIMIT sau ORDER
         }
 
@@ -134,124 +210,331 @@ public class SelectHandler {
             }
         }
 
-        // Load Data
-        NsonObject mainTableObj = loadTableData(user, dbName, mainTable, rootDir);
-        NsonArray mainRows = mainTableObj.getArray("data");
+        boolean selectAll = columnsPart.equals("*");
+        List<ColumnDef> projections = selectAll ? Collections.emptyList() : parseProjections(columnsPart);
 
-        // 1. FILTER (WHERE)
-        List<NsonObject> filteredRows = new ArrayList<>();
-        for (int i = 0; i < mainRows.size(); i++) {
-            NsonObject row = mainRows.getObject(i);
-            if (evaluateExpression(row, whereClause)) {
-                filteredRows.add(row);
-            }
+        // GROUP BY bucket thời gian có rollup: trả thẳng từ các bucket đã tính sẵn, không đọc bảng
+        if (joins.isEmpty() && whereClause == null && !isDistinct && !selectAll && groupByColumns.size() == 1) {
+            NsonArray fromRollup = rollupQuery(rootDir + "/" + dbName, mainTable, groupByColumns.get(0), projections,
+                    orderBy, limit, offset, ctx);
+            if (fromRollup != null) return fromRollup;
         }
 
-        // 2. GROUPING
-        Map<String, List<NsonObject>> groups = new LinkedHashMap<>();
-        if (groupByColumn != null) {
-            for (NsonObject row : filteredRows) {
-                Object keyObj = getRowValue(row, groupByColumn);
-                String key = keyObj != null ? keyObj.toString() : "NULL";
-                if (groupByColumn.equals("created_at") && key.length() >= 10) {
-                    key = key.substring(0, 10);
+        // Load Data (mỗi bảng một node "Table Read" để EXPLAIN ANALYZE thấy thời gian parse file)
+        // Query một bảng: decoder streaming chỉ đọc cột được dùng và lọc sẵn điều kiện đơn giản của WHERE
+        // Bảng đọc một phần không có version nên không đi được index (ordered scan, distinct index scan, index cache):
+        // query có thể dùng index thì nạp cả bảng như trước
+        TableScanner scanner = joins.isEmpty()
+                && !mayUseIndex(new File(rootDir + "/" + dbName + "/" + mainTable + ".nson"), whereClause, projections,
+                        groupByColumns, orderBy, limit, isDistinct)
+                ? new TableScanner(selectAll ? null : referencedColumns(projections, whereClause, groupByColumns, orderBy), whereClause)
+                : null;
+        // File bảng: nạp không khóa (đọc lạc quan), có lệnh ghi xen vào thì nạp lại dưới khóa đọc.
+        // Bảng realtime: đọc theo snapshot MVCC mở ở đây, không khóa và không chờ writer.
+        Map<String, PlanNode> reads = new HashMap<>();
+        Set<String> lockKeys = new HashSet<>();
+        if (!RealtimeTableManager.ramTables.containsKey(dbName + "." + mainTable)) lockKeys.add(TableLockManager.fileKey(user.getUsername(), dbName, mainTable));
+        for (JoinClause join : joins) {
+            if (!RealtimeTableManager.ramTables.containsKey(dbName + "." + join.table)) lockKeys.add(TableLockManager.fileKey(user.getUsername(), dbName, join.table));
+        }
+        List<QueryPlan.TableInput> tables;
+        try (VersionedTable.Snapshot snapshot = VersionedTable.openSnapshot()) {
+            tables = TableLockManager.readOptimistic(user, lockKeys, () -> {
+                List<QueryPlan.TableInput> loaded = new ArrayList<>();
+                loaded.add(loadInput(user, dbName, rootDir, mainTable, mainAlias, false, null, null, reads, scanner, snapshot));
+                for (JoinClause join : joins) {
+                    loaded.add(loadInput(user, dbName, rootDir, join.table, join.alias, join.left, join.onLeft, join.onRight, reads, null, snapshot));
                 }
-                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
-            }
+                return loaded;
+            });
+        }
+
+        ctx.checkCancelled();
+
+        // PLAN: scan hay index cho bảng FROM, thứ tự + thuật toán join (dựa trên _stats nếu đã ANALYZE)
+        QueryPlan plan = QueryPlanner.plan(tables, whereClause);
+
+        List<AggregateSpec> aggregates = new ArrayList<>();
+        for (ColumnDef def : projections) if (def.aggregate != null) aggregates.add(def.aggregate);
+        boolean aggregating = !groupByColumns.isEmpty() || !aggregates.isEmpty();
+        // Aggregate không GROUP BY, WHERE chỉ gồm "cột op số": chạy theo lô cột bằng kernel SIMD
+        VectorizedAggregate vectorized = aggregating && joins.isEmpty() && groupByColumns.isEmpty()
+                && aggregates.size() == projections.size() && user.getBooleanSetting("vectorized", true)
+                ? VectorizedAggregate.compile(whereClause, aggregates) : null;
+        // DISTINCT một cột có index: đọc thẳng các key của index thay vì quét + dedupe
+        String distinctIndexColumn = isDistinct && !aggregating && joins.isEmpty() && projections.size() == 1
+                ? indexedColumn(plan.from, projections.get(0).column) : null;
+        // ORDER BY một cột có index + LIMIT (keyset pagination: WHERE id > ? ORDER BY id LIMIT n):
+        // duyệt index theo thứ tự, dừng khi đủ offset + limit row, không sort cả kết quả
+        String orderedIndexColumn = !isDistinct && !aggregating && joins.isEmpty() && orderBy != null && limit != -1
+                ? orderedIndexColumn(plan, orderBy, projections, selectAll) : null;
+        QueryPlan.AccessPath orderedRange = orderedIndexColumn != null
+                ? QueryPlanner.indexPathOn(tables, whereClause, orderedIndexColumn) : null;
+        // Index bỏ qua NULL: chỉ duyệt cả index khi cột là primary key, còn lại cần điều kiện WHERE trên chính cột đó
+        if (orderedIndexColumn != null && orderedRange == null && !isPrimaryKey(plan.from, orderedIndexColumn)) {
+            orderedIndexColumn = null;
+        }
+        boolean orderDescending = orderedIndexColumn != null && orderBy.toUpperCase().endsWith(" DESC");
+
+        // Cây plan cho EXPLAIN; khi chạy, từng giai đoạn ghi số liệu thực tế vào node của nó
+        PlanNode accessNode = new PlanNode(plan.access.label() + " on " + describeTable(plan.from),
+                plan.access.usesIndex() ? "index: " + plan.access.column + "; " + plan.access.condition() : "",
+                plan.access.estimatedRows, reads.get(plan.from.alias));
+        List<PlanNode> joinNodes = new ArrayList<>();
+        PlanNode drivingNode = plan.driving == plan.from ? accessNode
+                : new PlanNode("Seq Scan on " + describeTable(plan.driving), "", plan.driving.data().size(), reads.get(plan.driving.alias));
+        PlanNode top = drivingNode;
+        for (QueryPlan.JoinStep step : plan.joins) {
+            boolean inlj = step.algorithm == QueryPlan.JoinAlgorithm.INDEX_NESTED_LOOP;
+            PlanNode innerNode = step.table == plan.from ? accessNode
+                    : inlj ? new PlanNode("Index Probe on " + describeTable(step.table), "index: " + step.innerKey,
+                            step.estimatedRows, reads.get(step.table.alias))
+                    : new PlanNode("Seq Scan on " + describeTable(step.table), "", step.table.data().size(), reads.get(step.table.alias));
+            top = new PlanNode((inlj ? "Index Nested Loop " : "Hash ") + (step.leftOuter ? "Left Join" : "Join"),
+                    step.outerKey + " = " + step.table.alias + "." + step.innerKey, step.estimatedRows, top, innerNode);
+            joinNodes.add(top);
+        }
+        String filterDetail = whereClause != null ? "where: " + whereClause : "";
+        PlanNode stageNode;
+        if (distinctIndexColumn != null) {
+            stageNode = new PlanNode("Distinct Index Scan on " + describeTable(plan.from),
+                    "index: " + distinctIndexColumn + (filterDetail.isEmpty() ? "" : "; " + filterDetail),
+                    QueryPlanner.estimateGroups(tables, List.of(distinctIndexColumn), plan.filteredRows), reads.get(plan.from.alias));
+        } else if (orderedIndexColumn != null) {
+            stageNode = new PlanNode("Index Ordered Scan on " + describeTable(plan.from),
+                    "index: " + orderedIndexColumn + (orderDescending ? " DESC" : " ASC")
+                            + (orderedRange != null ? "; " + orderedRange.condition() : "")
+                            + (filterDetail.isEmpty() ? "" : "; " + filterDetail),
+                    Math.min(plan.filteredRows, offset + limit), reads.get(plan.from.alias));
+        } else if (vectorized != null) {
+            stageNode = new PlanNode("Vectorized Aggregate",
+                    (filterDetail.isEmpty() ? "" : filterDetail + "; ") + vectorized.describe(NJSQLConfig.VECTOR_BATCH_SIZE), 1, top);
+        } else if (aggregating) {
+            stageNode = new PlanNode(groupByColumns.isEmpty() ? "Aggregate" : "HashAggregate",
+                    (groupByColumns.isEmpty() ? "" : "group by: " + String.join(", ", groupByColumns) + (filterDetail.isEmpty() ? "" : "; "))
+                            + filterDetail,
+                    QueryPlanner.estimateGroups(tables, groupByColumns, plan.filteredRows), top);
+        } else {
+            stageNode = new PlanNode(whereClause != null ? "Filter" : "Project",
+                    (filterDetail.isEmpty() ? "" : filterDetail + "; ") + "columns: " + columnsPart, plan.filteredRows, top);
+        }
+        top = stageNode;
+        PlanNode distinctNode = null, sortNode = null, limitNode = null;
+        if (isDistinct && distinctIndexColumn == null) {
+            top = distinctNode = new PlanNode("HashDistinct", "", top.estimatedRows(), top);
+        }
+        if (orderBy != null && orderedIndexColumn == null) top = sortNode = new PlanNode("Sort", "keys: " + orderBy, top.estimatedRows(), top);
+        if (limit != -1) {
+            top = limitNode = new PlanNode("Limit", "limit: " + limit + (offset > 0 ? "; offset: " + offset : ""),
+                    Math.min(limit, Math.max(0, top.estimatedRows() - offset)), top);
+        }
+        PlanNode root = top;
+
+        // Số luồng cho query: SET parallelism, bị chặn bởi NJSQLConfig.MAX_PARALLELISM
+        int parallelism = user.getIntSetting("parallelism", NJSQLConfig.DEFAULT_PARALLELISM);
+        if (ctx.isExplain() && !ctx.isExplainAnalyze()) {
+            int plannedDop = ParallelExecutor.effectiveParallelism(parallelism, (int) Math.min(Integer.MAX_VALUE, plan.estimatedRows));
+            if (plannedDop > 1 && vectorized == null) stageNode.note("workers: " + plannedDop);
+            return root.toRows(false);
+        }
+        // max_rows_scanned của user: đếm row thật sự đọc trong lúc chạy, vượt thì dừng query
+        QuotaManager.watchRowsScanned(user, ctx);
+        // Query nặng chờ suất của admission control (KILL/timeout vẫn có hiệu lực khi đang chờ)
+        QueryManager.admit(query, plan.estimatedRows);
+
+        NsonArray projected;
+        ExternalSorter streamed = null; // FILTER + PROJECTION đổ thẳng vào sort (không giữ cả mảng kết quả)
+        if (distinctIndexColumn != null) {
+            stageNode.start();
+            int[] rowsRead = new int[1];
+            // Không ORDER BY thì LIMIT dừng sớm ngay khi đủ số key
+            int stopAfter = orderBy == null && limit != -1 ? offset + limit : -1;
+            projected = indexDistinct(plan, distinctIndexColumn, projections.get(0).alias, whereClause, stopAfter, rowsRead, ctx);
+            ctx.countRows(rowsRead[0] & QueryContext.CHECK_MASK); // phần lẻ sau lần kiểm tra cuối
+            stageNode.finish(projected.size(), rowsRead[0]);
+        } else if (orderedIndexColumn != null) {
+            stageNode.start();
+            int[] rowsRead = new int[1];
+            projected = orderedIndexScan(plan.from, orderedIndexColumn, orderedRange, orderDescending, whereClause,
+                    projections, selectAll, offset + limit, rowsRead, ctx);
+            ctx.countRows(rowsRead[0] & QueryContext.CHECK_MASK);
+            stageNode.finish(projected.size(), rowsRead[0]);
         } else {
-            boolean hasAggregate = columnsPart.toUpperCase().matches(".*(SUM|COUNT|AVG|MAX|MIN)\\(.*");
-            if (hasAggregate) {
-                groups.put("ALL", filteredRows);
+            accessNode.start();
+            NsonArray fromRows = accessRows(plan);
+            accessNode.finish(fromRows.size(), plan.access.usesIndex() ? fromRows.size() : plan.from.data().size());
+            NsonArray mainRows = joins.isEmpty() ? fromRows : executeJoins(plan, fromRows, ctx, drivingNode, joinNodes);
+
+            int dop = vectorized != null ? 1 : ParallelExecutor.effectiveParallelism(parallelism, mainRows.size());
+            if (dop > 1) stageNode.note("workers: " + dop);
+            final String fWhere = whereClause;
+            // Không JOIN: row vào stage là row đọc từ bảng, đếm vào rows scanned (có JOIN thì join đã đếm)
+            boolean scanned = joins.isEmpty();
+
+            stageNode.start();
+            projected = new NsonArray();
+            if (vectorized != null) {
+                // 1+2. FILTER + AGGREGATE theo lô cột, WHERE đã nằm hết trong các lượt so sánh vector
+                AggState[] states = vectorized.run(mainRows, NJSQLConfig.VECTOR_BATCH_SIZE, ctx);
+                NsonObject outRow = new NsonObject();
+                for (int i = 0; i < states.length; i++) outRow.put(projections.get(i).alias, states[i].result(aggregates.get(i)));
+                projected.add(outRow);
+            } else if (aggregating) {
+                // 1+2. FILTER + HASH AGGREGATE trong một lượt, không giữ lại row của group
+                // (hết quota bộ nhớ của query thì group mới spill xuống đĩa theo partition)
+                HashAggregator aggregator;
+                if (dop > 1) {
+                    aggregator = ParallelExecutor.aggregate(mainRows, row -> evaluateExpression(row, fWhere),
+                            () -> new HashAggregator(groupByColumns, aggregates, ctx.memory()), dop, scanned, ctx);
+                } else {
+                    aggregator = new HashAggregator(groupByColumns, aggregates, ctx.memory());
+                    for (int i = 0; i < mainRows.size(); i++) {
+                        if ((i & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled(scanned ? QueryContext.block(i, mainRows.size()) : 0);
+                        NsonObject row = mainRows.getObject(i);
+                        if (evaluateExpression(row, whereClause)) aggregator.accumulate(row);
+                    }
+                }
+
+                // 3. PROJECTION từ group
+                try (aggregator) {
+                    aggregator.ensureGlobalGroup();
+                    NsonArray out = projected;
+                    aggregator.forEachGroup(group -> out.add(projectGroup(group, aggregator, projections, selectAll)));
+                }
+            } else if (dop > 1) {
+                projected = ParallelExecutor.filterProject(mainRows, row -> evaluateExpression(row, fWhere),
+                        row -> projectRow(row, projections, selectAll), dop, scanned, ctx);
+            } else if (sortNode != null && distinctNode == null) {
+                // 1+3+4. FILTER + PROJECTION từng row, đưa thẳng vào sorter: heap chỉ giữ tối đa work_mem row đã project,
+                // phần vượt spill thành run ngay trong lúc quét
+                streamed = new ExternalSorter(RowComparator.parse(orderBy), ctx.workMem(), ctx.memory());
+                try {
+                    for (int i = 0; i < mainRows.size(); i++) {
+                        if ((i & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled(scanned ? QueryContext.block(i, mainRows.size()) : 0);
+                        NsonObject row = mainRows.getObject(i);
+                        if (evaluateExpression(row, whereClause)) streamed.add(projectRow(row, projections, selectAll));
+                    }
+                } catch (Exception | Error e) {
+                    streamed.close();
+                    throw e;
+                }
             } else {
-                for(int i=0; i<filteredRows.size(); i++) groups.put(String.valueOf(i), Collections.singletonList(filteredRows.get(i)));
+                // 1+3. FILTER + PROJECTION từng row
+                for (int i = 0; i < mainRows.size(); i++) {
+                    if ((i & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled(scanned ? QueryContext.block(i, mainRows.size()) : 0);
+                    NsonObject row = mainRows.getObject(i);
+                    if (evaluateExpression(row, whereClause)) projected.add(projectRow(row, projections, selectAll));
+                }
+            }
+            stageNode.finish(streamed != null ? streamed.rowCount() : projected.size(), mainRows.size());
+
+            // BƯỚC 3.5: DISTINCT bằng hash set trên tuple giá trị (RowKey), không serialize row thành chuỗi
+            if (distinctNode != null) {
+                distinctNode.start();
+                int input = projected.size();
+                projected = distinctRows(projected);
+                distinctNode.finish(projected.size(), input);
             }
         }
 
-        // 3. PROJECTION
-        NsonArray projected = new NsonArray();
-        boolean selectAll = columnsPart.equals("*");
-        String[] reqCols = selectAll ? null : splitColumns(columnsPart);
+        NsonArray result = sortAndLimit(projected, streamed, orderBy, limit, offset, sortNode, limitNode, ctx);
+        return ctx.isExplainAnalyze() ? root.toRows(true) : result;
+    }
 
-        for (Map.Entry<String, List<NsonObject>> entry : groups.entrySet()) {
-            List<NsonObject> groupRows = entry.getValue();
-            if (groupRows.isEmpty()) continue;
-            
-            NsonObject representative = groupRows.get(0);
-            NsonObject outRow = new NsonObject();
+    /**
+     * Trả lời SELECT bucket, aggregate... GROUP BY bucket bằng rollup của bảng (RollupManager), null nếu bảng không có
+     * rollup đúng bucket hoặc rollup thiếu aggregate. Mỗi bucket là một row, không phụ thuộc số row của bảng.
+     */
+    private static NsonArray rollupQuery(String dbDir, String table, String groupBy, List<ColumnDef> projections,
+                                         String orderBy, int limit, int offset, QueryContext ctx) throws Exception {
+        TimeBucket bucket = TimeBucket.ofGroupBy(groupBy);
+        if (bucket == null) return null;
+        RollupManager.Rollup rollup = RollupManager.find(dbDir, table, bucket);
+        if (rollup == null) return null;
+        List<AggregateSpec> aggregates = new ArrayList<>();
+        for (ColumnDef def : projections) {
+            if (def.aggregate != null) aggregates.add(def.aggregate);
+            else if (!def.column.equalsIgnoreCase(groupBy)) return null; // cột không phải bucket
+        }
+        int[] mapping = rollup.mapping(aggregates);
+        if (mapping == null) return null;
 
-            if (selectAll) {
-                outRow = representative; 
-            } else {
-                for (String colDef : reqCols) {
-                    colDef = colDef.trim();
-                    Matcher aggM = Pattern.compile("(SUM|COUNT|AVG|MAX|MIN)\\((.*?)\\)(?:\\s+AS\\s+(\\w+))?", Pattern.CASE_INSENSITIVE).matcher(colDef);
-                    
-                    if (aggM.find()) {
-                        String func = aggM.group(1).toUpperCase();
-                        String targetCol = aggM.group(2).trim();
-                        String alias = aggM.group(3) != null ? aggM.group(3) : (func + "(" + targetCol + ")");
-                        double val = calculateAggregate(func, targetCol, groupRows);
-                        if (func.equals("COUNT")) outRow.put(alias, (int)val);
-                        else outRow.put(alias, val);
-                    } else {
-                        String[] parts = colDef.split("(?i)\\s+AS\\s+");
-                        String colName = parts[0].trim();
-                        String alias = parts.length > 1 ? parts[1].trim() : colName;
-                        if (groupByColumn != null && colName.equals(groupByColumn) && groupByColumn.equals("created_at")) {
-                             outRow.put(alias, entry.getKey());
-                        } else {
-                             outRow.put(alias, getRowValue(representative, colName));
-                        }
-                    }
+        PlanNode scanNode = new PlanNode("Rollup Scan on " + table, "rollup: " + rollup.describe(), rollup.bucketCount());
+        PlanNode top = scanNode, sortNode = null, limitNode = null;
+        if (orderBy != null) top = sortNode = new PlanNode("Sort", "keys: " + orderBy, top.estimatedRows(), top);
+        if (limit != -1) {
+            top = limitNode = new PlanNode("Limit", "limit: " + limit + (offset > 0 ? "; offset: " + offset : ""),
+                    Math.min(limit, Math.max(0, top.estimatedRows() - offset)), top);
+        }
+        if (ctx.isExplain() && !ctx.isExplainAnalyze()) return top.toRows(false);
+
+        scanNode.start();
+        NsonArray projected = new NsonArray();
+        rollup.forEachBucket((key, states) -> {
+            NsonObject outRow = new NsonObject();
+            int aggIndex = 0;
+            for (ColumnDef def : projections) {
+                if (def.aggregate != null) {
+                    outRow.put(def.alias, states[mapping[aggIndex++]].result(def.aggregate));
+                } else {
+                    outRow.put(def.alias, key);
                 }
             }
             projected.add(outRow);
-        }
+        });
+        scanNode.finish(projected.size(), projected.size());
+        NsonArray result = sortAndLimit(projected, null, orderBy, limit, offset, sortNode, limitNode, ctx);
+        return ctx.isExplainAnalyze() ? top.toRows(true) : result;
+    }
 
-        // [NEW] BƯỚC 3.5: XỬ LÝ DISTINCT (LOẠI BỎ TRÙNG LẶP)
-        // Sau khi đã chọn cột xong xuôi, nếu có cờ isDistinct thì lọc lại
-        if (isDistinct) {
-            NsonArray distinctList = new NsonArray();
-            Set<String> seenRows = new HashSet<>();
-            
-            for (Object obj : projected) {
-                NsonObject row = (NsonObject) obj;
-                // Dùng toString() của NsonObject để tạo "chữ ký" duy nhất cho dòng đó
-                // Nếu dòng này chưa từng thấy -> Thêm vào list
-                if (seenRows.add(row.toString())) {
-                    distinctList.add(row);
+    /**
+     * 4. ORDER BY + 5. LIMIT/OFFSET trên kết quả đã project. streamed khác null: stage đã đổ row thẳng vào sorter.
+     * Còn lại (aggregate, DISTINCT, filter song song, rollup) kết quả đã nằm trọn trong projected trước khi sort,
+     * spill chỉ bớt được phần sorter giữ; EXPLAIN ANALYZE ghi "input: streamed" hoặc "input: materialized".
+     */
+    private static NsonArray sortAndLimit(NsonArray projected, ExternalSorter streamed, String orderBy, int limit, int offset,
+                                          PlanNode sortNode, PlanNode limitNode, QueryContext ctx) throws Exception {
+        NsonArray result;
+        if (sortNode != null) {
+            // 4. SORTING (external merge sort: vượt work_mem thì spill run xuống đĩa rồi merge)
+            try (ExternalSorter sorter = streamed != null ? streamed
+                    : new ExternalSorter(RowComparator.parse(orderBy), ctx.workMem(), ctx.memory())) {
+                sortNode.start();
+                if (streamed == null) {
+                    for (int i = 0; i < projected.size(); i++) {
+                        if ((i & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled();
+                        sorter.add((NsonObject) projected.get(i));
+                        projected.set(i, null); // nhả tham chiếu để GC dọn khi đã spill
+                    }
                 }
-            }
-            projected = distinctList;
-        }
-
-        // 4. SORTING
-        if (orderByColumn != null) {
-            final String fCol = orderByColumn;
-            final int dir = orderDirection.equals("ASC") ? 1 : -1;
-            List<Object> list = new ArrayList<>();
-            for(Object o : projected) list.add(o);
-            list.sort((a, b) -> {
-                NsonObject o1 = (NsonObject) a;
-                NsonObject o2 = (NsonObject) b;
-                Object v1 = o1.get(fCol);
-                Object v2 = o2.get(fCol);
-                if (v1 == null && v2 == null) return 0;
-                if (v1 == null) return -1 * dir;
-                if (v2 == null) return 1 * dir;
-                if (isNumeric(v1.toString()) && isNumeric(v2.toString())) {
-                    double d1 = Double.parseDouble(v1.toString());
-                    double d2 = Double.parseDouble(v2.toString());
-                    return Double.compare(d1, d2) * dir;
+                projected = null;
+                long input = sorter.rowCount();
+                Iterator<NsonObject> it = sorter.sortedIterator();
+                sortNode.finish(input, input);
+                sortNode.note((streamed != null ? "input: streamed; " : "input: materialized; ") + (sorter.runCount() > 0
+                        ? "external merge: " + sorter.runCount() + " runs, " + sorter.spilledRows() + " rows spilled"
+                        : "in-memory"));
+
+                // 5. LIMIT & OFFSET ngay trên luồng đã sort, dừng merge sớm khi đủ
+                if (limitNode != null) limitNode.start();
+                NsonArray sorted = new NsonArray();
+                int skipped = 0;
+                while (it.hasNext()) {
+                    if (limit != -1 && sorted.size() >= limit) break;
+                    if ((sorted.size() & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled();
+                    NsonObject row = it.next();
+                    if (skipped < offset) {
+                        skipped++;
+                        continue;
+                    }
+                    sorted.add(row);
                 }
-                return v1.toString().compareTo(v2.toString()) * dir;
-            });
-            projected = new NsonArray();
-            for(Object o : list) projected.add(o);
-        }
-
-        // 5. LIMIT & OFFSET
-        if (limit != -1) {
+                if (limitNode != null) limitNode.finish(sorted.size(), skipped + sorted.size());
+                result = sorted;
+            }
+        } else if (limit != -1) {
+            // 5. LIMIT & OFFSET
+            limitNode.start();
             NsonArray limited = new NsonArray();
             int end = Math.min(offset + limit, projected.size());
             for (int i = offset; i < end; i++) {
@@ -259,28 +542,73 @@ public class SelectHandler {
                     limited.add(projected.get(i));
                 }
             }
-            return limited;
+            limitNode.finish(limited.size(), Math.max(0, end));
+            result = limited;
+        } else {
+            result = projected;
         }
-
-        return projected;
+        return result;
     }
 
     // --- HELPER METHODS ---
-    private static double calculateAggregate(String func, String col, List<NsonObject> rows) {
-        if (func.equals("COUNT")) return rows.size();
-        double sum = 0; double min = Double.MAX_VALUE; double max = Double.MIN_VALUE; int count = 0;
-        for (NsonObject row : rows) {
-            Object valObj = getRowValue(row, col);
-            if (valObj != null && isNumeric(valObj.toString())) {
-                double val = Double.parseDouble(valObj.toString());
-                sum += val; if (val < min) min = val; if (val > max) max = val; count++;
+    // Một cột trong danh sách SELECT, đã parse sẵn một lần cho cả query
+    private static final class ColumnDef {
+        final String column;
+        final String alias;
+        final AggregateSpec aggregate;
+        final TimeBucket bucket; // DATE_TRUNC(...), column là dạng chuẩn của nó
+
+        ColumnDef(String column, String alias, AggregateSpec aggregate) {
+            this.bucket = aggregate == null ? TimeBucket.parse(column) : null;
+            this.column = bucket != null ? bucket.canonical() : column;
+            this.alias = alias;
+            this.aggregate = aggregate;
+        }
+
+        Object valueOf(NsonObject row) {
+            return bucket != null ? bucket.truncate(Values.resolve(row, bucket.column)) : Values.resolve(row, column);
+        }
+    }
+
+    private static List<ColumnDef> parseProjections(String columnsPart) {
+        List<ColumnDef> defs = new ArrayList<>();
+        for (String colDef : splitColumns(columnsPart)) {
+            colDef = colDef.trim();
+            AggregateSpec agg = AggregateSpec.parse(colDef);
+            if (agg != null) {
+                defs.add(new ColumnDef(agg.column, agg.alias, agg));
+            } else {
+                String[] parts = colDef.split("(?i)\\s+AS\\s+");
+                String colName = parts[0].trim();
+                defs.add(new ColumnDef(colName, parts.length > 1 ? parts[1].trim() : colName, null));
+            }
+        }
+        return defs;
+    }
+
+    private static NsonObject projectRow(NsonObject row, List<ColumnDef> projections, boolean selectAll) {
+        if (selectAll) return row;
+        NsonObject outRow = new NsonObject();
+        for (ColumnDef def : projections) outRow.put(def.alias, def.valueOf(row));
+        return outRow;
+    }
+
+    private static NsonObject projectGroup(HashAggregator.Group group, HashAggregator aggregator, List<ColumnDef> projections, boolean selectAll) {
+        if (selectAll) return group.representative;
+        NsonObject outRow = new NsonObject();
+        int aggIndex = 0;
+        for (ColumnDef def : projections) {
+            if (def.aggregate != null) {
+                outRow.put(def.alias, group.states[aggIndex++].result(def.aggregate));
+                continue;
             }
+            int keyIndex = aggregator.indexOfGroupColumn(def.column);
+            outRow.put(def.alias, keyIndex >= 0 ? group.keyValues[keyIndex] : def.valueOf(group.representative));
         }
-        if (count == 0) return 0;
-        return switch (func) { case "SUM" -> sum; case "AVG" -> sum / count; case "MAX" -> max; case "MIN" -> min; default -> 0; };
+        return outRow;
     }
 
-    private static String[] splitColumns(String cols) {
+    static String[] splitColumns(String cols) {
         List<String> result = new ArrayList<>(); int bal = 0; StringBuilder cur = new StringBuilder();
         for (char c : cols.toCharArray()) {
             if (c == '(') bal++; if (c == ')') bal--;
@@ -289,7 +617,7 @@ public class SelectHandler {
         result.add(cur.toString().trim()); return result.toArray(new String[0]);
     }
 
-    private static boolean evaluateExpression(NsonObject row, String expr) {
+    static boolean evaluateExpression(NsonObject row, String expr) {
         if (expr == null || expr.isBlank()) return true; expr = expr.trim();
         while (expr.startsWith("(") && expr.endsWith(")")) {
              int bal = 0; boolean wrap = true;
@@ -315,10 +643,10 @@ public class SelectHandler {
     }
     
     private static boolean checkCondition(NsonObject row, String cond) {
-        cond = cond.trim(); Matcher m = Pattern.compile("([\\w.]+)\\s*(=|!=|<>|<|>|<=|>=|LIKE|IN)\\s*(.*)", Pattern.CASE_INSENSITIVE).matcher(cond);
+        cond = cond.trim(); Matcher m = Pattern.compile("([\\w.]+)\\s*(<=|>=|!=|<>|=|<|>|LIKE|IN)\\s*(.*)", Pattern.CASE_INSENSITIVE).matcher(cond);
         if (!m.find()) return false;
         String col = m.group(1).trim(); String op = m.group(2).toUpperCase(); String valStr = m.group(3).trim();
-        Object rowVal = getRowValue(row, col); if (rowVal == null) return false;
+        Object rowVal = Values.resolve(row, col); if (rowVal == null) return false;
         if (op.equals("IN")) {
             valStr = valStr.replaceAll("^\\(|\\)$", "");
             for (String p : valStr.split(",")) if (compareValues(rowVal, p.trim().replaceAll("^'|'$", ""), "=")) return true;
@@ -338,18 +666,284 @@ public class SelectHandler {
         return switch (op) { case "="->s1.equals(targetVal); case "!=", "<>"->!s1.equals(targetVal); default->false; };
     }
 
-    private static Object getRowValue(NsonObject row, String col) {
-        if (row.containsKey(col)) return row.get(col);
-        if (col.contains(".")) { String shortCol = col.substring(col.lastIndexOf('.') + 1); if (row.containsKey(shortCol)) return row.get(shortCol); }
-        return null;
-    }
-    
     private static boolean isNumeric(String str) { try { Double.parseDouble(str); return true; } catch(Exception e) { return false; } }
 
-    private static NsonObject loadTableData(User user, String dbName, String tableName, String rootDir) throws Exception {
+    // --- JOIN ---
+    private static final class JoinClause {
+        final String table;
+        final String alias;
+        final boolean left;
+        final String onLeft;
+        final String onRight;
+
+        JoinClause(String table, String alias, boolean left, String onLeft, String onRight) {
+            this.table = table;
+            this.alias = alias;
+            this.left = left;
+            this.onLeft = onLeft;
+            this.onRight = onRight;
+        }
+    }
+
+    // Đọc bảng FROM theo access path của plan (index thì chỉ lấy các row ứng viên, WHERE vẫn kiểm tra lại sau)
+    private static NsonArray accessRows(QueryPlan plan) {
+        QueryPlan.TableInput from = plan.from;
+        NsonArray data = from.data();
+        if (!plan.access.usesIndex()) return data;
+        NavigableMap<Object, List<Integer>> index = RowIndexCache.get(from.tablePath, from.version, plan.access.column, data);
+        NsonArray rows = new NsonArray();
+        for (int pos : plan.access.positions(index)) rows.add(data.getObject(pos));
+        return rows;
+    }
+
+    private static NsonArray executeJoins(QueryPlan plan, NsonArray fromRows, QueryContext ctx,
+                                          PlanNode drivingNode, List<PlanNode> joinNodes) {
+        QueryPlan.TableInput driving = plan.driving;
+        if (driving != plan.from) drivingNode.start();
+        NsonArray current = JoinExecutor.qualifyAll(driving == plan.from ? fromRows : driving.data(), driving.alias);
+        ctx.countRows(current.size()); // bảng dẫn; bên trong của từng bước do JoinExecutor đếm
+        if (driving != plan.from) drivingNode.finish(current.size(), current.size());
+
+        for (int s = 0; s < plan.joins.size(); s++) {
+            QueryPlan.JoinStep step = plan.joins.get(s);
+            QueryPlan.TableInput inner = step.table;
+            NsonArray innerData = inner == plan.from ? fromRows : inner.data();
+            PlanNode node = joinNodes.get(s);
+            node.start();
+            int outerRows = current.size();
+            long innerRead;
+            if (step.algorithm == QueryPlan.JoinAlgorithm.INDEX_NESTED_LOOP) {
+                // Bảng bên trong có index trên join key và planner thấy rẻ hơn hash join
+                NavigableMap<Object, List<Integer>> index = RowIndexCache.get(inner.tablePath, inner.version, step.innerKey, innerData);
+                current = JoinExecutor.indexNestedLoopJoin(current, step.outerKey, innerData, index, inner.alias,
+                        step.leftOuter, inner.columns(), ctx);
+                // Row bên trong lấy qua index = các row kết quả có key phía trong (row LEFT bù NULL thì không)
+                String innerRef = inner.alias + "." + step.innerKey;
+                innerRead = 0;
+                for (int i = 0; i < current.size(); i++) if (current.getObject(i).get(innerRef) != null) innerRead++;
+            } else {
+                current = JoinExecutor.hashJoin(current, step.outerKey, innerData, inner.alias, step.innerKey,
+                        step.leftOuter, inner.columns(), ctx);
+                innerRead = innerData.size();
+            }
+            node.finish(current.size(), outerRows + innerRead);
+            PlanNode innerNode = node.children().get(1);
+            if (inner != plan.from) innerNode.record(innerRead, innerRead);
+        }
+        return current;
+    }
+
+    // Nạp bảng và ghi thời gian/bộ nhớ của việc đọc file vào node "Table Read" của alias
+    private static QueryPlan.TableInput loadInput(User user, String dbName, String rootDir, String table, String alias,
+                                                  boolean left, String onLeft, String onRight, Map<String, PlanNode> reads,
+                                                  TableScanner scanner, VersionedTable.Snapshot snapshot) throws Exception {
+        boolean ram = RealtimeTableManager.ramTables.containsKey(dbName + "." + table);
+        PlanNode read = new PlanNode("Table Read", ram ? "realtime table (RAM)" : dbName + "/" + table + ".nson", 0);
+        read.start();
+        boolean partial = !ram && scanner != null && scanner.hasPushdown();
+        NsonObject tableObj;
+        if (partial) {
+            File file = new File(rootDir + "/" + dbName + "/" + table + ".nson");
+            if (!file.exists()) throw new IllegalArgumentException("Table '" + table + "' does not exist.");
+            tableObj = scanner.read(file);
+            read.note(scanner.describe());
+        } else {
+            tableObj = loadTableData(dbName, table, rootDir, snapshot);
+        }
+        QueryPlan.TableInput input = new QueryPlan.TableInput(table, alias, tableObj,
+                rootDir + "/" + dbName + "/" + table, left, onLeft, onRight, partial);
+        int rows = input.data().size();
+        read.setEstimatedRows(partial ? scanner.rowsScanned() : rows);
+        read.finish(rows, partial ? scanner.rowsScanned() : rows);
+        reads.put(alias, read);
+        return input;
+    }
+
+    private static final Set<String> WHERE_KEYWORDS = Set.of("AND", "OR", "NOT", "NULL", "IS", "IN", "LIKE", "BETWEEN", "TRUE", "FALSE");
+
+    // Tên cột (bỏ alias) mà query đọc tới: SELECT, WHERE, GROUP BY, ORDER BY. Thừa tên không sao, thiếu thì sai.
+    private static Set<String> referencedColumns(List<ColumnDef> projections, String whereClause,
+                                                 List<String> groupByColumns, String orderBy) {
+        Set<String> refs = new LinkedHashSet<>();
+        for (ColumnDef def : projections) {
+            if (def.bucket != null) refs.add(def.bucket.column);
+            else if (def.aggregate == null || !def.aggregate.isCountStar()) refs.add(def.column);
+        }
+        for (String g : groupByColumns) {
+            TimeBucket bucket = TimeBucket.parse(g);
+            refs.add(bucket != null ? bucket.column : g);
+        }
+        if (orderBy != null) {
+            for (String key : orderBy.split(",")) refs.add(key.trim().split("\\s+")[0]);
+        }
+        if (whereClause != null) {
+            Matcher m = Pattern.compile("[A-Za-z_][\\w.]*").matcher(whereClause.replaceAll("'[^']*'", "''"));
+            while (m.find()) {
+                if (!WHERE_KEYWORDS.contains(m.group().toUpperCase())) refs.add(m.group());
+            }
+        }
+        Set<String> columns = new LinkedHashSet<>();
+        for (String ref : refs) columns.add(ref.substring(ref.lastIndexOf('.') + 1));
+        return columns;
+    }
+
+    /**
+     * Query một bảng có cột ứng viên cho index không: cột trong điều kiện WHERE, ORDER BY một cột + LIMIT,
+     * hoặc DISTINCT một cột. Có thì SelectHandler nạp cả bảng thay vì pushdown.
+     */
+    private static boolean mayUseIndex(File file, String whereClause, List<ColumnDef> projections, List<String> groupByColumns,
+                                       String orderBy, int limit, boolean isDistinct) {
+        boolean aggregating = !groupByColumns.isEmpty();
+        for (ColumnDef def : projections) if (def.aggregate != null) aggregating = true;
+        Set<String> candidates = new LinkedHashSet<>(QueryPlanner.conditionColumns(whereClause));
+        if (!isDistinct && !aggregating && orderBy != null && limit != -1 && !orderBy.contains(",")) {
+            String col = orderBy.trim().split("\\s+")[0];
+            candidates.add(col.substring(col.lastIndexOf('.') + 1));
+        }
+        if (isDistinct && !aggregating && projections.size() == 1 && projections.get(0).column != null) {
+            String col = projections.get(0).column;
+            candidates.add(col.substring(col.lastIndexOf('.') + 1));
+        }
+        if (candidates.isEmpty() || !file.exists()) return false;
+        try {
+            Set<String> indexed = TableScanner.indexedColumns(file);
+            for (String col : candidates) if (indexed.contains(col)) return true;
+        } catch (IOException e) {
+            // File đang bị ghi dở: giữ pushdown, lần đọc thật sẽ validate/đọc lại dưới khóa
+        }
+        return false;
+    }
+
+    // Cột (bỏ tiền tố alias) nếu có index trên bảng FROM, null nếu không
+    private static String indexedColumn(QueryPlan.TableInput from, String column) {
+        String col = column;
+        int dot = col.indexOf('.');
+        if (dot > 0) {
+            if (!col.substring(0, dot).equals(from.alias)) return null;
+            col = col.substring(dot + 1);
+        }
+        return from.version != null && RowIndexCache.hasIndex(from.tableObj, col) ? col : null;
+    }
+
+    /**
+     * Cột index dùng được để trả row theo đúng ORDER BY mà không sort: ORDER BY một cột có index của bảng FROM
+     * và cột đó nằm trong kết quả. Planner đã chọn index trên cột khác (điều kiện chọn lọc hơn) thì giữ plan đó.
+     */
+    private static String orderedIndexColumn(QueryPlan plan, String orderBy, List<ColumnDef> projections, boolean selectAll) {
+        String[] parts = orderBy.trim().split("\\s+");
+        if (orderBy.contains(",") || parts.length > 2) return null;
+        String column = indexedColumn(plan.from, parts[0]);
+        if (column == null) return null;
+        if (!selectAll) {
+            boolean projected = false;
+            for (ColumnDef def : projections) {
+                if (def.aggregate == null && def.alias.equals(parts[0]) && column.equals(indexedColumn(plan.from, def.column))) projected = true;
+            }
+            if (!projected) return null;
+        } else if (!parts[0].equals(column)) {
+            return null;
+        }
+        if (plan.access.usesIndex() && !plan.access.column.equals(column)) return null;
+        return column;
+    }
+
+    private static boolean isPrimaryKey(QueryPlan.TableInput table, String column) {
+        NsonObject meta = table.tableObj.getObject("_meta");
+        NsonArray primaryKey = meta != null ? meta.getArray("primary_key") : null;
+        return primaryKey != null && primaryKey.size() == 1 && column.equals(primaryKey.getString(0));
+    }
+
+    // Duyệt index theo thứ tự key (trong khoảng range nếu có), lọc WHERE, dừng khi đủ wanted row.
+    // rowsRead cộng vào rows scanned mỗi CHECK_MASK + 1 row, phần lẻ còn lại do caller cộng
+    private static NsonArray orderedIndexScan(QueryPlan.TableInput from, String column, QueryPlan.AccessPath range,
+                                              boolean descending, String whereClause, List<ColumnDef> projections,
+                                              boolean selectAll, int wanted, int[] rowsRead, QueryContext ctx) {
+        NsonArray data = from.data();
+        NavigableMap<Object, List<Integer>> index = RowIndexCache.get(from.tablePath, from.version, column, data);
+        if (range != null) index = range.restrict(index);
+        if (descending) index = index.descendingMap();
+
+        NsonArray out = new NsonArray();
+        if (wanted <= 0) return out;
+        for (List<Integer> positions : index.values()) {
+            for (int pos : positions) {
+                NsonObject row = data.getObject(pos);
+                if ((++rowsRead[0] & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled(QueryContext.CHECK_MASK + 1);
+                if (!evaluateExpression(row, whereClause)) continue;
+                out.add(projectRow(row, projections, selectAll));
+                if (out.size() >= wanted) return out;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * DISTINCT một cột có index: mỗi key của index là một giá trị khác nhau, đã sắp sẵn. Có WHERE thì
+     * key được giữ khi có ít nhất một row thỏa (dừng ở row đầu tiên thỏa); access path index trên
+     * cùng cột thì chỉ duyệt phần key trong khoảng đó.
+     */
+    private static NsonArray indexDistinct(QueryPlan plan, String column, String alias, String whereClause,
+                                           int stopAfter, int[] rowsRead, QueryContext ctx) {
+        QueryPlan.TableInput from = plan.from;
+        NsonArray data = from.data();
+        NavigableMap<Object, List<Integer>> index = RowIndexCache.get(from.tablePath, from.version, column, data);
+        Iterable<Map.Entry<Object, List<Integer>>> entries = plan.access.usesIndex() && plan.access.column.equals(column)
+                ? plan.access.restrict(index).entrySet() : index.entrySet();
+
+        NsonArray out = new NsonArray();
+        int indexed = 0;
+        for (Map.Entry<Object, List<Integer>> e : entries) {
+            if (stopAfter != -1 && out.size() >= stopAfter) break;
+            indexed += e.getValue().size();
+            for (int pos : e.getValue()) {
+                NsonObject row = data.getObject(pos);
+                if ((++rowsRead[0] & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled(QueryContext.CHECK_MASK + 1);
+                if (evaluateExpression(row, whereClause)) {
+                    out.add(new NsonObject().put(alias, row.get(column)));
+                    break;
+                }
+            }
+        }
+        // Index không chứa NULL: nếu có row NULL thỏa WHERE thì thêm một dòng NULL (chỉ khi đã duyệt hết index)
+        boolean complete = !plan.access.usesIndex() || !plan.access.column.equals(column);
+        if (complete && (stopAfter == -1 || out.size() < stopAfter) && indexed < data.size()) {
+            for (int i = 0; i < data.size(); i++) {
+                NsonObject row = data.getObject(i);
+                if (row == null || row.get(column) != null) continue;
+                if ((++rowsRead[0] & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled(QueryContext.CHECK_MASK + 1);
+                if (evaluateExpression(row, whereClause)) {
+                    out.add(new NsonObject().put(alias, null));
+                    break;
+                }
+            }
+        }
+        return out;
+    }
+
+    // Bỏ dòng trùng: key là tuple giá trị (đã chuẩn hóa, hash tính sẵn) theo thứ tự cột của dòng đầu tiên
+    private static NsonArray distinctRows(NsonArray rows) {
+        NsonArray out = new NsonArray();
+        if (rows.isEmpty()) return out;
+        String[] columns = rows.getObject(0).keySet().toArray(new String[0]);
+        Object[] values = new Object[columns.length];
+        Set<RowKey> seen = new HashSet<>();
+        for (int i = 0; i < rows.size(); i++) {
+            NsonObject row = rows.getObject(i);
+            for (int c = 0; c < columns.length; c++) values[c] = row.get(columns[c]);
+            if (seen.add(RowKey.of(values))) out.add(row);
+        }
+        return out;
+    }
+
+    private static String describeTable(QueryPlan.TableInput t) {
+        return t.alias.equals(t.table) ? t.table : t.table + " " + t.alias;
+    }
+
+    private static NsonObject loadTableData(String dbName, String tableName, String rootDir, VersionedTable.Snapshot snapshot) throws Exception {
         String tableKey = dbName + "." + tableName;
-        if (RealtimeTableManager.ramTables.containsKey(tableKey)) {
-            List<Map<String, Object>> ramData = RealtimeTableManager.ramTables.get(tableKey);
+        VersionedTable ram = RealtimeTableManager.ramTables.get(tableKey);
+        if (ram != null) {
+            List<Map<String, Object>> ramData = ram.rows(snapshot);
             NsonArray dataArr = new NsonArray(); for (Map<String, Object> map : ramData) { NsonObject row = new NsonObject(); row.putAll(map); dataArr.add(row); }
             NsonObject result = new NsonObject(); result.put("data", dataArr); return result;
         }
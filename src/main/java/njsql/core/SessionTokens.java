@@ -0,0 +1,96 @@
+package njsql.core;
+
+import njsql.nson.NsonObject;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Token phiên cho REST/gRPC: đăng nhập một lần bằng username/password (/login, gRPC Login), các request sau
+ * gửi token thay cho password. Token = base64url(username).hạn.HMAC-SHA256 của hai phần đầu, kiểm tra hoàn
+ * toàn trong RAM (tính lại HMAC + tra danh bạ user), không đọc users.nson và không băm password.
+ */
+public final class SessionTokens {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final byte[] SECRET = secret();
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    });
+
+    private SessionTokens() {}
+
+    public static NsonObject login(String username, String password) {
+        NsonObject response = new NsonObject();
+        if (username == null || password == null) return response.put("error", "username and password are required");
+        NsonObject auth = UserManager.checkLogin(username, password);
+        if (!auth.getBoolean("success")) return response.put("error", "Invalid username or password");
+        long expiresAt = System.currentTimeMillis() + NJSQLConfig.SESSION_TOKEN_TTL_MS;
+        return response.put("status", "success")
+                .put("token", issue(username, expiresAt))
+                .put("username", username)
+                .put("expires_at", expiresAt);
+    }
+
+    public static String issue(String username, long expiresAt) {
+        String payload = ENCODER.encodeToString(username.getBytes(StandardCharsets.UTF_8)) + "." + expiresAt;
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /** Username của token nếu chữ ký đúng, chưa hết hạn và user còn tồn tại; ngược lại null. */
+    public static String verify(String token) {
+        if (token == null) return null;
+        int last = token.lastIndexOf('.');
+        int first = token.indexOf('.');
+        if (first <= 0 || last <= first) return null;
+        String payload = token.substring(0, last);
+        try {
+            // So sánh thời gian hằng để không lộ chữ ký qua thời gian phản hồi
+            if (!MessageDigest.isEqual(sign(payload), DECODER.decode(token.substring(last + 1)))) return null;
+            if (Long.parseLong(token.substring(first + 1, last)) < System.currentTimeMillis()) return null;
+            String username = new String(DECODER.decode(token.substring(0, first)), StandardCharsets.UTF_8);
+            return UserManager.userExists(username) ? username : null;
+        } catch (IllegalArgumentException e) {
+            return null; // base64 hoặc số hỏng
+        }
+    }
+
+    /**
+     * Xác thực một request: có token thì chỉ kiểm tra token (username gửi kèm, nếu có, phải khớp),
+     * không thì username/password như cũ. Trả username đã xác thực hoặc null.
+     */
+    public static String authenticate(String token, String username, String password) {
+        if (token != null && !token.isEmpty()) {
+            String owner = verify(token);
+            if (owner == null || (username != null && !username.isEmpty() && !username.equals(owner))) return null;
+            return owner;
+        }
+        if (username == null || password == null) return null;
+        return UserManager.checkLogin(username, password).getBoolean("success") ? username : null;
+    }
+
+    private static byte[] sign(String payload) {
+        return MAC.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] secret() {
+        if (!NJSQLConfig.SESSION_TOKEN_SECRET.isEmpty()) {
+            return NJSQLConfig.SESSION_TOKEN_SECRET.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
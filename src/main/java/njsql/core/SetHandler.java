@@ -0,0 +1,126 @@
+package njsql.core;
+
+import njsql.models.User;
+import njsql.nson.NsonObject;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lệnh SET cho biến session: SET parallelism = 8 | SET result_cache = on | SET vectorized = off | SET lock_timeout = 5s
+ * | SET statement_timeout = 30s | SET workload_class = analytic | SET parallelism TO DEFAULT
+ */
+public class SetHandler {
+
+    private static final Pattern SET_PATTERN = Pattern.compile(
+            "^SET\\s+(\\w+)\\s*(?:=|\\s+TO\\s+)\\s*(.+?)\\s*;?$", Pattern.CASE_INSENSITIVE);
+
+    public static String handle(String sql, User user) {
+        Matcher m = SET_PATTERN.matcher(sql.trim());
+        if (!m.find()) throw new IllegalArgumentException("Invalid SET syntax. Expected: SET <name> = <value>");
+
+        String name = m.group(1).toLowerCase();
+        String value = m.group(2).replaceAll("^'|'$", "").trim();
+
+        if (value.equalsIgnoreCase("DEFAULT")) {
+            validateName(name);
+            user.setSetting(name, null);
+            return "Setting '" + name + "' reset to default.";
+        }
+
+        user.setSetting(name, validate(name, value));
+        return "Setting '" + name + "' = " + user.getSetting(name);
+    }
+
+    public static NsonObject handleForAPI(String sql, User user) {
+        NsonObject response = new NsonObject();
+        try {
+            return response.put("status", "success").put("message", handle(sql, user));
+        } catch (Exception e) {
+            return response.put("error", e.getMessage());
+        }
+    }
+
+    // Kiểm tra và chuẩn hóa giá trị, trả về giá trị sẽ lưu vào session
+    private static String validate(String name, String value) {
+        validateName(name);
+        switch (name) {
+            case "parallelism" -> {
+                int dop = parsePositiveInt(name, value);
+                return String.valueOf(Math.min(dop, NJSQLConfig.MAX_PARALLELISM));
+            }
+            case "work_mem" -> {
+                return String.valueOf(parseBytes(name, value));
+            }
+            case "query_mem" -> {
+                return String.valueOf(Math.min(parseBytes(name, value), NJSQLConfig.QUERY_MEMORY_LIMIT_BYTES));
+            }
+            case "result_cache", "vectorized" -> {
+                return parseOnOff(name, value) ? "on" : "off";
+            }
+            case "lock_timeout", "statement_timeout" -> {
+                return String.valueOf(parseMillis(name, value));
+            }
+            case "workload_class" -> {
+                return WorkloadScheduler.WorkloadClass.parse(value).label();
+            }
+            default -> {
+                return value;
+            }
+        }
+    }
+
+    private static void validateName(String name) {
+        switch (name) {
+            case "parallelism", "work_mem", "query_mem", "result_cache", "vectorized", "lock_timeout", "statement_timeout", "workload_class" -> { }
+            default -> throw new IllegalArgumentException("Unknown setting '" + name + "'.");
+        }
+    }
+
+    // Nhận "65536", "64KB", "64MB", "1GB"
+    static long parseBytes(String name, String value) {
+        Matcher m = Pattern.compile("^(\\d+)\\s*(B|KB|MB|GB)?$", Pattern.CASE_INSENSITIVE).matcher(value.trim());
+        if (!m.find()) throw new IllegalArgumentException("Setting '" + name + "' must be a size like 65536, 64KB, 64MB or 1GB.");
+        long n = Long.parseLong(m.group(1));
+        String unit = m.group(2) == null ? "B" : m.group(2).toUpperCase();
+        long bytes = switch (unit) {
+            case "KB" -> n * 1024;
+            case "MB" -> n * 1024 * 1024;
+            case "GB" -> n * 1024 * 1024 * 1024;
+            default -> n;
+        };
+        if (bytes <= 0) throw new IllegalArgumentException("Setting '" + name + "' must be positive.");
+        return bytes;
+    }
+
+    // Nhận "500" (ms), "500ms", "5s", "2min"; 0 = không chờ
+    static long parseMillis(String name, String value) {
+        Matcher m = Pattern.compile("^(\\d+)\\s*(MS|S|MIN)?$", Pattern.CASE_INSENSITIVE).matcher(value.trim());
+        if (!m.find()) throw new IllegalArgumentException("Setting '" + name + "' must be a duration like 500, 500ms, 5s or 2min.");
+        long n = Long.parseLong(m.group(1));
+        String unit = m.group(2) == null ? "MS" : m.group(2).toUpperCase();
+        return switch (unit) {
+            case "S" -> n * 1000;
+            case "MIN" -> n * 60_000;
+            default -> n;
+        };
+    }
+
+    static boolean parseOnOff(String name, String value) {
+        return switch (value.toLowerCase()) {
+            case "on", "true", "1" -> true;
+            case "off", "false", "0" -> false;
+            default -> throw new IllegalArgumentException("Setting '" + name + "' must be on or off.");
+        };
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+        try {
+            int v = Integer.parseInt(value);
+            if (v <= 0) throw new NumberFormatException();
+            return v;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting '" + name + "' must be a positive integer.");
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package njsql.core;
+
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Khóa đọc/ghi theo bảng (key fileKey của file bảng, cùng quy ước với mailbox của TableWriter: bảng cùng tên
+ * của hai tenant là hai khóa) cho các request chạy song song trong cùng process. FileLock của từng handler chỉ chặn process khác, không chặn thread khác.
+ * - Lệnh ghi (INSERT/UPDATE/DELETE/ANALYZE/ALTER, flush) giữ khóa ghi suốt đọc-sửa-ghi file.
+ * - SELECT đọc lạc quan: nạp bảng không khóa rồi validate stamp, có writer xen vào thì nạp lại dưới khóa đọc.
+ * - Lệnh nhiều bảng lấy khóa theo thứ tự key nên không deadlock lẫn nhau; chờ quá lock_timeout thì báo lỗi.
+ * Khóa reentrant theo thread: listener chạy trong lệnh ghi (materialized view) đọc lại bảng nguồn không tự chặn mình.
+ */
+public final class TableLockManager {
+
+    public enum Mode { READ, WRITE }
+
+    @FunctionalInterface
+    public interface Read<T> {
+        T run() throws Exception;
+    }
+
+    private static final class TableLock {
+        final StampedLock lock = new StampedLock();
+        final LongAdder reads = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        final LongAdder optimistic = new LongAdder();
+        final LongAdder optimisticRetries = new LongAdder();
+        final LongAdder waits = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        final LongAdder timeouts = new LongAdder();
+    }
+
+    // Khóa mà thread hiện tại đang giữ: lấy lại cùng key chỉ tăng depth
+    private static final class Held {
+        final Mode mode;
+        final long stamp;
+        int depth = 1;
+
+        Held(Mode mode, long stamp) {
+            this.mode = mode;
+            this.stamp = stamp;
+        }
+    }
+
+    private static final Map<String, TableLock> locks = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<String, Held>> held = ThreadLocal.withInitial(HashMap::new);
+
+    /** Nhả các khóa đã lấy (ngược thứ tự) khi đóng; dùng với try-with-resources. */
+    public static final class Guard implements AutoCloseable {
+        private final List<String> keys;
+
+        private Guard(List<String> keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public void close() {
+            Map<String, Held> mine = held.get();
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                String key = keys.get(i);
+                Held h = mine.get(key);
+                if (h == null || --h.depth > 0) continue;
+                mine.remove(key);
+                locks.get(key).lock.unlock(h.stamp);
+            }
+        }
+    }
+
+    private TableLockManager() {}
+
+    public static String key(String db, String table) {
+        return db + "." + table;
+    }
+
+    // Định danh bảng theo file (đường dẫn tuyệt đối): hai user có cùng tên db.table là hai bảng khác nhau
+    // (listener, mailbox của TableWriter, bản làm việc của transaction)
+    public static String fileKey(File tableFile) {
+        return tableFile.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    public static String fileKey(String username, String db, String table) {
+        return fileKey(new File(UserManager.getRootDirectory(username) + "/" + db + "/" + table + ".nson"));
+    }
+
+    // db.table của một fileKey để hiển thị (lỗi, SHOW LOCKS), không lộ đường dẫn trên server
+    static String label(String fileKey) {
+        File file = new File(fileKey);
+        String name = file.getName().endsWith(".nson") ? file.getName().substring(0, file.getName().length() - 5) : file.getName();
+        File dir = file.getParentFile();
+        return dir != null ? dir.getName() + "." + name : name;
+    }
+
+    // Bảng nằm trong thư mục dữ liệu của user: SHOW LOCKS/SHOW MAILBOXES chỉ liệt kê bảng của tenant gọi lệnh
+    static boolean visibleTo(User user, String fileKey) {
+        return fileKey.startsWith(fileKey(new File(UserManager.getRootDirectory(user.getUsername()))) + File.separator);
+    }
+
+    public static long timeoutMs(User user) {
+        return user != null ? user.getLongSetting("lock_timeout", NJSQLConfig.LOCK_TIMEOUT_MS) : NJSQLConfig.LOCK_TIMEOUT_MS;
+    }
+
+    public static Guard write(User user, String db, String table) throws InterruptedException {
+        if (db == null || table == null) return new Guard(List.of());
+        return acquire(Mode.WRITE, timeoutMs(user), List.of(fileKey(user.getUsername(), db, table)));
+    }
+
+    public static Guard read(User user, String db, String table) throws InterruptedException {
+        if (db == null || table == null) return new Guard(List.of());
+        return acquire(Mode.READ, timeoutMs(user), List.of(fileKey(user.getUsername(), db, table)));
+    }
+
+    /**
+     * Lấy khóa cho mọi key theo thứ tự tăng dần. Hết timeoutMs (0 = chỉ thử một lần) mà chưa lấy được
+     * thì nhả các khóa đã lấy và ném IllegalStateException.
+     */
+    public static Guard acquire(Mode mode, long timeoutMs, Collection<String> keys) throws InterruptedException {
+        List<String> taken = new ArrayList<>();
+        Guard guard = new Guard(taken);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMs));
+        try {
+            for (String key : new TreeSet<>(keys)) {
+                lockOne(key, mode, deadline);
+                taken.add(key);
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            guard.close();
+            throw e;
+        }
+        return guard;
+    }
+
+    private static void lockOne(String key, Mode mode, long deadline) throws InterruptedException {
+        Map<String, Held> mine = held.get();
+        Held h = mine.get(key);
+        if (h != null) {
+            if (h.mode == Mode.READ && mode == Mode.WRITE) {
+                throw new IllegalStateException("Cannot upgrade read lock on table '" + label(key) + "' to write lock");
+            }
+            h.depth++;
+            return;
+        }
+        TableLock t = locks.computeIfAbsent(key, k -> new TableLock());
+        long stamp = mode == Mode.WRITE ? t.lock.tryWriteLock() : t.lock.tryReadLock();
+        if (stamp == 0) {
+            long start = System.nanoTime();
+            long remaining = deadline - start;
+            // Chỉ thử một lần (flush nền): bận thì thôi, không tính là chờ
+            if (remaining <= 0) throw new IllegalStateException("Table '" + label(key) + "' is locked");
+            stamp = mode == Mode.WRITE
+                    ? t.lock.tryWriteLock(remaining, TimeUnit.NANOSECONDS)
+                    : t.lock.tryReadLock(remaining, TimeUnit.NANOSECONDS);
+            long waited = System.nanoTime() - start;
+            t.waits.increment();
+            t.waitNanos.add(waited);
+            t.maxWaitNanos.accumulateAndGet(waited, Math::max);
+            if (stamp == 0) {
+                t.timeouts.increment();
+                throw new IllegalStateException("Lock wait timeout on table '" + label(key) + "' ("
+                        + mode.name().toLowerCase() + ", " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms)");
+            }
+        }
+        (mode == Mode.WRITE ? t.writes : t.reads).increment();
+        mine.put(key, new Held(mode, stamp));
+    }
+
+    /**
+     * Chạy action không khóa rồi kiểm tra không có lệnh ghi nào trên các bảng xen vào; nếu có (hoặc bảng đang bị
+     * ghi ngay từ đầu) thì chạy lại action dưới khóa đọc. action phải chạy lại được (chỉ đọc, không ghi gì ra ngoài).
+     */
+    public static <T> T readOptimistic(User user, Collection<String> keys, Read<T> action) throws Exception {
+        TreeSet<String> sorted = new TreeSet<>(keys);
+        Map<String, Held> mine = held.get();
+        for (String key : sorted) {
+            if (mine.containsKey(key)) return runLocked(user, sorted, action); // đã giữ khóa: chỉ cần reentrant
+        }
+        List<TableLock> tables = new ArrayList<>();
+        long[] stamps = new long[sorted.size()];
+        int i = 0;
+        boolean free = true;
+        for (String key : sorted) {
+            TableLock t = locks.computeIfAbsent(key, k -> new TableLock());
+            tables.add(t);
+            stamps[i] = t.lock.tryOptimisticRead();
+            if (stamps[i++] == 0) free = false;
+        }
+        if (free) {
+            T result = null;
+            Exception failure = null;
+            try {
+                result = action.run();
+            } catch (Exception e) {
+                failure = e; // có thể do đọc file đang ghi dở, chỉ tin khi validate qua
+            }
+            boolean valid = true;
+            for (int j = 0; j < stamps.length; j++) valid &= tables.get(j).lock.validate(stamps[j]);
+            if (valid) {
+                for (TableLock t : tables) t.optimistic.increment();
+                if (failure != null) throw failure;
+                return result;
+            }
+        }
+        for (TableLock t : tables) t.optimisticRetries.increment();
+        return runLocked(user, sorted, action);
+    }
+
+    private static <T> T runLocked(User user, Collection<String> keys, Read<T> action) throws Exception {
+        try (Guard ignored = acquire(Mode.READ, timeoutMs(user), keys)) {
+            return action.run();
+        }
+    }
+
+    // Một row cho mỗi bảng của tenant đã từng bị khóa (SHOW LOCKS)
+    public static NsonArray stats(User user) {
+        NsonArray rows = new NsonArray();
+        for (String key : new TreeSet<>(locks.keySet())) {
+            if (!visibleTo(user, key)) continue;
+            TableLock t = locks.get(key);
+            long waits = t.waits.sum();
+            rows.add(new NsonObject()
+                    .put("table", label(key))
+                    .put("state", t.lock.isWriteLocked() ? "write" : t.lock.isReadLocked() ? "read(" + t.lock.getReadLockCount() + ")" : "free")
+                    .put("reads", t.reads.sum())
+                    .put("writes", t.writes.sum())
+                    .put("optimistic_reads", t.optimistic.sum())
+                    .put("optimistic_retries", t.optimisticRetries.sum())
+                    .put("waits", waits)
+                    .put("avg_wait_ms", waits == 0 ? 0.0 : Math.round(t.waitNanos.sum() / (double) waits / 1000) / 1000.0)
+                    .put("max_wait_ms", Math.round(t.maxWaitNanos.get() / 1000.0) / 1000.0)
+                    .put("timeouts", t.timeouts.sum()));
+        }
+        return rows;
+    }
+
+    // SHOW LOCKS qua REST/gRPC
+    public static NsonObject showForAPI(User user) {
+        return new NsonObject().put("status", "success").put("data", stats(user));
+    }
+}
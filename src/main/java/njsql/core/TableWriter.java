@@ -0,0 +1,198 @@
+package njsql.core;
+
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chế độ ghi actor (-Dnjsql.writer=actor): mọi INSERT/UPDATE/DELETE của một bảng được xếp vào mailbox của bảng
+ * và chạy tuần tự trên một virtual thread riêng, nên các request ghi cùng bảng không tranh khóa với nhau.
+ * Lệnh đang chờ trong mailbox được gom thành lô: chạy trên cùng bản làm việc (như một transaction nội bộ)
+ * rồi ghi file một lần, publish bảng realtime một lần và phát sự kiện listener theo thứ tự lệnh.
+ * Một lệnh trong lô lỗi (hoặc bảng bị DDL/COMMIT khác ghi chen) thì bỏ lô và chạy lại từng lệnh riêng lẻ,
+ * nên kết quả mỗi lệnh giống hệt chế độ khóa. Writer chỉ giữ khóa ghi lúc publish (để đồng bộ với DDL và COMMIT),
+ * SELECT vẫn đọc lạc quan / snapshot MVCC như cũ. Lệnh trong transaction tường minh không đi qua mailbox.
+ */
+public final class TableWriter {
+
+    @FunctionalInterface
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    private static final class Job {
+        final Task<?> task;
+        final boolean batchable; // false: tự publish ngoài TransactionManager (vd: INSERT realtime), chạy riêng
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        Object value;
+        Exception failure;
+
+        Job(Task<?> task, boolean batchable) {
+            this.task = task;
+            this.batchable = batchable;
+        }
+
+        void run() {
+            value = null;
+            failure = null;
+            try {
+                value = task.run();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        boolean failed() {
+            return failure != null || (value instanceof NsonObject o && o.containsKey("error"));
+        }
+
+        void complete() {
+            if (failure != null) result.completeExceptionally(failure);
+            else result.complete(value);
+        }
+    }
+
+    private static final class Mailbox {
+        final String key;   // TableLockManager.fileKey: bảng cùng tên của hai tenant là hai mailbox
+        final String label; // db.table để hiển thị, không lộ đường dẫn trên server
+        final Queue<Job> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final LongAdder statements = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        final LongAdder batchedStatements = new LongAdder();
+        final LongAdder fallbacks = new LongAdder();
+
+        Mailbox(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+    }
+
+    private static final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private TableWriter() {}
+
+    public static boolean enabled() {
+        return "actor".equalsIgnoreCase(NJSQLConfig.TABLE_WRITER);
+    }
+
+    /** Lệnh ghi này có đi qua mailbox không: chế độ actor, biết bảng, không nằm trong transaction tường minh. */
+    public static boolean routes(User user, String table) {
+        return enabled() && table != null && user.getCurrentDatabase() != null && user.getTransactionId() == null;
+    }
+
+    /** Xếp task vào mailbox bảng của user và chờ kết quả; exception của task được ném lại nguyên vẹn. */
+    @SuppressWarnings("unchecked")
+    public static <T> T submit(User user, String db, String table, boolean batchable, Task<T> task) throws Exception {
+        Mailbox box = mailboxes.computeIfAbsent(TableLockManager.fileKey(user.getUsername(), db, table),
+                k -> new Mailbox(k, TableLockManager.key(db, table)));
+        Job job = new Job(task, batchable);
+        box.queue.add(job);
+        box.maxDepth.accumulateAndGet(box.depth.incrementAndGet(), Math::max);
+        box.statements.increment();
+        if (box.running.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("njsql-writer-" + box.label).start(() -> drain(box));
+        }
+        try {
+            return (T) job.result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    // Thread writer của mailbox: chạy tới khi hàng đợi rỗng rồi dừng, request sau khởi động thread mới
+    private static void drain(Mailbox box) {
+        while (true) {
+            List<Job> jobs = new ArrayList<>();
+            Job next;
+            while (jobs.size() < Math.max(1, NJSQLConfig.WRITER_BATCH_MAX) && (next = box.queue.peek()) != null) {
+                // Task không gom được đứng một mình
+                if (!next.batchable && !jobs.isEmpty()) break;
+                jobs.add(box.queue.poll());
+                box.depth.decrementAndGet();
+                if (!next.batchable) break;
+            }
+            if (jobs.isEmpty()) {
+                box.running.set(false);
+                // Task đến sau lần kiểm tra cuối nhưng trước khi running=false: tự chạy tiếp
+                if (box.queue.isEmpty() || !box.running.compareAndSet(false, true)) return;
+                continue;
+            }
+            try {
+                if (jobs.size() == 1) jobs.get(0).run();
+                else runBatch(box, jobs);
+            } catch (Throwable t) {
+                for (Job job : jobs) {
+                    if (job.failure == null) job.failure = new IllegalStateException("Table writer failed: " + t.getMessage(), t);
+                }
+            }
+            for (Job job : jobs) job.complete();
+        }
+    }
+
+    private static void runBatch(Mailbox box, List<Job> jobs) throws Exception {
+        boolean ok = true;
+        TransactionManager.Transaction tx = TransactionManager.beginBatch();
+        try {
+            for (Job job : jobs) {
+                job.run();
+                if (job.failed()) {
+                    ok = false;
+                    break;
+                }
+            }
+        } finally {
+            TransactionManager.endBatch();
+        }
+        // Lỗi sau khi đã publish thì không chạy lại (tránh ghi hai lần), drain báo lỗi cho cả lô
+        if (ok && TransactionManager.commitBatch(tx)) {
+            box.batches.increment();
+            box.batchedStatements.add(jobs.size());
+            return;
+        }
+        // Lô chưa publish gì (lệnh lỗi, bảng bị DDL/COMMIT ghi chen): chạy lại từng lệnh
+        box.fallbacks.increment();
+        for (Job job : jobs) job.run();
+    }
+
+    // Một row cho mỗi mailbox của tenant (SHOW MAILBOXES): lọc theo fileKey, không thấy bảng của tenant khác
+    public static NsonArray stats(User user) {
+        NsonArray rows = new NsonArray();
+        for (String key : new TreeSet<>(mailboxes.keySet())) {
+            if (!TableLockManager.visibleTo(user, key)) continue;
+            Mailbox box = mailboxes.get(key);
+            long batches = box.batches.sum();
+            rows.add(new NsonObject()
+                    .put("table", box.label)
+                    .put("state", box.running.get() ? "running" : "idle")
+                    .put("queue_depth", box.depth.get())
+                    .put("max_queue_depth", box.maxDepth.get())
+                    .put("statements", box.statements.sum())
+                    .put("batches", batches)
+                    .put("avg_batch", batches == 0 ? 0.0 : Math.round(box.batchedStatements.sum() * 10.0 / batches) / 10.0)
+                    .put("fallbacks", box.fallbacks.sum()));
+        }
+        return rows;
+    }
+
+    // SHOW MAILBOXES qua REST/gRPC
+    public static NsonObject showForAPI(User user) {
+        return new NsonObject().put("status", "success").put("data", stats(user));
+    }
+}
@@ -0,0 +1,373 @@
+package njsql.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.TableVersions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Transaction tường minh: BEGIN / COMMIT / ROLLBACK (CLI, REST và gRPC qua transaction_id).
+ * Trong transaction, INSERT/UPDATE/DELETE sửa bản làm việc của bảng (nạp lần đầu chạm tới) thay vì ghi file;
+ * COMMIT lấy khóa ghi mọi bảng đã chạm, kiểm tra không session nào khác đã ghi các bảng đó từ lúc nạp
+ * (có thì rollback), rồi ghi mỗi bảng đúng một lần (file tạm + fsync + rename), cập nhật bảng realtime
+ * trong một commit MVCC và mới phát sự kiện cho listener. ROLLBACK chỉ cần bỏ bản làm việc.
+ * SELECT trong transaction vẫn đọc dữ liệu đã commit; lệnh DDL (CREATE/ALTER/ANALYZE...) chạy ngay như cũ.
+ * Lệnh ghi lỗi giữa chừng làm transaction bị hủy: các lệnh sau báo lỗi, COMMIT thành ROLLBACK.
+ * Giới hạn: mỗi bảng được thay nguyên tử (rename), nhưng không có commit log cho nhiều bảng. Mọi lỗi trước bước
+ * rename (khóa, ghi chen, ghi file tạm) không đổi bảng nào; rename lỗi giữa chừng (hiếm, vd: đĩa lỗi) thì các bảng
+ * đã rename vẫn giữ dữ liệu mới và COMMIT báo lỗi kèm tên các bảng đó.
+ */
+public class TransactionManager {
+
+    private static final Pattern BEGIN_PATTERN = Pattern.compile(
+            "^(BEGIN(\\s+(TRANSACTION|WORK))?|START\\s+TRANSACTION)\\s*;?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMMIT_PATTERN = Pattern.compile(
+            "^(COMMIT|END)(\\s+(TRANSACTION|WORK))?\\s*;?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ROLLBACK_PATTERN = Pattern.compile(
+            "^(ROLLBACK|ABORT)(\\s+(TRANSACTION|WORK))?\\s*;?$", Pattern.CASE_INSENSITIVE);
+
+    // Bản làm việc của một bảng trong transaction
+    private static final class PendingTable {
+        final String db;
+        final String table;
+        final File file;
+        final NsonObject data;
+        final long baseVersion; // TableVersions của file lúc nạp, COMMIT so lại để phát hiện ghi chen
+
+        PendingTable(String db, String table, File file, NsonObject data, long baseVersion) {
+            this.db = db;
+            this.table = table;
+            this.file = file;
+            this.data = data;
+            this.baseVersion = baseVersion;
+        }
+    }
+
+    // Sự kiện cho listener (materialized view, subscriber), phát theo đúng thứ tự lệnh sau khi COMMIT
+    private record Event(String tableKey, String action, List<NsonObject> rows, List<NsonObject> oldRows) {}
+
+    public static final class Transaction {
+        final String id;
+        final String owner;
+        final boolean explicit; // false: lô ghi của TableWriter
+        final Map<String, PendingTable> tables = new LinkedHashMap<>();
+        final List<Event> events = new ArrayList<>();
+        final List<Runnable> afterCommit = new ArrayList<>();
+        int statements;
+        String failure; // lý do transaction bị hủy
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Transaction(String id, String owner, boolean explicit) {
+            this.id = id;
+            this.owner = owner;
+            this.explicit = explicit;
+        }
+
+        // Ghi chú thêm vào message của lệnh ghi: lô của TableWriter trả message như auto-commit
+        public String pendingNote() {
+            return explicit ? " (pending COMMIT)" : "";
+        }
+
+        /**
+         * Bản làm việc của bảng: lần đầu nạp từ file (bảng realtime lấy row từ RAM vì file có thể chưa flush).
+         * Caller đang giữ khóa ghi của bảng nên file và version đọc được khớp nhau.
+         */
+        public synchronized NsonObject table(String db, String table, File file) throws Exception {
+            // Key theo file: hai tenant cùng tên db.table trong một lô TableWriter không dùng chung bản làm việc
+            String key = TableLockManager.fileKey(file);
+            PendingTable pending = tables.get(key);
+            if (pending == null) {
+                long version = TableVersions.version(file);
+                NsonObject data = NsonObject.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                VersionedTable ram = RealtimeTableManager.ramTables.get(TableLockManager.key(db, table));
+                if (ram != null && data.getArray("data") != null) {
+                    NsonArray rows = new NsonArray();
+                    for (Map<String, Object> row : ram.rows()) {
+                        NsonObject r = new NsonObject();
+                        r.putAll(row);
+                        rows.add(r);
+                    }
+                    data.put("data", rows);
+                }
+                pending = new PendingTable(db, table, file, data, version);
+                tables.put(key, pending);
+            }
+            return pending.data;
+        }
+
+        // tableKey: TableLockManager.fileKey của bảng, cùng key mà listener đăng ký
+        public synchronized void record(String tableKey, String action, List<NsonObject> rows, List<NsonObject> oldRows) {
+            statements++;
+            if (!rows.isEmpty()) events.add(new Event(tableKey, action, rows, oldRows));
+        }
+
+        // Việc phụ (vd: cập nhật B-tree index) chỉ làm khi COMMIT
+        public synchronized void afterCommit(Runnable action) {
+            afterCommit.add(action);
+        }
+    }
+
+    // key: username + "/" + transaction id
+    private static final Map<String, Transaction> transactions = new ConcurrentHashMap<>();
+    // Lô đang chạy trên thread writer của TableWriter
+    private static final ThreadLocal<Transaction> batch = new ThreadLocal<>();
+
+    public static boolean isTransactionControl(String sql) {
+        String trimmed = sql.trim();
+        return BEGIN_PATTERN.matcher(trimmed).find() || COMMIT_PATTERN.matcher(trimmed).find()
+                || ROLLBACK_PATTERN.matcher(trimmed).find();
+    }
+
+    public static String handle(String sql, User user) throws Exception {
+        NsonObject result = handleForAPI(sql, user);
+        if (result.containsKey("error")) throw new Exception(result.getString("error"));
+        return result.getString("message");
+    }
+
+    public static NsonObject handleForAPI(String sql, User user) {
+        String trimmed = sql.trim();
+        if (BEGIN_PATTERN.matcher(trimmed).find()) return begin(user);
+        if (COMMIT_PATTERN.matcher(trimmed).find()) return commit(user);
+        if (ROLLBACK_PATTERN.matcher(trimmed).find()) return rollback(user);
+        return new NsonObject().put("error", "Invalid syntax. Expected: BEGIN, COMMIT or ROLLBACK");
+    }
+
+    /**
+     * Transaction đang mở của user, null nếu đang auto-commit. Transaction đã hết hạn hoặc đã bị hủy
+     * thì ném IllegalStateException để lệnh ghi không lặng lẽ chạy ngoài transaction.
+     */
+    public static Transaction current(User user) {
+        Transaction inBatch = batch.get();
+        if (inBatch != null) return inBatch;
+        String id = user.getTransactionId();
+        if (id == null) return null;
+        expire();
+        Transaction tx = transactions.get(key(user.getUsername(), id));
+        if (tx == null) throw new IllegalStateException("Transaction '" + id + "' does not exist or has expired (rolled back).");
+        synchronized (tx) {
+            if (tx.failure != null) {
+                throw new IllegalStateException("Current transaction is aborted (" + tx.failure + "); commands ignored until ROLLBACK.");
+            }
+        }
+        tx.lastAccess = System.currentTimeMillis();
+        return tx;
+    }
+
+    // Lệnh ghi lỗi khi đang trong transaction: bản làm việc có thể đã sửa dở nên hủy cả transaction
+    public static void statementFailed(User user, String error) {
+        String id = user.getTransactionId();
+        if (id == null) return;
+        Transaction tx = transactions.get(key(user.getUsername(), id));
+        if (tx == null) return;
+        synchronized (tx) {
+            if (tx.failure == null) tx.failure = error;
+        }
+    }
+
+    public static NsonObject begin(User user) {
+        NsonObject response = new NsonObject();
+        expire();
+        if (user.getTransactionId() != null && transactions.containsKey(key(user.getUsername(), user.getTransactionId()))) {
+            return response.put("error", "A transaction is already in progress. COMMIT or ROLLBACK it first.");
+        }
+        String owner = user.getUsername();
+        long owned = transactions.values().stream().filter(t -> t.owner.equals(owner)).count();
+        if (owned >= NJSQLConfig.TRANSACTION_MAX_PER_USER) {
+            return response.put("error", "Too many open transactions (max " + NJSQLConfig.TRANSACTION_MAX_PER_USER + ").");
+        }
+        String id = UUID.randomUUID().toString().replace("-", "");
+        transactions.put(key(owner, id), new Transaction(id, owner, true));
+        user.setTransactionId(id);
+        return response.put("status", "success").put("message", "Transaction started.").put("transaction_id", id);
+    }
+
+    public static NsonObject rollback(User user) {
+        NsonObject response = new NsonObject();
+        String id = user.getTransactionId();
+        user.setTransactionId(null);
+        if (id == null || transactions.remove(key(user.getUsername(), id)) == null) {
+            return response.put("error", "No transaction in progress.");
+        }
+        return response.put("status", "success").put("message", "Transaction rolled back.");
+    }
+
+    public static NsonObject commit(User user) {
+        NsonObject response = new NsonObject();
+        String id = user.getTransactionId();
+        user.setTransactionId(null);
+        Transaction tx = id == null ? null : transactions.remove(key(user.getUsername(), id));
+        if (tx == null) return response.put("error", "No transaction in progress (or it has expired).");
+
+        synchronized (tx) {
+            if (tx.failure != null) {
+                return response.put("error", "Transaction was aborted and has been rolled back: " + tx.failure);
+            }
+            try (TableLockManager.Guard ignored = TableLockManager.acquire(
+                    TableLockManager.Mode.WRITE, TableLockManager.timeoutMs(user), lockKeys(tx))) {
+                Map<PendingTable, File> staged = prepare(tx);
+                try {
+                    publish(tx, staged);
+                } catch (Exception e) {
+                    return response.put("error", "Transaction commit failed: " + e.getMessage());
+                }
+            } catch (Exception e) {
+                return response.put("error", "Transaction rolled back: " + e.getMessage());
+            }
+            int rowsAffected = 0;
+            for (Event e : tx.events) rowsAffected += e.rows().size();
+            return response.put("status", "success")
+                    .put("message", "Transaction committed (" + tx.statements + " statement(s), "
+                            + tx.tables.size() + " table(s)).")
+                    .put("rowsAffected", rowsAffected);
+        }
+    }
+
+    // --- Lô ghi của TableWriter: các lệnh chạy trên thread writer dùng chung một bản làm việc ---
+
+    static Transaction beginBatch() {
+        Transaction tx = new Transaction("batch", null, false);
+        batch.set(tx);
+        return tx;
+    }
+
+    static void endBatch() {
+        batch.remove();
+    }
+
+    /** false nếu lô chưa publish được gì (khóa timeout, bảng bị ghi chen, lỗi ghi file tạm): chạy lại an toàn. */
+    static boolean commitBatch(Transaction tx) throws Exception {
+        TableLockManager.Guard guard;
+        try {
+            guard = TableLockManager.acquire(TableLockManager.Mode.WRITE, NJSQLConfig.LOCK_TIMEOUT_MS, lockKeys(tx));
+        } catch (IllegalStateException e) {
+            return false;
+        }
+        try (guard) {
+            Map<PendingTable, File> staged;
+            try {
+                staged = prepare(tx);
+            } catch (Exception e) {
+                return false;
+            }
+            publish(tx, staged);
+            return true;
+        }
+    }
+
+    // Kiểm tra ghi chen rồi ghi hết file tạm (đang giữ khóa ghi mọi bảng): lỗi ở bước này thì chưa bảng nào bị đổi
+    // Khóa bảng theo file như bản làm việc: bảng cùng tên của tenant khác không bị chặn
+    private static Set<String> lockKeys(Transaction tx) {
+        Set<String> keys = new TreeSet<>();
+        for (PendingTable p : tx.tables.values()) keys.add(TableLockManager.fileKey(p.file));
+        return keys;
+    }
+
+    private static Map<PendingTable, File> prepare(Transaction tx) throws Exception {
+        for (PendingTable p : tx.tables.values()) {
+            if (TableVersions.version(p.file) != p.baseVersion) {
+                throw new IllegalStateException("table '" + p.table + "' was modified by another session during the transaction");
+            }
+        }
+
+        Map<PendingTable, File> staged = new LinkedHashMap<>();
+        try {
+            for (PendingTable p : tx.tables.values()) staged.put(p, stage(p.file, p.data));
+        } catch (Exception e) {
+            for (File tmp : staged.values()) tmp.delete();
+            throw e;
+        }
+        return staged;
+    }
+
+    // Thay file thật, publish bảng realtime, tăng version rồi mới phát sự kiện cho listener
+    private static void publish(Transaction tx, Map<PendingTable, File> staged) throws Exception {
+        Map<VersionedTable, List<Map<String, Object>>> ramContents = new HashMap<>();
+        List<PendingTable> moved = new ArrayList<>();
+        for (Map.Entry<PendingTable, File> e : staged.entrySet()) {
+            PendingTable p = e.getKey();
+            try {
+                Files.move(e.getValue().toPath(), p.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception failure) {
+                throw partialCommit(staged, moved, p, failure);
+            }
+            moved.add(p);
+            String tableKey = TableLockManager.key(p.db, p.table);
+            // File đã rename xong và bền vững: không markDirty (flusher ghi theo đường dẫn của root),
+            // chỉ bỏ bản bẩn cũ để nó không ghi đè snapshot trước COMMIT lên file
+            BackgroundFlusher.discard(tableKey, p.file);
+            VersionedTable ram = RealtimeTableManager.ramTables.get(tableKey);
+            if (ram != null) {
+                List<Map<String, Object>> rows = new ArrayList<>();
+                for (Object row : p.data.getArray("data")) rows.add((NsonObject) row);
+                ramContents.put(ram, rows);
+            }
+        }
+        if (!ramContents.isEmpty()) VersionedTable.replaceAll(ramContents); // một timestamp cho mọi bảng
+
+        for (PendingTable p : tx.tables.values()) TableVersions.bump(p.file); // sau khi file và bảng RAM đã cập nhật
+        for (Runnable action : tx.afterCommit) action.run();
+        for (Event e : tx.events) {
+            if (e.oldRows() != null) RealtimeTableManager.notifyListeners(e.tableKey(), e.action(), e.rows(), e.oldRows());
+            else RealtimeTableManager.notifyListeners(e.tableKey(), e.action(), e.rows());
+        }
+    }
+
+    // Rename lỗi sau khi đã thay một số bảng: không hoàn tác được, nên xóa file tạm còn lại, tăng version
+    // các bảng đã thay (cache, transaction khác thấy dữ liệu mới) và nêu tên chúng trong lỗi
+    private static Exception partialCommit(Map<PendingTable, File> staged, List<PendingTable> moved,
+                                           PendingTable failed, Exception failure) {
+        for (Map.Entry<PendingTable, File> e : staged.entrySet()) {
+            if (!moved.contains(e.getKey())) e.getValue().delete();
+        }
+        if (moved.isEmpty()) return failure;
+        List<String> names = new ArrayList<>();
+        for (PendingTable p : moved) {
+            TableVersions.bump(p.file);
+            names.add(p.table);
+        }
+        return new IllegalStateException("table '" + failed.table + "' could not be replaced (" + failure.getMessage()
+                + "); already committed: " + String.join(", ", names), failure);
+    }
+
+    // Ghi bảng ra file tạm cạnh file thật và fsync, rename sau
+    private static File stage(File file, NsonObject tableData) throws Exception {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            ObjectMapper mapper = new ObjectMapper();
+            fos.write(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(tableData).getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        }
+        return tmp;
+    }
+
+    public static int openTransactions() {
+        return transactions.size();
+    }
+
+    // Rollback transaction quá TTL; gọi ở mỗi lần BEGIN/dùng transaction nên không cần thread riêng
+    private static void expire() {
+        long cutoff = System.currentTimeMillis() - NJSQLConfig.TRANSACTION_TTL_MS;
+        transactions.values().removeIf(t -> t.lastAccess < cutoff);
+    }
+
+    private static String key(String username, String id) {
+        return username + "/" + id;
+    }
+}
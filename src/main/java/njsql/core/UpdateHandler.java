@@ -4,8 +4,8 @@ import njsql.models.User;
 import njsql.nson.NsonArray;
 import njsql.nson.NsonObject;
 import njsql.indexing.BTreeIndexManager;
+import njsql.query.TableVersions;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.SerializationFeature; // Import thêm cái này cho đẹp
 
 import java.io.*;
@@ -20,9 +20,28 @@ import java.nio.channels.FileLock;
 
 public class UpdateHandler {
 
-    private static final List<NsonObject> updatedRows = new ArrayList<>();
+    private static final Pattern TABLE_NAME = Pattern.compile("^UPDATE\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
 
     public static String handle(String sql, User user) throws Exception {
+        Matcher t = TABLE_NAME.matcher(sql.trim());
+        String table = t.find() ? t.group(1) : null;
+        if (TableWriter.routes(user, table)) {
+            return TableWriter.submit(user, user.getCurrentDatabase(), table, true, () -> locked(sql, user, table));
+        }
+        return locked(sql, user, table);
+    }
+
+    private static String locked(String sql, User user, String table) throws Exception {
+        // Giữ khóa ghi của bảng suốt đọc-sửa-ghi file: hai UPDATE song song không ghi đè kết quả của nhau
+        try (TableLockManager.Guard ignored = TableLockManager.write(user, user.getCurrentDatabase(), table)) {
+            return update(sql, user);
+        } catch (Exception e) {
+            TransactionManager.statementFailed(user, e.getMessage());
+            throw e;
+        }
+    }
+
+    private static String update(String sql, User user) throws Exception {
         sql = sql.replace(";", "").trim();
 
         Pattern pattern = Pattern.compile(
@@ -49,8 +68,13 @@ public class UpdateHandler {
         File file = new File(rootDir + "/" + db + "/" + table + ".nson");
         if (!file.exists()) throw new IllegalArgumentException("Table '" + table + "' not found.");
 
-        String fileContent = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
-        NsonObject nson = NsonObject.parse(fileContent);
+        // Trong transaction: sửa bản làm việc, file chỉ được ghi lúc COMMIT
+        TransactionManager.Transaction tx = TransactionManager.current(user);
+        NsonObject nson = tx != null ? tx.table(db, table, file)
+                : NsonObject.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        if (MaterializedViewManager.isView(nson)) {
+            throw new IllegalArgumentException("'" + table + "' is a materialized view and cannot be modified directly.");
+        }
 
         NsonObject meta = nson.getObject("_meta");
         NsonObject types = nson.getObject("_types");
@@ -62,13 +86,12 @@ public class UpdateHandler {
         ObjectMapper mapper = new ObjectMapper();
         mapper.enable(SerializationFeature.INDENT_OUTPUT); // Format JSON đẹp
 
-        // Đọc file thành Map để lấy _indexes
-        TypeReference<Map<String, Object>> typeRef = new TypeReference<>() {};
-        Map<String, Object> tableJson = mapper.readValue(fileContent, typeRef);
-        Object indexesObj = tableJson.get("_indexes");
+        Object indexesObj = nson.get("_indexes");
         Map<String, Object> indexes = indexesObj instanceof Map<?, ?> ? castToStringObjectMap(indexesObj) : Collections.emptyMap();
 
-        updatedRows.clear();
+        List<NsonObject> updatedRows = new ArrayList<>();
+        Map<Integer, NsonObject> updatedByPosition = new HashMap<>();
+        List<NsonObject> oldRows = new ArrayList<>();
         int updatedCount = 0;
 
         for (int i = 0; i < data.size(); i++) {
@@ -79,6 +102,7 @@ public class UpdateHandler {
             NsonObject row = (NsonObject) rawRow;
 
             if (whereClause == null || evaluateWhere(row, whereClause, types, rootDir + "/" + db, table)) {
+                oldRows.add(row.clone());
                 for (Map.Entry<String, String> update : updates.entrySet()) {
                     String col = update.getKey();
                     if (!types.containsKey(col)) {
@@ -97,7 +121,11 @@ public class UpdateHandler {
                             Object columnObj = indexMap.get("column");
                             if (!(columnObj instanceof String indexedColumn)) continue;
 
-                            if (col.equals(indexedColumn)) {
+                            if (!col.equals(indexedColumn)) continue;
+                            if (tx != null) {
+                                int position = i;
+                                tx.afterCommit(() -> BTreeIndexManager.updateIndexOnUpdate(rootDir + "/" + db, table, col, indexName, position, newValue));
+                            } else {
                                 BTreeIndexManager.updateIndexOnUpdate(rootDir + "/" + db, table, col, indexName, i, newValue);
                             }
                         }
@@ -105,12 +133,23 @@ public class UpdateHandler {
                 }
                 updatedCount++;
                 updatedRows.add(row.clone());
+                updatedByPosition.put(i, updatedRows.get(updatedRows.size() - 1));
+            }
+        }
+
+        if (tx != null) {
+            if (updatedCount > 0) {
+                meta.put("last_modified", Instant.now().toString());
+                AnalyzeHandler.onRowsModified(nson, updatedCount);
             }
+            tx.record(TableLockManager.fileKey(file), "UPDATE", updatedRows, oldRows);
+            return "Updated " + updatedCount + " row(s) in table '" + table + "'" + tx.pendingNote() + ".";
         }
 
         if (updatedCount > 0) {
             meta.put("last_modified", Instant.now().toString());
             nson.put("_meta", meta);
+            AnalyzeHandler.onRowsModified(nson, updatedCount); // auto-analyze khi đủ tỉ lệ thay đổi
             
             // --- [FIX 1] Ghi file an toàn (tránh ClosedChannelException) ---
             writeWithLock(file, nson, mapper);
@@ -122,9 +161,10 @@ public class UpdateHandler {
         }
 
         String tableKey = db + "." + table;
-        if (RealtimeTableManager.ramTables.containsKey(tableKey)) {
-            RealtimeTableManager.updateRamTable(tableKey, updatedRows, db);
-            RealtimeTableManager.notifyListeners(tableKey, "UPDATE", updatedRows);
+        if (updatedCount > 0) {
+            RealtimeTableManager.updateRamRows(tableKey, updatedByPosition); // bảng realtime: version mới cho các row đã đổi
+            TableVersions.bump(file); // sau khi file và bảng RAM đã cập nhật
+            RealtimeTableManager.notifyListeners(TableLockManager.fileKey(file), "UPDATE", new ArrayList<>(updatedRows), oldRows);
         }
 
         return "Updated " + updatedCount + " row(s) in table '" + table + "'.";
@@ -143,10 +183,6 @@ public class UpdateHandler {
         }
     }
 
-    public static List<NsonObject> getUpdatedRows() {
-        return new ArrayList<>(updatedRows);
-    }
-
     // === HELPER METHODS ===
 
     private static Map<String, String> parseSetClause(String setClause) {
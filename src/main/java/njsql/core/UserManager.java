@@ -12,12 +12,23 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.io.OutputStreamWriter;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class UserManager {
     private static final String BASE_PATH = "njsql_data/";
     private static final String CLIENT_USERS_FILE = BASE_PATH + "users.nson";
     private static String firstUser = null;
 
+    // Danh bạ user trong RAM (users.nson gốc + users.nson của từng admin), để checkLogin/getUserConfig
+    // không đọc lại và parse các file ở mỗi request. owner = thư mục admin chứa user, null = file gốc.
+    private record Account(String passwordHash, String owner, NsonObject config) {}
+    private record Directory(Map<String, List<Account>> accounts, Map<String, Long> stamps, long checkedAt) {}
+    private static volatile Directory directory;
+
     public static String hashPassword(String password) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -36,50 +47,13 @@ public class UserManager {
     }
 
     public static NsonObject checkLogin(String username, String password) {
-        String configPath = CLIENT_USERS_FILE;
-        File configFile = new File(configPath);
         String hashedPassword = hashPassword(password);
-
-        if (configFile.exists()) {
-            NsonObject config = readConfig(configPath);
-            NsonArray users = config.getArray("users");
-            if (users != null) {
-                for (int i = 0; i < users.size(); i++) {
-                    NsonObject user = users.getObject(i);
-                    if (user.getString("username").equals(username) && user.getString("password").equals(hashedPassword)) {
-                        if (firstUser == null) {
-                            firstUser = username;
-                        }
-                        return new NsonObject().put("success", true).put("username", username);
-                    }
-                }
-            }
-        }
-
-        File baseDir = new File(BASE_PATH);
-        File[] adminDirs = baseDir.listFiles(File::isDirectory);
-        if (adminDirs == null) {
-//            System.out.println("DEBUG: No directories found in " + BASE_PATH);
-            return new NsonObject().put("success", false).put("message", "No users found");
-        }
-
-        for (File adminDir : adminDirs) {
-            configPath = adminDir.getPath() + "/users.nson";
-//            System.out.println("DEBUG: Checking login configPath: " + configPath);
-            if (new File(configPath).exists()) {
-                NsonObject config = readConfig(configPath);
-                NsonArray users = config.getArray("users");
-                if (users != null) {
-                    for (int i = 0; i < users.size(); i++) {
-                        NsonObject user = users.getObject(i);
-                        if (user.getString("username").equals(username) && user.getString("password").equals(hashedPassword)) {
-                            if (firstUser == null) {
-                                firstUser = adminDir.getName();
-                            }
-                            return new NsonObject().put("success", true).put("username", username);
-                        }
-                    }
+        for (Account account : directory().accounts().getOrDefault(username, List.of())) {
+            if (hashedPassword.equals(account.passwordHash())) {
+                if (firstUser == null) {
+                    firstUser = account.owner() == null ? username : account.owner();
                 }
+                return new NsonObject().put("success", true).put("username", username);
             }
         }
         return new NsonObject().put("success", false).put("message", "User not found or invalid credentials");
@@ -205,105 +179,98 @@ public class UserManager {
         return BASE_PATH + firstUser;
     }
 
+    // Trả bản sao: caller hay sửa config rồi gọi updateUserConfig, không được đụng vào danh bạ dùng chung
     public static NsonObject getUserConfig(String username) {
-        String configPath = CLIENT_USERS_FILE;
-//        System.out.println("DEBUG: Checking configPath: " + configPath);
-        File configFile = new File(configPath);
-        NsonObject config = null;
-        NsonArray users = null;
-
-        if (configFile.exists()) {
-            config = readConfig(configPath);
-//            System.out.println("DEBUG: config from " + configPath + ": " + (config != null ? config.toString() : "null"));
-            users = config.getArray("users");
-//            System.out.println("DEBUG: users from " + configPath + ": " + (users != null ? users.toString() : "null"));
-            if (users != null) {
-                for (int i = 0; i < users.size(); i++) {
-                    NsonObject user = users.getObject(i);
-//                    System.out.println("DEBUG: checking user in " + configPath + ": " + user.getString("username"));
-                    if (user.getString("username").equals(username)) {
-//                        System.out.println("DEBUG: found user in " + configPath + ": " + user.toString());
-                        return user;
-                    }
-                }
-            }
-        }
+        List<Account> accounts = directory().accounts().get(username);
+        return accounts == null ? null : accounts.get(0).config().clone();
+    }
 
-        File baseDir = new File(BASE_PATH);
-//        System.out.println("DEBUG: Scanning directories in " + BASE_PATH);
-        File[] adminDirs = baseDir.listFiles(File::isDirectory);
-        if (adminDirs == null) {
-//            System.out.println("DEBUG: No directories found in " + BASE_PATH);
-            return null;
-        }
-//        System.out.println("DEBUG: Found directories: " + adminDirs.length);
-
-        for (File adminDir : adminDirs) {
-            configPath = adminDir.getPath() + "/users.nson";
-//            System.out.println("DEBUG: Checking configPath: " + configPath);
-            if (new File(configPath).exists()) {
-                config = readConfig(configPath);
-//                System.out.println("DEBUG: config from " + configPath + ": " + (config != null ? config.toString() : "null"));
-                users = config.getArray("users");
-//                System.out.println("DEBUG: users from " + configPath + ": " + (users != null ? users.toString() : "null"));
-                if (users != null) {
-                    for (int i = 0; i < users.size(); i++) {
-                        NsonObject user = users.getObject(i);
-//                        System.out.println("DEBUG: checking user in " + configPath + ": " + user.getString("username"));
-                        if (user.getString("username").equals(username)) {
-//                            System.out.println("DEBUG: found user in " + configPath + ": " + user.toString());
-                            return user;
-                        }
-                    }
-                }
-            } else {
-//                System.out.println("DEBUG: File does not exist: " + configPath);
-            }
-        }
+    public static boolean userExists(String username) {
+        return directory().accounts().containsKey(username);
+    }
 
-//        System.out.println("DEBUG: user not found for username: " + username);
-        return null;
+    // Đổi đối tượng mỗi lần danh bạ được nạp lại: PermissionManager dùng làm khóa cho ma trận quyền đã dựng
+    static Object directoryVersion() {
+        return directory().accounts();
     }
 
-    public static boolean userExists(String username) {
-        String configPath = CLIENT_USERS_FILE;
-        File configFile = new File(configPath);
-        NsonObject config = null;
-        NsonArray users = null;
-
-        if (configFile.exists()) {
-            config = readConfig(configPath);
-            users = config.getArray("users");
-            if (users != null) {
-                for (int i = 0; i < users.size(); i++) {
-                    NsonObject user = users.getObject(i);
-                    if (user.getString("username").equals(username)) {
-                        return true;
-                    }
-                }
+    // Config trong danh bạ, không sao chép: chỉ đọc
+    static NsonObject sharedUserConfig(String username) {
+        List<Account> accounts = directory().accounts().get(username);
+        return accounts == null ? null : accounts.get(0).config();
+    }
+
+    // Tenant của user: thư mục admin chứa account (admin có users.nson riêng thì là chính nó), user ở file gốc là chính nó
+    static String tenantOf(String username) {
+        List<Account> accounts = directory().accounts().get(username);
+        String owner = accounts == null ? null : accounts.get(0).owner();
+        return owner != null ? owner : username;
+    }
+
+    static boolean sameTenant(String a, String b) {
+        return a != null && b != null && tenantOf(a).equals(tenantOf(b));
+    }
+
+    /**
+     * Danh bạ hiện tại. Tối đa mỗi USER_DIRECTORY_CHECK_MS mới stat lại các file users.nson,
+     * chỉ parse lại khi có file đổi (mtime/size) hoặc vừa có saveConfig trong process.
+     */
+    private static Directory directory() {
+        Directory d = directory;
+        if (d != null && System.currentTimeMillis() - d.checkedAt() < NJSQLConfig.USER_DIRECTORY_CHECK_MS) return d;
+        synchronized (UserManager.class) {
+            d = directory;
+            long now = System.currentTimeMillis();
+            if (d != null && now - d.checkedAt() < NJSQLConfig.USER_DIRECTORY_CHECK_MS) return d;
+            List<String> paths = configPaths();
+            Map<String, Long> stamps = new LinkedHashMap<>();
+            for (String path : paths) {
+                File f = new File(path);
+                stamps.put(path, f.lastModified() * 31 + f.length());
             }
+            if (d != null && d.stamps().equals(stamps)) {
+                directory = new Directory(d.accounts(), stamps, now);
+            } else {
+                directory = load(paths, stamps, now);
+            }
+            return directory;
         }
+    }
 
-        File baseDir = new File(BASE_PATH);
-        File[] adminDirs = baseDir.listFiles(File::isDirectory);
+    // Cùng thứ tự tra cứu như trước: file gốc rồi tới users.nson của từng thư mục admin
+    private static List<String> configPaths() {
+        List<String> paths = new ArrayList<>();
+        if (new File(CLIENT_USERS_FILE).exists()) paths.add(CLIENT_USERS_FILE);
+        File[] adminDirs = new File(BASE_PATH).listFiles(File::isDirectory);
         if (adminDirs != null) {
             for (File adminDir : adminDirs) {
-                configPath = adminDir.getPath() + "/users.nson";
-                if (new File(configPath).exists()) {
-                    config = readConfig(configPath);
-                    users = config.getArray("users");
-                    if (users != null) {
-                        for (int i = 0; i < users.size(); i++) {
-                            NsonObject user = users.getObject(i);
-                            if (user.getString("username").equals(username)) {
-                                return true;
-                            }
-                        }
-                    }
-                }
+                String path = adminDir.getPath() + "/users.nson";
+                if (new File(path).exists()) paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    private static Directory load(List<String> paths, Map<String, Long> stamps, long now) {
+        Map<String, List<Account>> accounts = new HashMap<>();
+        for (String path : paths) {
+            String owner = path.equals(CLIENT_USERS_FILE) ? null : new File(path).getParentFile().getName();
+            NsonArray users = readConfig(path).getArray("users");
+            if (users == null) continue;
+            for (int i = 0; i < users.size(); i++) {
+                NsonObject user = users.getObject(i);
+                String name = user.getString("username");
+                if (name == null) continue;
+                accounts.computeIfAbsent(name, k -> new ArrayList<>())
+                        .add(new Account(user.getString("password"), owner, user));
             }
         }
-        return false;
+        return new Directory(accounts, stamps, now);
+    }
+
+    // Sau mỗi lần ghi users.nson trong process: lần tra cứu sau dựng lại danh bạ ngay
+    static void invalidateDirectory() {
+        directory = null;
     }
 
     public static void updateUserConfig(String username, NsonObject updateData) {
@@ -392,6 +359,7 @@ public class UserManager {
         } catch (IOException e) {
 //            System.err.println("DEBUG: Error saving config to " + configPath + ": " + e.getMessage());
         }
+        invalidateDirectory();
     }
 
     private static String toJsonString(NsonObject obj, int indent) {
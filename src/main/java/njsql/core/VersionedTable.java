@@ -0,0 +1,254 @@
+package njsql.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bảng realtime (RealtimeTableManager.ramTables) kiểu MVCC: mỗi row là một chuỗi version, version mới nhất đứng đầu,
+ * mỗi version mang khoảng [begin, end) theo timestamp commit. Đọc lấy Snapshot ở đầu câu lệnh và chỉ thấy
+ * version có begin <= ts < end, nên không cần khóa và không thấy lệnh ghi đang chạy dở.
+ * Ghi (append/update/delete) do một writer mỗi bảng gọi (đang giữ khóa ghi của TableLockManager);
+ * version mới chờ timestamp PENDING rồi được gắn timestamp cùng lúc khi commit.
+ * Version không snapshot nào còn thấy (end <= snapshot cũ nhất đang mở) được dọn khi số version cũ vượt ngưỡng.
+ */
+public final class VersionedTable {
+
+    private static final long PENDING = Long.MAX_VALUE;
+
+    private static final class Version {
+        final Map<String, Object> data;
+        volatile long begin = PENDING;
+        volatile long end = PENDING;
+        volatile Version prev; // version cũ hơn của cùng row
+
+        Version(Map<String, Object> data, Version prev) {
+            this.data = Collections.unmodifiableMap(data);
+            this.prev = prev;
+        }
+    }
+
+    // Mảng slot + số slot đã publish đọc cùng lúc qua một tham chiếu volatile
+    private record State(Version[] slots, int size) {}
+
+    // Timestamp commit cuối cùng (chung mọi bảng để câu JOIN thấy các bảng ở cùng một thời điểm)
+    private static volatile long clock;
+    private static final Object COMMIT = new Object();
+    // Snapshot đang mở: timestamp -> số câu lệnh đang dùng
+    private static final ConcurrentSkipListMap<Long, AtomicInteger> active = new ConcurrentSkipListMap<>();
+
+    private volatile State state = new State(new Version[16], 0);
+    private int live;          // số row đang sống (chỉ writer đọc/ghi)
+    private int obsolete;      // số version đã bị thay/xóa, chưa dọn
+    private int nextGc = NJSQLConfig.MVCC_GC_MIN_VERSIONS;
+
+    /** Thời điểm đọc của một câu lệnh; đóng để GC được dọn các version chỉ nó còn cần. */
+    public static final class Snapshot implements AutoCloseable {
+        public final long timestamp;
+        private boolean closed;
+
+        private Snapshot(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            active.computeIfPresent(timestamp, (ts, n) -> n.decrementAndGet() == 0 ? null : n);
+        }
+    }
+
+    public VersionedTable() {
+    }
+
+    public VersionedTable(List<? extends Map<String, Object>> rows) {
+        append(rows);
+    }
+
+    public static Snapshot openSnapshot() {
+        while (true) {
+            long ts = clock;
+            active.computeIfAbsent(ts, k -> new AtomicInteger()).incrementAndGet();
+            // GC chạy trước lúc đăng ký đã thấy clock <= ts nên không dọn version ts còn cần
+            if (clock == ts) return new Snapshot(ts);
+            new Snapshot(ts).close();
+        }
+    }
+
+    // --- Đọc ---
+
+    /** Row thấy được ở thời điểm snapshot, theo thứ tự bảng. Map trả về không sửa được. */
+    public List<Map<String, Object>> rows(Snapshot snapshot) {
+        long ts = snapshot.timestamp;
+        State s = state;
+        List<Map<String, Object>> out = new ArrayList<>(s.size);
+        for (int i = 0; i < s.size; i++) {
+            Version v = s.slots[i];
+            while (v != null && v.begin > ts) v = v.prev;
+            if (v != null && v.end > ts) out.add(v.data);
+        }
+        return out;
+    }
+
+    public List<Map<String, Object>> rows() {
+        try (Snapshot snapshot = openSnapshot()) {
+            return rows(snapshot);
+        }
+    }
+
+    // --- Ghi (một writer mỗi bảng) ---
+
+    public long append(List<? extends Map<String, Object>> rows) {
+        State s = state;
+        Version[] slots = s.slots;
+        if (s.size + rows.size() > slots.length) {
+            Version[] grown = new Version[Math.max(slots.length * 2, s.size + rows.size())];
+            System.arraycopy(slots, 0, grown, 0, s.size);
+            slots = grown;
+        }
+        List<Version> created = new ArrayList<>(rows.size());
+        int size = s.size;
+        for (Map<String, Object> row : rows) {
+            Version v = new Version(new HashMap<>(row), null);
+            slots[size++] = v;
+            created.add(v);
+        }
+        state = new State(slots, size); // slot mới còn PENDING: reader bỏ qua tới khi commit
+        live += rows.size();
+        return commit(created, List.of());
+    }
+
+    /** Thay row ở các vị trí (thứ tự trong các row đang sống, trùng thứ tự file bảng). */
+    public long update(Map<Integer, ? extends Map<String, Object>> byPosition) {
+        int[] slotOf = liveSlots();
+        Version[] slots = state.slots;
+        List<Version> created = new ArrayList<>(byPosition.size());
+        List<Version> ended = new ArrayList<>(byPosition.size());
+        for (Map.Entry<Integer, ? extends Map<String, Object>> e : byPosition.entrySet()) {
+            int slot = slotOf[checkPosition(e.getKey(), slotOf)];
+            Version old = slots[slot];
+            Version v = new Version(new HashMap<>(e.getValue()), old);
+            slots[slot] = v;
+            created.add(v);
+            ended.add(old);
+        }
+        return commit(created, ended);
+    }
+
+    public long delete(Collection<Integer> positions) {
+        int[] slotOf = liveSlots();
+        Version[] slots = state.slots;
+        List<Version> ended = new ArrayList<>(positions.size());
+        for (int p : positions) ended.add(slots[slotOf[checkPosition(p, slotOf)]]);
+        live -= ended.size();
+        return commit(List.of(), ended);
+    }
+
+    /**
+     * COMMIT của transaction: thay toàn bộ row của từng bảng bằng nội dung mới, mọi bảng chung một timestamp
+     * nên SELECT (kể cả JOIN) thấy cả transaction hoặc không thấy gì. Caller giữ khóa ghi của mọi bảng.
+     */
+    public static long replaceAll(Map<VersionedTable, ? extends List<? extends Map<String, Object>>> contents) {
+        List<Version> created = new ArrayList<>();
+        List<Version> ended = new ArrayList<>();
+        for (Map.Entry<VersionedTable, ? extends List<? extends Map<String, Object>>> e : contents.entrySet()) {
+            VersionedTable table = e.getKey();
+            List<? extends Map<String, Object>> rows = e.getValue();
+            State s = table.state;
+            int endedBefore = ended.size();
+            for (int i = 0; i < s.size; i++) {
+                if (s.slots[i].end == PENDING) ended.add(s.slots[i]);
+            }
+            Version[] slots = new Version[Math.max(16, s.size + rows.size())];
+            System.arraycopy(s.slots, 0, slots, 0, s.size);
+            int size = s.size;
+            for (Map<String, Object> row : rows) {
+                Version v = new Version(new HashMap<>(row), null);
+                slots[size++] = v;
+                created.add(v);
+            }
+            table.state = new State(slots, size);
+            table.live = rows.size();
+            table.obsolete += ended.size() - endedBefore;
+        }
+        long ts = stamp(created, ended);
+        for (VersionedTable table : contents.keySet()) {
+            if (table.obsolete >= table.nextGc) table.collectGarbage();
+        }
+        return ts;
+    }
+
+    public int size() {
+        return live;
+    }
+
+    // Vị trí row sống -> slot (slot của row đã xóa vẫn còn tới lần GC)
+    private int[] liveSlots() {
+        State s = state;
+        int[] slotOf = new int[live];
+        int n = 0;
+        for (int i = 0; i < s.size; i++) {
+            if (s.slots[i].end == PENDING) slotOf[n++] = i;
+        }
+        return slotOf;
+    }
+
+    private static int checkPosition(int position, int[] slotOf) {
+        if (position < 0 || position >= slotOf.length) {
+            throw new IllegalStateException("Realtime table is out of sync with its table file (row " + position + ")");
+        }
+        return position;
+    }
+
+    // Gắn cùng một timestamp cho cả lần ghi rồi mới tăng clock: snapshot mở trước đó không thấy gì, mở sau thấy hết
+    private long commit(List<Version> created, List<Version> ended) {
+        long ts = stamp(created, ended);
+        obsolete += ended.size();
+        if (obsolete >= nextGc) collectGarbage();
+        return ts;
+    }
+
+    private static long stamp(List<Version> created, List<Version> ended) {
+        synchronized (COMMIT) {
+            long ts = clock + 1;
+            for (Version v : created) v.begin = ts;
+            for (Version v : ended) v.end = ts;
+            clock = ts;
+            return ts;
+        }
+    }
+
+    // Bỏ slot đã xóa và cắt chuỗi version mà không snapshot nào (kể cả snapshot sắp mở) còn đọc tới
+    private void collectGarbage() {
+        // Đọc clock trước rồi mới xem active: snapshot đăng ký sau lần đọc này có ts >= now nên vẫn được giữ.
+        // firstEntry thay cho isEmpty + firstKey (snapshot cuối có thể đóng giữa hai lần gọi)
+        long now = clock;
+        Map.Entry<Long, AtomicInteger> first = active.firstEntry();
+        long oldest = first == null ? now : Math.min(first.getKey(), now);
+        State s = state;
+        Version[] slots = new Version[Math.max(16, s.size)];
+        int size = 0;
+        int remaining = 0;
+        for (int i = 0; i < s.size; i++) {
+            Version head = s.slots[i];
+            if (head.end <= oldest) continue;
+            Version v = head;
+            while (v.begin > oldest && v.prev != null) {
+                v = v.prev;
+                remaining++;
+            }
+            v.prev = null;
+            if (head.end != PENDING) remaining++;
+            slots[size++] = head;
+        }
+        state = new State(slots, size);
+        obsolete = remaining;
+        nextGc = remaining + Math.max(NJSQLConfig.MVCC_GC_MIN_VERSIONS, live / 2);
+    }
+}
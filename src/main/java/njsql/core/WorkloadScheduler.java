@@ -0,0 +1,262 @@
+package njsql.core;
+
+import njsql.models.User;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lập lịch theo lớp tải: interactive (OLTP, dashboard), analytic (báo cáo nặng), background (flush, bảo trì)
+ * và replication (clone/push của share server). Mỗi lớp có trọng số (njsql.scheduler.weights):
+ * - Luồng: lớp được bảo đảm SCHEDULER_SLOTS * w / tổng w suất chạy cùng lúc; còn suất trống trong tổng
+ *   thì được mượn thêm, trừ khi có lớp ưu tiên cao hơn đang chờ.
+ * - I/O: nếu đặt njsql.scheduler.ioBytesPerSec, mỗi lớp có token bucket bằng phần băng thông theo trọng số,
+ *   riêng interactive không bị chặn để độ trễ OLTP không phụ thuộc việc ghi nền.
+ * Lớp của request: "workload_class" trong users.nson (mặc định interactive) là trần; SET workload_class / field
+ * workload_class của REST, gRPC chỉ chọn được lớp bằng hoặc thấp hơn trần đó, chọn cao hơn thì vẫn chạy ở lớp trần.
+ * Việc nền (BackgroundFlusher) gọi shouldYield() và lùi lại khi interactive đang bận, tối đa SCHEDULER_MAX_DEFER_MS.
+ */
+public final class WorkloadScheduler {
+
+    // Thứ tự = độ ưu tiên khi mượn suất (nhỏ hơn được ưu tiên hơn)
+    public enum WorkloadClass {
+        INTERACTIVE, ANALYTIC, REPLICATION, BACKGROUND;
+
+        public static WorkloadClass parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown workload class '" + value + "'. Use interactive, analytic, replication or background.");
+            }
+        }
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    private static final class ClassState {
+        final WorkloadClass workload;
+        final int weight;
+        final int share;
+        final long ioRate;     // byte/giây, 0 = không giới hạn
+        int active;
+        int waiting;
+        int maxActive;
+        double ioTokens;
+        long ioRefilledAt = System.nanoTime();
+        final LongAdder tasks = new LongAdder();
+        final LongAdder borrowed = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder ioBytes = new LongAdder();
+        final LongAdder ioThrottleNanos = new LongAdder();
+
+        ClassState(WorkloadClass workload, int weight, int share, long ioRate) {
+            this.workload = workload;
+            this.weight = weight;
+            this.share = share;
+            this.ioRate = ioRate;
+            this.ioTokens = ioRate;
+        }
+    }
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition released = lock.newCondition();
+    private static final ClassState[] states = createStates();
+    private static int totalActive;
+    // Lần cuối interactive có việc (nano), để việc nền chờ một nhịp sau khi interactive vừa xong
+    private static volatile long lastInteractive;
+
+    private WorkloadScheduler() {}
+
+    private static ClassState[] createStates() {
+        WorkloadClass[] classes = WorkloadClass.values();
+        int[] weights = new int[classes.length];
+        for (int i = 0; i < classes.length; i++) weights[i] = defaultWeight(classes[i]);
+        for (String part : NJSQLConfig.SCHEDULER_WEIGHTS.split(",")) {
+            String[] kv = part.split("=");
+            if (kv.length != 2) continue;
+            try {
+                weights[WorkloadClass.parse(kv[0]).ordinal()] = Math.max(1, Integer.parseInt(kv[1].trim()));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring scheduler weight '" + part + "': " + e.getMessage());
+            }
+        }
+        int sum = 0;
+        for (int w : weights) sum += w;
+        int slots = Math.max(classes.length, NJSQLConfig.SCHEDULER_SLOTS);
+        ClassState[] result = new ClassState[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            long io = classes[i] == WorkloadClass.INTERACTIVE ? 0 : NJSQLConfig.SCHEDULER_IO_BYTES_PER_SEC * weights[i] / sum;
+            result[i] = new ClassState(classes[i], weights[i], Math.max(1, slots * weights[i] / sum), io);
+        }
+        return result;
+    }
+
+    private static int defaultWeight(WorkloadClass c) {
+        return switch (c) {
+            case INTERACTIVE -> 8;
+            case ANALYTIC -> 4;
+            case REPLICATION -> 2;
+            case BACKGROUND -> 1;
+        };
+    }
+
+    // Lớp tải của session: lớp của user trong users.nson là trần (mặc định interactive),
+    // SET workload_class chỉ hạ xuống được (vd user analytic không tự nâng mình lên interactive)
+    public static WorkloadClass classOf(User user) {
+        NsonObject config = UserManager.sharedUserConfig(user.getUsername());
+        WorkloadClass assigned = parseOr(config == null ? null : config.getString("workload_class"), WorkloadClass.INTERACTIVE);
+        WorkloadClass requested = parseOr(user.getSetting("workload_class"), assigned);
+        return requested.ordinal() >= assigned.ordinal() ? requested : assigned;
+    }
+
+    private static WorkloadClass parseOr(String value, WorkloadClass fallback) {
+        if (value == null) return fallback;
+        try {
+            return WorkloadClass.parse(value);
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    // Lệnh quản trị nhẹ (SHOW ..., KILL) không xếp hàng, để vẫn xem và gỡ được khi mọi suất đều bận
+    public static boolean bypasses(String sql) {
+        String upper = sql == null ? "" : sql.trim().toUpperCase(Locale.ROOT);
+        return upper.startsWith("SHOW ") || QueryManager.isKill(upper);
+    }
+
+    /** Chạy task trong một suất của lớp; chờ (không giới hạn) khi lớp đã dùng hết phần của mình. */
+    public static <T> T run(WorkloadClass workload, Task<T> task) throws Exception {
+        acquire(workload);
+        try {
+            return task.run();
+        } finally {
+            release(workload);
+        }
+    }
+
+    private static void acquire(WorkloadClass workload) throws InterruptedException {
+        ClassState s = states[workload.ordinal()];
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            s.waiting++;
+            try {
+                while (true) {
+                    if (s.active < s.share) break;
+                    if (totalActive < NJSQLConfig.SCHEDULER_SLOTS && !higherPriorityWaiting(workload)) {
+                        s.borrowed.increment();
+                        break;
+                    }
+                    released.await();
+                }
+            } finally {
+                s.waiting--;
+            }
+            s.active++;
+            s.maxActive = Math.max(s.maxActive, s.active);
+            totalActive++;
+        } finally {
+            lock.unlock();
+        }
+        s.tasks.increment();
+        s.waitNanos.add(System.nanoTime() - start);
+        if (workload == WorkloadClass.INTERACTIVE) lastInteractive = System.nanoTime();
+    }
+
+    private static void release(WorkloadClass workload) {
+        ClassState s = states[workload.ordinal()];
+        if (workload == WorkloadClass.INTERACTIVE) lastInteractive = System.nanoTime();
+        lock.lock();
+        try {
+            s.active--;
+            totalActive--;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean higherPriorityWaiting(WorkloadClass workload) {
+        for (int i = 0; i < workload.ordinal(); i++) {
+            if (states[i].waiting > 0) return true;
+        }
+        return false;
+    }
+
+    /** Việc nền nên lùi lại: interactive đang chạy hoặc vừa chạy trong SCHEDULER_YIELD_MS. */
+    public static boolean shouldYield() {
+        if (states[WorkloadClass.INTERACTIVE.ordinal()].active > 0) return true;
+        return System.nanoTime() - lastInteractive < TimeUnit.MILLISECONDS.toNanos(NJSQLConfig.SCHEDULER_YIELD_MS);
+    }
+
+    /**
+     * Trừ bytes vào token bucket của lớp, hết token thì ngủ cho tới khi đủ (chia nhỏ theo giây để
+     * một file lớn không giữ cả bucket). Interactive và cấu hình không giới hạn thì trả về ngay.
+     */
+    public static void throttleIo(WorkloadClass workload, long bytes) throws InterruptedException {
+        ClassState s = states[workload.ordinal()];
+        s.ioBytes.add(bytes);
+        if (s.ioRate <= 0 || bytes <= 0) return;
+        long remaining = bytes;
+        while (remaining > 0) {
+            long chunk = Math.min(remaining, s.ioRate);
+            long sleepNanos;
+            synchronized (s) {
+                long now = System.nanoTime();
+                s.ioTokens = Math.min(s.ioRate, s.ioTokens + (now - s.ioRefilledAt) / 1e9 * s.ioRate);
+                s.ioRefilledAt = now;
+                s.ioTokens -= chunk;
+                sleepNanos = s.ioTokens >= 0 ? 0 : (long) (-s.ioTokens / s.ioRate * 1e9);
+            }
+            if (sleepNanos > 0) {
+                s.ioThrottleNanos.add(sleepNanos);
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+            remaining -= chunk;
+        }
+    }
+
+    // Một row cho mỗi lớp tải (SHOW WORKLOADS)
+    public static NsonArray stats() {
+        NsonArray rows = new NsonArray();
+        lock.lock();
+        try {
+            for (ClassState s : states) {
+                long tasks = s.tasks.sum();
+                rows.add(new NsonObject()
+                        .put("class", s.workload.label())
+                        .put("weight", s.weight)
+                        .put("share", s.share)
+                        .put("active", s.active)
+                        .put("waiting", s.waiting)
+                        .put("max_active", s.maxActive)
+                        .put("tasks", tasks)
+                        .put("borrowed", s.borrowed.sum())
+                        .put("avg_wait_ms", tasks == 0 ? 0.0 : Math.round(s.waitNanos.sum() / (double) tasks / 1000) / 1000.0)
+                        .put("io_limit_bytes_per_sec", s.ioRate)
+                        .put("io_bytes", s.ioBytes.sum())
+                        .put("io_throttled_ms", TimeUnit.NANOSECONDS.toMillis(s.ioThrottleNanos.sum())));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return rows;
+    }
+
+    // SHOW WORKLOADS qua REST/gRPC
+    public static NsonObject showForAPI() {
+        return new NsonObject().put("status", "success").put("data", stats());
+    }
+}
@@ -5,6 +5,9 @@ import njsql.core.*;
 import njsql.models.User;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
+import njsql.query.ResultCache;
+import njsql.proto.NJSQLProto.LoginRequest;
+import njsql.proto.NJSQLProto.LoginResponse;
 import njsql.proto.NJSQLProto.QueryRequest;
 import njsql.proto.NJSQLProto.QueryResponse;
 import njsql.proto.NJSQLProto.SubscribeRequest;
@@ -21,17 +24,16 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
         QueryResponse.Builder resp = QueryResponse.newBuilder();
 
         try {
-            String username = req.getUsername();
             String password = req.getPassword();
             String database = req.getDatabase();
             String sql = req.getSql().trim();
 
-            // === 1. Xác thực ===
-            NsonObject auth = UserManager.checkLogin(username, password);
-            if (!auth.getBoolean("success")) {
+            // === 1. Xác thực (token từ Login hoặc username/password) ===
+            String username = SessionTokens.authenticate(req.getToken(), req.getUsername(), password);
+            if (username == null) {
                 responseObserver.onNext(
                         resp.setSuccess(false)
-                                .setError("Invalid username or password")
+                                .setError(req.getToken().isEmpty() ? "Invalid username or password" : "Invalid or expired token")
                                 .build()
                 );
                 responseObserver.onCompleted();
@@ -41,6 +43,21 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
             // === 2. Tạo session user ===
             User user = new User(username, password, "grpc", 0);
             user.setCurrentDatabase(database);
+            if (req.getParallelism() > 0) {
+                SetHandler.handle("SET parallelism = " + req.getParallelism(), user);
+            }
+            if (req.getCache()) {
+                SetHandler.handle("SET result_cache = on", user);
+            }
+            if (req.getStatementTimeoutMs() > 0) {
+                SetHandler.handle("SET statement_timeout = " + req.getStatementTimeoutMs(), user);
+            }
+            if (!req.getTransactionId().isEmpty()) {
+                user.setTransactionId(req.getTransactionId());
+            }
+            if (!req.getWorkloadClass().isEmpty()) {
+                SetHandler.handle("SET workload_class = " + req.getWorkloadClass(), user);
+            }
 
             // === 3. Kiểm tra database tồn tại ===
             String dbPath = UserManager.getRootDirectory(username) + "/" + database;
@@ -55,21 +72,21 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
             }
 
             // === 4. Xử lý SQL ===
-            String upperSql = sql.toUpperCase();
+            MaterializedViewManager.ensureLoaded(UserManager.getRootDirectory(username));
+            RollupManager.ensureLoaded(UserManager.getRootDirectory(username));
+            // Hạn mức của user (max_qps, max_concurrent); SHOW/KILL không bị tính
             NsonObject result;
-
-            if (upperSql.startsWith("SELECT")) {
-                result = SelectHandler.handleForAPI(sql, user);
-            } else if (upperSql.startsWith("INSERT")) {
-                result = InsertHandler.handleForAPI(sql, user);
-            } else if (upperSql.startsWith("UPDATE")) {
-                result = UpdateHandler.handleForAPI(sql, user);
-            } else if (upperSql.startsWith("DELETE")) {
-                result = DeleteHandler.handleForAPI(sql, user);
+            if (WorkloadScheduler.bypasses(sql)) {
+                result = dispatch(req, sql, user);
             } else {
+                try (QuotaManager.Ticket ignored = QuotaManager.enter(username)) {
+                    result = WorkloadScheduler.run(WorkloadScheduler.classOf(user), () -> dispatch(req, sql, user));
+                }
+            }
+            if (result == null) {
                 responseObserver.onNext(
                         resp.setSuccess(false)
-                                .setError("Unsupported command. Use SELECT, INSERT, UPDATE, DELETE.")
+                                .setError("Unsupported command. Use SELECT, INSERT, UPDATE, DELETE, ANALYZE, EXPLAIN, SHOW CACHE, SHOW LOCKS, SHOW MAILBOXES, SHOW QUERIES, SHOW QUOTAS, SHOW WORKLOADS, KILL, MATERIALIZED VIEW, ROLLUP, DECLARE/FETCH/CLOSE, BEGIN/COMMIT/ROLLBACK.")
                                 .build()
                 );
                 responseObserver.onCompleted();
@@ -88,6 +105,13 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
                 if (result.containsKey("rowsAffected")) {
                     resp.setRowsAffected(result.getInt("rowsAffected"));
                 }
+                if (result.containsKey("cursor_id")) {
+                    resp.setCursorId(result.getString("cursor_id"));
+                }
+                if (result.containsKey("transaction_id")) {
+                    resp.setTransactionId(result.getString("transaction_id"));
+                }
+                resp.setHasMore(result.getBoolean("has_more"));
 
                 // === 6. Gửi dữ liệu SELECT (NsonRow) ===
                 if (result.containsKey("data")) {
@@ -109,6 +133,8 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
                 }
             }
 
+        } catch (QuotaManager.QuotaExceededException e) {
+            resp.setSuccess(false).setError(e.getMessage());
         } catch (Exception e) {
             resp.setSuccess(false).setError("Internal server error: " + e.getMessage());
             e.printStackTrace();
@@ -118,17 +144,60 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
         responseObserver.onCompleted();
     }
 
+    // Chạy lệnh trong suất của lớp tải của session; null = lệnh không hỗ trợ
+    private static NsonObject dispatch(QueryRequest req, String sql, User user) throws Exception {
+        String upperSql = sql.toUpperCase();
+        int pageSize = req.getPageSize() > 0 ? req.getPageSize() : NJSQLConfig.CURSOR_DEFAULT_FETCH;
+        if (!req.getCursorId().isEmpty()) {
+            return CursorManager.fetch(req.getCursorId(), user, pageSize);
+        } else if (upperSql.startsWith("SELECT") && req.getPageSize() > 0) {
+            return CursorManager.openForAPI(sql, user, pageSize);
+        } else if (TransactionManager.isTransactionControl(upperSql)) {
+            return TransactionManager.handleForAPI(sql, user);
+        } else if (upperSql.startsWith("SELECT") || upperSql.startsWith("EXPLAIN")) {
+            return SelectHandler.handleForAPI(sql, user);
+        } else if (upperSql.startsWith("INSERT")) {
+            return InsertHandler.handleForAPI(sql, user);
+        } else if (upperSql.startsWith("UPDATE")) {
+            return UpdateHandler.handleForAPI(sql, user);
+        } else if (upperSql.startsWith("DELETE")) {
+            return DeleteHandler.handleForAPI(sql, user);
+        } else if (upperSql.startsWith("ANALYZE")) {
+            return AnalyzeHandler.handleForAPI(sql, user);
+        } else if (upperSql.startsWith("SHOW CACHE")) {
+            return ResultCache.showForAPI();
+        } else if (upperSql.startsWith("SHOW LOCKS")) {
+            return TableLockManager.showForAPI(user);
+        } else if (upperSql.startsWith("SHOW QUERIES")) {
+            return QueryManager.showForAPI(user);
+        } else if (QueryManager.isKill(upperSql)) {
+            return QueryManager.handleForAPI(sql, user);
+        } else if (upperSql.startsWith("SHOW QUOTAS")) {
+            return QuotaManager.showForAPI(user);
+        } else if (upperSql.startsWith("SHOW WORKLOADS")) {
+            return WorkloadScheduler.showForAPI();
+        } else if (upperSql.startsWith("SHOW MAILBOXES")) {
+            return TableWriter.showForAPI(user);
+        } else if (upperSql.matches("(?s)^(CREATE|REFRESH|DROP)\\s+MATERIALIZED\\s+VIEW\\b.*")) {
+            return MaterializedViewManager.handleForAPI(sql, user);
+        } else if (upperSql.matches("(?s)^((CREATE|DROP)\\s+ROLLUP|SHOW\\s+ROLLUPS)\\b.*")) {
+            return RollupManager.handleForAPI(sql, user);
+        } else if (upperSql.matches("(?s)^(DECLARE|FETCH|CLOSE)\\b.*")) {
+            return CursorManager.handleForAPI(sql, user);
+        }
+        return null;
+    }
+
     @Override
     public void subscribe(SubscribeRequest req, StreamObserver<TableUpdate> responseObserver) {
-        String username = req.getUsername();
         String password = req.getPassword();
         String database = req.getDatabase();
         String table = req.getTable();
 
         try {
             // === 1. Xác thực ===
-            NsonObject auth = UserManager.checkLogin(username, password);
-            if (!auth.getBoolean("success")) {
+            String username = SessionTokens.authenticate(req.getToken(), req.getUsername(), password);
+            if (username == null) {
                 responseObserver.onError(new IllegalArgumentException("Invalid credentials"));
                 return;
             }
@@ -144,7 +213,7 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
                 return;
             }
 
-            String tableKey = database + "." + table;
+            String tableKey = TableLockManager.fileKey(file);
 
             // === 3. Listener cho thay đổi realtime ===
             java.util.function.Consumer<RealtimeTableManager.TableChange> listener = change -> {
@@ -164,7 +233,7 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
             // === 5. Gửi thông báo kết nối thành công ===
             TableUpdate init = TableUpdate.newBuilder()
                     .setAction("SUBSCRIBED")
-                    .setRow("Connected to realtime updates for table: " + tableKey)
+                    .setRow("Connected to realtime updates for table: " + database + "." + table)
                     .setTimestamp(System.currentTimeMillis())
                     .build();
             responseObserver.onNext(init);
@@ -175,4 +244,19 @@ public class NJSQLGrpcService extends NJSQLGrpc.NJSQLImplBase {
             responseObserver.onError(e);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void login(LoginRequest req, StreamObserver<LoginResponse> responseObserver) {
+        LoginResponse.Builder resp = LoginResponse.newBuilder();
+        NsonObject result = SessionTokens.login(req.getUsername(), req.getPassword());
+        if (result.containsKey("error")) {
+            resp.setSuccess(false).setError(result.getString("error"));
+        } else {
+            resp.setSuccess(true)
+                    .setToken(result.getString("token"))
+                    .setExpiresAt(((Number) result.get("expires_at")).longValue());
+        }
+        responseObserver.onNext(resp.build());
+        responseObserver.onCompleted();
+    }
+}
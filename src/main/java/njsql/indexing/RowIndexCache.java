@@ -0,0 +1,93 @@
+package njsql.indexing;
+
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.Values;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index trên RAM cho các cột được khai báo index (PRIMARY KEY / INDEX / UNIQUE trong _meta, hoặc _indexes).
+ * Map: giá trị (đã chuẩn hóa, sắp theo Values.compare) -> vị trí row trong mảng "data".
+ * Mỗi index gắn với một version của bảng; bảng đổi version thì index được build lại ở lần dùng kế tiếp.
+ */
+public class RowIndexCache {
+
+    private static final class Entry {
+        final String version;
+        final NavigableMap<Object, List<Integer>> index;
+
+        Entry(String version, NavigableMap<Object, List<Integer>> index) {
+            this.version = version;
+            this.index = index;
+        }
+    }
+
+    // key: tablePath + "#" + column
+    private static final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    // Các cột có khai báo index trong file bảng
+    public static Set<String> indexedColumns(NsonObject tableObj) {
+        Set<String> cols = new LinkedHashSet<>();
+        NsonObject meta = tableObj.getObject("_meta");
+        if (meta != null) {
+            addAll(cols, meta.getArray("primary_key"));
+            addAll(cols, meta.getArray("index"));
+        }
+        NsonObject indexes = tableObj.getObject("_indexes");
+        if (indexes != null) {
+            for (String idxName : indexes.keySet()) {
+                NsonObject idx = indexes.getObject(idxName);
+                if (idx != null && idx.getString("column") != null) cols.add(idx.getString("column"));
+            }
+        }
+        return cols;
+    }
+
+    public static boolean hasIndex(NsonObject tableObj, String column) {
+        return indexedColumns(tableObj).contains(column);
+    }
+
+    /**
+     * Lấy index của cột, build lại nếu version khác. version == null nghĩa là bảng không có version
+     * ổn định (vd: bảng RAM) -> build tạm, không cache.
+     */
+    public static NavigableMap<Object, List<Integer>> get(String tablePath, String version, String column, NsonArray data) {
+        if (version == null) return build(column, data);
+        String key = tablePath + "#" + column;
+        Entry entry = cache.get(key);
+        if (entry != null && entry.version.equals(version)) return entry.index;
+
+        NavigableMap<Object, List<Integer>> index = build(column, data);
+        cache.put(key, new Entry(version, index));
+        return index;
+    }
+
+    // Index đã build sẵn cho đúng version chưa (planner dùng để tính chi phí build)
+    public static boolean isCached(String tablePath, String version, String column) {
+        if (version == null) return false;
+        Entry entry = cache.get(tablePath + "#" + column);
+        return entry != null && entry.version.equals(version);
+    }
+
+    public static void invalidate(String tablePath) {
+        cache.keySet().removeIf(k -> k.startsWith(tablePath + "#"));
+    }
+
+    private static NavigableMap<Object, List<Integer>> build(String column, NsonArray data) {
+        NavigableMap<Object, List<Integer>> index = new TreeMap<>(Values::compare);
+        for (int i = 0; i < data.size(); i++) {
+            NsonObject row = data.getObject(i);
+            if (row == null) continue;
+            Object value = row.get(column);
+            if (value != null) index.computeIfAbsent(Values.normalize(value), k -> new ArrayList<>(1)).add(i);
+        }
+        return index;
+    }
+
+    private static void addAll(Set<String> cols, NsonArray arr) {
+        if (arr == null) return;
+        for (Object o : arr) if (o != null) cols.add(o.toString());
+    }
+}
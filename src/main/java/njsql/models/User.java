@@ -1,5 +1,8 @@
 package njsql.models;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class User {
     private String username;
     private String password;
@@ -7,6 +10,10 @@ public class User {
     private int port;
     private boolean isAdmin; // Thay role bằng isAdmin
     private String currentDatabase;
+    // Biến session do lệnh SET gán (vd: parallelism), key luôn viết thường
+    private final Map<String, String> settings = new ConcurrentHashMap<>();
+    // Transaction đang mở (BEGIN), null = mỗi lệnh tự commit
+    private volatile String transactionId;
 
     // Constructor đầy đủ
     public User(String username, String password, String host, int port, boolean isAdmin) {
@@ -50,4 +57,51 @@ public class User {
     public boolean isAdmin() {
         return isAdmin;
     }
-}
\ No newline at end of file
+
+    public String getSetting(String name) {
+        return settings.get(name.toLowerCase());
+    }
+
+    public void setSetting(String name, String value) {
+        if (value == null) settings.remove(name.toLowerCase());
+        else settings.put(name.toLowerCase(), value);
+    }
+
+    public int getIntSetting(String name, int defaultValue) {
+        String value = getSetting(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public long getLongSetting(String name, long defaultValue) {
+        String value = getSetting(name);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // Giá trị đã được SetHandler chuẩn hóa thành "on"/"off"
+    public boolean getBooleanSetting(String name, boolean defaultValue) {
+        String value = getSetting(name);
+        return value == null ? defaultValue : value.equalsIgnoreCase("on");
+    }
+
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(String transactionId) {
+        this.transactionId = transactionId;
+    }
+}
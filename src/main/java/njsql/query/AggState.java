@@ -0,0 +1,155 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Accumulator kiểu nguyên thủy cho một aggregate của một group.
+ * Không giữ lại row nào, chỉ giữ count/sum/min/max nên có thể merge giữa các partition.
+ * COUNT(DISTINCT) giữ thêm tập giá trị, APPROX_COUNT_DISTINCT một HyperLogLog, APPROX_PERCENTILE một t-digest.
+ */
+public final class AggState {
+    long rows;          // COUNT(*)
+    long nonNull;       // COUNT(col)
+    long numeric;       // số giá trị dùng được cho SUM/AVG/MIN/MAX
+    double sum;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    Set<Object> distinct;   // COUNT(DISTINCT col), giá trị đã chuẩn hóa
+    HyperLogLog hll;        // APPROX_COUNT_DISTINCT
+    TDigest digest;         // APPROX_PERCENTILE
+
+    public AggState() {
+    }
+
+    // State có thêm tập/sketch mà hàm aggregate cần
+    public static AggState of(AggregateSpec spec) {
+        AggState s = new AggState();
+        if (spec.distinct) s.distinct = new HashSet<>();
+        if (spec.function.equals("APPROX_COUNT_DISTINCT")) s.hll = new HyperLogLog();
+        if (spec.function.equals("APPROX_PERCENTILE")) s.digest = new TDigest();
+        return s;
+    }
+
+    // Bộ nhớ cố định của sketch (tập DISTINCT tăng theo số giá trị nên không tính ở đây)
+    public static long sketchBytes(AggregateSpec spec) {
+        if (spec.function.equals("APPROX_COUNT_DISTINCT")) return HyperLogLog.sizeInBytes();
+        if (spec.function.equals("APPROX_PERCENTILE")) return TDigest.sizeInBytes();
+        return 0;
+    }
+
+    public void add(Object value) {
+        rows++;
+        if (value == null) return;
+        nonNull++;
+        if (distinct != null) distinct.add(Values.normalize(value));
+        if (hll != null) hll.add(value);
+        double d = Values.toDouble(value);
+        if (Double.isNaN(d)) return;
+        if (digest != null) digest.add(d);
+        numeric++;
+        sum += d;
+        if (d < min) min = d;
+        if (d > max) max = d;
+    }
+
+    /**
+     * Bỏ một giá trị đã add (row bị DELETE/UPDATE). COUNT/SUM/AVG trừ ngược được; trả về true nếu giá trị
+     * bỏ đi đang là MIN/MAX (không biết giá trị kế tiếp), hoặc state có tập/sketch (không trừ ngược được)
+     * -> phía gọi phải tính lại group từ bảng nguồn.
+     */
+    public boolean remove(Object value) {
+        rows--;
+        if (value == null) return false;
+        if (distinct != null || hll != null || digest != null) return true;
+        nonNull--;
+        double d = Values.toDouble(value);
+        if (Double.isNaN(d)) return false;
+        numeric--;
+        sum -= d;
+        if (numeric == 0) {
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            return false;
+        }
+        return d <= min || d >= max;
+    }
+
+    public void merge(AggState other) {
+        rows += other.rows;
+        nonNull += other.nonNull;
+        numeric += other.numeric;
+        sum += other.sum;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+        if (distinct != null && other.distinct != null) distinct.addAll(other.distinct);
+        if (hll != null && other.hll != null) hll.merge(other.hll);
+        if (digest != null && other.digest != null) digest.merge(other.digest);
+    }
+
+    // COUNT -> long, còn lại -> double (giữ quy ước cũ: group không có số thì trả 0)
+    public Object result(AggregateSpec spec) {
+        if (spec.function.equals("COUNT")) {
+            if (spec.distinct) return distinct != null ? (long) distinct.size() : 0L;
+            return spec.isCountStar() ? rows : nonNull;
+        }
+        if (spec.function.equals("APPROX_COUNT_DISTINCT")) return hll != null ? hll.estimate() : 0L;
+        if (numeric == 0) return 0.0;
+        return switch (spec.function) {
+            case "APPROX_PERCENTILE" -> digest != null ? digest.quantile(spec.percentile) : 0.0;
+            case "SUM" -> sum;
+            case "AVG" -> sum / numeric;
+            case "MIN" -> min;
+            case "MAX" -> max;
+            default -> 0.0;
+        };
+    }
+
+    // [rows, nonNull, numeric, sum, min, max(, sketch)]; min/max = null khi chưa có giá trị số (JSON không có Infinity)
+    // sketch: {"distinct": [...]} | {"hll": base64} | {"tdigest": [...]}
+    public NsonArray toNson() {
+        NsonArray arr = new NsonArray();
+        arr.add(rows);
+        arr.add(nonNull);
+        arr.add(numeric);
+        arr.add(sum);
+        arr.add(numeric > 0 ? min : null);
+        arr.add(numeric > 0 ? max : null);
+        if (distinct != null) {
+            NsonArray values = new NsonArray();
+            values.addAll(distinct);
+            arr.add(new NsonObject().put("distinct", values));
+        } else if (hll != null) {
+            arr.add(new NsonObject().put("hll", hll.toBase64()));
+        } else if (digest != null) {
+            arr.add(new NsonObject().put("tdigest", digest.toNson()));
+        }
+        return arr;
+    }
+
+    public static AggState fromNson(NsonArray arr) {
+        AggState s = new AggState();
+        s.rows = (long) Values.toDouble(arr.get(0));
+        s.nonNull = (long) Values.toDouble(arr.get(1));
+        s.numeric = (long) Values.toDouble(arr.get(2));
+        s.sum = Values.toDouble(arr.get(3));
+        if (s.numeric > 0) {
+            s.min = Values.toDouble(arr.get(4));
+            s.max = Values.toDouble(arr.get(5));
+        }
+        if (arr.size() > 6 && arr.get(6) instanceof NsonObject sketch) {
+            if (sketch.getArray("distinct") != null) {
+                s.distinct = new HashSet<>();
+                for (Object v : sketch.getArray("distinct")) s.distinct.add(Values.normalize(v));
+            } else if (sketch.getString("hll") != null) {
+                s.hll = HyperLogLog.fromBase64(sketch.getString("hll"));
+            } else if (sketch.getArray("tdigest") != null) {
+                s.digest = TDigest.fromNson(sketch.getArray("tdigest"));
+            }
+        }
+        return s;
+    }
+}
@@ -0,0 +1,88 @@
+package njsql.query;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Một hàm aggregate trong danh sách SELECT, ví dụ: SUM(points) AS total,
+ * COUNT(DISTINCT user_id), APPROX_COUNT_DISTINCT(user_id), APPROX_PERCENTILE(amount, 0.95) AS p95
+ */
+public final class AggregateSpec {
+    private static final Pattern AGG_PATTERN = Pattern.compile(
+            "^(SUM|COUNT|AVG|MAX|MIN|APPROX_COUNT_DISTINCT|APPROX_PERCENTILE)\\s*\\(\\s*(DISTINCT\\s+)?(.*?)\\)(?:\\s+AS\\s+(\\w+))?$",
+            Pattern.CASE_INSENSITIVE);
+
+    public final String function;
+    public final String column;
+    public final String alias;
+    public final boolean distinct;   // COUNT(DISTINCT col)
+    public final double percentile;  // APPROX_PERCENTILE, NaN với hàm khác
+
+    public AggregateSpec(String function, String column, String alias) {
+        this(function, column, alias, false, Double.NaN);
+    }
+
+    public AggregateSpec(String function, String column, String alias, boolean distinct, double percentile) {
+        this.function = function.toUpperCase();
+        this.column = column;
+        this.alias = alias;
+        this.distinct = distinct;
+        this.percentile = percentile;
+    }
+
+    // Trả về null nếu colDef không phải aggregate
+    public static AggregateSpec parse(String colDef) {
+        Matcher m = AGG_PATTERN.matcher(colDef.trim());
+        if (!m.find()) return null;
+        String func = m.group(1).toUpperCase();
+        boolean distinct = m.group(2) != null;
+        String args = m.group(3).trim();
+        String col = args;
+        double percentile = Double.NaN;
+
+        if (distinct && !func.equals("COUNT")) {
+            throw new IllegalArgumentException("DISTINCT is only supported in COUNT(DISTINCT column).");
+        }
+        if (func.equals("APPROX_PERCENTILE")) {
+            int comma = args.lastIndexOf(',');
+            if (comma < 0) throw new IllegalArgumentException("APPROX_PERCENTILE expects (column, percentile).");
+            col = args.substring(0, comma).trim();
+            try {
+                percentile = Double.parseDouble(args.substring(comma + 1).trim());
+            } catch (NumberFormatException e) {
+                percentile = Double.NaN;
+            }
+            if (!(percentile >= 0 && percentile <= 1)) {
+                throw new IllegalArgumentException("APPROX_PERCENTILE percentile must be between 0 and 1.");
+            }
+        }
+        if (col.equals("*") && (distinct || !func.equals("COUNT"))) {
+            throw new IllegalArgumentException(func + "(" + (distinct ? "DISTINCT " : "") + "*) is not supported.");
+        }
+        String alias = m.group(4) != null ? m.group(4) : func + "(" + (distinct ? "DISTINCT " : "") + args + ")";
+        return new AggregateSpec(func, col, alias, distinct, percentile);
+    }
+
+    public boolean isCountStar() {
+        return function.equals("COUNT") && column.equals("*");
+    }
+
+    // Kết quả là số nguyên (COUNT, COUNT DISTINCT, APPROX_COUNT_DISTINCT)
+    public boolean isCount() {
+        return function.equals("COUNT") || function.equals("APPROX_COUNT_DISTINCT");
+    }
+
+    /**
+     * Bỏ một giá trị khỏi AggState có cho ra đúng kết quả không (COUNT/SUM/AVG).
+     * MIN/MAX, DISTINCT và sketch thì không: group phải được tính lại từ bảng nguồn.
+     */
+    public boolean isRetractable() {
+        return !distinct && (function.equals("COUNT") || function.equals("SUM") || function.equals("AVG"));
+    }
+
+    @Override
+    public String toString() {
+        if (function.equals("APPROX_PERCENTILE")) return function + "(" + column + ", " + percentile + ")";
+        return function + "(" + (distinct ? "DISTINCT " : "") + column + ")";
+    }
+}
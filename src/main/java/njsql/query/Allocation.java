@@ -0,0 +1,44 @@
+package njsql.query;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Đếm byte đã cấp phát trên heap của thread hiện tại (HotSpot ThreadMXBean), dùng cho EXPLAIN ANALYZE.
+ * Phần việc chạy trên worker của ParallelExecutor được cộng dồn về thread đã gọi.
+ * Không đo được (JVM không hỗ trợ, hoặc virtual thread: HotSpot trả -1, mà request REST chạy trên virtual thread)
+ * thì trả -1 và EXPLAIN ANALYZE để alloc_bytes = null thay vì báo 0.
+ */
+public final class Allocation {
+    private static final com.sun.management.ThreadMXBean BEAN = bean();
+    private static final ThreadLocal<long[]> OFFLOADED = ThreadLocal.withInitial(() -> new long[1]);
+
+    private Allocation() {}
+
+    private static com.sun.management.ThreadMXBean bean() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean b
+                    && b.isThreadAllocatedMemorySupported()) {
+                b.setThreadAllocatedMemoryEnabled(true);
+                return b;
+            }
+        } catch (UnsupportedOperationException | SecurityException ignored) {
+            // JVM không hỗ trợ: luôn trả -1
+        }
+        return null;
+    }
+
+    // Byte đã cấp phát bởi thread này (kể cả phần worker làm hộ); -1 nếu không đo được
+    public static long current() {
+        long own = threadOnly();
+        return own < 0 ? -1 : own + OFFLOADED.get()[0];
+    }
+
+    static long threadOnly() {
+        if (BEAN == null || Thread.currentThread().isVirtual()) return -1;
+        return BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    static void addOffloaded(long bytes) {
+        OFFLOADED.get()[0] += bytes;
+    }
+}
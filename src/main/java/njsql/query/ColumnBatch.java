@@ -0,0 +1,64 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Một lô row chuyển sang dạng cột: mỗi cột là double[] (NaN = không phải số hoặc NULL) kèm boolean[] present
+ * (false = NULL). Mảng được cấp một lần theo capacity rồi dùng lại cho mọi lô của query.
+ * Cột được nạp lười: cột của điều kiện sau và cột aggregate chỉ đọc cho row còn được chọn.
+ */
+public final class ColumnBatch {
+    final List<String> columns;
+    final double[][] values;
+    final boolean[][] present;
+    final boolean[] selection;   // row còn lại sau filter
+    private final boolean[] loaded;
+    private final NsonObject[] rows;
+    int size;
+
+    public ColumnBatch(List<String> columns, int capacity) {
+        this.columns = columns;
+        this.values = new double[columns.size()][capacity];
+        this.present = new boolean[columns.size()][capacity];
+        this.selection = new boolean[capacity];
+        this.loaded = new boolean[columns.size()];
+        this.rows = new NsonObject[capacity];
+    }
+
+    public int capacity() {
+        return selection.length;
+    }
+
+    // Bắt đầu lô mới gồm rows[from, to), mọi row đều được chọn, chưa cột nào được nạp
+    public void reset(NsonArray source, int from, int to) {
+        size = to - from;
+        for (int i = 0; i < size; i++) rows[i] = source.getObject(from + i);
+        Arrays.fill(selection, 0, size, true);
+        Arrays.fill(loaded, false);
+    }
+
+    // Nạp cột c cho các row đang được chọn (row đã bị loại giữ NaN/NULL, kernel không đọc tới)
+    void load(int c) {
+        if (loaded[c]) return;
+        loaded[c] = true;
+        String col = columns.get(c);
+        double[] vals = values[c];
+        boolean[] nonNull = present[c];
+        for (int i = 0; i < size; i++) {
+            if (!selection[i]) {
+                nonNull[i] = false;
+                vals[i] = Double.NaN;
+                continue;
+            }
+            NsonObject row = rows[i];
+            Object v = row.get(col);
+            if (v == null && !row.containsKey(col)) v = Values.resolve(row, col);
+            nonNull[i] = v != null;
+            vals[i] = v instanceof Number n ? n.doubleValue() : Values.toDouble(v);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thống kê một cột do ANALYZE thu: số giá trị khác nhau, tỉ lệ NULL và histogram equi-depth
+ * (histogram là danh sách biên, B bucket thì có B+1 biên, mỗi bucket chứa xấp xỉ cùng số row).
+ */
+public final class ColumnStats {
+    public final long distinct;
+    public final double nullFrac;
+    public final List<Object> histogram;
+
+    public ColumnStats(long distinct, double nullFrac, List<Object> histogram) {
+        this.distinct = distinct;
+        this.nullFrac = nullFrac;
+        this.histogram = histogram;
+    }
+
+    // Selectivity của "col = value"
+    public double selectivityEq() {
+        return (1 - nullFrac) / Math.max(1, distinct);
+    }
+
+    // Tỉ lệ row có giá trị nhỏ hơn value (trong các row không NULL), nội suy tuyến tính trong bucket
+    public double fractionBelow(Object value) {
+        int buckets = histogram.size() - 1;
+        if (buckets < 1) return 0.5;
+        if (Values.compare(value, histogram.get(0)) <= 0) return 0;
+        if (Values.compare(value, histogram.get(buckets)) >= 0) return 1;
+        for (int i = 0; i < buckets; i++) {
+            Object lo = histogram.get(i);
+            Object hi = histogram.get(i + 1);
+            if (Values.compare(value, hi) >= 0) continue;
+            double within = 0.5;
+            double v = Values.toDouble(value), l = Values.toDouble(lo), h = Values.toDouble(hi);
+            if (!Double.isNaN(v) && !Double.isNaN(l) && !Double.isNaN(h) && h > l) within = (v - l) / (h - l);
+            return (i + within) / buckets;
+        }
+        return 1;
+    }
+
+    // Selectivity của khoảng (lower, upper); bound null = không chặn phía đó
+    public double selectivityRange(Object lower, Object upper) {
+        double lo = lower == null ? 0 : fractionBelow(lower);
+        double hi = upper == null ? 1 : fractionBelow(upper);
+        return Math.max(0, hi - lo) * (1 - nullFrac);
+    }
+
+    public NsonObject toNson() {
+        NsonArray bounds = new NsonArray();
+        bounds.addAll(histogram);
+        return new NsonObject()
+                .put("distinct", distinct)
+                .put("null_frac", nullFrac)
+                .put("histogram", bounds);
+    }
+
+    public static ColumnStats fromNson(NsonObject obj) {
+        if (obj == null) return null;
+        List<Object> bounds = new ArrayList<>();
+        NsonArray arr = obj.getArray("histogram");
+        if (arr != null) bounds.addAll(arr);
+        double nullFrac = Values.toDouble(obj.get("null_frac"));
+        return new ColumnStats((long) Values.toDouble(obj.get("distinct")), Double.isNaN(nullFrac) ? 0 : nullFrac, bounds);
+    }
+}
@@ -0,0 +1,138 @@
+package njsql.query;
+
+import njsql.nson.NsonObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Sort có giới hạn bộ nhớ: gom row tới khi vượt budget thì sort và spill thành một run trên đĩa,
+ * cuối cùng merge k-way các run (PriorityQueue) cùng với phần còn lại trên RAM.
+ * Khi dữ liệu vừa budget thì không đụng tới đĩa.
+ */
+public class ExternalSorter implements Closeable {
+    private final Comparator<NsonObject> comparator;
+    private final long memoryBudget;
+    private final MemoryAccountant memory; // null = chỉ giới hạn theo memoryBudget
+    private final List<NsonObject> buffer = new ArrayList<>();
+    private final List<SpillFile> runs = new ArrayList<>();
+    private long bufferedBytes;
+    private long spilledRows;
+    private long rowCount;
+
+    public ExternalSorter(Comparator<NsonObject> comparator, long memoryBudget) {
+        this(comparator, memoryBudget, null);
+    }
+
+    public ExternalSorter(Comparator<NsonObject> comparator, long memoryBudget, MemoryAccountant memory) {
+        this.comparator = comparator;
+        this.memoryBudget = Math.max(1, memoryBudget);
+        this.memory = memory;
+    }
+
+    public void add(NsonObject row) throws IOException {
+        long size = RowCodec.estimateSize(row);
+        // Vượt work_mem hoặc query hết quota -> spill phần đang giữ, rồi mới nhận row này
+        boolean fits = bufferedBytes + size <= memoryBudget && (memory == null || memory.tryReserve(size));
+        if (!fits) {
+            spillBuffer();
+            if (memory != null) memory.forceReserve(size);
+        }
+        buffer.add(row);
+        bufferedBytes += size;
+        rowCount++;
+    }
+
+    private void spillBuffer() throws IOException {
+        if (buffer.isEmpty()) return;
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile("sort-run-");
+        for (NsonObject row : buffer) run.write(row);
+        run.finishWriting();
+        runs.add(run);
+        spilledRows += buffer.size();
+        buffer.clear();
+        if (memory != null) {
+            memory.release(bufferedBytes);
+            memory.recordSpill(run.bytesWritten());
+        }
+        bufferedBytes = 0;
+    }
+
+    public int runCount() {
+        return runs.size();
+    }
+
+    public long spilledRows() {
+        return spilledRows;
+    }
+
+    // Tổng số row đã add (trên RAM + đã spill)
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Iterator theo thứ tự đã sort. Không spill thì sort thẳng trên RAM (cùng comparator).
+     */
+    public Iterator<NsonObject> sortedIterator() {
+        buffer.sort(comparator);
+        if (runs.isEmpty()) return buffer.iterator();
+
+        // Mỗi nguồn (từng run + buffer) là một cursor trong heap
+        final class Cursor {
+            final SpillFile run;
+            final Iterator<NsonObject> mem;
+            NsonObject head;
+
+            Cursor(SpillFile run, Iterator<NsonObject> mem) {
+                this.run = run;
+                this.mem = mem;
+            }
+
+            boolean advance() {
+                try {
+                    head = run != null ? run.read() : (mem.hasNext() ? mem.next() : null);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return head != null;
+            }
+        }
+
+        PriorityQueue<Cursor> heap = new PriorityQueue<>((a, b) -> comparator.compare(a.head, b.head));
+        for (SpillFile run : runs) {
+            Cursor c = new Cursor(run, null);
+            if (c.advance()) heap.add(c);
+        }
+        Cursor memCursor = new Cursor(null, buffer.iterator());
+        if (memCursor.advance()) heap.add(memCursor);
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public NsonObject next() {
+                Cursor c = heap.poll();
+                if (c == null) throw new NoSuchElementException();
+                NsonObject row = c.head;
+                if (c.advance()) heap.add(c);
+                return row;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        for (SpillFile run : runs) run.close();
+        runs.clear();
+        buffer.clear();
+        if (memory != null) memory.release(bufferedBytes);
+        bufferedBytes = 0;
+    }
+}
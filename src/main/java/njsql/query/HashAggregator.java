@@ -0,0 +1,241 @@
+package njsql.query;
+
+import njsql.core.NJSQLConfig;
+import njsql.nson.NsonObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Hash aggregation một lượt: mỗi group chỉ giữ key, một row đại diện và các AggState.
+ * Bộ nhớ tỉ lệ với số group chứ không phải số row.
+ * Có MemoryAccountant thì khi hết quota, row của group mới được chia theo hash key xuống
+ * SPILL_PARTITIONS file (grace hash) và được tính lại từng partition một trong forEachGroup.
+ */
+public class HashAggregator implements Closeable {
+
+    public static final class Group {
+        public final RowKey key;
+        public final Object[] keyValues;       // giá trị group (đã áp dụng rule created_at)
+        public final NsonObject representative; // row đầu tiên của group, dùng cho cột không aggregate
+        public final AggState[] states;
+        final long bytes;                       // phần đã xin từ MemoryAccountant
+
+        Group(RowKey key, Object[] keyValues, NsonObject representative, AggregateSpec[] aggregates, long bytes) {
+            this.key = key;
+            this.keyValues = keyValues;
+            this.representative = representative;
+            this.states = new AggState[aggregates.length];
+            for (int i = 0; i < aggregates.length; i++) states[i] = AggState.of(aggregates[i]);
+            this.bytes = bytes;
+        }
+    }
+
+    private final String[] groupColumns;
+    private final AggregateSpec[] aggregates;
+    private final Map<RowKey, Group> groups = new LinkedHashMap<>();
+    private final MemoryAccountant memory; // null = không giới hạn, không spill
+    private final int level;               // số lần đã chia partition (0 = aggregator gốc)
+    private List<List<SpillFile>> partitions; // khác null khi đã spill
+    private long reservedBytes;
+
+    public HashAggregator(List<String> groupColumns, List<AggregateSpec> aggregates) {
+        this(groupColumns, aggregates, null);
+    }
+
+    public HashAggregator(List<String> groupColumns, List<AggregateSpec> aggregates, MemoryAccountant memory) {
+        this(groupColumns.toArray(new String[0]), aggregates.toArray(new AggregateSpec[0]), memory, 0);
+    }
+
+    private HashAggregator(String[] groupColumns, AggregateSpec[] aggregates, MemoryAccountant memory, int level) {
+        this.groupColumns = groupColumns;
+        this.aggregates = aggregates;
+        this.memory = memory;
+        this.level = level;
+    }
+
+    public void accumulate(NsonObject row) {
+        Object[] keyValues = keyValues(row);
+        RowKey key = RowKey.of(keyValues);
+
+        Group group = groups.get(key);
+        if (group == null) {
+            long bytes = estimateGroupSize(keyValues, row);
+            if (!reserve(bytes)) {
+                spill(key, row);
+                return;
+            }
+            group = new Group(key, keyValues, row, aggregates, bytes);
+            groups.put(key, group);
+        }
+        add(group, row);
+    }
+
+    private void add(Group group, NsonObject row) {
+        for (int i = 0; i < aggregates.length; i++) {
+            AggregateSpec spec = aggregates[i];
+            group.states[i].add(spec.isCountStar() ? Boolean.TRUE : Values.resolve(row, spec.column));
+        }
+    }
+
+    // Group mới có được giữ trên RAM không; đã spill rồi thì mọi group mới đều xuống đĩa
+    private boolean reserve(long bytes) {
+        if (memory == null) return true;
+        if (partitions != null) return false;
+        if (memory.tryReserve(bytes)) {
+            reservedBytes += bytes;
+            return true;
+        }
+        if (level >= NJSQLConfig.MAX_SPILL_DEPTH) {
+            // Chia tới mức tối đa rồi (thường do key lệch): đành giữ trên RAM
+            memory.forceReserve(bytes);
+            reservedBytes += bytes;
+            return true;
+        }
+        return false;
+    }
+
+    private void spill(RowKey key, NsonObject row) {
+        if (partitions == null) partitions = newPartitions();
+        List<SpillFile> files = partitions.get(key.partition(partitions.size(), level));
+        try {
+            if (files.isEmpty()) files.add(new SpillFile("agg-part-"));
+            files.get(0).write(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<List<SpillFile>> newPartitions() {
+        List<List<SpillFile>> parts = new ArrayList<>(NJSQLConfig.SPILL_PARTITIONS);
+        for (int i = 0; i < NJSQLConfig.SPILL_PARTITIONS; i++) parts.add(new ArrayList<>(1));
+        return parts;
+    }
+
+    // Gộp kết quả từng phần (partial aggregate) của partition khác vào đây
+    public void merge(HashAggregator other) {
+        for (Group g : other.groups.values()) {
+            Group mine = groups.get(g.key);
+            if (mine == null) {
+                groups.put(g.key, g);
+                reservedBytes += g.bytes;
+            } else {
+                for (int i = 0; i < aggregates.length; i++) mine.states[i].merge(g.states[i]);
+                if (memory != null) memory.release(g.bytes);
+            }
+        }
+        other.groups.clear();
+        other.reservedBytes = 0;
+
+        // File spill của worker khác dùng cùng hàm chia partition nên ghép thẳng theo chỉ số
+        if (other.partitions != null) {
+            if (partitions == null) partitions = newPartitions();
+            for (int p = 0; p < partitions.size(); p++) partitions.get(p).addAll(other.partitions.get(p));
+            other.partitions = null;
+        }
+    }
+
+    // Không có GROUP BY nhưng có aggregate: luôn trả đúng 1 group kể cả khi không có row
+    public void ensureGlobalGroup() {
+        if (groupColumns.length == 0 && groups.isEmpty()) {
+            RowKey key = RowKey.of();
+            groups.put(key, new Group(key, new Object[0], new NsonObject(), aggregates, 0));
+        }
+    }
+
+    /**
+     * Trả lần lượt mọi group. Partition đã spill được đọc lại và tính từng cái một
+     * (bộ nhớ chỉ cần đủ cho một partition); row thuộc group đang có trên RAM thì cộng thẳng vào group đó.
+     */
+    public void forEachGroup(Consumer<Group> action) {
+        if (partitions != null) {
+            List<List<SpillFile>> spilled = partitions;
+            partitions = null;
+            try {
+                for (List<SpillFile> files : spilled) {
+                    if (files.isEmpty()) continue;
+                    try (HashAggregator sub = new HashAggregator(groupColumns, aggregates, memory, level + 1)) {
+                        for (SpillFile file : files) {
+                            file.finishWriting();
+                            if (memory != null) memory.recordSpill(file.bytesWritten());
+                            Iterator<NsonObject> it = file.iterator();
+                            while (it.hasNext()) {
+                                NsonObject row = it.next();
+                                Group existing = groups.get(RowKey.of(keyValues(row)));
+                                if (existing != null) add(existing, row);
+                                else sub.accumulate(row);
+                            }
+                            file.close();
+                        }
+                        sub.forEachGroup(action);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                for (List<SpillFile> files : spilled) files.forEach(SpillFile::close);
+            }
+        }
+        groups.values().forEach(action);
+    }
+
+    public int groupCount() {
+        return groups.size();
+    }
+
+    public int indexOfGroupColumn(String col) {
+        for (int i = 0; i < groupColumns.length; i++) {
+            if (groupColumns[i].equalsIgnoreCase(col)) return i;
+        }
+        return -1;
+    }
+
+    public AggregateSpec[] aggregates() {
+        return aggregates;
+    }
+
+    @Override
+    public void close() {
+        if (memory != null) memory.release(reservedBytes);
+        reservedBytes = 0;
+        if (partitions != null) {
+            for (List<SpillFile> files : partitions) files.forEach(SpillFile::close);
+            partitions = null;
+        }
+    }
+
+    private Object[] keyValues(NsonObject row) {
+        Object[] keyValues = new Object[groupColumns.length];
+        for (int i = 0; i < groupColumns.length; i++) keyValues[i] = groupValue(row, groupColumns[i]);
+        return keyValues;
+    }
+
+    // Ước lượng: entry của map + Group + AggState (+ sketch) + giá trị key + row đại diện (giữ nguyên cả row)
+    private long estimateGroupSize(Object[] keyValues, NsonObject representative) {
+        long size = 160 + 64L * aggregates.length + RowCodec.estimateSize(representative);
+        for (AggregateSpec spec : aggregates) size += AggState.sketchBytes(spec);
+        for (Object v : keyValues) size += RowCodec.estimateValue(v);
+        return size;
+    }
+
+    // Giữ rule cũ: GROUP BY created_at thì gom theo ngày (YYYY-MM-DD); DATE_TRUNC('hour'|'day'|'month', col) theo bucket.
+    // NULL trả null (RowKey gom mọi NULL vào một group, kết quả ra JSON null, không phải chuỗi "NULL")
+    static Object groupValue(NsonObject row, String col) {
+        TimeBucket bucket = TimeBucket.parse(col);
+        Object v = Values.resolve(row, bucket != null ? bucket.column : col);
+        if (v == null) return null;
+        if (bucket != null) return bucket.truncate(v);
+        if (col.equals("created_at")) {
+            String s = v.toString();
+            return s.length() >= 10 ? s.substring(0, 10) : s;
+        }
+        return v;
+    }
+}
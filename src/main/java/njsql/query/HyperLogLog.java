@@ -0,0 +1,83 @@
+package njsql.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * HyperLogLog cho APPROX_COUNT_DISTINCT: 2^14 register 1 byte (16KB/group), sai số chuẩn ~0.8%.
+ * Merge = max từng register nên gộp được giữa các partition song song và trạng thái materialized view.
+ */
+public final class HyperLogLog {
+    static final int PRECISION = 14;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    public void add(Object value) {
+        if (value == null) return;
+        long h = hash(Values.normalize(value));
+        int index = (int) (h >>> (64 - PRECISION));
+        // Số bit 0 đứng đầu của phần còn lại + 1 (bit chặn để không vượt quá 64 - PRECISION + 1)
+        int rank = Long.numberOfLeadingZeros((h << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) registers[index] = (byte) rank;
+    }
+
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+        }
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        // Vùng nhỏ: linear counting chính xác hơn
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        return Math.round(estimate);
+    }
+
+    public static long sizeInBytes() {
+        return REGISTERS + 16;
+    }
+
+    public String toBase64() {
+        return Base64.getEncoder().encodeToString(registers);
+    }
+
+    public static HyperLogLog fromBase64(String s) {
+        HyperLogLog hll = new HyperLogLog();
+        byte[] bytes = Base64.getDecoder().decode(s);
+        System.arraycopy(bytes, 0, hll.registers, 0, Math.min(bytes.length, REGISTERS));
+        return hll;
+    }
+
+    // Hash 64 bit trên giá trị đã chuẩn hóa (1 và 1.0 cho cùng một hash)
+    private static long hash(Object v) {
+        long h;
+        if (v instanceof Long l) h = l;
+        else if (v instanceof Double d) h = Double.doubleToLongBits(d);
+        else if (v instanceof Boolean b) h = b ? 1231 : 1237;
+        else {
+            h = 0xcbf29ce484222325L; // FNV-1a
+            for (byte b : v.toString().getBytes(StandardCharsets.UTF_8)) {
+                h ^= b;
+                h *= 0x100000001b3L;
+            }
+            h ^= 0x5bd1e995L;
+        }
+        return mix(h);
+    }
+
+    // Finalizer của murmur3/splitmix: rải đều bit cao để chọn register
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
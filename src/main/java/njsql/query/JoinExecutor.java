@@ -0,0 +1,218 @@
+package njsql.query;
+
+import njsql.core.NJSQLConfig;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Các thuật toán join chạy phía server.
+ * Row sau join dùng key dạng "alias.column" để không đè cột trùng tên giữa các bảng.
+ */
+public final class JoinExecutor {
+
+    // Ước lượng phần hash table tốn thêm cho mỗi row build (entry, RowKey, list)
+    private static final long HASH_ENTRY_BYTES = 96;
+
+    private JoinExecutor() {}
+
+    // Đổi key của row thành "alias.column"
+    public static NsonObject qualify(NsonObject row, String alias) {
+        NsonObject out = new NsonObject();
+        for (Map.Entry<String, Object> e : row.entrySet()) out.put(alias + "." + e.getKey(), e.getValue());
+        return out;
+    }
+
+    public static NsonArray qualifyAll(NsonArray rows, String alias) {
+        NsonArray out = new NsonArray();
+        for (int i = 0; i < rows.size(); i++) out.add(qualify(rows.getObject(i), alias));
+        return out;
+    }
+
+    /**
+     * Hash join. INNER: build trên bên nhỏ hơn; LEFT: luôn build bên phải để giữ đủ row bên trái.
+     * Key băm qua Values.joinKey nên "5" khớp 5 như index nested-loop join: kết quả không phụ thuộc thuật toán planner chọn.
+     * outer đã được qualify, inner là row gốc của bảng bên phải (sẽ qualify bằng innerAlias khi ghép).
+     * Hash table vượt quota bộ nhớ của ctx thì chuyển sang grace hash join (spill cả hai bên theo partition).
+     */
+    public static NsonArray hashJoin(NsonArray outer, String outerKey, NsonArray inner, String innerAlias,
+                                     String innerKey, boolean leftOuter, Collection<String> innerColumns,
+                                     QueryContext ctx) {
+        MemoryAccountant memory = ctx.memory();
+        NsonArray result = new NsonArray();
+        boolean buildOuter = !leftOuter && outer.size() < inner.size();
+        try {
+            if (buildOuter) {
+                join(rows(outer, ctx, false), outerKey, rows(inner, ctx, true), innerKey, (matches, innerRow) -> {
+                    NsonObject qualifiedInner = qualify(innerRow, innerAlias);
+                    for (NsonObject outerRow : matches) result.add(merge(outerRow, qualifiedInner));
+                }, null, memory, 0);
+            } else {
+                NsonObject nulls = leftOuter ? nullRow(innerAlias, innerColumns) : null;
+                join(rows(inner, ctx, true), innerKey, rows(outer, ctx, false), outerKey, (matches, outerRow) -> {
+                    for (NsonObject innerRow : matches) result.add(merge(outerRow, qualify(innerRow, innerAlias)));
+                }, leftOuter ? outerRow -> result.add(merge(outerRow, nulls)) : null, memory, 0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Build hash table trên build, probe bằng probe. onMiss (nếu có) nhận các row probe không khớp.
+     * Hết quota thì phần build đã đọc + phần còn lại + toàn bộ probe được chia xuống SPILL_PARTITIONS
+     * cặp file theo hash của key, rồi join từng cặp (đệ quy, tối đa MAX_SPILL_DEPTH lần chia).
+     */
+    private static void join(Iterator<NsonObject> build, String buildKey, Iterator<NsonObject> probe, String probeKey,
+                             BiConsumer<List<NsonObject>, NsonObject> onMatches, Consumer<NsonObject> onMiss,
+                             MemoryAccountant memory, int level) throws IOException {
+        Map<RowKey, List<NsonObject>> table = new HashMap<>();
+        long reserved = 0;
+        NsonObject overflowRow = null;
+        while (build.hasNext()) {
+            NsonObject row = build.next();
+            Object v = Values.resolve(row, buildKey);
+            if (v == null) continue; // key NULL không bao giờ khớp
+            if (memory != null) {
+                long bytes = RowCodec.estimateSize(row) + HASH_ENTRY_BYTES;
+                if (memory.tryReserve(bytes)) {
+                    reserved += bytes;
+                } else if (level >= NJSQLConfig.MAX_SPILL_DEPTH) {
+                    memory.forceReserve(bytes);
+                    reserved += bytes;
+                } else {
+                    overflowRow = row;
+                    break;
+                }
+            }
+            table.computeIfAbsent(RowKey.of(Values.joinKey(v)), k -> new ArrayList<>(1)).add(row);
+        }
+
+        if (overflowRow == null) {
+            try {
+                while (probe.hasNext()) {
+                    NsonObject row = probe.next();
+                    Object v = Values.resolve(row, probeKey);
+                    List<NsonObject> matches = v == null ? null : table.get(RowKey.of(Values.joinKey(v)));
+                    if (matches != null) onMatches.accept(matches, row);
+                    else if (onMiss != null) onMiss.accept(row);
+                }
+            } finally {
+                if (memory != null) memory.release(reserved);
+            }
+            return;
+        }
+
+        // --- Grace hash: spill cả hai bên theo partition ---
+        SpillFile[] buildParts = new SpillFile[NJSQLConfig.SPILL_PARTITIONS];
+        SpillFile[] probeParts = new SpillFile[NJSQLConfig.SPILL_PARTITIONS];
+        try {
+            for (List<NsonObject> rows : table.values()) {
+                for (NsonObject row : rows) spillTo(buildParts, row, buildKey, level);
+            }
+            table.clear();
+            memory.release(reserved);
+            spillTo(buildParts, overflowRow, buildKey, level);
+            while (build.hasNext()) {
+                NsonObject row = build.next();
+                if (Values.resolve(row, buildKey) != null) spillTo(buildParts, row, buildKey, level);
+            }
+            while (probe.hasNext()) {
+                NsonObject row = probe.next();
+                if (Values.resolve(row, probeKey) != null) spillTo(probeParts, row, probeKey, level);
+                else if (onMiss != null) onMiss.accept(row);
+            }
+
+            for (int p = 0; p < buildParts.length; p++) {
+                if (probeParts[p] == null) continue;
+                probeParts[p].finishWriting();
+                memory.recordSpill(probeParts[p].bytesWritten());
+                if (buildParts[p] == null) {
+                    // Partition bên build rỗng: mọi row probe đều không khớp
+                    if (onMiss != null) probeParts[p].iterator().forEachRemaining(onMiss);
+                    continue;
+                }
+                buildParts[p].finishWriting();
+                memory.recordSpill(buildParts[p].bytesWritten());
+                join(buildParts[p].iterator(), buildKey, probeParts[p].iterator(), probeKey,
+                        onMatches, onMiss, memory, level + 1);
+                buildParts[p].close();
+                probeParts[p].close();
+            }
+        } finally {
+            for (SpillFile f : buildParts) if (f != null) f.close();
+            for (SpillFile f : probeParts) if (f != null) f.close();
+        }
+    }
+
+    private static void spillTo(SpillFile[] parts, NsonObject row, String key, int level) throws IOException {
+        int p = RowKey.of(Values.joinKey(Values.resolve(row, key))).partition(parts.length, level);
+        if (parts[p] == null) parts[p] = new SpillFile("join-part-");
+        parts[p].write(row);
+    }
+
+    // Duyệt mảng row, kiểm tra hủy query mỗi CHECK_MASK + 1 row; scanned: mảng là row của bảng bên trong,
+    // cộng vào rows scanned (bên ngoài là kết quả join trước hoặc bảng dẫn, SelectHandler đã đếm)
+    private static Iterator<NsonObject> rows(NsonArray array, QueryContext ctx, boolean scanned) {
+        return new Iterator<>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < array.size();
+            }
+
+            @Override
+            public NsonObject next() {
+                if ((i & QueryContext.CHECK_MASK) == 0) ctx.checkCancelled(scanned ? QueryContext.block(i, array.size()) : 0);
+                return array.getObject(i++);
+            }
+        };
+    }
+
+    /**
+     * Index nested-loop join: với mỗi row bên ngoài, tra index của bảng bên trong theo join key.
+     */
+    public static NsonArray indexNestedLoopJoin(NsonArray outer, String outerKey, NsonArray innerData,
+                                                NavigableMap<Object, List<Integer>> innerIndex, String innerAlias,
+                                                boolean leftOuter, Collection<String> innerColumns, QueryContext ctx) {
+        NsonArray result = new NsonArray();
+        long innerRead = 0; // row bên trong lấy qua index từ lần kiểm tra trước, cộng vào rows scanned
+        for (int i = 0; i < outer.size(); i++) {
+            if ((i & QueryContext.CHECK_MASK) == 0) {
+                ctx.checkCancelled(innerRead);
+                innerRead = 0;
+            }
+            NsonObject outerRow = outer.getObject(i);
+            Object v = Values.resolve(outerRow, outerKey);
+            List<Integer> positions = v == null ? null : innerIndex.get(Values.normalize(v));
+            if (positions != null && !positions.isEmpty()) {
+                innerRead += positions.size();
+                for (int pos : positions) result.add(merge(outerRow, qualify(innerData.getObject(pos), innerAlias)));
+            } else if (leftOuter) {
+                result.add(merge(outerRow, nullRow(innerAlias, innerColumns)));
+            }
+        }
+        ctx.countRows(innerRead);
+        return result;
+    }
+
+    private static NsonObject merge(NsonObject outerRow, NsonObject qualifiedInner) {
+        NsonObject out = new NsonObject();
+        out.putAll(outerRow);
+        out.putAll(qualifiedInner);
+        return out;
+    }
+
+    private static NsonObject nullRow(String alias, Collection<String> columns) {
+        NsonObject out = new NsonObject();
+        for (String col : columns) out.put(alias + "." + col, null);
+        return out;
+    }
+}
@@ -0,0 +1,198 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Trạng thái của một materialized view dạng SELECT group/aggregate FROM một bảng [WHERE] GROUP BY ...
+ * Mỗi group giữ AggState của từng aggregate nên INSERT/DELETE/UPDATE trên bảng nguồn được áp dụng
+ * từng row một (O(số row thay đổi)), không phải tính lại cả bảng. Riêng MIN/MAX khi bỏ đúng giá trị
+ * cực trị (hoặc COUNT DISTINCT/sketch) thì group đó được đánh dấu để phía gọi tính lại từ bảng nguồn.
+ */
+public final class MaterializedView {
+
+    /** Một cột của view: hoặc cột group, hoặc aggregate. */
+    public static final class Column {
+        public final String alias;
+        public final int groupIndex;          // -1 nếu là aggregate
+        public final AggregateSpec aggregate; // null nếu là cột group
+
+        public Column(String alias, int groupIndex, AggregateSpec aggregate) {
+            this.alias = alias;
+            this.groupIndex = groupIndex;
+            this.aggregate = aggregate;
+        }
+    }
+
+    private static final class Group {
+        final Object[] keyValues;
+        final AggState[] states;
+        long rows; // số row nguồn trong group, về 0 thì group biến mất
+
+        Group(Object[] keyValues, AggState[] states) {
+            this.keyValues = keyValues;
+            this.states = states;
+        }
+    }
+
+    private final List<String> groupColumns;
+    private final List<Column> columns;
+    private final AggregateSpec[] aggregates;
+    private final Predicate<NsonObject> filter;
+    private final Map<RowKey, Group> groups = new LinkedHashMap<>();
+
+    public MaterializedView(List<String> groupColumns, List<Column> columns, Predicate<NsonObject> filter) {
+        this.groupColumns = groupColumns;
+        this.columns = columns;
+        this.filter = filter;
+        List<AggregateSpec> aggs = new ArrayList<>();
+        for (Column c : columns) if (c.aggregate != null) aggs.add(c.aggregate);
+        this.aggregates = aggs.toArray(new AggregateSpec[0]);
+        ensureGlobalGroup();
+    }
+
+    public List<String> groupColumns() {
+        return groupColumns;
+    }
+
+    public List<Column> columns() {
+        return columns;
+    }
+
+    public int groupCount() {
+        return groups.size();
+    }
+
+    public void clear() {
+        groups.clear();
+        ensureGlobalGroup();
+    }
+
+    // Row mới (INSERT, hoặc giá trị mới của UPDATE)
+    public void add(NsonObject row) {
+        if (!filter.test(row)) return;
+        Object[] keyValues = keyValues(row);
+        Group g = groups.computeIfAbsent(RowKey.of(keyValues), k -> newGroup(keyValues));
+        g.rows++;
+        for (int i = 0; i < aggregates.length; i++) g.states[i].add(valueOf(row, aggregates[i]));
+    }
+
+    /**
+     * Bỏ row khỏi view (DELETE, hoặc giá trị cũ của UPDATE). Trả về key của group cần tính lại
+     * từ bảng nguồn (MIN/MAX mất cực trị, DISTINCT/sketch), null nếu không cần.
+     */
+    public RowKey remove(NsonObject row) {
+        if (!filter.test(row)) return null;
+        RowKey key = RowKey.of(keyValues(row));
+        Group g = groups.get(key);
+        if (g == null) return null;
+        g.rows--;
+        boolean stale = false;
+        for (int i = 0; i < aggregates.length; i++) {
+            boolean inexact = g.states[i].remove(valueOf(row, aggregates[i]));
+            if (inexact && !aggregates[i].isRetractable()) stale = true;
+        }
+        if (g.rows <= 0 && !groupColumns.isEmpty()) {
+            groups.remove(key);
+            return null;
+        }
+        return stale ? key : null;
+    }
+
+    /**
+     * Tính lại các group trong keys bằng một lượt quét bảng nguồn (chỉ gom row thuộc các group đó).
+     */
+    public void recompute(Set<RowKey> keys, Iterable<NsonObject> sourceRows) {
+        if (keys.isEmpty()) return;
+        for (RowKey key : keys) {
+            Group old = groups.get(key);
+            if (old != null) groups.put(key, newGroup(old.keyValues));
+        }
+        for (NsonObject row : sourceRows) {
+            if (row == null || !filter.test(row)) continue;
+            Object[] keyValues = keyValues(row);
+            RowKey key = RowKey.of(keyValues);
+            if (!keys.contains(key)) continue;
+            Group g = groups.computeIfAbsent(key, k -> newGroup(keyValues));
+            g.rows++;
+            for (int i = 0; i < aggregates.length; i++) g.states[i].add(valueOf(row, aggregates[i]));
+        }
+        for (RowKey key : keys) {
+            Group g = groups.get(key);
+            if (g != null && g.rows == 0 && !groupColumns.isEmpty()) groups.remove(key);
+        }
+    }
+
+    // Kết quả của view, theo thứ tự cột trong SELECT
+    public NsonArray rows() {
+        NsonArray out = new NsonArray();
+        for (Group g : groups.values()) {
+            NsonObject row = new NsonObject();
+            int aggIndex = 0;
+            for (Column c : columns) {
+                row.put(c.alias, c.aggregate != null ? g.states[aggIndex++].result(c.aggregate) : g.keyValues[c.groupIndex]);
+            }
+            out.add(row);
+        }
+        return out;
+    }
+
+    // Duyệt các group: giá trị key + AggState theo thứ tự aggregate (phía gọi giữ lock của view)
+    public void forEachGroup(BiConsumer<Object[], AggState[]> action) {
+        for (Group g : groups.values()) action.accept(g.keyValues, g.states);
+    }
+
+    // [{key: [...], rows: n, states: [[...], ...]}] để nạp lại view mà không phải quét bảng nguồn
+    public NsonArray stateToNson() {
+        NsonArray out = new NsonArray();
+        for (Group g : groups.values()) {
+            NsonArray key = new NsonArray();
+            key.addAll(Arrays.asList(g.keyValues));
+            NsonArray states = new NsonArray();
+            for (AggState s : g.states) states.add(s.toNson());
+            out.add(new NsonObject().put("key", key).put("rows", g.rows).put("states", states));
+        }
+        return out;
+    }
+
+    public void loadState(NsonArray state) {
+        groups.clear();
+        for (int i = 0; i < state.size(); i++) {
+            NsonObject entry = state.getObject(i);
+            NsonArray key = entry.getArray("key");
+            NsonArray states = entry.getArray("states");
+            Object[] keyValues = key.toArray();
+            AggState[] aggStates = new AggState[aggregates.length];
+            for (int a = 0; a < aggregates.length; a++) aggStates[a] = AggState.fromNson((NsonArray) states.get(a));
+            Group g = new Group(keyValues, aggStates);
+            g.rows = (long) Values.toDouble(entry.get("rows"));
+            groups.put(RowKey.of(keyValues), g);
+        }
+        ensureGlobalGroup();
+    }
+
+    // Không có GROUP BY: view luôn có đúng một row (như SELECT COUNT(*) trên bảng rỗng)
+    private void ensureGlobalGroup() {
+        if (groupColumns.isEmpty() && groups.isEmpty()) groups.put(RowKey.of(), newGroup(new Object[0]));
+    }
+
+    private Group newGroup(Object[] keyValues) {
+        AggState[] states = new AggState[aggregates.length];
+        for (int i = 0; i < states.length; i++) states[i] = AggState.of(aggregates[i]);
+        return new Group(keyValues, states);
+    }
+
+    private Object[] keyValues(NsonObject row) {
+        Object[] keyValues = new Object[groupColumns.size()];
+        for (int i = 0; i < keyValues.length; i++) keyValues[i] = HashAggregator.groupValue(row, groupColumns.get(i));
+        return keyValues;
+    }
+
+    private static Object valueOf(NsonObject row, AggregateSpec spec) {
+        return spec.isCountStar() ? Boolean.TRUE : Values.resolve(row, spec.column);
+    }
+}
@@ -0,0 +1,81 @@
+package njsql.query;
+
+import njsql.core.NJSQLConfig;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Đếm bộ nhớ ước lượng mà một query đang giữ (hash table, buffer sort).
+ * Mỗi lần xin thêm phải lọt cả trần của query lẫn trần chung của JVM;
+ * bị từ chối thì operator phải spill xuống đĩa thay vì tiếp tục giữ trên heap.
+ * Thread-safe vì các worker song song của cùng một query dùng chung.
+ */
+public final class MemoryAccountant implements AutoCloseable {
+    private static final AtomicLong GLOBAL_USED = new AtomicLong();
+
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    public MemoryAccountant(long limit) {
+        this.limit = limit;
+    }
+
+    public boolean tryReserve(long bytes) {
+        long now = used.addAndGet(bytes);
+        if (now > limit) {
+            used.addAndGet(-bytes);
+            return false;
+        }
+        if (GLOBAL_USED.addAndGet(bytes) > NJSQLConfig.GLOBAL_QUERY_MEMORY_BYTES) {
+            GLOBAL_USED.addAndGet(-bytes);
+            used.addAndGet(-bytes);
+            return false;
+        }
+        peak.accumulateAndGet(now, Math::max);
+        return true;
+    }
+
+    // Dùng khi không thể spill thêm (đã chia partition tới MAX_SPILL_DEPTH): vẫn ghi nhận để thống kê đúng
+    public void forceReserve(long bytes) {
+        peak.accumulateAndGet(used.addAndGet(bytes), Math::max);
+        GLOBAL_USED.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        if (bytes <= 0) return;
+        used.addAndGet(-bytes);
+        GLOBAL_USED.addAndGet(-bytes);
+    }
+
+    public void recordSpill(long bytes) {
+        spilledBytes.addAndGet(bytes);
+    }
+
+    public long limit() {
+        return limit;
+    }
+
+    public long used() {
+        return used.get();
+    }
+
+    public long peak() {
+        return peak.get();
+    }
+
+    public long spilledBytes() {
+        return spilledBytes.get();
+    }
+
+    public static long globalUsed() {
+        return GLOBAL_USED.get();
+    }
+
+    // Trả lại phần còn giữ khi query kết thúc (kể cả khi lỗi giữa chừng)
+    @Override
+    public void close() {
+        GLOBAL_USED.addAndGet(-used.getAndSet(0));
+    }
+}
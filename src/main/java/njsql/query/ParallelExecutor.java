@@ -0,0 +1,143 @@
+package njsql.query;
+
+import njsql.core.NJSQLConfig;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Thực thi song song kiểu morsel: bảng được chia thành các đoạn MORSEL_SIZE row,
+ * N worker (N = degree of parallelism của query) tự lấy morsel kế tiếp cho tới khi hết.
+ * Pool dùng chung cho cả process, kích thước = NJSQLConfig.MAX_PARALLELISM (global cap).
+ * Mỗi worker kiểm tra hủy (KILL, statement_timeout) trước khi lấy morsel mới; scanned = rows là row của bảng
+ * (query không JOIN) thì cùng lúc đó cộng số row của morsel vào rows scanned của query.
+ * Một worker lỗi (KILL, timeout, quota) thì các worker còn lại dừng ở morsel kế tiếp; runWorkers chờ tất cả dừng
+ * rồi mới ném lại lỗi, nên phía gọi dọn được partial (file spill) mà không worker nào còn ghi vào.
+ */
+public final class ParallelExecutor {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, NJSQLConfig.MAX_PARALLELISM));
+
+    private ParallelExecutor() {}
+
+    // Số worker thực tế cho một bảng có rowCount row
+    public static int effectiveParallelism(int requested, int rowCount) {
+        if (requested <= 1 || rowCount < NJSQLConfig.PARALLEL_MIN_ROWS) return 1;
+        int morsels = (rowCount + NJSQLConfig.MORSEL_SIZE - 1) / NJSQLConfig.MORSEL_SIZE;
+        return Math.max(1, Math.min(Math.min(requested, NJSQLConfig.MAX_PARALLELISM), morsels));
+    }
+
+    // FILTER + PROJECTION song song, giữ nguyên thứ tự row như bản tuần tự
+    public static NsonArray filterProject(NsonArray rows, Predicate<NsonObject> filter,
+                                          Function<NsonObject, NsonObject> project, int dop, boolean scanned,
+                                          QueryContext ctx) {
+        int morselCount = morselCount(rows.size());
+        // Mỗi worker chỉ ghi vào ô morsel của mình; runWorkers join xong mới đọc nên không cần đồng bộ thêm
+        List<List<NsonObject>> outputs = new ArrayList<>(Collections.nCopies(morselCount, null));
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean abort = new AtomicBoolean();
+
+        runWorkers(dop, abort, () -> {
+            int m;
+            while (!abort.get() && (m = next.getAndIncrement()) < morselCount) {
+                int from = m * NJSQLConfig.MORSEL_SIZE;
+                int to = Math.min(rows.size(), from + NJSQLConfig.MORSEL_SIZE);
+                ctx.checkCancelled(scanned ? to - from : 0);
+                List<NsonObject> out = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    NsonObject row = rows.getObject(i);
+                    if (filter.test(row)) out.add(project.apply(row));
+                }
+                outputs.set(m, out);
+            }
+            return null;
+        });
+
+        NsonArray result = new NsonArray();
+        for (List<NsonObject> out : outputs) result.addAll(out);
+        return result;
+    }
+
+    // FILTER + PARTIAL AGGREGATE mỗi worker một HashAggregator riêng, cuối cùng merge lại
+    public static HashAggregator aggregate(NsonArray rows, Predicate<NsonObject> filter,
+                                           Supplier<HashAggregator> factory, int dop, boolean scanned,
+                                           QueryContext ctx) {
+        int morselCount = morselCount(rows.size());
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean abort = new AtomicBoolean();
+        // Mọi partial đã tạo, kể cả của worker lỗi: lỗi thì đóng hết để trả bộ nhớ và xóa file spill
+        List<HashAggregator> created = Collections.synchronizedList(new ArrayList<>());
+
+        List<HashAggregator> partials;
+        try {
+            partials = runWorkers(dop, abort, () -> {
+                HashAggregator local = factory.get();
+                created.add(local);
+                int m;
+                while (!abort.get() && (m = next.getAndIncrement()) < morselCount) {
+                    int from = m * NJSQLConfig.MORSEL_SIZE;
+                    int to = Math.min(rows.size(), from + NJSQLConfig.MORSEL_SIZE);
+                    ctx.checkCancelled(scanned ? to - from : 0);
+                    for (int i = from; i < to; i++) {
+                        NsonObject row = rows.getObject(i);
+                        if (filter.test(row)) local.accumulate(row);
+                    }
+                }
+                return local;
+            });
+        } catch (RuntimeException | Error e) {
+            for (HashAggregator partial : created) partial.close();
+            throw e;
+        }
+
+        HashAggregator merged = partials.get(0);
+        for (int i = 1; i < partials.size(); i++) merged.merge(partials.get(i));
+        return merged;
+    }
+
+    private static int morselCount(int rowCount) {
+        return (rowCount + NJSQLConfig.MORSEL_SIZE - 1) / NJSQLConfig.MORSEL_SIZE;
+    }
+
+    private static <T> List<T> runWorkers(int dop, AtomicBoolean abort, java.util.concurrent.Callable<T> worker) {
+        // Byte worker cấp phát được cộng về thread gọi để EXPLAIN ANALYZE thấy đủ
+        LongAdder allocated = new LongAdder();
+        List<ForkJoinTask<T>> tasks = new ArrayList<>();
+        for (int w = 0; w < dop; w++) {
+            tasks.add(POOL.submit(() -> {
+                long before = Allocation.threadOnly();
+                try {
+                    return worker.call();
+                } catch (Exception | Error e) {
+                    abort.set(true); // các worker khác dừng ở morsel kế tiếp
+                    throw e;
+                } finally {
+                    long after = Allocation.threadOnly();
+                    if (before >= 0 && after >= 0) allocated.add(after - before);
+                }
+            }));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (ForkJoinTask<T> task : tasks) results.add(task.join());
+        } catch (RuntimeException | Error e) {
+            abort.set(true);
+            for (ForkJoinTask<T> task : tasks) task.quietlyJoin(); // chờ mọi worker dừng hẳn
+            throw e;
+        } finally {
+            Allocation.addOffloaded(allocated.sum());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,103 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Một operator trong cây plan trả về cho EXPLAIN. Với EXPLAIN ANALYZE, executor gọi start()/finish()
+ * quanh phần việc của operator để ghi số row thực tế, thời gian và số byte cấp phát.
+ * Thời gian/byte của một node không gồm các node con (mỗi node chỉ đo phần việc của chính nó).
+ */
+public final class PlanNode {
+    public final String operator;
+    private String detail;
+    private double estimatedRows;
+    private final List<PlanNode> children = new ArrayList<>();
+
+    private long actualRows = -1;
+    private long rowsRead;
+    private long timeNanos;
+    private long allocatedBytes;
+    private boolean allocUnknown; // có lần đo không được (virtual thread, JVM không hỗ trợ): alloc_bytes = null
+    private long startNanos;
+    private long startAlloc;
+
+    public PlanNode(String operator, String detail, double estimatedRows, PlanNode... children) {
+        this.operator = operator;
+        this.detail = detail;
+        this.estimatedRows = estimatedRows;
+        for (PlanNode child : children) if (child != null) this.children.add(child);
+    }
+
+    public double estimatedRows() {
+        return estimatedRows;
+    }
+
+    // Node đọc bảng chỉ biết số row sau khi đã nạp file
+    public void setEstimatedRows(double rows) {
+        this.estimatedRows = rows;
+    }
+
+    public List<PlanNode> children() {
+        return children;
+    }
+
+    // Thông tin chỉ biết sau khi chạy (vd số run của sort), nối vào detail
+    public void note(String extra) {
+        detail = detail == null || detail.isEmpty() ? extra : detail + "; " + extra;
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        startAlloc = Allocation.current();
+    }
+
+    // Có thể gọi nhiều lần cho cùng node (vd đọc file rồi lọc index): thời gian và row đọc được cộng dồn
+    public void finish(long rowsOut, long rowsRead) {
+        timeNanos += System.nanoTime() - startNanos;
+        long alloc = Allocation.current();
+        if (startAlloc < 0 || alloc < 0) allocUnknown = true;
+        else allocatedBytes += Math.max(0, alloc - startAlloc);
+        this.actualRows = rowsOut;
+        this.rowsRead += rowsRead;
+    }
+
+    // Chỉ ghi số row, cho node mà phần việc nằm gọn trong node cha (vd bảng bên trong của join)
+    public void record(long rowsOut, long rowsRead) {
+        this.actualRows = rowsOut;
+        this.rowsRead += rowsRead;
+    }
+
+    public long actualRows() {
+        return actualRows;
+    }
+
+    /**
+     * Duyệt cây theo thứ tự trước, mỗi operator một row; cột "operator" thụt lề theo độ sâu.
+     */
+    public NsonArray toRows(boolean analyze) {
+        NsonArray rows = new NsonArray();
+        appendRows(rows, 0, analyze);
+        return rows;
+    }
+
+    private void appendRows(NsonArray rows, int depth, boolean analyze) {
+        NsonObject row = new NsonObject()
+                .put("id", rows.size() + 1)
+                .put("operator", depth == 0 ? operator : "  ".repeat(depth - 1) + "-> " + operator)
+                .put("detail", detail != null ? detail : "")
+                .put("est_rows", Math.round(estimatedRows));
+        if (analyze) {
+            boolean ran = actualRows >= 0;
+            row.put("actual_rows", ran ? actualRows : null)
+                    .put("rows_read", ran ? rowsRead : null)
+                    .put("time_ms", ran ? Math.round(timeNanos / 10_000.0) / 100.0 : null)
+                    .put("alloc_bytes", ran && !allocUnknown ? allocatedBytes : null);
+        }
+        rows.add(row);
+        for (PlanNode child : children) child.appendRows(rows, depth + 1, analyze);
+    }
+}
@@ -0,0 +1,126 @@
+package njsql.query;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trạng thái dùng chung của một query đang chạy, truyền xuống các operator.
+ * Hủy kiểu hợp tác: KILL hoặc hết statement_timeout chỉ bật cờ, các vòng scan/sort/aggregate/join
+ * gọi checkCancelled() theo nhịp CHECK_INTERVAL row và dừng bằng exception.
+ * Cùng nhịp đó, vòng đọc row của bảng (scan, index scan, bên trong của join) cộng số row đã đọc vào rowsScanned
+ * (max_rows_scanned của user đếm trên số thật này, không theo ước lượng của planner).
+ */
+public final class QueryContext implements AutoCloseable {
+    // Số row giữa hai lần kiểm tra hủy trong các vòng lặp nóng (lũy thừa của 2 để dùng (i & CHECK_MASK) == 0)
+    public static final int CHECK_MASK = 1023;
+
+    private final MemoryAccountant memory;
+    private final long workMem;
+    private boolean explain;
+    private boolean analyze;
+    private long deadlineNanos;            // 0 = không có statement_timeout
+    private long timeoutMs;
+    private volatile String cancelReason;  // khác null = đã bị hủy
+    private final AtomicLong rowsScanned = new AtomicLong();
+    private volatile RowsScannedWatcher rowsWatcher;
+
+    // Nhận mỗi lần cộng row đã đọc (số vừa cộng, tổng); ném exception để dừng query (vd: vượt max_rows_scanned)
+    @FunctionalInterface
+    public interface RowsScannedWatcher {
+        void rowsScanned(long added, long total);
+    }
+
+    public QueryContext(long memoryLimit, long workMem) {
+        this.memory = new MemoryAccountant(memoryLimit);
+        this.workMem = workMem;
+    }
+
+    public MemoryAccountant memory() {
+        return memory;
+    }
+
+    // Budget cho một operator sort trước khi spill
+    public long workMem() {
+        return workMem;
+    }
+
+    // EXPLAIN: chỉ lập plan; EXPLAIN ANALYZE: chạy query và trả cây plan kèm số liệu thực tế
+    public void setExplain(boolean analyze) {
+        this.explain = true;
+        this.analyze = analyze;
+    }
+
+    public boolean isExplain() {
+        return explain;
+    }
+
+    public boolean isExplainAnalyze() {
+        return explain && analyze;
+    }
+
+    // Hạn chót tính từ lúc gọi; 0 = không giới hạn
+    public void setTimeout(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        this.deadlineNanos = timeoutMs > 0 ? System.nanoTime() + timeoutMs * 1_000_000 : 0;
+    }
+
+    public void cancel(String reason) {
+        if (cancelReason == null) cancelReason = reason;
+    }
+
+    public boolean isCancelled() {
+        return cancelReason != null || (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0);
+    }
+
+    // Thời gian còn lại tới hạn chót (ms), Long.MAX_VALUE nếu không có hạn
+    public long remainingMillis() {
+        return deadlineNanos == 0 ? Long.MAX_VALUE : Math.max(0, (deadlineNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    public void watchRowsScanned(RowsScannedWatcher watcher) {
+        this.rowsWatcher = watcher;
+    }
+
+    public long rowsScanned() {
+        return rowsScanned.get();
+    }
+
+    public void countRows(long rows) {
+        if (rows <= 0) return;
+        long total = rowsScanned.addAndGet(rows);
+        RowsScannedWatcher watcher = rowsWatcher;
+        if (watcher != null) watcher.rowsScanned(rows, total);
+    }
+
+    // Số row từ row i tới lần kiểm tra kế tiếp (vòng lặp n row kiểm tra ở (i & CHECK_MASK) == 0)
+    public static long block(int i, int n) {
+        return Math.min(CHECK_MASK + 1, n - i);
+    }
+
+    // Nhịp kiểm tra của vòng đọc row của bảng: cộng rowsRead row vào rowsScanned rồi kiểm tra hủy
+    public void checkCancelled(long rowsRead) {
+        countRows(rowsRead);
+        checkCancelled();
+    }
+
+    public void checkCancelled() {
+        if (cancelReason == null && deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+            cancel("statement timeout (" + timeoutMs + " ms)");
+        }
+        String reason = cancelReason;
+        if (reason != null) throw new QueryCanceledException(reason);
+    }
+
+    // KILL / statement_timeout: luồng điều khiển bình thường, không phải lỗi của engine
+    public static final class QueryCanceledException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        QueryCanceledException(String reason) {
+            super("Query canceled: " + reason);
+        }
+    }
+
+    @Override
+    public void close() {
+        memory.close();
+    }
+}
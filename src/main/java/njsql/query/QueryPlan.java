@@ -0,0 +1,234 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.*;
+
+/**
+ * Kết quả của QueryPlanner: cách đọc bảng FROM (scan hay index), thứ tự và thuật toán join.
+ * Số row/chi phí là ước lượng từ _stats (hoặc giá trị mặc định khi chưa ANALYZE).
+ */
+public final class QueryPlan {
+
+    /**
+     * Một bảng tham gia query, đã nạp xong. Bảng RAM không có _meta nên không có index/version.
+     */
+    public static final class TableInput {
+        public final String table;
+        public final String alias;
+        public final NsonObject tableObj;
+        public final String tablePath;
+        public final String version;
+        public final boolean leftJoin;
+        public final String onLeft;
+        public final String onRight;
+        final TableStats stats;
+
+        public TableInput(String table, String alias, NsonObject tableObj, String tablePath,
+                          boolean leftJoin, String onLeft, String onRight) {
+            this(table, alias, tableObj, tablePath, leftJoin, onLeft, onRight, false);
+        }
+
+        /**
+         * partial = chỉ nạp một phần row/cột (TableScanner pushdown): vị trí row khác file nên không có version,
+         * index (nếu dùng) được build tạm trên đúng phần đã nạp và không vào cache.
+         */
+        public TableInput(String table, String alias, NsonObject tableObj, String tablePath,
+                          boolean leftJoin, String onLeft, String onRight, boolean partial) {
+            this.table = table;
+            this.alias = alias;
+            this.tableObj = tableObj;
+            this.tablePath = tablePath;
+            this.version = partial ? null : versionOf(tableObj);
+            this.leftJoin = leftJoin;
+            this.onLeft = onLeft;
+            this.onRight = onRight;
+            this.stats = TableStats.of(tableObj);
+        }
+
+        public NsonArray data() {
+            NsonArray data = tableObj.getArray("data");
+            return data != null ? data : new NsonArray();
+        }
+
+        public Collection<String> columns() {
+            NsonObject types = tableObj.getObject("_types");
+            if (types != null) return types.keySet();
+            NsonArray data = data();
+            return !data.isEmpty() ? data.getObject(0).keySet() : Collections.emptyList();
+        }
+
+        public boolean hasColumn(String col) {
+            NsonObject types = tableObj.getObject("_types");
+            return types != null ? types.containsKey(col) : columns().contains(col);
+        }
+
+        // Version của bảng đọc từ file; bảng RAM không có _meta -> null (không cache index)
+        private static String versionOf(NsonObject tableObj) {
+            NsonObject meta = tableObj.getObject("_meta");
+            if (meta == null || meta.getString("last_modified") == null) return null;
+            NsonArray data = tableObj.getArray("data");
+            return meta.getString("last_modified") + ":" + (data != null ? data.size() : 0);
+        }
+    }
+
+    public enum AccessKind { SEQ_SCAN, INDEX_EQ, INDEX_IN, INDEX_RANGE }
+
+    /**
+     * Cách lấy row của bảng FROM. Với index, WHERE vẫn được kiểm tra lại đầy đủ trên các row lấy ra.
+     */
+    public static final class AccessPath {
+        public final AccessKind kind;
+        public final String column;
+        public final List<Object> values;  // EQ/IN
+        public final Object lower;         // RANGE, null = không chặn dưới
+        public final boolean lowerInclusive;
+        public final Object upper;         // RANGE, null = không chặn trên
+        public final boolean upperInclusive;
+        public final double estimatedRows;
+        public final double cost;
+
+        AccessPath(AccessKind kind, String column, List<Object> values, Object lower, boolean lowerInclusive,
+                   Object upper, boolean upperInclusive, double estimatedRows, double cost) {
+            this.kind = kind;
+            this.column = column;
+            this.values = values;
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+            this.estimatedRows = estimatedRows;
+            this.cost = cost;
+        }
+
+        static AccessPath scan(double rows, double cost) {
+            return new AccessPath(AccessKind.SEQ_SCAN, null, List.of(), null, false, null, false, rows, cost);
+        }
+
+        public boolean usesIndex() {
+            return kind != AccessKind.SEQ_SCAN;
+        }
+
+        // Vị trí row thỏa điều kiện index, sắp tăng dần để giữ thứ tự gốc của bảng
+        public List<Integer> positions(NavigableMap<Object, List<Integer>> index) {
+            List<Integer> out = new ArrayList<>();
+            switch (kind) {
+                case INDEX_EQ, INDEX_IN -> {
+                    for (Object v : values) {
+                        List<Integer> pos = index.get(v);
+                        if (pos != null) out.addAll(pos);
+                    }
+                    if (values.size() > 1) {
+                        Collections.sort(out);
+                        out = new ArrayList<>(new LinkedHashSet<>(out));
+                    }
+                    return out;
+                }
+                case INDEX_RANGE -> {
+                    NavigableMap<Object, List<Integer>> range = index;
+                    if (lower != null) range = range.tailMap(lower, lowerInclusive);
+                    if (upper != null) range = range.headMap(upper, upperInclusive);
+                    for (List<Integer> pos : range.values()) out.addAll(pos);
+                    Collections.sort(out);
+                    return out;
+                }
+                default -> {
+                    return out;
+                }
+            }
+        }
+
+        /**
+         * Phần của index thỏa điều kiện access path, vẫn giữ thứ tự key (để duyệt theo ORDER BY / DISTINCT).
+         * Seq scan trả nguyên index.
+         */
+        public NavigableMap<Object, List<Integer>> restrict(NavigableMap<Object, List<Integer>> index) {
+            switch (kind) {
+                case INDEX_EQ, INDEX_IN -> {
+                    NavigableMap<Object, List<Integer>> out = new TreeMap<>(index.comparator());
+                    for (Object v : values) {
+                        List<Integer> pos = index.get(v);
+                        if (pos != null) out.put(v, pos);
+                    }
+                    return out;
+                }
+                case INDEX_RANGE -> {
+                    NavigableMap<Object, List<Integer>> range = index;
+                    if (lower != null) range = range.tailMap(lower, lowerInclusive);
+                    if (upper != null) range = range.headMap(upper, upperInclusive);
+                    return range;
+                }
+                default -> {
+                    return index;
+                }
+            }
+        }
+
+        public String label() {
+            return switch (kind) {
+                case SEQ_SCAN -> "Seq Scan";
+                case INDEX_EQ, INDEX_IN -> "Index Lookup";
+                case INDEX_RANGE -> "Index Range Scan";
+            };
+        }
+
+        // Điều kiện áp dụng qua index, rỗng với seq scan
+        public String condition() {
+            return switch (kind) {
+                case SEQ_SCAN -> "";
+                case INDEX_EQ -> column + " = " + values.get(0);
+                case INDEX_IN -> column + " IN " + values;
+                case INDEX_RANGE -> (lower != null ? column + (lowerInclusive ? " >= " : " > ") + lower : "")
+                        + (lower != null && upper != null ? " AND " : "")
+                        + (upper != null ? column + (upperInclusive ? " <= " : " < ") + upper : "");
+            };
+        }
+
+        public String describe() {
+            return usesIndex() ? label() + " (" + condition() + ")" : label();
+        }
+    }
+
+    public enum JoinAlgorithm { HASH, INDEX_NESTED_LOOP }
+
+    public static final class JoinStep {
+        public final TableInput table;
+        public final String outerKey;   // key phía đã join (dạng alias.column)
+        public final String innerKey;   // tên cột gốc của bảng được join vào
+        public final boolean leftOuter;
+        public final JoinAlgorithm algorithm;
+        public final double estimatedRows;
+        public final double cost;
+
+        JoinStep(TableInput table, String outerKey, String innerKey, boolean leftOuter, JoinAlgorithm algorithm,
+                 double estimatedRows, double cost) {
+            this.table = table;
+            this.outerKey = outerKey;
+            this.innerKey = innerKey;
+            this.leftOuter = leftOuter;
+            this.algorithm = algorithm;
+            this.estimatedRows = estimatedRows;
+            this.cost = cost;
+        }
+    }
+
+    public final TableInput from;      // bảng trong FROM (áp dụng access path)
+    public final AccessPath access;
+    public final TableInput driving;   // bảng bắt đầu chuỗi join (có thể khác FROM khi planner đổi thứ tự)
+    public final List<JoinStep> joins;
+    public final double estimatedRows; // số row sau join, trước WHERE còn lại
+    public final double filteredRows;  // số row sau WHERE
+    public final double cost;
+
+    QueryPlan(TableInput from, AccessPath access, TableInput driving, List<JoinStep> joins, double estimatedRows,
+              double filteredRows, double cost) {
+        this.from = from;
+        this.access = access;
+        this.driving = driving;
+        this.joins = joins;
+        this.estimatedRows = estimatedRows;
+        this.filteredRows = filteredRows;
+        this.cost = cost;
+    }
+}
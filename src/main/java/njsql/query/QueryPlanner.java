@@ -0,0 +1,518 @@
+package njsql.query;
+
+import njsql.indexing.RowIndexCache;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+import njsql.query.QueryPlan.AccessKind;
+import njsql.query.QueryPlan.AccessPath;
+import njsql.query.QueryPlan.JoinAlgorithm;
+import njsql.query.QueryPlan.JoinStep;
+import njsql.query.QueryPlan.TableInput;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Planner dựa trên chi phí: chọn scan hay index cho bảng FROM, thứ tự join (chỉ khi toàn INNER JOIN)
+ * và thuật toán join (hash hay index nested-loop) từ số row và thống kê trong _stats.
+ * Đơn vị chi phí: một lần đánh giá WHERE trên một row.
+ */
+public final class QueryPlanner {
+
+    static final double SCAN_ROW_COST = 1.0;
+    static final double INDEX_BUILD_ROW_COST = 0.3;  // index chưa có trong RowIndexCache thì phải build
+    static final double INDEX_PROBE_COST = 0.05;     // mỗi bước so sánh trên TreeMap
+    static final double INDEX_FETCH_ROW_COST = 0.1;
+    static final double HASH_BUILD_ROW_COST = 0.6;
+    static final double HASH_PROBE_ROW_COST = 0.3;
+    // Mặc định khi chưa ANALYZE (cùng tinh thần với PostgreSQL)
+    static final double DEFAULT_EQ_SELECTIVITY = 0.005;
+    static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+    static final double DEFAULT_DISTINCT_FRACTION = 0.1;
+
+    private static final Pattern CONDITION = Pattern.compile(
+            "^([\\w.]+)\\s*(<=|>=|!=|<>|=|<|>|IN)\\s*(.*)$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Set<String> NUMERIC_TYPES = Set.of("int", "integer", "bigint", "float", "double", "decimal", "number");
+
+    private QueryPlanner() {}
+
+    /**
+     * tables.get(0) là bảng FROM, các phần tử sau là JOIN theo thứ tự viết trong câu lệnh.
+     */
+    public static QueryPlan plan(List<TableInput> tables, String whereClause) {
+        TableInput from = tables.get(0);
+        AccessPath access = chooseAccessPath(from, tables, whereClause);
+        double filterSel = filterSelectivity(tables, whereClause, access);
+        if (tables.size() == 1) {
+            return new QueryPlan(from, access, from, List.of(), access.estimatedRows,
+                    Math.max(1, access.estimatedRows * filterSel), access.cost);
+        }
+
+        List<Edge> edges = resolveEdges(tables);
+        Map<String, Double> baseRows = new HashMap<>();
+        for (TableInput t : tables) baseRows.put(t.alias, t == from ? access.estimatedRows : (double) t.data().size());
+
+        boolean reorderable = tables.stream().skip(1).noneMatch(t -> t.leftJoin)
+                && edges.stream().allMatch(e -> e.leftAlias != null);
+
+        Candidate best = null;
+        if (reorderable) {
+            // Greedy cho từng bảng xuất phát, giữ phương án tổng chi phí thấp nhất
+            for (TableInput start : tables) {
+                Candidate c = greedy(start, tables, edges, baseRows, from, access);
+                if (c != null && (best == null || c.cost < best.cost)) best = c;
+            }
+        }
+        if (best == null) best = writtenOrder(tables, edges, baseRows, from, access);
+        return new QueryPlan(from, access, best.driving, best.steps, best.rows,
+                Math.max(1, best.rows * filterSel), access.cost + best.cost);
+    }
+
+    /**
+     * Ước lượng số group của GROUP BY: tích số giá trị khác nhau của các cột, không vượt quá số row đầu vào.
+     */
+    public static double estimateGroups(List<TableInput> tables, List<String> groupColumns, double inputRows) {
+        if (groupColumns.isEmpty()) return 1;
+        double groups = 1;
+        for (String ref : groupColumns) {
+            TableInput t = ownerTable(ref, tables);
+            String col = ref.contains(".") ? ref.substring(ref.indexOf('.') + 1) : ref;
+            ColumnStats cs = t != null && t.stats != null ? t.stats.column(col) : null;
+            if (cs != null && cs.distinct > 0) groups *= cs.distinct;
+            else if (t != null && isUnique(t, col)) groups *= t.data().size();
+            else groups *= Math.max(1, inputRows * DEFAULT_DISTINCT_FRACTION);
+        }
+        return Math.max(1, Math.min(groups, inputRows));
+    }
+
+    // --- WHERE ---
+
+    // Selectivity của phần WHERE chưa được access path xử lý (các điều kiện AND coi như độc lập)
+    private static double filterSelectivity(List<TableInput> tables, String whereClause, AccessPath access) {
+        if (whereClause == null || whereClause.isBlank()) return 1;
+        List<String> parts = conjuncts(whereClause);
+        if (parts.isEmpty()) return DEFAULT_RANGE_SELECTIVITY; // có OR ở cấp cao nhất
+        TableInput from = tables.get(0);
+        double sel = 1;
+        for (String conjunct : parts) {
+            Matcher m = CONDITION.matcher(conjunct.trim());
+            if (!m.find()) {
+                sel *= DEFAULT_RANGE_SELECTIVITY;
+                continue;
+            }
+            String ref = m.group(1);
+            String op = m.group(2).toUpperCase();
+            TableInput t = ownerTable(ref, tables);
+            String col = ref.contains(".") ? ref.substring(ref.indexOf('.') + 1) : ref;
+            if (t == from && access.usesIndex() && col.equals(access.column)) continue; // đã tính trong access path
+            ColumnStats cs = t != null && t.stats != null ? t.stats.column(col) : null;
+            double eq = cs != null ? cs.selectivityEq() : DEFAULT_EQ_SELECTIVITY;
+            Object v = literal(m.group(3));
+            sel *= switch (op) {
+                case "=" -> eq;
+                case "!=", "<>" -> 1 - eq;
+                case "IN" -> Math.min(1, eq * m.group(3).split(",").length);
+                default -> {
+                    if (cs == null || cs.histogram.isEmpty() || !Values.isNumeric(v)) yield DEFAULT_RANGE_SELECTIVITY;
+                    yield op.startsWith(">") ? cs.selectivityRange(v, null) : cs.selectivityRange(null, v);
+                }
+            };
+        }
+        return sel;
+    }
+
+    private static TableInput ownerTable(String ref, List<TableInput> tables) {
+        String alias = ownerOf(ref, tables);
+        for (TableInput t : tables) if (t.alias.equals(alias)) return t;
+        return null;
+    }
+
+    // --- ACCESS PATH ---
+
+    private static AccessPath chooseAccessPath(TableInput from, List<TableInput> tables, String whereClause) {
+        double n = from.data().size();
+        AccessPath best = AccessPath.scan(n, n * SCAN_ROW_COST);
+        if (whereClause == null || whereClause.isBlank() || n == 0) return best;
+
+        for (Map.Entry<String, List<String[]>> e : indexConditions(from, tables, whereClause).entrySet()) {
+            AccessPath candidate = indexPath(from, e.getKey(), e.getValue(), n);
+            if (candidate != null && candidate.cost < best.cost) best = candidate;
+        }
+        return best;
+    }
+
+    /**
+     * Access path qua index của một cột cho trước (bỏ qua chi phí), null nếu WHERE không có điều kiện trên cột đó.
+     * Dùng khi duyệt index theo thứ tự ORDER BY: khoảng này giới hạn phần index phải đi qua.
+     */
+    public static AccessPath indexPathOn(List<TableInput> tables, String whereClause, String col) {
+        TableInput from = tables.get(0);
+        if (whereClause == null || whereClause.isBlank()) return null;
+        List<String[]> conditions = indexConditions(from, tables, whereClause).get(col);
+        return conditions != null ? indexPath(from, col, conditions, Math.max(1, from.data().size())) : null;
+    }
+
+    // Cột (bỏ tiền tố alias) có điều kiện so sánh ở cấp AND ngoài cùng của WHERE: ứng viên cho index access path
+    public static Set<String> conditionColumns(String whereClause) {
+        Set<String> cols = new LinkedHashSet<>();
+        if (whereClause == null || whereClause.isBlank()) return cols;
+        for (String conjunct : conjuncts(whereClause)) {
+            Matcher m = CONDITION.matcher(conjunct.trim());
+            if (m.find()) cols.add(m.group(1).substring(m.group(1).lastIndexOf('.') + 1));
+        }
+        return cols;
+    }
+
+    // Gom các điều kiện so sánh theo cột (chỉ cột có index của bảng FROM)
+    private static Map<String, List<String[]>> indexConditions(TableInput from, List<TableInput> tables, String whereClause) {
+        Map<String, List<String[]>> byColumn = new LinkedHashMap<>();
+        for (String conjunct : conjuncts(whereClause)) {
+            Matcher m = CONDITION.matcher(conjunct.trim());
+            if (!m.find()) continue;
+            String col = columnOfFrom(m.group(1), from, tables);
+            if (col == null || !RowIndexCache.hasIndex(from.tableObj, col)) continue;
+            byColumn.computeIfAbsent(col, k -> new ArrayList<>()).add(new String[] { m.group(2).toUpperCase(), m.group(3).trim() });
+        }
+        return byColumn;
+    }
+
+    private static AccessPath indexPath(TableInput from, String col, List<String[]> conditions, double n) {
+        ColumnStats cs = from.stats != null ? from.stats.column(col) : null;
+        boolean unique = isUnique(from, col);
+        boolean numeric = isNumericColumn(from, col);
+
+        AccessKind kind = null;
+        List<Object> values = new ArrayList<>();
+        Object lower = null, upper = null;
+        boolean lowerInc = false, upperInc = false;
+        for (String[] cond : conditions) {
+            String op = cond[0];
+            String raw = cond[1];
+            if (op.equals("=")) {
+                kind = AccessKind.INDEX_EQ;
+                values = List.of(literal(raw));
+                break; // điều kiện "=" là chọn lọc nhất
+            }
+            if (op.equals("IN") && kind == null) {
+                String inner = raw.replaceAll("^\\(|\\)$", "");
+                List<Object> list = new ArrayList<>();
+                for (String p : inner.split(",")) list.add(literal(p.trim()));
+                kind = AccessKind.INDEX_IN;
+                values = list;
+                continue;
+            }
+            // Khoảng chỉ dùng được khi cột và hằng đều là số (so sánh chuỗi với < > luôn false trong WHERE)
+            Object v = literal(raw);
+            if (!numeric || !Values.isNumeric(v) || kind == AccessKind.INDEX_IN) continue;
+            kind = AccessKind.INDEX_RANGE;
+            switch (op) {
+                case ">" -> { if (lower == null || Values.compare(v, lower) >= 0) { lower = v; lowerInc = false; } }
+                case ">=" -> { if (lower == null || Values.compare(v, lower) > 0) { lower = v; lowerInc = true; } }
+                case "<" -> { if (upper == null || Values.compare(v, upper) <= 0) { upper = v; upperInc = false; } }
+                case "<=" -> { if (upper == null || Values.compare(v, upper) < 0) { upper = v; upperInc = true; } }
+                default -> { }
+            }
+        }
+        if (kind == null || (kind == AccessKind.INDEX_RANGE && lower == null && upper == null)) return null;
+
+        double sel;
+        int probes = 1;
+        if (kind == AccessKind.INDEX_EQ || kind == AccessKind.INDEX_IN) {
+            probes = values.size();
+            double eq = cs != null ? cs.selectivityEq() : (unique ? 1.0 / n : DEFAULT_EQ_SELECTIVITY);
+            sel = Math.min(1.0, eq * probes);
+        } else if (cs != null && !cs.histogram.isEmpty()) {
+            sel = cs.selectivityRange(lower, upper);
+        } else {
+            sel = lower != null && upper != null ? DEFAULT_RANGE_SELECTIVITY * DEFAULT_RANGE_SELECTIVITY : DEFAULT_RANGE_SELECTIVITY;
+        }
+        double rows = Math.max(1, sel * n);
+        double cost = (RowIndexCache.isCached(from.tablePath, from.version, col) ? 0 : n * INDEX_BUILD_ROW_COST)
+                + probes * log2(n) * INDEX_PROBE_COST
+                + rows * (SCAN_ROW_COST + INDEX_FETCH_ROW_COST);
+        return new AccessPath(kind, col, values, lower, lowerInc, upper, upperInc, rows, cost);
+    }
+
+    // Tách WHERE thành các điều kiện AND cấp cao nhất; có OR ở cấp cao nhất thì không tách được
+    static List<String> conjuncts(String where) {
+        String expr = stripParens(where.trim());
+        if (splitIndex(expr, "OR") != -1) return List.of();
+        List<String> out = new ArrayList<>();
+        int and;
+        while ((and = splitIndex(expr, "AND")) != -1) {
+            out.add(stripParens(expr.substring(0, and).trim()));
+            expr = expr.substring(and + 3).trim();
+        }
+        out.add(stripParens(expr));
+        return out;
+    }
+
+    private static String stripParens(String expr) {
+        while (expr.startsWith("(") && expr.endsWith(")")) {
+            int bal = 0;
+            boolean wraps = true;
+            for (int i = 0; i < expr.length() - 1; i++) {
+                if (expr.charAt(i) == '(') bal++;
+                else if (expr.charAt(i) == ')') bal--;
+                if (bal == 0) { wraps = false; break; }
+            }
+            if (!wraps) break;
+            expr = expr.substring(1, expr.length() - 1).trim();
+        }
+        return expr;
+    }
+
+    // Vị trí toán tử logic ở cấp ngoặc 0 (cùng quy tắc với SelectHandler.findSplitIndex)
+    private static int splitIndex(String expr, String op) {
+        String upper = expr.toUpperCase();
+        int bal = 0;
+        boolean inQuote = false;
+        for (int i = 0; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            if (c == '\'') inQuote = !inQuote;
+            if (inQuote) continue;
+            if (c == '(') bal++;
+            else if (c == ')') bal--;
+            if (bal == 0 && upper.startsWith(op, i)) {
+                boolean startOk = i == 0 || Character.isWhitespace(upper.charAt(i - 1)) || upper.charAt(i - 1) == ')';
+                boolean endOk = i + op.length() >= upper.length() || Character.isWhitespace(upper.charAt(i + op.length())) || upper.charAt(i + op.length()) == '(';
+                if (startOk && endOk) return i;
+            }
+        }
+        return -1;
+    }
+
+    // Tên cột gốc của bảng FROM mà ref trỏ tới, null nếu ref thuộc bảng khác hoặc mơ hồ
+    private static String columnOfFrom(String ref, TableInput from, List<TableInput> tables) {
+        int dot = ref.indexOf('.');
+        if (dot >= 0) {
+            String qualifier = ref.substring(0, dot);
+            String col = ref.substring(dot + 1);
+            return (qualifier.equals(from.alias) || qualifier.equals(from.table)) && from.hasColumn(col) ? col : null;
+        }
+        if (!from.hasColumn(ref)) return null;
+        for (int i = 1; i < tables.size(); i++) if (tables.get(i).hasColumn(ref)) return null;
+        return ref;
+    }
+
+    private static Object literal(String raw) {
+        raw = raw.trim();
+        if (raw.length() >= 2 && raw.startsWith("'") && raw.endsWith("'")) return raw.substring(1, raw.length() - 1);
+        double d = Values.toDouble(raw);
+        return Double.isNaN(d) ? raw : Values.normalize(d);
+    }
+
+    // --- JOIN ---
+
+    // Điều kiện join giữa bảng đã có (left) và bảng được join (right = bảng của JOIN clause)
+    private static final class Edge {
+        final String leftAlias;   // null nếu không xác định được bảng phía trái
+        final String leftRef;     // tham chiếu như viết trong ON (dùng khi giữ nguyên thứ tự)
+        final String leftCol;
+        final String rightAlias;
+        final String rightCol;
+
+        Edge(String leftAlias, String leftRef, String leftCol, String rightAlias, String rightCol) {
+            this.leftAlias = leftAlias;
+            this.leftRef = leftRef;
+            this.leftCol = leftCol;
+            this.rightAlias = rightAlias;
+            this.rightCol = rightCol;
+        }
+
+        boolean connects(String a, String b) {
+            return (a.equals(leftAlias) && b.equals(rightAlias)) || (a.equals(rightAlias) && b.equals(leftAlias));
+        }
+    }
+
+    // Một edge cho mỗi JOIN clause (theo thứ tự viết), giữ nguyên cách hiểu ON/FOREIGN KEY như trước
+    private static List<Edge> resolveEdges(List<TableInput> tables) {
+        List<Edge> edges = new ArrayList<>();
+        for (int j = 1; j < tables.size(); j++) {
+            TableInput join = tables.get(j);
+            List<TableInput> earlier = tables.subList(0, j);
+            if (join.onLeft != null) {
+                boolean leftIsInner = belongsTo(join.onLeft, join);
+                String innerRef = leftIsInner ? join.onLeft : join.onRight;
+                String outerRef = leftIsInner ? join.onRight : join.onLeft;
+                String innerCol = innerRef.contains(".") ? innerRef.substring(innerRef.indexOf('.') + 1) : innerRef;
+                String outerCol = outerRef.contains(".") ? outerRef.substring(outerRef.indexOf('.') + 1) : outerRef;
+                edges.add(new Edge(ownerOf(outerRef, earlier), outerRef, outerCol, join.alias, innerCol));
+                continue;
+            }
+
+            // Không có ON: suy ra điều kiện từ FOREIGN KEY trong _meta
+            Edge edge = null;
+            for (TableInput outer : earlier) {
+                String[] fk = findForeignKey(join.tableObj, outer.table);
+                if (fk != null) {
+                    edge = new Edge(outer.alias, outer.alias + "." + fk[1], fk[1], join.alias, fk[0]);
+                    break;
+                }
+                fk = findForeignKey(outer.tableObj, join.table);
+                if (fk != null) {
+                    edge = new Edge(outer.alias, outer.alias + "." + fk[0], fk[0], join.alias, fk[1]);
+                    break;
+                }
+            }
+            if (edge == null) {
+                throw new IllegalArgumentException("JOIN " + join.table + " needs an ON clause (no FOREIGN KEY links it to the other tables).");
+            }
+            edges.add(edge);
+        }
+        return edges;
+    }
+
+    private static boolean belongsTo(String ref, TableInput join) {
+        if (ref.contains(".")) {
+            String qualifier = ref.substring(0, ref.indexOf('.'));
+            return qualifier.equals(join.alias) || qualifier.equals(join.table);
+        }
+        NsonObject types = join.tableObj.getObject("_types");
+        return types != null && types.containsKey(ref);
+    }
+
+    private static String ownerOf(String ref, List<TableInput> candidates) {
+        if (ref.contains(".")) {
+            String qualifier = ref.substring(0, ref.indexOf('.'));
+            for (TableInput t : candidates) if (qualifier.equals(t.alias) || qualifier.equals(t.table)) return t.alias;
+            return null;
+        }
+        for (TableInput t : candidates) if (t.hasColumn(ref)) return t.alias;
+        return null;
+    }
+
+    // {cột FK trong fromTable, cột được tham chiếu trong refTable}
+    private static String[] findForeignKey(NsonObject fromTableObj, String refTable) {
+        NsonObject meta = fromTableObj.getObject("_meta");
+        NsonArray fks = meta != null ? meta.getArray("foreign_keys") : null;
+        if (fks == null) return null;
+        for (int i = 0; i < fks.size(); i++) {
+            NsonObject fk = fks.getObject(i);
+            if (fk == null || !refTable.equalsIgnoreCase(fk.getString("references_table"))) continue;
+            NsonArray cols = fk.getArray("columns");
+            NsonArray refCols = fk.getArray("references_columns");
+            if (cols != null && refCols != null && !cols.isEmpty() && !refCols.isEmpty()) {
+                return new String[] { cols.getString(0), refCols.getString(0) };
+            }
+        }
+        return null;
+    }
+
+    private static final class Candidate {
+        final TableInput driving;
+        final List<JoinStep> steps;
+        final double rows;
+        final double cost;
+
+        Candidate(TableInput driving, List<JoinStep> steps, double rows, double cost) {
+            this.driving = driving;
+            this.steps = steps;
+            this.rows = rows;
+            this.cost = cost;
+        }
+    }
+
+    // Thứ tự như câu lệnh (bắt buộc khi có LEFT JOIN), chỉ chọn thuật toán cho từng bước
+    private static Candidate writtenOrder(List<TableInput> tables, List<Edge> edges, Map<String, Double> baseRows,
+                                          TableInput from, AccessPath access) {
+        List<JoinStep> steps = new ArrayList<>();
+        double rows = baseRows.get(from.alias);
+        double cost = 0;
+        for (int j = 1; j < tables.size(); j++) {
+            Edge e = edges.get(j - 1);
+            String outerKey = e.leftAlias != null ? e.leftAlias + "." + e.leftCol : e.leftRef;
+            JoinStep step = step(tables.get(j), outerKey, e.leftAlias, e.leftCol, e.rightCol, rows, tables, baseRows, from, access);
+            steps.add(step);
+            rows = step.estimatedRows;
+            cost += step.cost + rows;
+        }
+        return new Candidate(from, steps, rows, cost);
+    }
+
+    // Mỗi bước lấy bảng nối được (có edge tới tập đã join) cho kết quả trung gian nhỏ nhất
+    private static Candidate greedy(TableInput start, List<TableInput> tables, List<Edge> edges, Map<String, Double> baseRows,
+                                    TableInput from, AccessPath access) {
+        Set<String> joined = new HashSet<>(List.of(start.alias));
+        List<JoinStep> steps = new ArrayList<>();
+        double rows = baseRows.get(start.alias);
+        double cost = 0;
+        while (joined.size() < tables.size()) {
+            JoinStep bestStep = null;
+            for (TableInput t : tables) {
+                if (joined.contains(t.alias)) continue;
+                for (Edge e : edges) {
+                    String other = e.rightAlias.equals(t.alias) ? e.leftAlias : e.leftAlias.equals(t.alias) ? e.rightAlias : null;
+                    if (other == null || !joined.contains(other) || !e.connects(other, t.alias)) continue;
+                    String outerCol = other.equals(e.leftAlias) ? e.leftCol : e.rightCol;
+                    String innerCol = other.equals(e.leftAlias) ? e.rightCol : e.leftCol;
+                    JoinStep s = step(t, other + "." + outerCol, other, outerCol, innerCol, rows, tables, baseRows, from, access);
+                    if (bestStep == null || s.estimatedRows < bestStep.estimatedRows
+                            || (s.estimatedRows == bestStep.estimatedRows && s.cost < bestStep.cost)) bestStep = s;
+                }
+            }
+            if (bestStep == null) return null; // đồ thị join không liên thông từ bảng này
+            steps.add(bestStep);
+            joined.add(bestStep.table.alias);
+            rows = bestStep.estimatedRows;
+            cost += bestStep.cost + rows;
+        }
+        return new Candidate(start, steps, rows, cost);
+    }
+
+    private static JoinStep step(TableInput inner, String outerKey, String outerAlias, String outerCol, String innerCol,
+                                 double outerRows, List<TableInput> tables, Map<String, Double> baseRows,
+                                 TableInput from, AccessPath access) {
+        double innerRows = baseRows.get(inner.alias);
+        boolean left = inner.leftJoin;
+
+        double hashCost = left
+                ? innerRows * HASH_BUILD_ROW_COST + outerRows * HASH_PROBE_ROW_COST
+                : Math.min(outerRows, innerRows) * HASH_BUILD_ROW_COST + Math.max(outerRows, innerRows) * HASH_PROBE_ROW_COST;
+
+        // Index nested-loop chỉ dùng được trên bảng nguyên vẹn (bảng FROM đã lọc bằng index thì vị trí row không còn đúng)
+        double inljCost = Double.MAX_VALUE;
+        boolean filtered = inner == from && access.usesIndex();
+        if (!filtered && RowIndexCache.hasIndex(inner.tableObj, innerCol)) {
+            double fullRows = inner.data().size();
+            inljCost = outerRows * (log2(fullRows) * INDEX_PROBE_COST + INDEX_FETCH_ROW_COST)
+                    + (RowIndexCache.isCached(inner.tablePath, inner.version, innerCol) ? 0 : fullRows * INDEX_BUILD_ROW_COST);
+        }
+
+        TableInput outerTable = null;
+        for (TableInput t : tables) if (t.alias.equals(outerAlias)) outerTable = t;
+        double outerDistinct = outerTable != null ? Math.min(distinct(outerTable, outerCol, baseRows), outerRows) : outerRows;
+        double innerDistinct = distinct(inner, innerCol, baseRows);
+        double rows = outerRows * innerRows / Math.max(1, Math.max(outerDistinct, innerDistinct));
+        if (left) rows = Math.max(rows, outerRows);
+
+        JoinAlgorithm algorithm = inljCost < hashCost ? JoinAlgorithm.INDEX_NESTED_LOOP : JoinAlgorithm.HASH;
+        return new JoinStep(inner, outerKey, innerCol, left, algorithm, Math.max(1, rows), Math.min(hashCost, inljCost));
+    }
+
+    // Số giá trị khác nhau của cột: _stats, hoặc PK = số row, hoặc mặc định
+    private static double distinct(TableInput t, String col, Map<String, Double> baseRows) {
+        double rows = baseRows.get(t.alias);
+        ColumnStats cs = t.stats != null ? t.stats.column(col) : null;
+        if (cs != null && cs.distinct > 0) return Math.min(cs.distinct, Math.max(1, rows));
+        if (isUnique(t, col)) return Math.max(1, rows);
+        return Math.max(1, rows * DEFAULT_DISTINCT_FRACTION);
+    }
+
+    private static boolean isUnique(TableInput t, String col) {
+        NsonObject meta = t.tableObj.getObject("_meta");
+        NsonArray pk = meta != null ? meta.getArray("primary_key") : null;
+        return pk != null && pk.size() == 1 && col.equals(pk.getString(0));
+    }
+
+    private static boolean isNumericColumn(TableInput t, String col) {
+        NsonObject types = t.tableObj.getObject("_types");
+        String type = types != null ? types.getString(col) : null;
+        return type != null && NUMERIC_TYPES.contains(type.toLowerCase());
+    }
+
+    private static double log2(double n) {
+        return Math.log(Math.max(2, n)) / Math.log(2);
+    }
+}
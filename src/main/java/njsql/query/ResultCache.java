@@ -0,0 +1,165 @@
+package njsql.query;
+
+import njsql.core.NJSQLConfig;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache kết quả SELECT (opt-in: SET result_cache = on, hoặc "cache": true trên REST/gRPC).
+ * Key = database + user + SQL đã chuẩn hóa khoảng trắng. Mỗi entry nhớ version của các bảng đã đọc
+ * tại lúc bắt đầu chạy query; bảng nào đổi version thì entry bị bỏ ở lần tra tiếp theo.
+ * Loại bỏ theo LRU khi tổng kích thước ước lượng vượt NJSQLConfig.RESULT_CACHE_BYTES.
+ * Kết quả trả ra được dùng chung giữa các lần hit nên phía gọi không được sửa.
+ */
+public final class ResultCache {
+
+    private static final Pattern TABLE_REF = Pattern.compile("\\b(?:FROM|JOIN)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private static final class Entry {
+        final NsonArray data;
+        final Map<String, Long> versions; // table -> version lúc chạy query
+        final String username; // chủ thư mục dữ liệu: version theo file bảng của user này
+        final String db;
+        final long bytes;
+
+        Entry(NsonArray data, Map<String, Long> versions, String username, String db, long bytes) {
+            this.data = data;
+            this.versions = versions;
+            this.username = username;
+            this.db = db;
+            this.bytes = bytes;
+        }
+
+        boolean isFresh() {
+            for (Map.Entry<String, Long> v : versions.entrySet()) {
+                if (TableVersions.version(username, db, v.getKey()) != v.getValue()) return false;
+            }
+            return true;
+        }
+    }
+
+    // accessOrder = true: duyệt từ entry ít dùng gần đây nhất
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private static long totalBytes;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder invalidations = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+
+    private ResultCache() {}
+
+    public static boolean isEnabled() {
+        return NJSQLConfig.RESULT_CACHE_BYTES > 0;
+    }
+
+    public static String key(String sql, String db, String username) {
+        return db + "\u0000" + username + "\u0000" + normalize(sql);
+    }
+
+    // Gộp khoảng trắng ngoài chuỗi '...', bỏ ';' cuối (literal giữ nguyên để không trộn kết quả)
+    static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean inQuote = false;
+        boolean space = false;
+        for (char c : sql.trim().toCharArray()) {
+            if (c == '\'') inQuote = !inQuote;
+            if (!inQuote && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0) sb.append(' ');
+            space = false;
+            sb.append(c);
+        }
+        while (sb.length() > 0 && sb.charAt(sb.length() - 1) == ';') sb.setLength(sb.length() - 1);
+        return sb.toString().trim();
+    }
+
+    // Các bảng trong FROM/JOIN của câu lệnh
+    public static Set<String> referencedTables(String sql) {
+        Set<String> out = new LinkedHashSet<>();
+        Matcher m = TABLE_REF.matcher(sql);
+        while (m.find()) out.add(m.group(1));
+        return out;
+    }
+
+    // Chụp version trước khi chạy query: ghi xen giữa lúc chạy sẽ làm entry cũ ngay từ đầu
+    public static Map<String, Long> snapshot(String username, String db, Set<String> tables) {
+        Map<String, Long> versions = new HashMap<>();
+        for (String t : tables) versions.put(t, TableVersions.version(username, db, t));
+        return versions;
+    }
+
+    public static synchronized NsonArray get(String key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        if (!e.isFresh()) {
+            entries.remove(key);
+            totalBytes -= e.bytes;
+            invalidations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return e.data;
+    }
+
+    public static void put(String key, String username, String db, Map<String, Long> versions, NsonArray data) {
+        long bytes = key.length() * 2L + 64;
+        for (Object row : data) bytes += row instanceof NsonObject o ? RowCodec.estimateSize(o) : 16;
+        if (bytes > NJSQLConfig.RESULT_CACHE_MAX_ENTRY_BYTES) {
+            rejected.increment();
+            return;
+        }
+        Entry entry = new Entry(data, versions, username, db, bytes);
+        synchronized (ResultCache.class) {
+            if (!entry.isFresh()) return; // bảng đã bị ghi trong lúc chạy query
+            Entry old = entries.put(key, entry);
+            if (old != null) totalBytes -= old.bytes;
+            totalBytes += bytes;
+            Iterator<Entry> it = entries.values().iterator();
+            while (totalBytes > NJSQLConfig.RESULT_CACHE_BYTES && it.hasNext()) {
+                Entry victim = it.next();
+                it.remove();
+                totalBytes -= victim.bytes;
+                evictions.increment();
+            }
+        }
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public static synchronized NsonObject stats() {
+        long h = hits.sum(), m = misses.sum();
+        return new NsonObject()
+                .put("entries", entries.size())
+                .put("bytes", totalBytes)
+                .put("capacity_bytes", NJSQLConfig.RESULT_CACHE_BYTES)
+                .put("hits", h)
+                .put("misses", m)
+                .put("hit_rate", h + m == 0 ? 0.0 : Math.round(h * 10000.0 / (h + m)) / 10000.0)
+                .put("invalidations", invalidations.sum())
+                .put("evictions", evictions.sum())
+                .put("rejected_too_large", rejected.sum());
+    }
+
+    // SHOW CACHE qua REST/gRPC: cùng dạng response với các handler (một row số liệu)
+    public static NsonObject showForAPI() {
+        NsonArray data = new NsonArray();
+        data.add(stats());
+        return new NsonObject().put("status", "success").put("data", data);
+    }
+}
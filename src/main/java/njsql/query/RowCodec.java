@@ -0,0 +1,144 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Định dạng nhị phân gọn cho row khi spill xuống đĩa.
+ * Tên cột được ghi một lần rồi thay bằng id (dictionary theo từng file), giá trị ghi kèm tag kiểu.
+ * Mỗi RowCodec dùng cho đúng một file (một chiều ghi hoặc đọc).
+ */
+public final class RowCodec {
+    private static final byte T_NULL = 0;
+    private static final byte T_LONG = 1;
+    private static final byte T_DOUBLE = 2;
+    private static final byte T_STRING = 3;
+    private static final byte T_TRUE = 4;
+    private static final byte T_FALSE = 5;
+    private static final byte T_INT = 6;
+    private static final byte T_JSON_OBJECT = 7;
+    private static final byte T_JSON_ARRAY = 8;
+
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    public void write(DataOutputStream out, NsonObject row) throws IOException {
+        out.writeShort(row.size());
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            Integer id = nameIds.get(e.getKey());
+            if (id == null) {
+                // Tên mới: id âm báo hiệu có kèm chuỗi tên
+                id = names.size();
+                nameIds.put(e.getKey(), id);
+                names.add(e.getKey());
+                out.writeInt(-(id + 1));
+                writeString(out, e.getKey());
+            } else {
+                out.writeInt(id);
+            }
+            writeValue(out, e.getValue());
+        }
+    }
+
+    // Trả về null khi hết file
+    public NsonObject read(DataInputStream in) throws IOException {
+        int fieldCount;
+        try {
+            fieldCount = in.readUnsignedShort();
+        } catch (EOFException eof) {
+            return null;
+        }
+        NsonObject row = new NsonObject();
+        for (int i = 0; i < fieldCount; i++) {
+            int id = in.readInt();
+            String name;
+            if (id < 0) {
+                name = readString(in);
+                names.add(name);
+            } else {
+                name = names.get(id);
+            }
+            row.put(name, readValue(in));
+        }
+        return row;
+    }
+
+    private static void writeValue(DataOutputStream out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(T_NULL);
+        } else if (v instanceof Integer i) {
+            out.writeByte(T_INT);
+            out.writeInt(i);
+        } else if (v instanceof Long || v instanceof Short || v instanceof Byte) {
+            out.writeByte(T_LONG);
+            out.writeLong(((Number) v).longValue());
+        } else if (v instanceof Number n) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble(n.doubleValue());
+        } else if (v instanceof Boolean b) {
+            out.writeByte(b ? T_TRUE : T_FALSE);
+        } else if (v instanceof NsonObject o) {
+            out.writeByte(T_JSON_OBJECT);
+            writeString(out, o.toString());
+        } else if (v instanceof NsonArray a) {
+            out.writeByte(T_JSON_ARRAY);
+            writeString(out, a.toString());
+        } else {
+            out.writeByte(T_STRING);
+            writeString(out, v.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case T_NULL -> null;
+            case T_INT -> in.readInt();
+            case T_LONG -> in.readLong();
+            case T_DOUBLE -> in.readDouble();
+            case T_TRUE -> Boolean.TRUE;
+            case T_FALSE -> Boolean.FALSE;
+            case T_JSON_OBJECT -> NsonObject.parse(readString(in));
+            case T_JSON_ARRAY -> NsonArray.parse(readString(in));
+            case T_STRING -> readString(in);
+            default -> throw new IOException("Corrupted spill file: unknown value tag " + tag);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Ước lượng số byte row chiếm trên heap, dùng cho memory budget
+    public static long estimateSize(NsonObject row) {
+        long size = 64;
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            size += 48 + 2L * e.getKey().length() + estimateValue(e.getValue());
+        }
+        return size;
+    }
+
+    public static long estimateValue(Object v) {
+        if (v instanceof String s) return 40 + 2L * s.length();
+        if (v instanceof NsonObject o) return estimateSize(o);
+        return v != null ? 24 : 0;
+    }
+}
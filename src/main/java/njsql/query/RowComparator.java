@@ -0,0 +1,49 @@
+package njsql.query;
+
+import njsql.nson.NsonObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Comparator có kiểu cho ORDER BY (nhiều cột, mỗi cột ASC/DESC).
+ * Dùng chung cho sort trên RAM và merge các run đã spill xuống đĩa để kết quả luôn giống nhau.
+ */
+public final class RowComparator implements Comparator<NsonObject> {
+    private final String[] columns;
+    private final int[] directions; // 1 = ASC, -1 = DESC
+
+    private RowComparator(String[] columns, int[] directions) {
+        this.columns = columns;
+        this.directions = directions;
+    }
+
+    // orderBy dạng: "a DESC, b" (đã bỏ chữ ORDER BY)
+    public static RowComparator parse(String orderBy) {
+        List<String> cols = new ArrayList<>();
+        List<Integer> dirs = new ArrayList<>();
+        for (String part : orderBy.split(",")) {
+            String[] tokens = part.trim().split("\\s+");
+            if (tokens[0].isEmpty()) continue;
+            cols.add(tokens[0]);
+            dirs.add(tokens.length > 1 && tokens[1].equalsIgnoreCase("DESC") ? -1 : 1);
+        }
+        int[] d = new int[dirs.size()];
+        for (int i = 0; i < d.length; i++) d[i] = dirs.get(i);
+        return new RowComparator(cols.toArray(new String[0]), d);
+    }
+
+    @Override
+    public int compare(NsonObject a, NsonObject b) {
+        for (int i = 0; i < columns.length; i++) {
+            int c = Values.compare(Values.resolve(a, columns[i]), Values.resolve(b, columns[i]));
+            if (c != 0) return c * directions[i];
+        }
+        return 0;
+    }
+
+    public String[] columns() {
+        return columns;
+    }
+}
@@ -0,0 +1,67 @@
+package njsql.query;
+
+import java.util.Arrays;
+
+/**
+ * Tuple giá trị đã chuẩn hóa + hash tính sẵn, dùng làm key cho HashMap
+ * (group by, hash join, distinct) thay vì nối chuỗi.
+ * NULL được giữ bằng một sentinel riêng: mọi NULL cùng một key (một group NULL), không trùng với chuỗi "NULL";
+ * get() trả lại null.
+ */
+public final class RowKey {
+    private static final Object NULL = new Object() {
+        @Override
+        public String toString() {
+            return "NULL";
+        }
+    };
+
+    private final Object[] values;
+    private final int hash;
+
+    private RowKey(Object[] values) {
+        this.values = values;
+        this.hash = Arrays.hashCode(values);
+    }
+
+    public static RowKey of(Object... raw) {
+        Object[] values = new Object[raw.length];
+        for (int i = 0; i < raw.length; i++) values[i] = raw[i] == null ? NULL : Values.normalize(raw[i]);
+        return new RowKey(values);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public Object get(int i) {
+        return values[i] == NULL ? null : values[i];
+    }
+
+    // Partition cho grace hash; level khác nhau cho phân bố khác nhau để chia lại partition quá lớn
+    public int partition(int fanout, int level) {
+        int h = hash ^ (level * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, fanout);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RowKey other)) return false;
+        return hash == other.hash && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
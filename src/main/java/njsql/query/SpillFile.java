@@ -0,0 +1,102 @@
+package njsql.query;
+
+import njsql.core.NJSQLConfig;
+import njsql.nson.NsonObject;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * File tạm chứa row đã spill (định dạng RowCodec). Ghi tuần tự, đóng lại rồi đọc tuần tự.
+ * File tự xóa khi close() sau khi đọc, hoặc khi JVM thoát.
+ */
+public final class SpillFile implements Closeable {
+    private final File file;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private RowCodec codec = new RowCodec();
+    private long rowCount;
+    private long bytesWritten;
+
+    public SpillFile(String prefix) throws IOException {
+        Path dir = Paths.get(NJSQLConfig.SPILL_DIR);
+        Files.createDirectories(dir);
+        this.file = Files.createTempFile(dir, prefix, ".spill").toFile();
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+    }
+
+    public void write(NsonObject row) throws IOException {
+        codec.write(out, row);
+        rowCount++;
+    }
+
+    // Chuyển sang chế độ đọc
+    public void finishWriting() throws IOException {
+        if (in != null) return;
+        if (out != null) {
+            bytesWritten = out.size();
+            out.close();
+            out = null;
+        }
+        codec = new RowCodec();
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+    }
+
+    // null khi hết
+    public NsonObject read() throws IOException {
+        if (in == null) finishWriting();
+        return codec.read(in);
+    }
+
+    // Đọc tuần tự từ đầu tới hết, lỗi IO bọc trong UncheckedIOException
+    public Iterator<NsonObject> iterator() {
+        return new Iterator<>() {
+            private NsonObject next = advance();
+
+            private NsonObject advance() {
+                try {
+                    return read();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public NsonObject next() {
+                if (next == null) throw new NoSuchElementException();
+                NsonObject row = next;
+                next = advance();
+                return row;
+            }
+        };
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (out != null) out.close();
+            if (in != null) in.close();
+        } catch (IOException ignored) {
+            // file tạm, lỗi đóng stream không ảnh hưởng kết quả
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,146 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+
+import java.util.Arrays;
+
+/**
+ * Merging t-digest cho APPROX_PERCENTILE: giữ tối đa ~COMPRESSION centroid (mean, weight),
+ * centroid ở hai đuôi nhỏ hơn nên percentile cao/thấp (p99, p1) vẫn chính xác.
+ * Hai digest gộp được bằng cách đưa centroid của bên kia vào buffer rồi nén lại.
+ */
+public final class TDigest {
+    private static final double COMPRESSION = 100;
+    private static final int BUFFER = 500;
+
+    private double[] means = new double[0];
+    private double[] weights = new double[0];
+    private final double[] bufferMeans = new double[BUFFER];
+    private final double[] bufferWeights = new double[BUFFER];
+    private int buffered;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    private void add(double mean, double weight) {
+        if (buffered == BUFFER) compress();
+        bufferMeans[buffered] = mean;
+        bufferWeights[buffered] = weight;
+        buffered++;
+        totalWeight += weight;
+        if (mean < min) min = mean;
+        if (mean > max) max = mean;
+    }
+
+    public void merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.means.length; i++) add(other.means[i], other.weights[i]);
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    public double quantile(double q) {
+        compress();
+        int n = means.length;
+        if (n == 0) return Double.NaN;
+        if (n == 1) return means[0];
+        double index = q * totalWeight;
+        if (index <= weights[0] / 2) {
+            return min + (means[0] - min) * (weights[0] > 1 ? index / (weights[0] / 2) : 0);
+        }
+        double cumulative = weights[0] / 2;
+        for (int i = 0; i < n - 1; i++) {
+            double step = (weights[i] + weights[i + 1]) / 2;
+            if (cumulative + step > index) {
+                return means[i] + (means[i + 1] - means[i]) * (index - cumulative) / step;
+            }
+            cumulative += step;
+        }
+        double lastHalf = weights[n - 1] / 2;
+        if (weights[n - 1] <= 1) return means[n - 1];
+        return means[n - 1] + (max - means[n - 1]) * Math.min(1, (index - cumulative) / lastHalf);
+    }
+
+    public static long sizeInBytes() {
+        return 32L * BUFFER + 32L * (long) COMPRESSION + 64;
+    }
+
+    // Gộp buffer vào danh sách centroid: sắp theo mean, nối centroid kề nhau khi còn nằm trong một bước của hàm k
+    private void compress() {
+        if (buffered == 0) return;
+        int n = means.length + buffered;
+        double[] m = Arrays.copyOf(means, n);
+        double[] w = Arrays.copyOf(weights, n);
+        System.arraycopy(bufferMeans, 0, m, means.length, buffered);
+        System.arraycopy(bufferWeights, 0, w, means.length, buffered);
+        buffered = 0;
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(m[a], m[b]));
+
+        double[] outMeans = new double[n];
+        double[] outWeights = new double[n];
+        int out = 0;
+        double curMean = m[order[0]];
+        double curWeight = w[order[0]];
+        double before = 0;
+        for (int k = 1; k < n; k++) {
+            int i = order[k];
+            double proposed = curWeight + w[i];
+            if (scale((before + proposed) / totalWeight) - scale(before / totalWeight) <= 1) {
+                curMean += (m[i] - curMean) * w[i] / proposed;
+                curWeight = proposed;
+            } else {
+                outMeans[out] = curMean;
+                outWeights[out++] = curWeight;
+                before += curWeight;
+                curMean = m[i];
+                curWeight = w[i];
+            }
+        }
+        outMeans[out] = curMean;
+        outWeights[out++] = curWeight;
+        means = Arrays.copyOf(outMeans, out);
+        weights = Arrays.copyOf(outWeights, out);
+    }
+
+    // Hàm k1 của t-digest: bước nhỏ ở gần q = 0 và q = 1
+    private static double scale(double q) {
+        return COMPRESSION / (2 * Math.PI) * Math.asin(2 * Math.min(1, Math.max(0, q)) - 1);
+    }
+
+    // [min, max, mean0, weight0, mean1, weight1, ...]
+    public NsonArray toNson() {
+        compress();
+        NsonArray arr = new NsonArray();
+        arr.add(means.length > 0 ? min : null);
+        arr.add(means.length > 0 ? max : null);
+        for (int i = 0; i < means.length; i++) {
+            arr.add(means[i]);
+            arr.add(weights[i]);
+        }
+        return arr;
+    }
+
+    public static TDigest fromNson(NsonArray arr) {
+        TDigest digest = new TDigest();
+        int n = (arr.size() - 2) / 2;
+        digest.means = new double[n];
+        digest.weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            digest.means[i] = Values.toDouble(arr.get(2 + 2 * i));
+            digest.weights[i] = Values.toDouble(arr.get(3 + 2 * i));
+            digest.totalWeight += digest.weights[i];
+        }
+        if (n > 0) {
+            digest.min = Values.toDouble(arr.get(0));
+            digest.max = Values.toDouble(arr.get(1));
+        }
+        return digest;
+    }
+}
@@ -0,0 +1,277 @@
+package njsql.query;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import njsql.indexing.RowIndexCache;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Đọc file bảng .nson bằng JsonParser (streaming) thay vì dựng cả cây JsonNode rồi đổi sang NsonObject:
+ * - chỉ decode các cột query dùng tới (projection pushdown), field khác được bỏ qua không tạo object;
+ * - điều kiện "cột op hằng" ở cấp AND ngoài cùng của WHERE được kiểm tra ngay khi đọc tới field đó
+ *   (predicate pushdown): row trượt thì phần còn lại bị bỏ qua và không có NsonObject nào cho row đó.
+ * WHERE vẫn được kiểm tra đầy đủ sau khi đọc, nên pushdown chỉ cần không loại nhầm row (cùng quy tắc so sánh
+ * với SelectHandler.compareValues). Các key khác "data" (_meta, _types, _stats, ...) được đọc nguyên vẹn.
+ * Bảng đọc kiểu này chỉ chứa một phần row/cột: vị trí row không khớp file nên không dùng cho index cache
+ * (index ordered scan, distinct index scan). SelectHandler xem indexedColumns() trước để nạp cả bảng khi
+ * query có thể đi đường index.
+ */
+public final class TableScanner {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    // Hằng phải là một token (số, chữ, hoặc chuỗi trong nháy đơn) để không nuốt nhầm phần còn lại của biểu thức
+    private static final Pattern CONDITION = Pattern.compile(
+            "^([\\w.]+)\\s*(<=|>=|!=|<>|=|<|>)\\s*('[^']*'|[^\\s'()]+)$");
+
+    /** Một điều kiện so sánh với hằng, kiểm tra trên giá trị thô lúc decode. */
+    private static final class Condition {
+        final String op;
+        final String literal;
+        final boolean numeric;
+        final double number;
+
+        Condition(String op, String literal) {
+            this.op = op;
+            this.literal = literal;
+            Double n = parseNumber(literal);
+            this.numeric = n != null;
+            this.number = n != null ? n : 0;
+        }
+
+        boolean test(double v) {
+            // Hằng không phải số thì không bao giờ bằng chuỗi của một số
+            if (!numeric) return op.equals("!=") || op.equals("<>");
+            return switch (op) {
+                case "=" -> v == number;
+                case "!=", "<>" -> v != number;
+                case ">" -> v > number;
+                case "<" -> v < number;
+                case ">=" -> v >= number;
+                case "<=" -> v <= number;
+                default -> true;
+            };
+        }
+
+        boolean test(String s) {
+            if (numeric) {
+                Double n = parseNumber(s);
+                if (n != null) return test((double) n);
+            }
+            return switch (op) {
+                case "=" -> s.equals(literal);
+                case "!=", "<>" -> !s.equals(literal);
+                default -> false;
+            };
+        }
+    }
+
+    // Cột có index theo file (đổi mtime/kích thước thì đọc lại). Chỉ là gợi ý chọn đọc một phần hay cả bảng:
+    // cũ cũng không làm sai kết quả
+    private record IndexedColumns(long modified, long length, Set<String> columns) {}
+    private static final Map<String, IndexedColumns> indexedByFile = new java.util.concurrent.ConcurrentHashMap<>();
+
+    private final Set<String> columns;                  // null = mọi cột
+    private final Map<String, List<Condition>> conditions = new HashMap<>();
+    private long rowsScanned;
+    private long rowsKept;
+
+    /**
+     * columns: tên cột (không kèm alias) cần decode, null = tất cả. whereClause: WHERE của query, chỉ phần
+     * điều kiện đơn giản nối bằng AND được đẩy xuống; có OR ở cấp ngoài cùng thì không đẩy gì.
+     */
+    public TableScanner(Set<String> columns, String whereClause) {
+        this.columns = columns;
+        if (whereClause == null || whereClause.isBlank()) return;
+        for (String conjunct : QueryPlanner.conjuncts(whereClause)) {
+            Matcher m = CONDITION.matcher(conjunct.trim());
+            if (!m.find()) continue;
+            String col = m.group(1);
+            col = col.substring(col.lastIndexOf('.') + 1);
+            String literal = m.group(3);
+            if (literal.startsWith("'") && literal.endsWith("'")) literal = literal.substring(1, literal.length() - 1);
+            conditions.computeIfAbsent(col, k -> new ArrayList<>()).add(new Condition(m.group(2), literal));
+        }
+    }
+
+    public boolean hasPushdown() {
+        return columns != null || !conditions.isEmpty();
+    }
+
+    public long rowsScanned() {
+        return rowsScanned;
+    }
+
+    public long rowsKept() {
+        return rowsKept;
+    }
+
+    public String describe() {
+        List<String> parts = new ArrayList<>();
+        if (columns != null) parts.add("columns: " + String.join(", ", columns));
+        if (!conditions.isEmpty()) {
+            List<String> conds = new ArrayList<>();
+            conditions.forEach((col, list) -> list.forEach(c -> conds.add(col + " " + c.op + " " + c.literal)));
+            parts.add("pushdown: " + String.join(" AND ", conds));
+        }
+        return String.join("; ", parts);
+    }
+
+    /** Cột có index khai báo trong file bảng (_meta, _indexes); mảng "data" được bỏ qua không decode. */
+    public static Set<String> indexedColumns(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long modified = file.lastModified();
+        long length = file.length();
+        IndexedColumns cached = indexedByFile.get(key);
+        if (cached != null && cached.modified == modified && cached.length == length) return cached.columns;
+
+        NsonObject meta = new NsonObject();
+        try (JsonParser p = FACTORY.createParser(file)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Invalid table file: " + file.getName());
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                p.nextToken();
+                if (name.equals("data")) p.skipChildren();
+                else meta.put(name, readValue(p));
+            }
+        }
+        Set<String> columns = RowIndexCache.indexedColumns(meta);
+        indexedByFile.put(key, new IndexedColumns(modified, length, columns));
+        return columns;
+    }
+
+    public NsonObject read(File file) throws IOException {
+        rowsScanned = 0; // đọc lại được (SELECT đọc lạc quan bị writer xen vào)
+        NsonObject table = new NsonObject();
+        try (JsonParser p = FACTORY.createParser(file)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Invalid table file: " + file.getName());
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String key = p.currentName();
+                JsonToken t = p.nextToken();
+                if (key.equals("data") && t == JsonToken.START_ARRAY) table.put("data", readRows(p));
+                else table.put(key, readValue(p));
+            }
+        }
+        return table;
+    }
+
+    private NsonArray readRows(JsonParser p) throws IOException {
+        NsonArray rows = new NsonArray();
+        int required = conditions.size();
+        NsonObject row = new NsonObject();
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (t != JsonToken.START_OBJECT) {
+                p.skipChildren(); // row null/không phải object: không thỏa được điều kiện nào
+                continue;
+            }
+            rowsScanned++;
+            boolean rejected = false;
+            int satisfied = 0;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken vt = p.nextToken();
+                if (rejected) {
+                    p.skipChildren();
+                    continue;
+                }
+                List<Condition> conds = conditions.get(field);
+                if (conds != null) {
+                    if (!matches(p, vt, conds)) {
+                        rejected = true;
+                        p.skipChildren();
+                        continue;
+                    }
+                    satisfied++;
+                }
+                if (columns == null || columns.contains(field)) row.put(field, readValue(p));
+                else p.skipChildren();
+            }
+            // Thiếu cột có điều kiện = NULL -> điều kiện sai
+            if (rejected || satisfied < required) {
+                row.clear();
+                continue;
+            }
+            rows.add(row);
+            rowsKept++;
+            row = new NsonObject();
+        }
+        return rows;
+    }
+
+    // Kiểm tra điều kiện trên token hiện tại; số được so sánh thẳng, không tạo object
+    private static boolean matches(JsonParser p, JsonToken t, List<Condition> conds) throws IOException {
+        switch (t) {
+            case VALUE_NULL -> {
+                return false;
+            }
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> {
+                double v = p.getDoubleValue();
+                for (Condition c : conds) if (!c.test(v)) return false;
+                return true;
+            }
+            case VALUE_STRING, VALUE_TRUE, VALUE_FALSE -> {
+                String s = p.getText();
+                for (Condition c : conds) if (!c.test(s)) return false;
+                return true;
+            }
+            default -> {
+                return true; // object/array lồng nhau: để WHERE đầy đủ quyết định
+            }
+        }
+    }
+
+    // Cùng quy ước kiểu với NsonObject.parse: số nguyên -> Long, số thực -> Double
+    private static Object readValue(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        switch (t) {
+            case START_OBJECT -> {
+                NsonObject obj = new NsonObject();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = p.currentName();
+                    p.nextToken();
+                    obj.put(key, readValue(p));
+                }
+                return obj;
+            }
+            case START_ARRAY -> {
+                NsonArray arr = new NsonArray();
+                while (p.nextToken() != JsonToken.END_ARRAY) arr.add(readValue(p));
+                return arr;
+            }
+            case VALUE_STRING -> {
+                return p.getText();
+            }
+            case VALUE_NUMBER_INT -> {
+                return p.getNumberType() == JsonParser.NumberType.BIG_INTEGER ? p.getBigIntegerValue().longValue() : p.getLongValue();
+            }
+            case VALUE_NUMBER_FLOAT -> {
+                return p.getDoubleValue();
+            }
+            case VALUE_TRUE -> {
+                return Boolean.TRUE;
+            }
+            case VALUE_FALSE -> {
+                return Boolean.FALSE;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static Double parseNumber(String s) {
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package njsql.query;
+
+import njsql.core.NJSQLConfig;
+import njsql.nson.NsonArray;
+import njsql.nson.NsonObject;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Thống kê của một bảng, lưu trong file bảng dưới key "_stats" (cạnh "_meta"):
+ * { row_count, modified_rows, analyzed_at, columns: { col: ColumnStats } }.
+ * modified_rows đếm số row bị INSERT/UPDATE/DELETE từ lần ANALYZE gần nhất (dùng cho auto-analyze).
+ */
+public final class TableStats {
+    public final long rowCount;
+    public final long modifiedRows;
+    public final String analyzedAt;
+    private final Map<String, ColumnStats> columns;
+
+    private TableStats(long rowCount, long modifiedRows, String analyzedAt, Map<String, ColumnStats> columns) {
+        this.rowCount = rowCount;
+        this.modifiedRows = modifiedRows;
+        this.analyzedAt = analyzedAt;
+        this.columns = columns;
+    }
+
+    public ColumnStats column(String name) {
+        return columns.get(name);
+    }
+
+    public Set<String> columnNames() {
+        return columns.keySet();
+    }
+
+    /**
+     * Quét toàn bảng để đếm NULL và distinct; histogram lấy từ mẫu ngẫu nhiên tối đa STATS_SAMPLE_ROWS row.
+     */
+    public static TableStats collect(NsonArray data, Collection<String> columnNames) {
+        int n = data.size();
+        int[] sample = sampleIndexes(n, NJSQLConfig.STATS_SAMPLE_ROWS);
+
+        Map<String, ColumnStats> cols = new LinkedHashMap<>();
+        for (String col : columnNames) {
+            long nulls = 0;
+            Set<Object> distinct = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                NsonObject row = data.getObject(i);
+                Object v = row == null ? null : row.get(col);
+                if (v == null) nulls++;
+                else distinct.add(Values.normalize(v));
+            }
+
+            List<Object> values = new ArrayList<>(sample.length);
+            for (int i : sample) {
+                NsonObject row = data.getObject(i);
+                Object v = row == null ? null : row.get(col);
+                if (v != null) values.add(Values.normalize(v));
+            }
+            values.sort(Values::compare);
+
+            cols.put(col, new ColumnStats(distinct.size(), n == 0 ? 0 : (double) nulls / n,
+                    histogram(values, NJSQLConfig.STATS_HISTOGRAM_BUCKETS)));
+        }
+        return new TableStats(n, 0, Instant.now().toString(), cols);
+    }
+
+    // Biên equi-depth từ danh sách đã sort
+    private static List<Object> histogram(List<Object> sorted, int buckets) {
+        List<Object> bounds = new ArrayList<>();
+        if (sorted.isEmpty()) return bounds;
+        int b = Math.max(1, Math.min(buckets, sorted.size() - 1));
+        for (int i = 0; i <= b; i++) {
+            bounds.add(sorted.get((int) ((long) i * (sorted.size() - 1) / b)));
+        }
+        return bounds;
+    }
+
+    // Reservoir sampling với seed cố định để ANALYZE lặp lại cho cùng kết quả
+    private static int[] sampleIndexes(int n, int max) {
+        if (n <= max) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) all[i] = i;
+            return all;
+        }
+        int[] reservoir = new int[max];
+        for (int i = 0; i < max; i++) reservoir[i] = i;
+        Random random = new Random(42);
+        for (int i = max; i < n; i++) {
+            int j = random.nextInt(i + 1);
+            if (j < max) reservoir[j] = i;
+        }
+        Arrays.sort(reservoir);
+        return reservoir;
+    }
+
+    public NsonObject toNson() {
+        NsonObject cols = new NsonObject();
+        for (Map.Entry<String, ColumnStats> e : columns.entrySet()) cols.put(e.getKey(), e.getValue().toNson());
+        return new NsonObject()
+                .put("row_count", rowCount)
+                .put("modified_rows", modifiedRows)
+                .put("analyzed_at", analyzedAt)
+                .put("columns", cols);
+    }
+
+    // null nếu bảng chưa từng ANALYZE
+    public static TableStats of(NsonObject tableObj) {
+        NsonObject stats = tableObj.getObject("_stats");
+        if (stats == null) return null;
+        Map<String, ColumnStats> cols = new LinkedHashMap<>();
+        NsonObject colsObj = stats.getObject("columns");
+        if (colsObj != null) {
+            for (String col : colsObj.keySet()) cols.put(col, ColumnStats.fromNson(colsObj.getObject(col)));
+        }
+        double modified = Values.toDouble(stats.get("modified_rows"));
+        return new TableStats((long) Values.toDouble(stats.get("row_count")),
+                Double.isNaN(modified) ? 0 : (long) modified, stats.getString("analyzed_at"), cols);
+    }
+}
@@ -0,0 +1,45 @@
+package njsql.query;
+
+import njsql.core.TableLockManager;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Số version tăng dần của từng bảng, key theo file bảng (TableLockManager.fileKey, cùng quy ước với khóa bảng):
+ * bảng cùng tên db.table của hai tenant có version riêng. Mọi lệnh ghi (INSERT/UPDATE/DELETE/ALTER/CREATE/ANALYZE,
+ * bảng realtime, COMMIT) gọi bump(); thao tác thay cả database (approve commit, clone) gọi bumpDatabase().
+ * Chỉ sống trong RAM, đủ cho các cache cũng nằm trong RAM.
+ */
+public final class TableVersions {
+    private static final Map<String, AtomicLong> tables = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> databases = new ConcurrentHashMap<>();
+
+    private TableVersions() {}
+
+    public static long bump(File tableFile) {
+        return tables.computeIfAbsent(TableLockManager.fileKey(tableFile), k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public static long bump(String username, String db, String table) {
+        return bump(new File(TableLockManager.fileKey(username, db, table)));
+    }
+
+    public static void bumpDatabase(File dbDir) {
+        databases.computeIfAbsent(TableLockManager.fileKey(dbDir), k -> new AtomicLong()).incrementAndGet();
+    }
+
+    // Tổng hai bộ đếm (cùng tăng dần) nên đổi bảng hay đổi cả database đều làm version tăng
+    public static long version(File tableFile) {
+        String key = TableLockManager.fileKey(tableFile);
+        AtomicLong t = tables.get(key);
+        AtomicLong d = databases.get(TableLockManager.fileKey(new File(key).getParentFile()));
+        return (t != null ? t.get() : 0) + (d != null ? d.get() : 0);
+    }
+
+    public static long version(String username, String db, String table) {
+        return version(new File(TableLockManager.fileKey(username, db, table)));
+    }
+}
@@ -0,0 +1,66 @@
+package njsql.query;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Biểu thức nhóm theo thời gian: DATE_TRUNC('hour' | 'day' | 'month', cột). Giá trị datetime lưu dạng ISO-8601
+ * (2024-02-11T10:00:00Z) nên cắt theo tiền tố: giờ = 13 ký tự, ngày = 10, tháng = 7.
+ * GROUP BY created_at (rule cũ) tương đương DATE_TRUNC('day', created_at).
+ */
+public final class TimeBucket {
+    public enum Unit {
+        HOUR(13), DAY(10), MONTH(7);
+
+        final int length;
+
+        Unit(int length) {
+            this.length = length;
+        }
+    }
+
+    private static final Pattern CALL = Pattern.compile(
+            "^DATE_TRUNC\\s*\\(\\s*'(HOUR|DAY|MONTH)'\\s*,\\s*([\\w.]+)\\s*\\)$", Pattern.CASE_INSENSITIVE);
+    // Cột GROUP BY được tra cho mỗi row: nhớ kết quả parse theo chuỗi biểu thức
+    private static final Map<String, TimeBucket> PARSED = new ConcurrentHashMap<>();
+    private static final TimeBucket NONE = new TimeBucket(null, null);
+
+    public final String column;
+    public final Unit unit;
+
+    public TimeBucket(String column, Unit unit) {
+        this.column = column;
+        this.unit = unit;
+    }
+
+    /** null nếu expr không phải DATE_TRUNC(...). */
+    public static TimeBucket parse(String expr) {
+        if (expr.indexOf('(') < 0) return null;
+        TimeBucket b = PARSED.computeIfAbsent(expr, e -> {
+            Matcher m = CALL.matcher(e.trim());
+            return m.find() ? new TimeBucket(m.group(2), Unit.valueOf(m.group(1).toUpperCase())) : NONE;
+        });
+        return b == NONE ? null : b;
+    }
+
+    /** Bucket mà GROUP BY expr dùng: DATE_TRUNC(...) hoặc created_at (theo ngày), còn lại null. */
+    public static TimeBucket ofGroupBy(String expr) {
+        TimeBucket b = parse(expr);
+        if (b != null) return b;
+        String col = expr.substring(expr.lastIndexOf('.') + 1);
+        return col.equals("created_at") ? new TimeBucket(expr, Unit.DAY) : null;
+    }
+
+    public Object truncate(Object value) {
+        if (value == null) return null;
+        String s = value.toString();
+        return s.length() >= unit.length ? s.substring(0, unit.length) : s;
+    }
+
+    // Dạng chuẩn, dùng làm tên cột group và để so khớp với rollup
+    public String canonical() {
+        return "DATE_TRUNC('" + unit.name().toLowerCase() + "', " + column + ")";
+    }
+}
@@ -0,0 +1,109 @@
+package njsql.query;
+
+import njsql.nson.NsonObject;
+
+import java.util.Map;
+
+/**
+ * Typed value helpers dùng chung cho các operator (aggregate, sort, join, distinct).
+ * Giá trị trong NsonObject có thể là Integer/Long/Double/String/Boolean tùy đường nạp (file hay RAM),
+ * nên mọi so sánh đều đi qua đây để thống nhất kiểu.
+ */
+public final class Values {
+
+    private Values() {}
+
+    // Lấy giá trị cột, hỗ trợ cả tên dạng "table.column"
+    public static Object resolve(NsonObject row, String col) {
+        if (row.containsKey(col)) return row.get(col);
+        int dot = col.lastIndexOf('.');
+        if (dot >= 0) {
+            String shortCol = col.substring(dot + 1);
+            if (row.containsKey(shortCol)) return row.get(shortCol);
+            return null;
+        }
+        // Row sau JOIN có key "alias.column": cho phép gọi tên cột không kèm alias
+        String suffix = "." + col;
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            if (e.getKey().endsWith(suffix)) return e.getValue();
+        }
+        return null;
+    }
+
+    public static boolean isNumeric(Object v) {
+        if (v instanceof Number) return true;
+        if (v == null) return false;
+        return !Double.isNaN(parseDouble(v.toString()));
+    }
+
+    // NaN nếu không phải số
+    public static double toDouble(Object v) {
+        if (v instanceof Number n) return n.doubleValue();
+        if (v == null) return Double.NaN;
+        return parseDouble(v.toString());
+    }
+
+    private static double parseDouble(String s) {
+        if (s.isEmpty()) return Double.NaN;
+        char c = s.charAt(0);
+        if (!(Character.isDigit(c) || c == '-' || c == '+' || c == '.')) return Double.NaN;
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Chuẩn hóa giá trị để làm key cho hash (group, join, distinct):
+     * số nguyên -> Long, số thực nguyên giá trị -> Long, còn lại giữ nguyên.
+     */
+    public static Object normalize(Object v) {
+        if (v == null || v instanceof String || v instanceof Boolean) return v;
+        if (v instanceof Long) return v;
+        if (v instanceof Integer || v instanceof Short || v instanceof Byte) return ((Number) v).longValue();
+        if (v instanceof Number n) {
+            double d = n.doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 9.0E15) return (long) d;
+            return d;
+        }
+        return v.toString();
+    }
+
+    /**
+     * Key cho hash join, bằng nhau đúng khi Values.compare trả 0 (cùng quy ước với index nested-loop join và WHERE):
+     * số và chuỗi số -> số đã chuẩn hóa ("5", 5, 5.0 cùng key), còn lại so theo chuỗi (true và "true" cùng key).
+     */
+    public static Object joinKey(Object v) {
+        if (v == null || v instanceof Number) return normalize(v);
+        String s = v.toString();
+        double d = parseDouble(s);
+        if (Double.isNaN(d)) return s;
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return normalize(d);
+        }
+    }
+
+    /**
+     * So sánh có kiểu: null đứng đầu, hai số so theo giá trị, còn lại so chuỗi.
+     */
+    public static int compare(Object a, Object b) {
+        if (a == b) return 0;
+        if (a == null) return -1;
+        if (b == null) return 1;
+        if (a instanceof Number && b instanceof Number) {
+            if (isIntegral(a) && isIntegral(b)) return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        double d1 = toDouble(a);
+        double d2 = toDouble(b);
+        if (!Double.isNaN(d1) && !Double.isNaN(d2)) return Double.compare(d1, d2);
+        return a.toString().compareTo(b.toString());
+    }
+
+    private static boolean isIntegral(Object v) {
+        return v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte;
+    }
+}
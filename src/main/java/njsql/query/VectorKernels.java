@@ -0,0 +1,104 @@
+package njsql.query;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel SIMD trên cột double[] của ColumnBatch (jdk.incubator.vector): so sánh ra mask cho filter,
+ * cộng/min/max có mask cho aggregate. Phần đuôi không đủ một vector chạy vòng lặp thường.
+ * Chỉ được nạp khi module có mặt (VectorizedAggregate.SUPPORTED).
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {}
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    // selection[i] &= present[i] && values[i] op literal (NaN: chỉ != là đúng, giống so sánh chuỗi với hằng số)
+    static void filter(double[] values, boolean[] present, boolean[] selection, int n, String op, double literal) {
+        VectorOperators.Comparison cmp = switch (op) {
+            case "=" -> VectorOperators.EQ;
+            case "!=", "<>" -> VectorOperators.NE;
+            case ">" -> VectorOperators.GT;
+            case "<" -> VectorOperators.LT;
+            case ">=" -> VectorOperators.GE;
+            default -> VectorOperators.LE;
+        };
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            VectorMask<Double> m = DoubleVector.fromArray(SPECIES, values, i).compare(cmp, literal)
+                    .and(VectorMask.fromArray(SPECIES, present, i))
+                    .and(VectorMask.fromArray(SPECIES, selection, i));
+            m.intoArray(selection, i);
+        }
+        for (; i < n; i++) {
+            double v = values[i];
+            boolean hit = switch (op) {
+                case "=" -> v == literal;
+                case "!=", "<>" -> v != literal;
+                case ">" -> v > literal;
+                case "<" -> v < literal;
+                case ">=" -> v >= literal;
+                default -> v <= literal;
+            };
+            selection[i] = selection[i] && present[i] && hit;
+        }
+    }
+
+    static long countSelected(boolean[] selection, int n) {
+        long count = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            count += VectorMask.fromArray(SPECIES, selection, i).trueCount();
+        }
+        for (; i < n; i++) if (selection[i]) count++;
+        return count;
+    }
+
+    // Cộng các row được chọn của một cột vào state: COUNT(col) theo present, SUM/MIN/MAX theo giá trị số
+    static void accumulate(double[] values, boolean[] present, boolean[] selection, int n, AggState state) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        DoubleVector min = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector max = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        long rows = 0, nonNull = 0, numeric = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            VectorMask<Double> selected = VectorMask.fromArray(SPECIES, selection, i);
+            VectorMask<Double> notNull = selected.and(VectorMask.fromArray(SPECIES, present, i));
+            DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+            VectorMask<Double> number = notNull.and(v.compare(VectorOperators.EQ, v)); // bỏ NaN
+            sum = sum.add(v, number);
+            min = min.lanewise(VectorOperators.MIN, v, number);
+            max = max.lanewise(VectorOperators.MAX, v, number);
+            rows += selected.trueCount();
+            nonNull += notNull.trueCount();
+            numeric += number.trueCount();
+        }
+        double s = sum.reduceLanes(VectorOperators.ADD);
+        double lo = min.reduceLanes(VectorOperators.MIN);
+        double hi = max.reduceLanes(VectorOperators.MAX);
+        for (; i < n; i++) {
+            if (!selection[i]) continue;
+            rows++;
+            if (!present[i]) continue;
+            nonNull++;
+            double v = values[i];
+            if (Double.isNaN(v)) continue;
+            numeric++;
+            s += v;
+            if (v < lo) lo = v;
+            if (v > hi) hi = v;
+        }
+        state.rows += rows;
+        state.nonNull += nonNull;
+        state.numeric += numeric;
+        state.sum += s;
+        if (lo < state.min) state.min = lo;
+        if (hi > state.max) state.max = hi;
+    }
+}
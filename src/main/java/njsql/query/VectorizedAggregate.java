@@ -0,0 +1,100 @@
+package njsql.query;
+
+import njsql.nson.NsonArray;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregate không GROUP BY chạy theo lô cột (ColumnBatch) với kernel SIMD thay vì từng row qua Object:
+ * WHERE là các điều kiện "cột op số" nối bằng AND -> mỗi điều kiện là một lượt so sánh vector vào selection,
+ * COUNT/SUM/AVG/MIN/MAX -> cộng/min/max có mask. Query không đủ điều kiện thì compile() trả null
+ * và SelectHandler chạy đường row-at-a-time như cũ.
+ */
+public final class VectorizedAggregate {
+    // JVM chạy không có --add-modules jdk.incubator.vector thì không dùng đường này
+    public static final boolean SUPPORTED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private static final Pattern CONDITION = Pattern.compile(
+            "^([\\w.]+)\\s*(<=|>=|!=|<>|=|<|>)\\s*([-+]?(?:\\d+\\.?\\d*|\\.\\d+)(?:[eE][-+]?\\d+)?)$");
+
+    private record Condition(int column, String op, double literal) {}
+
+    private final List<AggregateSpec> aggregates;
+    private final List<String> columns = new ArrayList<>();
+    private final List<Condition> conditions = new ArrayList<>();
+    private final int[] aggColumn;  // cột của từng aggregate trong batch, -1 = COUNT(*)
+
+    private VectorizedAggregate(List<AggregateSpec> aggregates) {
+        this.aggregates = aggregates;
+        this.aggColumn = new int[aggregates.size()];
+    }
+
+    /** null nếu có aggregate hoặc điều kiện WHERE nào không chạy được bằng kernel vector. */
+    public static VectorizedAggregate compile(String whereClause, List<AggregateSpec> aggregates) {
+        if (!SUPPORTED || aggregates.isEmpty()) return null;
+        VectorizedAggregate v = new VectorizedAggregate(aggregates);
+        for (int i = 0; i < aggregates.size(); i++) {
+            AggregateSpec spec = aggregates.get(i);
+            if (spec.distinct) return null;
+            switch (spec.function) {
+                case "COUNT", "SUM", "AVG", "MIN", "MAX" -> { }
+                default -> { return null; }
+            }
+            v.aggColumn[i] = spec.isCountStar() ? -1 : v.column(spec.column);
+        }
+        if (whereClause != null && !whereClause.isBlank()) {
+            List<String> parts = QueryPlanner.conjuncts(whereClause);
+            if (parts.isEmpty()) return null; // OR ở cấp ngoài cùng
+            for (String conjunct : parts) {
+                Matcher m = CONDITION.matcher(conjunct.trim());
+                if (!m.find()) return null;
+                v.conditions.add(new Condition(v.column(m.group(1)), m.group(2), Double.parseDouble(m.group(3))));
+            }
+        }
+        return v;
+    }
+
+    /** Lọc + aggregate cả rows theo từng lô batchSize row (kiểm tra hủy mỗi lô); trả một AggState cho mỗi aggregate. */
+    public AggState[] run(NsonArray rows, int batchSize, QueryContext ctx) {
+        Map<Integer, AggState> byColumn = new LinkedHashMap<>();
+        for (int col : aggColumn) byColumn.computeIfAbsent(col, k -> new AggState());
+        ColumnBatch batch = new ColumnBatch(columns, Math.max(VectorKernels.lanes(), batchSize));
+        for (int from = 0; from < rows.size(); from += batch.capacity()) {
+            int to = Math.min(rows.size(), from + batch.capacity());
+            ctx.checkCancelled(to - from); // chỉ chạy trên bảng đơn (không JOIN): row đầu vào là row đã đọc của bảng
+            batch.reset(rows, from, to);
+            for (Condition c : conditions) {
+                batch.load(c.column);
+                VectorKernels.filter(batch.values[c.column], batch.present[c.column], batch.selection, batch.size, c.op, c.literal);
+            }
+            for (Map.Entry<Integer, AggState> e : byColumn.entrySet()) {
+                int col = e.getKey();
+                if (col < 0) {
+                    e.getValue().rows += VectorKernels.countSelected(batch.selection, batch.size);
+                    continue;
+                }
+                batch.load(col);
+                VectorKernels.accumulate(batch.values[col], batch.present[col], batch.selection, batch.size, e.getValue());
+            }
+        }
+        AggState[] states = new AggState[aggregates.size()];
+        for (int i = 0; i < states.length; i++) states[i] = byColumn.get(aggColumn[i]);
+        return states;
+    }
+
+    public String describe(int batchSize) {
+        return "columns: " + String.join(", ", columns) + "; batch: " + batchSize + " rows, " + VectorKernels.lanes() + " lanes";
+    }
+
+    private int column(String name) {
+        int i = columns.indexOf(name);
+        if (i >= 0) return i;
+        columns.add(name);
+        return columns.size() - 1;
+    }
+}
@@ -3,13 +3,26 @@ package njsql.server;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import njsql.core.AnalyzeHandler;
+import njsql.core.CursorManager;
+import njsql.core.NJSQLConfig;
+import njsql.core.QueryManager;
+import njsql.core.QuotaManager;
 import njsql.core.SelectHandler;
 import njsql.core.InsertHandler;
+import njsql.core.MaterializedViewManager;
+import njsql.core.RollupManager;
 import njsql.core.DeleteHandler;
 import njsql.core.UpdateHandler;
-import njsql.core.UserManager;
+import njsql.core.SessionTokens;
+import njsql.core.SetHandler;
+import njsql.core.TableLockManager;
+import njsql.core.TableWriter;
+import njsql.core.TransactionManager;
+import njsql.core.WorkloadScheduler;
 import njsql.models.User;
 import njsql.nson.NsonObject;
+import njsql.query.ResultCache;
 
 // --- [TẠM KHÓA gRPC ĐỂ FIX LỖI NoClassDefFoundError] ---
 // import io.grpc.Server;
@@ -22,6 +35,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
 
 public class NJSQLServer {
@@ -32,11 +47,16 @@ public class NJSQLServer {
         try {
             // --- 1. REST Server (Cái này quan trọng cho Web Demo) ---
             int restPort = 2801;
-            HttpServer httpServer = HttpServer.create(new InetSocketAddress("0.0.0.0", restPort), 0);
-            httpServer.createContext("/query", new NsonFileHandler(logger));
-            httpServer.setExecutor(null);
+            HttpServer httpServer = HttpServer.create(new InetSocketAddress("0.0.0.0", restPort), NJSQLConfig.SERVER_BACKLOG);
+            // /login và /query dùng chung giới hạn request đồng thời
+            Semaphore permits = ServerExecutors.requestPermits();
+            httpServer.createContext("/login", ServerExecutors.limit(new LoginHandler(logger), permits, NJSQLConfig.SERVER_MAX_BODY_BYTES));
+            httpServer.createContext("/query", ServerExecutors.limit(new NsonFileHandler(logger), permits, NJSQLConfig.SERVER_MAX_BODY_BYTES));
+            // Mỗi request một thread riêng: query chậm trên bảng này không chặn request tới bảng khác
+            ExecutorService executor = ServerExecutors.newExecutor("njsql-rest");
+            httpServer.setExecutor(executor);
             httpServer.start();
-            logger.accept("\u001B[36m[REST] Server running on http://0.0.0.0:" + restPort + "\u001B[0m");
+            logger.accept("\u001B[36m[REST] Server running on http://0.0.0.0:" + restPort + " (" + ServerExecutors.describe() + ")\u001B[0m");
 
             /* --- 2. gRPC Server (Tạm khóa vì thiếu thư viện) ---
             int grpcPort = 50051;
@@ -50,7 +70,7 @@ public class NJSQLServer {
             // Shutdown hook
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 logger.accept("\u001B[33mShutting down servers...\u001B[0m");
-                httpServer.stop(0);
+                ServerExecutors.shutdown(httpServer, executor, 1);
                 /*
                 if (grpcServer != null) {
                     grpcServer.shutdown();
@@ -95,14 +115,15 @@ public class NJSQLServer {
                 // logger.accept("> Body: " + body);
 
                 NsonObject request = NsonObject.parse(body);
-                String username = request.getString("username");
                 String password = request.getString("password");
                 String database = request.getString("database");
                 String sql = request.getString("sql");
 
-                NsonObject authResult = UserManager.checkLogin(username, password);
-                if (!authResult.getBoolean("success")) {
-                    sendError(exchange, 401, "Invalid username or password", logger);
+                // Token từ /login (body "token" hoặc header Authorization: Bearer) thay cho password
+                String token = request.containsKey("token") ? request.getString("token") : bearerToken(exchange);
+                String username = SessionTokens.authenticate(token, request.getString("username"), password);
+                if (username == null) {
+                    sendError(exchange, 401, token != null ? "Invalid or expired token" : "Invalid username or password", logger);
                     return;
                 }
 
@@ -113,21 +134,55 @@ public class NJSQLServer {
                     return;
                 }
 
-                User user = new User(username, password, "localhost", 2801);
+                User user = new User(username, password != null ? password : "", "localhost", 2801);
                 user.setCurrentDatabase(database);
+                MaterializedViewManager.ensureLoaded("njsql_data/" + username);
+                RollupManager.ensureLoaded("njsql_data/" + username);
+                // Biến session gửi kèm request: giá trị sai (parallelism, lock_timeout, statement_timeout,
+                // workload_class) là lỗi của client nên trả 400 thay vì 500
+                try {
+                    if (request.containsKey("parallelism")) {
+                        SetHandler.handle("SET parallelism = " + request.getString("parallelism"), user);
+                    }
+                    if (request.containsKey("cache")) {
+                        SetHandler.handle("SET result_cache = " + request.get("cache"), user);
+                    }
+                    if (request.containsKey("lock_timeout")) {
+                        SetHandler.handle("SET lock_timeout = " + request.get("lock_timeout"), user);
+                    }
+                    // Hạn chót cho SELECT của request này (vd: 5000, "5s"), quá hạn thì query bị hủy
+                    if (request.containsKey("statement_timeout")) {
+                        SetHandler.handle("SET statement_timeout = " + request.get("statement_timeout"), user);
+                    }
+                    // Transaction theo session: BEGIN trả transaction_id, các request sau gửi kèm tới COMMIT/ROLLBACK
+                    if (request.containsKey("transaction_id")) {
+                        user.setTransactionId(request.getString("transaction_id"));
+                    }
 
+                    // Lớp tải của request (interactive/analytic/...), mặc định theo SET hoặc users.nson của user
+                    if (request.containsKey("workload_class")) {
+                        SetHandler.handle("SET workload_class = " + request.get("workload_class"), user);
+                    }
+                } catch (IllegalArgumentException e) {
+                    sendError(exchange, 400, e.getMessage(), logger);
+                    return;
+                }
+                // Hạn mức của user (max_qps, max_concurrent): vượt thì trả 429, SHOW/KILL không bị tính
                 NsonObject response;
-                String upperSql = sql.trim().toUpperCase();
-                if (upperSql.startsWith("SELECT")) {
-                    response = SelectHandler.handleForAPI(sql, user);
-                } else if (upperSql.startsWith("INSERT")) {
-                    response = InsertHandler.handleForAPI(sql, user);
-                } else if (upperSql.startsWith("DELETE")) {
-                    response = DeleteHandler.handleForAPI(sql, user);
-                } else if (upperSql.startsWith("UPDATE")) {
-                    response = UpdateHandler.handleForAPI(sql, user);
+                if (WorkloadScheduler.bypasses(sql)) {
+                    response = execute(request, sql, user);
                 } else {
-                    sendError(exchange, 400, "Only SELECT, INSERT, DELETE, UPDATE are supported", logger);
+                    try (QuotaManager.Ticket ignored = QuotaManager.enter(username)) {
+                        response = WorkloadScheduler.run(WorkloadScheduler.classOf(user), () -> execute(request, sql, user));
+                    } catch (QuotaManager.QuotaExceededException e) {
+                        exchange.getResponseHeaders().set("Retry-After", "1");
+                        sendError(exchange, 429, e.getMessage(), logger);
+                        return;
+                    }
+                }
+                if (response == null) {
+                    sendError(exchange, 400, "Only SELECT, INSERT, DELETE, UPDATE, ANALYZE, EXPLAIN, SHOW CACHE, SHOW LOCKS, SHOW MAILBOXES, SHOW QUERIES, SHOW QUOTAS, SHOW WORKLOADS, KILL, MATERIALIZED VIEW, ROLLUP, "
+                            + "DECLARE/FETCH/CLOSE, BEGIN/COMMIT/ROLLBACK are supported", logger);
                     return;
                 }
 
@@ -146,7 +201,58 @@ public class NJSQLServer {
             }
         }
 
-        private void sendResponse(HttpExchange exchange, int statusCode, String responseBody, Consumer<String> logger) throws IOException {
+        // Chạy một câu lệnh trong suất của lớp tải; null = lệnh không được hỗ trợ qua API
+        static NsonObject execute(NsonObject request, String sql, User user) throws Exception {
+            // Phân trang bằng cursor: page_size mở cursor cho SELECT, cursor_id lấy trang kế tiếp
+            int pageSize = request.optInt("page_size", NJSQLConfig.CURSOR_DEFAULT_FETCH);
+            String upperSql = sql != null ? sql.trim().toUpperCase() : "";
+            if (request.containsKey("cursor_id")) {
+                return CursorManager.fetch(request.getString("cursor_id"), user, pageSize);
+            } else if (upperSql.startsWith("SELECT") && request.containsKey("page_size")) {
+                return CursorManager.openForAPI(sql, user, pageSize);
+            } else if (TransactionManager.isTransactionControl(upperSql)) {
+                return TransactionManager.handleForAPI(sql, user);
+            } else if (upperSql.startsWith("SELECT") || upperSql.startsWith("EXPLAIN")) {
+                return SelectHandler.handleForAPI(sql, user);
+            } else if (upperSql.startsWith("INSERT")) {
+                return InsertHandler.handleForAPI(sql, user);
+            } else if (upperSql.startsWith("DELETE")) {
+                return DeleteHandler.handleForAPI(sql, user);
+            } else if (upperSql.startsWith("UPDATE")) {
+                return UpdateHandler.handleForAPI(sql, user);
+            } else if (upperSql.startsWith("ANALYZE")) {
+                return AnalyzeHandler.handleForAPI(sql, user);
+            } else if (upperSql.startsWith("SHOW CACHE")) {
+                return ResultCache.showForAPI();
+            } else if (upperSql.startsWith("SHOW LOCKS")) {
+                return TableLockManager.showForAPI(user);
+            } else if (upperSql.startsWith("SHOW QUERIES")) {
+                return QueryManager.showForAPI(user);
+            } else if (QueryManager.isKill(upperSql)) {
+                return QueryManager.handleForAPI(sql, user);
+            } else if (upperSql.startsWith("SHOW QUOTAS")) {
+                return QuotaManager.showForAPI(user);
+            } else if (upperSql.startsWith("SHOW WORKLOADS")) {
+                return WorkloadScheduler.showForAPI();
+            } else if (upperSql.startsWith("SHOW MAILBOXES")) {
+                return TableWriter.showForAPI(user);
+            } else if (upperSql.matches("(?s)^(CREATE|REFRESH|DROP)\\s+MATERIALIZED\\s+VIEW\\b.*")) {
+                return MaterializedViewManager.handleForAPI(sql, user);
+            } else if (upperSql.matches("(?s)^((CREATE|DROP)\\s+ROLLUP|SHOW\\s+ROLLUPS)\\b.*")) {
+                return RollupManager.handleForAPI(sql, user);
+            } else if (upperSql.matches("(?s)^(DECLARE|FETCH|CLOSE)\\b.*")) {
+                return CursorManager.handleForAPI(sql, user);
+            }
+            return null;
+        }
+
+        static String bearerToken(HttpExchange exchange) {
+            String header = exchange.getRequestHeaders().getFirst("Authorization");
+            if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) return null;
+            return header.substring(7).trim();
+        }
+
+        static void sendResponse(HttpExchange exchange, int statusCode, String responseBody, Consumer<String> logger) throws IOException {
             exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
             byte[] responseBytes = responseBody.getBytes(StandardCharsets.UTF_8);
             exchange.sendResponseHeaders(statusCode, responseBytes.length);
@@ -155,10 +261,47 @@ public class NJSQLServer {
             }
         }
 
-        private void sendError(HttpExchange exchange, int statusCode, String message, Consumer<String> logger) throws IOException {
+        static void sendError(HttpExchange exchange, int statusCode, String message, Consumer<String> logger) throws IOException {
             NsonObject error = new NsonObject().put("error", message);
             sendResponse(exchange, statusCode, error.toString(2), logger);
             logger.accept("\u001B[31m[API Error] \u001B[0m" + message);
         }
     }
-}
\ No newline at end of file
+
+    // POST /login {username, password} -> {token, expires_at}: các request /query sau chỉ cần gửi token
+    static class LoginHandler implements HttpHandler {
+        private final Consumer<String> logger;
+
+        public LoginHandler(Consumer<String> logger) {
+            this.logger = logger;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "*");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
+
+            if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                NsonFileHandler.sendError(exchange, 405, "Only POST method supported", logger);
+                return;
+            }
+
+            try {
+                NsonObject request = NsonObject.parse(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+                NsonObject response = SessionTokens.login(request.getString("username"), request.getString("password"));
+                if (response.containsKey("error")) {
+                    NsonFileHandler.sendError(exchange, 401, response.getString("error"), logger);
+                } else {
+                    NsonFileHandler.sendResponse(exchange, 200, response.toString(2), logger);
+                }
+            } catch (Exception e) {
+                NsonFileHandler.sendError(exchange, 500, "Login error: " + e.getMessage(), logger);
+            }
+        }
+    }
+}
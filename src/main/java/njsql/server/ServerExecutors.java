@@ -0,0 +1,175 @@
+package njsql.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import njsql.core.NJSQLConfig;
+import njsql.core.WorkloadScheduler;
+import njsql.nson.NsonObject;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor và giới hạn request dùng chung cho REST server và share server.
+ * Mặc định mỗi request chạy trên một virtual thread (chờ đọc file/khóa không chiếm platform thread),
+ * -Dnjsql.server.executor=pool chuyển sang pool platform thread cố định có hàng đợi giới hạn.
+ * Request tới các bảng khác nhau chạy song song. FileLock của handler chỉ chặn process khác; các lệnh ghi cùng
+ * bảng trong process được xếp tuần tự bởi TableLockManager (hoặc mailbox của TableWriter ở chế độ actor).
+ * Trên virtual thread JVM không đo được byte cấp phát, EXPLAIN ANALYZE trả alloc_bytes = null; cần số này thì dùng pool.
+ */
+public final class ServerExecutors {
+
+    private ServerExecutors() {}
+
+    public static ExecutorService newExecutor(String name) {
+        if ("pool".equalsIgnoreCase(NJSQLConfig.SERVER_EXECUTOR)) {
+            AtomicInteger seq = new AtomicInteger();
+            int threads = Math.max(1, NJSQLConfig.SERVER_POOL_THREADS);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, NJSQLConfig.SERVER_POOL_QUEUE)),
+                    r -> {
+                        Thread t = new Thread(r, name + "-" + seq.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    public static String describe() {
+        return "pool".equalsIgnoreCase(NJSQLConfig.SERVER_EXECUTOR)
+                ? "pool of " + Math.max(1, NJSQLConfig.SERVER_POOL_THREADS) + " threads"
+                : "virtual threads";
+    }
+
+    /**
+     * Bọc handler: body quá maxBodyBytes -> 413, quá SERVER_MAX_CONCURRENT_REQUESTS request đang chạy
+     * thì chờ tối đa SERVER_ADMISSION_WAIT_MS rồi trả 503 (Retry-After) thay vì xếp hàng vô hạn.
+     */
+    public static HttpHandler limit(HttpHandler handler, Semaphore permits, long maxBodyBytes) {
+        return exchange -> {
+            long length = contentLength(exchange);
+            if (length > maxBodyBytes) {
+                reject(exchange, 413, "Request body exceeds " + maxBodyBytes + " bytes");
+                return;
+            }
+            if (length < 0) {
+                // Chunked: không biết trước độ dài, chặn khi đọc
+                exchange.setStreams(new BoundedInputStream(exchange.getRequestBody(), maxBodyBytes), null);
+            }
+
+            boolean admitted;
+            try {
+                admitted = permits.tryAcquire(NJSQLConfig.SERVER_ADMISSION_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+            if (!admitted) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                reject(exchange, 503, "Server busy, retry later");
+                return;
+            }
+            try {
+                handler.handle(exchange);
+            } finally {
+                permits.release();
+            }
+        };
+    }
+
+    // Chạy handler trong suất của một lớp tải (share server: clone/push là replication, nhường interactive)
+    public static HttpHandler scheduled(WorkloadScheduler.WorkloadClass workload, HttpHandler handler) {
+        return exchange -> {
+            try {
+                WorkloadScheduler.run(workload, () -> {
+                    handler.handle(exchange);
+                    return null;
+                });
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        };
+    }
+
+    public static Semaphore requestPermits() {
+        return new Semaphore(Math.max(1, NJSQLConfig.SERVER_MAX_CONCURRENT_REQUESTS));
+    }
+
+    // Dừng nhận request mới, cho request đang chạy tối đa delaySeconds rồi tắt executor
+    public static void shutdown(HttpServer server, ExecutorService executor, int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(delaySeconds, TimeUnit.SECONDS)) executor.shutdownNow();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long contentLength(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (header == null) return -1;
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void reject(HttpExchange exchange, int statusCode, String message) throws IOException {
+        byte[] bytes = new NsonObject().put("error", message).toString(2).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+        private final long limit;
+        private long read;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        private void count(long n) throws IOException {
+            read += n;
+            if (read > limit) throw new IOException("Request body exceeds " + limit + " bytes");
+        }
+    }
+}
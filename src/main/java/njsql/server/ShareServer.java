@@ -5,6 +5,8 @@ import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import njsql.core.UserManager;
 import njsql.core.CommitManager;
+import njsql.core.NJSQLConfig;
+import njsql.core.WorkloadScheduler;
 import njsql.utils.FileUtils;
 import njsql.nson.NsonObject;
 import njsql.nson.NsonArray;
@@ -14,34 +16,41 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 public class ShareServer {
+    private static final WorkloadScheduler.WorkloadClass REPLICATION = WorkloadScheduler.WorkloadClass.REPLICATION;
     private static HttpServer server;
+    private static ExecutorService executor;
     private static Consumer<String> logger;
 
     public static void start(Consumer<String> logger) throws IOException {
         ShareServer.logger = logger;
         int port = 1201;
-        server = HttpServer.create(new InetSocketAddress("0.0.0.0", port), 0);
+        server = HttpServer.create(new InetSocketAddress("0.0.0.0", port), NJSQLConfig.SERVER_BACKLOG);
 
         String ip = InetAddress.getLocalHost().getHostAddress();
         logger.accept("\u001B[36m Sharing server running on \u001B[33mhttp://localhost:" + port + "\u001B[0m or \u001B[33mhttp://" + ip + ":" + port + "\u001B[0m");
         logger.accept(" Enter \u001B[33m/help\u001B[0m for a list of commands.");
 
-        server.createContext("/clone", new CloneHandler());
-        server.createContext("/push", new PushHandler());
-        server.createContext("/connect", new ConnectHandler());
-        server.setExecutor(null);
+        Semaphore permits = ServerExecutors.requestPermits();
+        // Clone/push đọc ghi cả database: chạy như replication để không tranh luồng và đĩa với query interactive
+        server.createContext("/clone", ServerExecutors.limit(ServerExecutors.scheduled(REPLICATION, new CloneHandler()), permits, NJSQLConfig.SHARE_MAX_BODY_BYTES));
+        server.createContext("/push", ServerExecutors.limit(ServerExecutors.scheduled(REPLICATION, new PushHandler()), permits, NJSQLConfig.SHARE_MAX_BODY_BYTES));
+        server.createContext("/connect", ServerExecutors.limit(new ConnectHandler(), permits, NJSQLConfig.SHARE_MAX_BODY_BYTES));
+        executor = ServerExecutors.newExecutor("njsql-share");
+        server.setExecutor(executor);
         server.start();
     }
 
     public static void stop() {
         if (server != null) {
-            server.stop(0);
+            ServerExecutors.shutdown(server, executor, 0);
             logger.accept("\u001B[33m- Sharing server stopped.\u001B[0m");
         }
     }
@@ -103,9 +112,13 @@ public class ShareServer {
                             try {
                                 String relativePath = Paths.get(dbPath).relativize(path).toString();
                                 String content = FileUtils.readFileUtf8(path.toString());
+                                WorkloadScheduler.throttleIo(REPLICATION, content.length());
                                 files.put(relativePath.replace("\\", "/"), content);
                             } catch (IOException e) {
                                 throw new RuntimeException("Error reading file: " + path, e);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new RuntimeException("Clone interrupted", e);
                             }
                         });
 
@@ -129,6 +142,7 @@ public class ShareServer {
         public void handle(HttpExchange exchange) throws IOException {
             try {
                 String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                WorkloadScheduler.throttleIo(REPLICATION, body.length());
                 logger.accept("DEBUG: Push request body: " + body);
                 NsonObject request = NsonObject.parse(body);
                 String username = request.getString("username");